@@ -111,6 +111,9 @@ CREATE TABLE `pms_product` (
     INDEX `idx_status` (`status`),
     INDEX `idx_price` (`price`),
     INDEX `idx_category` (`category`),
+    INDEX `idx_status_created` (`status`, `created_at`, `id`),
+    -- ES 不可用时的降级搜索：ngram 分词（默认 2-gram）的全文索引，中文无需空格分词
+    FULLTEXT INDEX `ft_name_description` (`name`, `description`) WITH PARSER ngram,
     CONSTRAINT `fk_product_user` FOREIGN KEY (`user_id`) REFERENCES `users`(`id`) ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='Products table';
 
@@ -185,7 +188,8 @@ CREATE TABLE `orders` (
                           `updated_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
                           PRIMARY KEY (`id`),
                           FOREIGN KEY (`user_id`) REFERENCES `users`(`id`),
-                          INDEX `idx_status_expire` (`status`, `expire_time`)
+                          INDEX `idx_status_expire` (`status`, `expire_time`),
+                          INDEX `idx_user_status_expire` (`user_id`, `status`, `expire_time`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 -- 订单项表
@@ -214,6 +218,21 @@ CREATE TABLE `transactions` (
                                 FOREIGN KEY (`order_id`) REFERENCES `orders`(`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+-- 领域事件发件箱表（与业务变更同一事务写入，由 OutboxRelay 批量投递到 RabbitMQ 后删除）
+CREATE TABLE `event_outbox` (
+                                `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '自增ID（投递顺序）',
+                                `event_id` CHAR(36) NOT NULL COMMENT '事件ID（消息ID，消费端幂等键）',
+                                `exchange` VARCHAR(100) NOT NULL COMMENT '目标交换机',
+                                `routing_key` VARCHAR(100) NOT NULL COMMENT '路由键',
+                                `event_type` VARCHAR(200) NOT NULL COMMENT '事件类型（消息 __TypeId__）',
+                                `payload` TEXT NOT NULL COMMENT '事件 JSON',
+                                `attempts` INT NOT NULL DEFAULT 0 COMMENT '投递尝试次数',
+                                `claimed_until` DATETIME(3) NULL COMMENT '投递租约到期时间（认领后、确认前不被其他投递线程选中）',
+                                `created_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+                                PRIMARY KEY (`id`),
+                                UNIQUE INDEX `uk_event_id` (`event_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='领域事件发件箱';
+
 -- 砍价活动表
 CREATE TABLE `bargain_activity` (
     `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '砍价活动ID',
@@ -0,0 +1,12 @@
+-- 已有数据库升级：商品名称/描述的 ngram 全文索引，关键词搜索与 ES 降级搜索依赖它（init.sql 只在新建数据卷时执行）
+-- 可重复执行；用法：mysql -uroot -p trade < scripts/migrate-fulltext-index.sql
+-- 建全文索引期间 pms_product 可读不可写（InnoDB 添加 FULLTEXT 索引不支持并发 DML），大表请在低峰期执行
+
+SET @ddl = IF(
+    (SELECT COUNT(*) FROM information_schema.STATISTICS
+     WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'pms_product' AND INDEX_NAME = 'ft_name_description') = 0,
+    'ALTER TABLE `pms_product` ADD FULLTEXT INDEX `ft_name_description` (`name`, `description`) WITH PARSER ngram',
+    'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
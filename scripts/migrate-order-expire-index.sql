@@ -0,0 +1,12 @@
+-- 已有数据库升级：下单路径的过期订单检查（findExpiredPendingIdsByUserId）依赖的 (user_id, status, expire_time) 索引
+-- init.sql 只在新建数据卷时执行；没有这个索引时该检查退化为 idx_status_expire 范围扫描或全表扫描
+-- 可重复执行；用法：mysql -uroot -p trade < scripts/migrate-order-expire-index.sql
+
+SET @ddl = IF(
+    (SELECT COUNT(*) FROM information_schema.STATISTICS
+     WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'orders' AND INDEX_NAME = 'idx_user_status_expire') = 0,
+    'ALTER TABLE `orders` ADD INDEX `idx_user_status_expire` (`user_id`, `status`, `expire_time`)',
+    'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
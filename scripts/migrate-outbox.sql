@@ -0,0 +1,29 @@
+-- 已有数据库升级：领域事件发件箱（init.sql 只在新建数据卷时执行）
+-- 没有这张表时，支付/取消/过期/完成订单和发布商品的事务都会在写发件箱时失败回滚，部署新版本前先执行
+-- 可重复执行；用法：mysql -uroot -p trade < scripts/migrate-outbox.sql
+
+CREATE TABLE IF NOT EXISTS `event_outbox` (
+                                `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '自增ID（投递顺序）',
+                                `event_id` CHAR(36) NOT NULL COMMENT '事件ID（消息ID，消费端幂等键）',
+                                `exchange` VARCHAR(100) NOT NULL COMMENT '目标交换机',
+                                `routing_key` VARCHAR(100) NOT NULL COMMENT '路由键',
+                                `event_type` VARCHAR(200) NOT NULL COMMENT '事件类型（消息 __TypeId__）',
+                                `payload` TEXT NOT NULL COMMENT '事件 JSON',
+                                `attempts` INT NOT NULL DEFAULT 0 COMMENT '投递尝试次数',
+                                `claimed_until` DATETIME(3) NULL COMMENT '投递租约到期时间（认领后、确认前不被其他投递线程选中）',
+                                `created_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+                                PRIMARY KEY (`id`),
+                                UNIQUE INDEX `uk_event_id` (`event_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='领域事件发件箱';
+
+-- 早期版本建出的发件箱表没有投递租约列
+SET @ddl = IF(
+    (SELECT COUNT(*) FROM information_schema.COLUMNS
+     WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'event_outbox' AND COLUMN_NAME = 'claimed_until') = 0,
+    'ALTER TABLE `event_outbox` ADD COLUMN `claimed_until` DATETIME(3) NULL COMMENT ''投递租约到期时间（认领后、确认前不被其他投递线程选中）'' AFTER `attempts`',
+    'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+ALTER TABLE `event_outbox` MODIFY COLUMN `attempts` INT NOT NULL DEFAULT 0 COMMENT '投递尝试次数';
@@ -0,0 +1,12 @@
+-- 已有数据库升级：商品列表按 (created_at, id) 游标分页（selectPageWithFilters）依赖的 (status, created_at, id) 索引
+-- init.sql 只在新建数据卷时执行；没有这个索引时每一页都要对在售商品排序
+-- 可重复执行；用法：mysql -uroot -p trade < scripts/migrate-product-listing-index.sql
+
+SET @ddl = IF(
+    (SELECT COUNT(*) FROM information_schema.STATISTICS
+     WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'pms_product' AND INDEX_NAME = 'idx_status_created') = 0,
+    'ALTER TABLE `pms_product` ADD INDEX `idx_status_created` (`status`, `created_at`, `id`)',
+    'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
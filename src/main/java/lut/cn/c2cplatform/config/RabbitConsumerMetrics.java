@@ -0,0 +1,83 @@
+package lut.cn.c2cplatform.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监听容器的 advice：按队列记录消费延迟和处理耗时
+ *
+ * - rabbitmq.consumer.lag：消息时间戳（发布时写入）到开始处理的间隔，积压时会持续升高
+ * - rabbitmq.consumer.processing：一次监听调用（单条消息或一批）的耗时，含重试
+ */
+public class RabbitConsumerMetrics implements MethodInterceptor {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> lagTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> processingTimers = new ConcurrentHashMap<>();
+
+    public RabbitConsumerMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 拦截 ContainerDelegate.invokeListener(channel, data)，data 是单条 Message 或批量的 List&lt;Message&gt;
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object data = invocation.getArguments()[1];
+        String queue = null;
+        long now = System.currentTimeMillis();
+        if (data instanceof Message message) {
+            queue = recordLag(message.getMessageProperties(), now);
+        } else if (data instanceof List<?> messages) {
+            for (Object element : messages) {
+                if (element instanceof Message message) {
+                    queue = recordLag(message.getMessageProperties(), now);
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        String result = "success";
+        try {
+            return invocation.proceed();
+        } catch (Throwable t) {
+            result = "failure";
+            throw t;
+        } finally {
+            processingTimer(queue != null ? queue : "unknown", result)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String recordLag(MessageProperties properties, long now) {
+        String queue = properties.getConsumerQueue();
+        Date timestamp = properties.getTimestamp();
+        if (queue != null && timestamp != null) {
+            lagTimers.computeIfAbsent(queue, q -> Timer.builder("rabbitmq.consumer.lag")
+                            .tag("queue", q)
+                            .description("Publish-to-consume delay of RabbitMQ messages")
+                            .register(meterRegistry))
+                    .record(Math.max(0L, now - timestamp.getTime()), TimeUnit.MILLISECONDS);
+        }
+        return queue;
+    }
+
+    private Timer processingTimer(String queue, String result) {
+        return processingTimers.computeIfAbsent(queue + '|' + result, key -> Timer.builder("rabbitmq.consumer.processing")
+                .tag("queue", queue)
+                .tag("result", result)
+                .description("Time spent in one RabbitMQ listener invocation")
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,63 @@
+package lut.cn.c2cplatform.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 各队列消费者的并发、预取和批量设置
+ * rabbitmq.consumer.queues.<name>.* 覆盖单个队列，未设置的项取 rabbitmq.consumer.defaults.*
+ */
+@Configuration
+@ConfigurationProperties(prefix = "rabbitmq.consumer")
+@Data
+public class RabbitConsumerProperties {
+
+    // 监听线程使用虚拟线程（需要 Java 21 运行时，否则退回平台线程）
+    private boolean virtualThreads = false;
+
+    private Settings defaults = new Settings(1, 4, 50, 1, 1000L);
+
+    private Map<String, Settings> queues = new HashMap<>();
+
+    /**
+     * 队列的最终设置：单独配置的项优先，其余取默认值
+     */
+    public Settings settingsFor(String name) {
+        Settings own = queues.get(name);
+        if (own == null) {
+            return defaults;
+        }
+        return new Settings(
+                own.getConcurrency() != null ? own.getConcurrency() : defaults.getConcurrency(),
+                own.getMaxConcurrency() != null ? own.getMaxConcurrency() : defaults.getMaxConcurrency(),
+                own.getPrefetch() != null ? own.getPrefetch() : defaults.getPrefetch(),
+                own.getBatchSize() != null ? own.getBatchSize() : defaults.getBatchSize(),
+                own.getReceiveTimeoutMs() != null ? own.getReceiveTimeoutMs() : defaults.getReceiveTimeoutMs());
+    }
+
+    @Data
+    public static class Settings {
+        private Integer concurrency;
+        private Integer maxConcurrency;
+        private Integer prefetch;
+        // 批量监听器一次交付的最大消息数
+        private Integer batchSize;
+        // 批量未攒满时最多等待的时间
+        private Long receiveTimeoutMs;
+
+        public Settings() {
+        }
+
+        public Settings(Integer concurrency, Integer maxConcurrency, Integer prefetch, Integer batchSize, Long receiveTimeoutMs) {
+            this.concurrency = concurrency;
+            this.maxConcurrency = maxConcurrency;
+            this.prefetch = prefetch;
+            this.batchSize = batchSize;
+            this.receiveTimeoutMs = receiveTimeoutMs;
+        }
+    }
+}
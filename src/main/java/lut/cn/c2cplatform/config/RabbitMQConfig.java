@@ -1,12 +1,23 @@
 package lut.cn.c2cplatform.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aopalliance.aop.Advice;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 
 /**
  * RabbitMQ Configuration for Distributed Message Queue
@@ -43,6 +54,12 @@ public class RabbitMQConfig {
     public static final String PRODUCT_STOCK_LOW_QUEUE = "product.stock.low.queue";
     public static final String PRODUCT_STOCK_LOW_ROUTING_KEY = "product.stock.low";
 
+    @Autowired
+    private RabbitConsumerProperties consumerProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     /**
      * JSON Message Converter
      */
@@ -58,9 +75,124 @@ public class RabbitMQConfig {
     public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
         RabbitTemplate template = new RabbitTemplate(connectionFactory);
         template.setMessageConverter(jsonMessageConverter());
+        // 无法路由的消息退回给发送方（spring.rabbitmq.template.mandatory 对自定义的模板不生效），发件箱据此判定投递失败
+        template.setMandatory(true);
+        // 发布时间戳，消费端据此统计消费延迟（发件箱事件已带写入时间，不覆盖）
+        template.setBeforePublishPostProcessors(message -> {
+            if (message.getMessageProperties().getTimestamp() == null) {
+                message.getMessageProperties().setTimestamp(new Date());
+            }
+            return message;
+        });
         return template;
     }
 
+    // ============ Listener Container Factories ============
+    // 每个队列一个容器工厂，并发、预取、批量大小取自 rabbitmq.consumer.queues.<name>.*
+
+    @Bean
+    public RabbitConsumerMetrics rabbitConsumerMetrics() {
+        return new RabbitConsumerMetrics(meterRegistry);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory orderPaidContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        return containerFactory(configurer, connectionFactory, "order-paid", false);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory orderCanceledContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        return containerFactory(configurer, connectionFactory, "order-canceled", false);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory orderCompletedContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        return containerFactory(configurer, connectionFactory, "order-completed", false);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory productCreatedContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        return containerFactory(configurer, connectionFactory, "product-created", false);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory productStockLowContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        return containerFactory(configurer, connectionFactory, "product-stock-low", false);
+    }
+
+    /**
+     * 推荐更新队列每次用户交互一条消息，用批量监听器一次处理一批
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory recommendationUpdateContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        return containerFactory(configurer, connectionFactory, "recommendation-update", true);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory systemMessageContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        return containerFactory(configurer, connectionFactory, "system-message", false);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory emailNotificationContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        return containerFactory(configurer, connectionFactory, "email-notification", false);
+    }
+
+    /**
+     * 先套用 spring.rabbitmq.listener.simple.*（确认模式、重试、消息转换器），再覆盖该队列的并发和预取
+     * 批量工厂不挂重试 advice：一批中单条失败由监听方法自己处理，不整批重投
+     */
+    private SimpleRabbitListenerContainerFactory containerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                  ConnectionFactory connectionFactory,
+                                                                  String name, boolean batch) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+
+        RabbitConsumerProperties.Settings settings = consumerProperties.settingsFor(name);
+        factory.setConcurrentConsumers(settings.getConcurrency());
+        factory.setMaxConcurrentConsumers(Math.max(settings.getConcurrency(), settings.getMaxConcurrency()));
+
+        List<Advice> adviceChain = new ArrayList<>();
+        adviceChain.add(rabbitConsumerMetrics());
+        if (batch) {
+            factory.setBatchListener(true);
+            factory.setConsumerBatchEnabled(true);
+            factory.setBatchSize(settings.getBatchSize());
+            factory.setReceiveTimeout(settings.getReceiveTimeoutMs());
+            // 预取至少覆盖一整批，否则批次永远攒不满
+            factory.setPrefetchCount(Math.max(settings.getPrefetch(), settings.getBatchSize()));
+        } else {
+            factory.setPrefetchCount(settings.getPrefetch());
+            if (factory.getAdviceChain() != null) {
+                adviceChain.addAll(Arrays.asList(factory.getAdviceChain()));
+            }
+        }
+        factory.setAdviceChain(adviceChain.toArray(new Advice[0]));
+
+        factory.setTaskExecutor(listenerExecutor(name));
+        return factory;
+    }
+
+    private SimpleAsyncTaskExecutor listenerExecutor(String name) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("rabbit-" + name + "-");
+        if (consumerProperties.isVirtualThreads()) {
+            try {
+                executor.setVirtualThreads(true);
+            } catch (UnsupportedOperationException e) {
+                System.err.println("Virtual threads need Java 21, " + name + " listeners use platform threads");
+            }
+        }
+        return executor;
+    }
+
     // ============ Order Exchange and Queues ============
 
     @Bean
@@ -1,9 +1,12 @@
 package lut.cn.c2cplatform.config;
 
+import lut.cn.c2cplatform.service.ProductCacheService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -31,5 +34,22 @@ public class RedisConfig {
         template.afterPropertiesSet();
         return template;
     }
-}
 
+    /**
+     * 订阅商品缓存失效广播，清理本节点的 L1 缓存
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       ProductCacheService productCacheService) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener((message, pattern) -> {
+            try {
+                productCacheService.evictLocal(Long.valueOf(new String(message.getBody())));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid product cache invalidation message: " + e.getMessage());
+            }
+        }, new ChannelTopic(ProductCacheService.INVALIDATION_CHANNEL));
+        return container;
+    }
+}
@@ -53,6 +53,8 @@ public class SecurityConfig {
                .requestMatchers("/api/products").permitAll() // 允许所有用户查看商品列表
                .requestMatchers("/api/products/*").permitAll() // 允许所有用户查看商品详情
                .requestMatchers("/api/products/search").permitAll() // 允许所有用户搜索商品
+               .requestMatchers("/api/products/search/facets").permitAll() // 允许所有用户获取分面搜索结果
+               .requestMatchers("/api/search/suggest").permitAll() // 允许所有用户获取搜索联想
                .requestMatchers("/api/chat/history/**").authenticated()
                .requestMatchers("/api/chat/read/**").authenticated()
                .requestMatchers("/api/admin/**").hasRole("ADMIN")
@@ -82,6 +84,7 @@ public class SecurityConfig {
         configuration.setAllowedOriginPatterns(List.of("*"));
         configuration.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS"));
         configuration.setAllowedHeaders(List.of("*"));
+        configuration.setExposedHeaders(List.of("X-Next-Cursor"));
         configuration.setAllowCredentials(true);
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
         // Apply CORS to all endpoints including /ws/**
@@ -3,6 +3,7 @@ package lut.cn.c2cplatform.controller;
 import lut.cn.c2cplatform.entity.User;
 import lut.cn.c2cplatform.mapper.UserMapper;
 import lut.cn.c2cplatform.service.FileStorageService;
+import lut.cn.c2cplatform.service.ProductCacheService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -22,6 +23,9 @@ public class AvatarController {
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private ProductCacheService productCacheService;
+
     /**
      * 上传头像文件
      */
@@ -43,6 +47,7 @@ public class AvatarController {
             // 更新用户头像URL
             user.setAvatarUrl(avatarUrl);
             userMapper.update(user);
+            productCacheService.invalidateSeller(user.getId());
 
             Map<String, String> response = new HashMap<>();
             response.put("avatarUrl", avatarUrl);
@@ -77,6 +82,7 @@ public class AvatarController {
             // 更新用户头像URL
             user.setAvatarUrl(avatarUrl);
             userMapper.update(user);
+            productCacheService.invalidateSeller(user.getId());
 
             Map<String, String> response = new HashMap<>();
             response.put("avatarUrl", avatarUrl);
@@ -104,6 +110,7 @@ public class AvatarController {
             // 清除头像URL，使用默认头像
             user.setAvatarUrl(null);
             userMapper.update(user);
+            productCacheService.invalidateSeller(user.getId());
 
             Map<String, String> response = new HashMap<>();
             response.put("message", "已重置为默认头像");
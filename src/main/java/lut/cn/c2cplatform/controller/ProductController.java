@@ -2,20 +2,29 @@ package lut.cn.c2cplatform.controller;
 
 import lut.cn.c2cplatform.dto.ProductCreateDTO;
 import lut.cn.c2cplatform.dto.ProductDTO;
+import lut.cn.c2cplatform.dto.ProductPageCursor;
 import lut.cn.c2cplatform.entity.Product;
 import lut.cn.c2cplatform.service.ProductService;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lut.cn.c2cplatform.security.UserDetailsImpl;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import lut.cn.c2cplatform.service.SearchService;
+import lut.cn.c2cplatform.dto.SearchCursor;
+import lut.cn.c2cplatform.dto.SearchPage;
 import lut.cn.c2cplatform.dto.SearchRequestDTO;
 import lut.cn.c2cplatform.document.ProductDocument;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
@@ -32,6 +41,12 @@ public class ProductController {
     @Autowired
     private ObjectMapper objectMapper;
 
+    // 单页最大条数（也是关键词搜索不带 size 时的默认条数）
+    private static final int MAX_PAGE_SIZE = 100;
+    // 流式输出全部商品时每批读取的条数
+    private static final int STREAM_CHUNK_SIZE = 200;
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     @PostMapping
     @PreAuthorize("isAuthenticated()")
     public ResponseEntity<?> createProduct(
@@ -82,14 +97,25 @@ public class ProductController {
         }
     }
 
+    /**
+     * 商品列表
+     * - 有关键词、不带 page：走 Elasticsearch 游标分页（search_after + PIT），下一页游标放在 X-Next-Cursor 响应头；
+     *   ES 不可用时降级到 MySQL 全文索引
+     * - 有关键词、带 page：兼容旧的 page/size 分页
+     * - 无关键词、带 size：按 (created_at, id) 游标分页返回一页，下一页游标放在 X-Next-Cursor 响应头
+     * - 无关键词、不带 size：按游标分批读取数据库，边读边写出 JSON 数组，内存占用与商品总量无关
+     */
     @GetMapping
-    public ResponseEntity<List<ProductDTO>> listProducts(
+    public ResponseEntity<?> listProducts(
             @RequestParam(required = false) String keyword,
             @RequestParam(required = false) java.math.BigDecimal minPrice,
             @RequestParam(required = false) java.math.BigDecimal maxPrice,
             @RequestParam(required = false) Integer conditionLevel,
             @RequestParam(required = false) String location,
-            @RequestParam(required = false) String categories) {
+            @RequestParam(required = false) String categories,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer size) {
         try {
             List<ProductDTO> productDTOs;
 
@@ -102,52 +128,67 @@ public class ProductController {
                 searchRequest.setMaxPrice(maxPrice);
                 searchRequest.setConditionLevel(conditionLevel);
                 searchRequest.setLocation(location);
-                searchRequest.setCategory(categories); // TODO: Add category support to
-                // SearchService
-                searchRequest.setPage(0);
-                searchRequest.setSize(100);
-
-                List<ProductDocument> searchResults = searchService.searchProducts(searchRequest);
-
-                if (searchResults.isEmpty()) {
-                    return ResponseEntity.ok(new ArrayList<>());
+                searchRequest.setCategory(categories);
+                searchRequest.setPage(page != null ? Math.max(page, 0) : 0);
+                searchRequest.setSize(size != null ? clampPageSize(size) : MAX_PAGE_SIZE);
+
+                if (page != null) {
+                    // 兼容 page/size 分页（from+size，页码越深代价越高）
+                    List<ProductDocument> searchResults = searchService.trySearchProducts(searchRequest);
+                    if (searchResults == null) {
+                        // ES 不可用：降级到 MySQL ngram 全文索引，一次查询返回完整结果
+                        return ResponseEntity.ok(productService.searchByFulltext(searchRequest,
+                                searchRequest.getPage() * searchRequest.getSize()));
+                    }
+                    return ResponseEntity.ok(hydrateSearchResults(searchResults));
                 }
 
-                // Extract IDs
-                List<Long> productIds = searchResults.stream()
-                        .map(ProductDocument::getProductId)
-                        .collect(Collectors.toList());
-
-                List<Product> products = new ArrayList<>();
-                for (Long id : productIds) {
-                    Product p = productService.getProductById(id);
-                    if (p != null) {
-                        products.add(p);
+                // 游标分页：search_after + PIT，下一页游标放在 X-Next-Cursor 响应头
+                SearchCursor afterHit;
+                try {
+                    afterHit = SearchCursor.decode(cursor);
+                } catch (IllegalArgumentException e) {
+                    return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+                }
+                HttpHeaders headers = new HttpHeaders();
+                SearchPage result = searchService.trySearchPage(searchRequest, afterHit);
+                if (result == null) {
+                    int offset = afterHit != null ? afterHit.getOffset() : 0;
+                    productDTOs = productService.searchByFulltext(searchRequest, offset);
+                    if (productDTOs.size() == searchRequest.getSize()) {
+                        headers.set(NEXT_CURSOR_HEADER,
+                                new SearchCursor(null, 0, null, offset + productDTOs.size()).encode());
                     }
+                    return ResponseEntity.ok().headers(headers).body(productDTOs);
                 }
+                if (result.getNext() != null) {
+                    headers.set(NEXT_CURSOR_HEADER, result.getNext().encode());
+                }
+                return ResponseEntity.ok().headers(headers).body(hydrateSearchResults(result.getHits()));
+            }
 
-                productDTOs = productService.convertToDTOList(products);
-
-                // Overlay highlighting
-                Map<Long, ProductDocument> docMap = searchResults.stream()
-                        .collect(Collectors.toMap(ProductDocument::getProductId, Function.identity()));
+            // 没有关键词时，使用数据库游标分页查询（支持所有筛选条件）
+            ProductPageCursor after;
+            try {
+                after = ProductPageCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+            }
 
-                for (ProductDTO dto : productDTOs) {
-                    ProductDocument doc = docMap.get(dto.getId());
-                    if (doc != null) {
-                        dto.setHighlightedName(doc.getHighlightedName());
-                        dto.setHighlightedDescription(doc.getHighlightedDescription());
-                    }
+            if (size != null) {
+                int pageSize = clampPageSize(size);
+                List<Product> products = productService.listProductsPage(minPrice, maxPrice, conditionLevel,
+                        location, categories, after, pageSize);
+                HttpHeaders headers = new HttpHeaders();
+                if (products.size() == pageSize) {
+                    headers.set(NEXT_CURSOR_HEADER, ProductPageCursor.of(products.get(products.size() - 1)).encode());
                 }
-
-            } else {
-                // 没有关键词时，使用数据库查询（支持所有筛选条件）
-                List<Product> products = productService.listProductsWithFilters(keyword, minPrice, maxPrice,
-                        conditionLevel, location, categories);
-                productDTOs = productService.convertToDTOList(products);
+                return ResponseEntity.ok().headers(headers).body(productService.convertToDTOList(products));
             }
 
-            return ResponseEntity.ok(productDTOs);
+            StreamingResponseBody body = out -> streamProducts(out, minPrice, maxPrice, conditionLevel, location,
+                    categories, after);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
         } catch (Exception e) {
             // 不暴露详细错误信息给前端，只记录日志
             System.err.println("获取商品列表失败: " + e.getMessage());
@@ -156,6 +197,72 @@ public class ProductController {
         }
     }
 
+    /**
+     * 按 ES 命中顺序回填商品详情（一次联表查询），并覆盖高亮字段
+     */
+    private List<ProductDTO> hydrateSearchResults(List<ProductDocument> searchResults) {
+        if (searchResults.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Long> productIds = searchResults.stream()
+                .map(ProductDocument::getProductId)
+                .collect(Collectors.toList());
+
+        // 一次联表查询回填商品、卖家和媒体，保持ES相关度顺序
+        List<ProductDTO> productDTOs = productService.getProductDTOsByIds(productIds);
+
+        // Overlay highlighting
+        Map<Long, ProductDocument> docMap = searchResults.stream()
+                .collect(Collectors.toMap(ProductDocument::getProductId, Function.identity(), (a, b) -> a));
+
+        for (ProductDTO dto : productDTOs) {
+            ProductDocument doc = docMap.get(dto.getId());
+            if (doc != null) {
+                dto.setHighlightedName(doc.getHighlightedName());
+                dto.setHighlightedDescription(doc.getHighlightedDescription());
+            }
+        }
+        return productDTOs;
+    }
+
+    /**
+     * 按游标逐批读取商品并写出为 JSON 数组，每批写完即 flush，不在内存中累积整个结果集
+     */
+    private void streamProducts(OutputStream out, java.math.BigDecimal minPrice, java.math.BigDecimal maxPrice,
+            Integer conditionLevel, String location, String categories, ProductPageCursor after) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // 出错时 close 不能替我们补上 ']'：客户端必须收到不完整的 JSON，而不是一个被截断但格式正确的数组
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        try {
+            generator.writeStartArray();
+            ProductPageCursor cursor = after;
+            while (true) {
+                List<Product> chunk = productService.listProductsPage(minPrice, maxPrice, conditionLevel, location,
+                        categories, cursor, STREAM_CHUNK_SIZE);
+                for (ProductDTO dto : productService.convertToDTOList(chunk)) {
+                    generator.writeObject(dto);
+                }
+                generator.flush();
+                if (chunk.size() < STREAM_CHUNK_SIZE) {
+                    break;
+                }
+                cursor = ProductPageCursor.of(chunk.get(chunk.size() - 1));
+            }
+            generator.writeEndArray();
+        } catch (RuntimeException e) {
+            // 响应头已发送，只能记录日志并中断输出
+            System.err.println("流式输出商品列表失败: " + e.getMessage());
+            throw e;
+        } finally {
+            generator.close();
+        }
+    }
+
+    private static int clampPageSize(int size) {
+        return Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<?> getProductById(@PathVariable Long id) {
         try {
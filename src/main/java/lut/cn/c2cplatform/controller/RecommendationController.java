@@ -104,16 +104,12 @@ public class RecommendationController {
             List<Product> products = productMapper.selectByIds(similarIds);
 
             // Filter out unavailable products and convert to DTO
-            List<ProductDTO> productDTOs = products.stream()
+            // Media and seller info are loaded in batch by convertToDTOList
+            List<Product> available = products.stream()
                 .filter(p -> p.getStatus() == 1) // Only available products
-                .map(p -> {
-                    // Load full product with media
-                    Product fullProduct = productService.getProductById(p.getId());
-                    return fullProduct != null ? productService.convertToDTO(fullProduct) : null;
-                })
-                .filter(Objects::nonNull)
                 .limit(limit)
                 .collect(Collectors.toList());
+            List<ProductDTO> productDTOs = productService.convertToDTOList(available);
 
             // If too few results, supplement with category-based recommendations
             if (productDTOs.size() < limit / 2) {
@@ -208,15 +204,10 @@ public class RecommendationController {
         try {
             List<Product> products = productMapper.selectRecentProducts(limit * 2);
             Collections.shuffle(products);
-            return products.stream()
+            return productService.convertToDTOList(products.stream()
                 .filter(p -> p.getStatus() == 1)
                 .limit(limit)
-                .map(p -> {
-                    Product fullProduct = productService.getProductById(p.getId());
-                    return fullProduct != null ? productService.convertToDTO(fullProduct) : null;
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
         } catch (Exception e) {
             System.err.println("Failed to get popular products: " + e.getMessage());
             return Collections.emptyList();
@@ -243,15 +234,10 @@ public class RecommendationController {
 
             List<Product> similarProducts = productMapper.selectByCategory(product.getCategory());
 
-            return similarProducts.stream()
+            return productService.convertToDTOList(similarProducts.stream()
                 .filter(p -> !p.getId().equals(productId) && p.getStatus() == 1)
                 .limit(limit)
-                .map(p -> {
-                    Product fullProduct = productService.getProductById(p.getId());
-                    return fullProduct != null ? productService.convertToDTO(fullProduct) : null;
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
 
         } catch (Exception e) {
             System.err.println("Failed to get category-based products: " + e.getMessage());
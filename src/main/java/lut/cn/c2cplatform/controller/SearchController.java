@@ -2,7 +2,9 @@ package lut.cn.c2cplatform.controller;
 
 import lut.cn.c2cplatform.document.ProductDocument;
 import lut.cn.c2cplatform.dto.SearchRequestDTO;
+import lut.cn.c2cplatform.dto.SearchResultDTO;
 import lut.cn.c2cplatform.service.SearchService;
+import lut.cn.c2cplatform.service.SearchSuggestService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -10,12 +12,25 @@ import org.springframework.web.bind.annotation.*;
 import java.util.List;
 
 @RestController
-@RequestMapping("/api/products")
+@RequestMapping("/api")
 public class SearchController {
     @Autowired
     private SearchService searchService;
 
-    @GetMapping("/search")
+    @Autowired
+    private SearchSuggestService searchSuggestService;
+
+    /**
+     * 搜索联想：前端每次按键调用，只做前缀补全，不执行全文检索
+     */
+    @GetMapping("/search/suggest")
+    public ResponseEntity<List<String>> suggest(
+            @RequestParam(name = "q", required = false) String prefix,
+            @RequestParam(defaultValue = "10") Integer size) {
+        return ResponseEntity.ok(searchSuggestService.suggest(prefix, size));
+    }
+
+    @GetMapping("/products/search")
     public ResponseEntity<List<ProductDocument>> searchProducts(
             @RequestParam(required = false) String keyword,
             @RequestParam(required = false) String minPrice,
@@ -46,11 +61,36 @@ public class SearchController {
         }
     }
 
-    @PostMapping("/sync")
+    /**
+     * 分面搜索：一页命中加上分类、位置、成色和价格区间的计数，筛选栏的计数不再单独查询
+     */
+    @GetMapping("/products/search/facets")
+    public ResponseEntity<SearchResultDTO> searchWithFacets(
+            @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) java.math.BigDecimal minPrice,
+            @RequestParam(required = false) java.math.BigDecimal maxPrice,
+            @RequestParam(required = false) Integer conditionLevel,
+            @RequestParam(required = false) String location,
+            @RequestParam(required = false) String categories,
+            @RequestParam(defaultValue = "0") Integer page,
+            @RequestParam(defaultValue = "20") Integer size) {
+        SearchRequestDTO request = new SearchRequestDTO();
+        request.setKeyword(keyword);
+        request.setMinPrice(minPrice);
+        request.setMaxPrice(maxPrice);
+        request.setConditionLevel(conditionLevel);
+        request.setLocation(location);
+        request.setCategory(categories);
+        request.setPage(Math.max(page, 0));
+        request.setSize(Math.max(1, Math.min(size, 100)));
+        return ResponseEntity.ok(searchService.searchWithFacets(request));
+    }
+
+    @PostMapping("/products/sync")
     public ResponseEntity<String> syncAllProducts() {
         try {
-            searchService.syncAllProducts();
-            return ResponseEntity.ok("Successfully synced all products to Elasticsearch");
+            int synced = searchService.syncAllProducts();
+            return ResponseEntity.ok("Successfully synced " + synced + " products to Elasticsearch");
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Failed to sync products: " + e.getMessage());
         }
@@ -3,6 +3,7 @@ package lut.cn.c2cplatform.controller;
 import lut.cn.c2cplatform.entity.User;
 import lut.cn.c2cplatform.mapper.UserMapper;
 import lut.cn.c2cplatform.service.FileStorageService;
+import lut.cn.c2cplatform.service.ProductCacheService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -21,6 +22,9 @@ public class UserController {
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private ProductCacheService productCacheService;
+
     @Autowired
     private FileStorageService fileStorageService;
 
@@ -77,6 +81,7 @@ public class UserController {
             user.setAvatarUrl(avatarUrl);
             user.setUpdatedAt(java.time.Instant.now());
             userMapper.update(user);
+            productCacheService.invalidateSeller(user.getId());
 
             Map<String, String> response = new HashMap<>();
             response.put("avatarUrl", avatarUrl);
@@ -110,6 +115,7 @@ public class UserController {
             user.setUpdatedAt(java.time.Instant.now());
             user.setAvatarUrl(avatarUrl);
             userMapper.update(user);
+            productCacheService.invalidateSeller(user.getId());
 
             Map<String, String> response = new HashMap<>();
             response.put("avatarUrl", avatarUrl);
@@ -138,6 +144,7 @@ public class UserController {
             // 清除用户头像URL
             user.setAvatarUrl(null);
             userMapper.update(user);
+            productCacheService.invalidateSeller(user.getId());
 
             Map<String, String> response = new HashMap<>();
             response.put("message", "头像已重置为默认");
@@ -187,6 +194,7 @@ public class UserController {
             // 更新用户显示名称
             user.setDisplayName(newDisplayName);
             userMapper.update(user);
+            productCacheService.invalidateSeller(user.getId());
 
             Map<String, String> response = new HashMap<>();
             response.put("message", "用户名修改成功");
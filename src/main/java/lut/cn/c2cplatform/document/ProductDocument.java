@@ -1,9 +1,11 @@
 package lut.cn.c2cplatform.document;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.CompletionField;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.core.suggest.Completion;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -43,6 +45,10 @@ public class ProductDocument {
     @Field(type = FieldType.Keyword)
     private String category;
 
+    // 输入联想：商品名和分类的 completion 字段（前缀匹配走内存中的 FST）
+    @CompletionField(maxInputLength = 100)
+    private Completion suggest;
+
     // Highlighting fields (not stored in ES, just for transport)
     private String highlightedName;
     private String highlightedDescription;
@@ -136,6 +142,14 @@ public class ProductDocument {
         this.category = category;
     }
 
+    public Completion getSuggest() {
+        return suggest;
+    }
+
+    public void setSuggest(Completion suggest) {
+        this.suggest = suggest;
+    }
+
     public String getHighlightedName() {
         return highlightedName;
     }
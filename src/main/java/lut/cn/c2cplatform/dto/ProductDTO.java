@@ -5,6 +5,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 @Data
@@ -33,6 +34,42 @@ public class ProductDTO {
     private String highlightedName;
     private String highlightedDescription;
 
+    /**
+     * 深拷贝（缓存返回副本时使用），列表和媒体项都是新对象
+     */
+    public ProductDTO copy() {
+        ProductDTO copy = new ProductDTO();
+        copy.id = id;
+        copy.userId = userId;
+        copy.username = username;
+        copy.displayName = displayName;
+        copy.avatarUrl = avatarUrl;
+        copy.name = name;
+        copy.description = description;
+        copy.price = price;
+        copy.stock = stock;
+        copy.conditionLevel = conditionLevel;
+        copy.location = location;
+        copy.category = category;
+        copy.status = status;
+        copy.createTime = createTime;
+        copy.updateTime = updateTime;
+        copy.imageUrls = imageUrls != null ? new ArrayList<>(imageUrls) : null;
+        copy.videoUrls = videoUrls != null ? new ArrayList<>(videoUrls) : null;
+        copy.coverImage = coverImage;
+        if (media != null) {
+            copy.media = new ArrayList<>(media.size());
+            for (MediaItem item : media) {
+                copy.media.add(item != null
+                        ? new MediaItem(item.getId(), item.getUrl(), item.getMediaType(), item.getSortOrder())
+                        : null);
+            }
+        }
+        copy.highlightedName = highlightedName;
+        copy.highlightedDescription = highlightedDescription;
+        return copy;
+    }
+
     @Data
     @NoArgsConstructor
     @AllArgsConstructor
@@ -0,0 +1,48 @@
+package lut.cn.c2cplatform.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lut.cn.c2cplatform.entity.Product;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * 商品列表游标：记录上一页最后一条商品的 (createdAt, id)，
+ * 对外以 Base64 编码的不透明字符串传递
+ */
+@Data
+@AllArgsConstructor
+public class ProductPageCursor {
+    private LocalDateTime createdAt;
+    private Long id;
+
+    public static ProductPageCursor of(Product product) {
+        return new ProductPageCursor(product.getCreatedAt(), product.getId());
+    }
+
+    public String encode() {
+        String raw = createdAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标，空字符串返回 null（表示第一页）
+     *
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static ProductPageCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.lastIndexOf('|');
+            return new ProductPageCursor(LocalDateTime.parse(raw.substring(0, sep)),
+                    Long.valueOf(raw.substring(sep + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的分页游标: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package lut.cn.c2cplatform.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 关键词搜索游标：上一页最后一条命中的排序值 (score, productId)、PIT ID 和已返回的条数，
+ * 对外以 Base64 编码的不透明字符串传递
+ *
+ * 第一页不打开 PIT（多数搜索不会翻页），pitId 为 null；翻到第二页时才打开 PIT，之后的页都在同一快照上翻页。
+ * offset 只在 ES 不可用、降级到 MySQL 全文搜索时使用；降级期间生成的游标没有排序值（productId 为 null）。
+ */
+@Data
+@AllArgsConstructor
+public class SearchCursor {
+    private String pitId;
+    private double score;
+    private Long productId;
+    private int offset;
+
+    public String encode() {
+        String raw = (pitId != null ? pitId : "") + "|" + score + "|" + (productId != null ? productId : "") + "|" + offset;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标，空字符串返回 null（表示第一页）
+     *
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static SearchCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", -1);
+            if (parts.length != 4) {
+                throw new IllegalArgumentException();
+            }
+            return new SearchCursor(parts[0].isEmpty() ? null : parts[0], Double.parseDouble(parts[1]),
+                    parts[2].isEmpty() ? null : Long.valueOf(parts[2]), Integer.parseInt(parts[3]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的搜索游标: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package lut.cn.c2cplatform.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lut.cn.c2cplatform.document.ProductDocument;
+
+import java.util.List;
+
+/**
+ * 一页游标搜索结果，next 为 null 表示没有下一页
+ */
+@Data
+@AllArgsConstructor
+public class SearchPage {
+    private List<ProductDocument> hits;
+    private SearchCursor next;
+}
@@ -0,0 +1,30 @@
+package lut.cn.c2cplatform.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lut.cn.c2cplatform.document.ProductDocument;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分面搜索结果：一页命中 + 各筛选维度的计数
+ * facets 的键为 category / location / conditionLevel / price；
+ * price 为价格直方图，桶的 key 是区间下限，区间宽度为 priceInterval
+ */
+@Data
+public class SearchResultDTO {
+    private List<ProductDocument> products;
+    private long total;
+    private Map<String, List<FacetBucket>> facets;
+    private double priceInterval;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class FacetBucket {
+        private String key;
+        private long count;
+    }
+}
@@ -0,0 +1,18 @@
+package lut.cn.c2cplatform.entity;
+
+import lombok.Data;
+
+import java.util.Date;
+
+@Data
+public class OutboxEvent {
+    private Long id;
+    private String eventId;
+    private String exchange;
+    private String routingKey;
+    private String eventType;
+    private String payload;
+    private Integer attempts;
+    private Date claimedUntil;
+    private Date createdAt;
+}
@@ -0,0 +1,15 @@
+package lut.cn.c2cplatform.entity;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * 商品连同卖家信息（搜索结果回填使用，商品、卖家、媒体一次联表查询取回）
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class ProductWithSeller extends Product {
+    private static final long serialVersionUID = 1L;
+
+    private User seller;
+}
@@ -1,25 +1,37 @@
 package lut.cn.c2cplatform.event;
 
 import lut.cn.c2cplatform.config.RabbitMQConfig;
-import lut.cn.c2cplatform.service.HybridRecommendationService;
+import lut.cn.c2cplatform.service.RealtimeRecommendationService;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 /**
  * Event Consumers for processing async events
+ * 订单和商品事件来自发件箱（至少一次投递），按 messageId 去重后再处理
  */
 @Component
 public class EventConsumer {
 
     @Autowired
-    private HybridRecommendationService hybridRecommendationService;
+    private RealtimeRecommendationService realtimeRecommendationService;
+
+    @Autowired
+    private EventDeduplicator eventDeduplicator;
 
     /**
      * Process order paid events
      */
-    @RabbitListener(queues = RabbitMQConfig.ORDER_PAID_QUEUE)
-    public void handleOrderPaid(Events.OrderPaidEvent event) {
+    @RabbitListener(queues = RabbitMQConfig.ORDER_PAID_QUEUE, containerFactory = "orderPaidContainerFactory")
+    public void handleOrderPaid(Events.OrderPaidEvent event,
+            @Header(name = AmqpHeaders.MESSAGE_ID, required = false) String messageId) {
+        if (!eventDeduplicator.claim(messageId)) {
+            return;
+        }
         try {
             System.out.println("Processing OrderPaidEvent: " + event.getOrderId());
 
@@ -29,6 +41,7 @@ public class EventConsumer {
             // Log for analytics
             System.out.println("Order " + event.getOrderId() + " paid by user " + event.getUserId());
         } catch (Exception e) {
+            eventDeduplicator.release(messageId);
             System.err.println("Error processing OrderPaidEvent: " + e.getMessage());
             // Could implement retry logic or dead letter queue here
         }
@@ -37,8 +50,12 @@ public class EventConsumer {
     /**
      * Process order canceled events
      */
-    @RabbitListener(queues = RabbitMQConfig.ORDER_CANCELED_QUEUE)
-    public void handleOrderCanceled(Events.OrderCanceledEvent event) {
+    @RabbitListener(queues = RabbitMQConfig.ORDER_CANCELED_QUEUE, containerFactory = "orderCanceledContainerFactory")
+    public void handleOrderCanceled(Events.OrderCanceledEvent event,
+            @Header(name = AmqpHeaders.MESSAGE_ID, required = false) String messageId) {
+        if (!eventDeduplicator.claim(messageId)) {
+            return;
+        }
         try {
             System.out.println("Processing OrderCanceledEvent: " + event.getOrderId());
 
@@ -46,6 +63,7 @@ public class EventConsumer {
             // TODO: Implement notification service
 
         } catch (Exception e) {
+            eventDeduplicator.release(messageId);
             System.err.println("Error processing OrderCanceledEvent: " + e.getMessage());
         }
     }
@@ -53,8 +71,12 @@ public class EventConsumer {
     /**
      * Process order completed events
      */
-    @RabbitListener(queues = RabbitMQConfig.ORDER_COMPLETED_QUEUE)
-    public void handleOrderCompleted(Events.OrderCompletedEvent event) {
+    @RabbitListener(queues = RabbitMQConfig.ORDER_COMPLETED_QUEUE, containerFactory = "orderCompletedContainerFactory")
+    public void handleOrderCompleted(Events.OrderCompletedEvent event,
+            @Header(name = AmqpHeaders.MESSAGE_ID, required = false) String messageId) {
+        if (!eventDeduplicator.claim(messageId)) {
+            return;
+        }
         try {
             System.out.println("Processing OrderCompletedEvent: " + event.getOrderId());
 
@@ -65,6 +87,7 @@ public class EventConsumer {
             // Order completion is a strong signal
 
         } catch (Exception e) {
+            eventDeduplicator.release(messageId);
             System.err.println("Error processing OrderCompletedEvent: " + e.getMessage());
         }
     }
@@ -72,8 +95,12 @@ public class EventConsumer {
     /**
      * Process product created events
      */
-    @RabbitListener(queues = RabbitMQConfig.PRODUCT_CREATED_QUEUE)
-    public void handleProductCreated(Events.ProductCreatedEvent event) {
+    @RabbitListener(queues = RabbitMQConfig.PRODUCT_CREATED_QUEUE, containerFactory = "productCreatedContainerFactory")
+    public void handleProductCreated(Events.ProductCreatedEvent event,
+            @Header(name = AmqpHeaders.MESSAGE_ID, required = false) String messageId) {
+        if (!eventDeduplicator.claim(messageId)) {
+            return;
+        }
         try {
             System.out.println("Processing ProductCreatedEvent: " + event.getProductId());
 
@@ -84,6 +111,7 @@ public class EventConsumer {
             // TODO: Implement follower notification
 
         } catch (Exception e) {
+            eventDeduplicator.release(messageId);
             System.err.println("Error processing ProductCreatedEvent: " + e.getMessage());
         }
     }
@@ -91,8 +119,12 @@ public class EventConsumer {
     /**
      * Process product stock low events
      */
-    @RabbitListener(queues = RabbitMQConfig.PRODUCT_STOCK_LOW_QUEUE)
-    public void handleProductStockLow(Events.ProductStockLowEvent event) {
+    @RabbitListener(queues = RabbitMQConfig.PRODUCT_STOCK_LOW_QUEUE, containerFactory = "productStockLowContainerFactory")
+    public void handleProductStockLow(Events.ProductStockLowEvent event,
+            @Header(name = AmqpHeaders.MESSAGE_ID, required = false) String messageId) {
+        if (!eventDeduplicator.claim(messageId)) {
+            return;
+        }
         try {
             System.out.println("Processing ProductStockLowEvent: " + event.getProductId());
 
@@ -102,29 +134,31 @@ public class EventConsumer {
             System.out.println("Low stock alert for product " + event.getProductId() +
                              ": " + event.getCurrentStock() + " remaining");
         } catch (Exception e) {
+            eventDeduplicator.release(messageId);
             System.err.println("Error processing ProductStockLowEvent: " + e.getMessage());
         }
     }
 
     /**
      * Process recommendation update events
+     * Batch listener: the whole batch of interactions is applied at once (trending, sessions, NCF, popularity);
+     * a failure (e.g. Redis unavailable) is logged and the batch dropped: the batch factory has no retry advice,
+     * so a rethrow would requeue the same batch forever, and applyInteractions is not idempotent
+     * (a partially applied batch would be counted twice on redelivery)
      */
-    @RabbitListener(queues = RabbitMQConfig.RECOMMENDATION_UPDATE_QUEUE)
-    public void handleRecommendationUpdate(Events.RecommendationUpdateEvent event) {
+    @RabbitListener(queues = RabbitMQConfig.RECOMMENDATION_UPDATE_QUEUE, containerFactory = "recommendationUpdateContainerFactory")
+    public void handleRecommendationUpdates(List<Events.RecommendationUpdateEvent> events) {
         try {
-            // Update real-time popularity scores
-            if (hybridRecommendationService != null) {
-                hybridRecommendationService.updatePopularity(event.getProductId(), event.getAction());
-            }
+            realtimeRecommendationService.applyInteractions(events);
         } catch (Exception e) {
-            System.err.println("Error processing RecommendationUpdateEvent: " + e.getMessage());
+            System.err.println("Error processing " + events.size() + " RecommendationUpdateEvents, batch dropped: " + e.getMessage());
         }
     }
 
     /**
      * Process system message events
      */
-    @RabbitListener(queues = RabbitMQConfig.SYSTEM_MESSAGE_QUEUE)
+    @RabbitListener(queues = RabbitMQConfig.SYSTEM_MESSAGE_QUEUE, containerFactory = "systemMessageContainerFactory")
     public void handleSystemMessage(Events.SystemMessageEvent event) {
         try {
             System.out.println("Processing SystemMessageEvent for user: " + event.getUserId());
@@ -143,7 +177,7 @@ public class EventConsumer {
     /**
      * Process email notification events
      */
-    @RabbitListener(queues = RabbitMQConfig.EMAIL_NOTIFICATION_QUEUE)
+    @RabbitListener(queues = RabbitMQConfig.EMAIL_NOTIFICATION_QUEUE, containerFactory = "emailNotificationContainerFactory")
     public void handleEmailNotification(Events.EmailNotificationEvent event) {
         try {
             System.out.println("Processing EmailNotificationEvent to: " + event.getToEmail());
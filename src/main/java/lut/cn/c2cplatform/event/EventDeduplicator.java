@@ -0,0 +1,55 @@
+package lut.cn.c2cplatform.event;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消费端幂等：发件箱投递是“至少一次”，同一事件可能被重发
+ * 以消息的 messageId（发件箱 eventId）为幂等键，SET NX 抢到标记的消费者才处理
+ */
+@Component
+public class EventDeduplicator {
+
+    private static final String PROCESSED_KEY_PREFIX = "event:processed:";
+
+    // 重发只会发生在投递后的短时间内，标记保留 7 天足够
+    private static final long PROCESSED_TTL_DAYS = 7;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 标记事件为已处理；返回 false 表示此前已处理过，应跳过
+     * 没有 messageId 的消息（直接发送的事件）或 Redis 不可用时照常处理
+     */
+    public boolean claim(String messageId) {
+        if (messageId == null) {
+            return true;
+        }
+        try {
+            Boolean claimed = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(PROCESSED_KEY_PREFIX + messageId, "1", PROCESSED_TTL_DAYS, TimeUnit.DAYS);
+            return !Boolean.FALSE.equals(claimed);
+        } catch (Exception e) {
+            System.err.println("Failed to check processed event " + messageId + ": " + e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 处理失败时撤销标记，让重发的消息可以再次处理
+     */
+    public void release(String messageId) {
+        if (messageId == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.delete(PROCESSED_KEY_PREFIX + messageId);
+        } catch (Exception e) {
+            System.err.println("Failed to release processed event " + messageId + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,13 +1,29 @@
 package lut.cn.c2cplatform.event;
 
 import lut.cn.c2cplatform.config.RabbitMQConfig;
+import lut.cn.c2cplatform.entity.OutboxEvent;
+import lut.cn.c2cplatform.mapper.OutboxEventMapper;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
+import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.UUID;
 
 /**
  * Event Publisher Service
  * Publishes events to RabbitMQ for async processing
+ *
+ * 订单和商品领域事件走事务发件箱：在调用方的事务中写入 event_outbox，与业务数据一起提交或回滚，
+ * 由 OutboxRelay 在后台批量投递（发布确认），请求线程不等待 Broker 往返，进程崩溃也不会丢事件。
+ * 推荐和通知类事件仍直接发送，失败只记录日志。
  */
 @Service
 public class EventPublisher {
@@ -15,99 +31,65 @@ public class EventPublisher {
     @Autowired
     private RabbitTemplate rabbitTemplate;
 
+    @Autowired
+    private MessageConverter jsonMessageConverter;
+
+    @Autowired
+    private OutboxEventMapper outboxEventMapper;
+
+    @Autowired
+    private OutboxRelay outboxRelay;
+
     /**
-     * Publish order paid event
+     * Publish order paid event (outbox)
      */
     public void publishOrderPaid(Events.OrderPaidEvent event) {
-        try {
-            rabbitTemplate.convertAndSend(
-                RabbitMQConfig.ORDER_EXCHANGE,
-                RabbitMQConfig.ORDER_PAID_ROUTING_KEY,
-                event
-            );
-            System.out.println("Published OrderPaidEvent: " + event.getOrderId());
-        } catch (Exception e) {
-            System.err.println("Failed to publish OrderPaidEvent: " + e.getMessage());
-            // Don't throw - event publishing should not break main flow
-        }
+        enqueue(RabbitMQConfig.ORDER_EXCHANGE, RabbitMQConfig.ORDER_PAID_ROUTING_KEY, event);
     }
 
     /**
-     * Publish order canceled event
+     * Publish order canceled event (outbox)
      */
     public void publishOrderCanceled(Events.OrderCanceledEvent event) {
-        try {
-            rabbitTemplate.convertAndSend(
-                RabbitMQConfig.ORDER_EXCHANGE,
-                RabbitMQConfig.ORDER_CANCELED_ROUTING_KEY,
-                event
-            );
-            System.out.println("Published OrderCanceledEvent: " + event.getOrderId());
-        } catch (Exception e) {
-            System.err.println("Failed to publish OrderCanceledEvent: " + e.getMessage());
-        }
+        enqueue(RabbitMQConfig.ORDER_EXCHANGE, RabbitMQConfig.ORDER_CANCELED_ROUTING_KEY, event);
     }
 
     /**
-     * Publish order completed event
+     * Publish order completed event (outbox)
      */
     public void publishOrderCompleted(Events.OrderCompletedEvent event) {
-        try {
-            rabbitTemplate.convertAndSend(
-                RabbitMQConfig.ORDER_EXCHANGE,
-                RabbitMQConfig.ORDER_COMPLETED_ROUTING_KEY,
-                event
-            );
-            System.out.println("Published OrderCompletedEvent: " + event.getOrderId());
-        } catch (Exception e) {
-            System.err.println("Failed to publish OrderCompletedEvent: " + e.getMessage());
-        }
+        enqueue(RabbitMQConfig.ORDER_EXCHANGE, RabbitMQConfig.ORDER_COMPLETED_ROUTING_KEY, event);
     }
 
     /**
-     * Publish product created event
+     * Publish product created event (outbox)
      */
     public void publishProductCreated(Events.ProductCreatedEvent event) {
-        try {
-            rabbitTemplate.convertAndSend(
-                RabbitMQConfig.PRODUCT_EXCHANGE,
-                RabbitMQConfig.PRODUCT_CREATED_ROUTING_KEY,
-                event
-            );
-            System.out.println("Published ProductCreatedEvent: " + event.getProductId());
-        } catch (Exception e) {
-            System.err.println("Failed to publish ProductCreatedEvent: " + e.getMessage());
-        }
+        enqueue(RabbitMQConfig.PRODUCT_EXCHANGE, RabbitMQConfig.PRODUCT_CREATED_ROUTING_KEY, event);
     }
 
     /**
-     * Publish product stock low event
+     * Publish product stock low event (outbox)
      */
     public void publishProductStockLow(Events.ProductStockLowEvent event) {
-        try {
-            rabbitTemplate.convertAndSend(
-                RabbitMQConfig.PRODUCT_EXCHANGE,
-                RabbitMQConfig.PRODUCT_STOCK_LOW_ROUTING_KEY,
-                event
-            );
-            System.out.println("Published ProductStockLowEvent: " + event.getProductId());
-        } catch (Exception e) {
-            System.err.println("Failed to publish ProductStockLowEvent: " + e.getMessage());
-        }
+        enqueue(RabbitMQConfig.PRODUCT_EXCHANGE, RabbitMQConfig.PRODUCT_STOCK_LOW_ROUTING_KEY, event);
     }
 
     /**
-     * Publish recommendation update event
+     * Publish recommendation update event (direct, not through the outbox: interactions are high-volume and lossy-tolerant)
+     * Returns false when the broker is unavailable so the caller can apply the interaction itself
      */
-    public void publishRecommendationUpdate(Events.RecommendationUpdateEvent event) {
+    public boolean publishRecommendationUpdate(Events.RecommendationUpdateEvent event) {
         try {
             rabbitTemplate.convertAndSend(
                 RabbitMQConfig.RECOMMENDATION_EXCHANGE,
                 RabbitMQConfig.RECOMMENDATION_UPDATE_ROUTING_KEY,
                 event
             );
+            return true;
         } catch (Exception e) {
             System.err.println("Failed to publish RecommendationUpdateEvent: " + e.getMessage());
+            return false;
         }
     }
 
@@ -142,5 +124,33 @@ public class EventPublisher {
             System.err.println("Failed to publish EmailNotificationEvent: " + e.getMessage());
         }
     }
-}
 
+    /**
+     * 把事件写入发件箱，必须在业务事务内调用；写入失败直接抛出，让业务事务一起回滚
+     * 消息体和类型头由 JSON 转换器生成，与直接 convertAndSend 的消息一致；事务提交后唤醒投递线程
+     */
+    private void enqueue(String exchange, String routingKey, Object event) {
+        Message message = jsonMessageConverter.toMessage(event, new MessageProperties());
+
+        OutboxEvent outboxEvent = new OutboxEvent();
+        outboxEvent.setEventId(UUID.randomUUID().toString());
+        outboxEvent.setExchange(exchange);
+        outboxEvent.setRoutingKey(routingKey);
+        outboxEvent.setEventType((String) message.getMessageProperties().getHeaders()
+                .get(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME));
+        outboxEvent.setPayload(new String(message.getBody(), StandardCharsets.UTF_8));
+        outboxEvent.setCreatedAt(new Date());
+        outboxEventMapper.insert(outboxEvent);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            outboxRelay.wakeUp();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                outboxRelay.wakeUp();
+            }
+        });
+    }
+}
@@ -0,0 +1,227 @@
+package lut.cn.c2cplatform.event;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lut.cn.c2cplatform.entity.OutboxEvent;
+import lut.cn.c2cplatform.mapper.OutboxEventMapper;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 发件箱投递线程：把 event_outbox 中已提交的事件批量发布到 RabbitMQ
+ *
+ * - 每批先在一个短事务中 SELECT ... FOR UPDATE SKIP LOCKED 锁定至多 batch-size 条并写入投递租约（claimed_until），
+ *   随即提交；等待发布确认期间不持有行锁和数据库连接，租约保证其他节点不会重复选中这些事件
+ * - 整批消息先全部发出（多条同时在途），再统一等待发布确认，一批只花一次往返的时间
+ * - 确认成功且未被退回（mandatory）的事件删除；失败的释放租约，下一批重发
+ * - 投递是“至少一次”：确认丢失或结算前宕机（租约到期后）都会重发，消费者按 messageId（即 eventId）去重
+ *
+ * 业务事务提交后 EventPublisher 调用 wakeUp() 立即唤醒；否则每隔 poll-interval-ms 检查一次
+ */
+@Component
+public class OutboxRelay {
+
+    @Value("${outbox.relay.batch-size:200}")
+    private int batchSize;
+
+    @Value("${outbox.relay.poll-interval-ms:500}")
+    private long pollIntervalMs;
+
+    // 一批消息等待发布确认的总时长，超时未确认的按失败处理
+    @Value("${outbox.relay.confirm-timeout-ms:5000}")
+    private long confirmTimeoutMs;
+
+    // 认领后既未删除也未释放的事件（投递线程中途宕机），租约到期后重新投递；须大于 confirm-timeout-ms
+    @Value("${outbox.relay.claim-timeout-ms:60000}")
+    private long claimTimeoutMs;
+
+    // 超过该重试次数的事件不再投递，留在表中人工排查
+    @Value("${outbox.relay.max-attempts:10}")
+    private int maxAttempts;
+
+    @Autowired
+    private OutboxEventMapper outboxEventMapper;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Semaphore wakeUps = new Semaphore(0);
+    private TransactionTemplate transactionTemplate;
+    private Thread relayThread;
+    private volatile boolean running;
+
+    private Counter publishedEvents;
+    private Counter failedEvents;
+
+    @PostConstruct
+    public void startRelay() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        publishedEvents = Counter.builder("outbox.relay").tag("result", "published")
+                .description("Outbox events relayed to RabbitMQ").register(meterRegistry);
+        failedEvents = Counter.builder("outbox.relay").tag("result", "failed")
+                .description("Outbox events relayed to RabbitMQ").register(meterRegistry);
+
+        running = true;
+        relayThread = new Thread(this::runRelay, "outbox-relay");
+        relayThread.setDaemon(true);
+        relayThread.start();
+    }
+
+    @PreDestroy
+    public void stopRelay() throws InterruptedException {
+        running = false;
+        relayThread.interrupt();
+        relayThread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * 有新事件提交：唤醒投递线程（多次唤醒合并为一次）
+     */
+    public void wakeUp() {
+        if (wakeUps.availablePermits() == 0) {
+            wakeUps.release();
+        }
+    }
+
+    /**
+     * 投递循环：一批取满说明还有积压，立即继续；否则等待唤醒或轮询间隔
+     */
+    private void runRelay() {
+        while (running) {
+            int relayed;
+            try {
+                relayed = relayBatch();
+            } catch (Exception e) {
+                System.err.println("Outbox relay batch failed: " + e.getMessage());
+                relayed = 0;
+            }
+            if (relayed >= batchSize) {
+                continue;
+            }
+            try {
+                wakeUps.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                wakeUps.drainPermits();
+            } catch (InterruptedException e) {
+                // 关闭时被中断：未投递的事件留在表中，下次启动后继续
+                return;
+            }
+        }
+    }
+
+    /**
+     * 认领并投递一批事件，返回本批取到的事件数
+     */
+    private int relayBatch() {
+        List<OutboxEvent> events = transactionTemplate.execute(status -> {
+            List<OutboxEvent> pending = outboxEventMapper.selectPendingForUpdate(maxAttempts, batchSize);
+            if (!pending.isEmpty()) {
+                outboxEventMapper.claim(pending.stream().map(OutboxEvent::getId).collect(Collectors.toList()), claimTimeoutMs);
+            }
+            return pending;
+        });
+        if (events == null || events.isEmpty()) {
+            return 0;
+        }
+
+        // 认领已提交：以下发布和等待确认都在事务之外
+        List<CorrelationData> inFlight = new ArrayList<>(events.size());
+        for (OutboxEvent event : events) {
+            CorrelationData correlation = new CorrelationData(event.getEventId());
+            try {
+                rabbitTemplate.send(event.getExchange(), event.getRoutingKey(), toMessage(event), correlation);
+            } catch (Exception e) {
+                // 连接或通道异常：这一条记为失败，不等待它的确认
+                correlation = null;
+            }
+            inFlight.add(correlation);
+        }
+
+        List<Long> published = new ArrayList<>(events.size());
+        List<Long> failed = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+        for (int i = 0; i < events.size(); i++) {
+            Long id = events.get(i).getId();
+            if (isConfirmed(inFlight.get(i), deadline)) {
+                published.add(id);
+            } else {
+                failed.add(id);
+            }
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!published.isEmpty()) {
+                outboxEventMapper.deleteByIds(published);
+            }
+            if (!failed.isEmpty()) {
+                outboxEventMapper.releaseClaims(failed);
+            }
+        });
+        if (!failed.isEmpty()) {
+            System.err.println("Outbox relay: " + failed.size() + " of " + events.size() + " events not confirmed, will retry");
+        }
+        publishedEvents.increment(published.size());
+        failedEvents.increment(failed.size());
+        return events.size();
+    }
+
+    /**
+     * 在批次截止时间前等待该消息的发布确认；Broker 确认且没有被退回（无匹配队列）才算投递成功
+     */
+    private boolean isConfirmed(CorrelationData correlation, long deadline) {
+        if (correlation == null) {
+            return false;
+        }
+        try {
+            long remaining = Math.max(0L, deadline - System.nanoTime());
+            CorrelationData.Confirm confirm = correlation.getFuture().get(remaining, TimeUnit.NANOSECONDS);
+            return confirm.isAck() && correlation.getReturned() == null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 还原写入发件箱时生成的 JSON 消息；messageId 即 eventId，供消费者去重
+     */
+    private Message toMessage(OutboxEvent event) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding(StandardCharsets.UTF_8.name());
+        properties.setMessageId(event.getEventId());
+        properties.setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+        // 时间戳取事件写入时间，消费延迟指标包含在发件箱中等待的时间
+        properties.setTimestamp(event.getCreatedAt());
+        if (event.getEventType() != null) {
+            properties.setHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME, event.getEventType());
+        }
+        return new Message(event.getPayload().getBytes(StandardCharsets.UTF_8), properties);
+    }
+}
@@ -1,44 +1,59 @@
 package lut.cn.c2cplatform.event;
 
-import lut.cn.c2cplatform.service.SearchService;
+import lut.cn.c2cplatform.service.ProductCacheService;
+import lut.cn.c2cplatform.service.ProductSearchIndexer;
+import lut.cn.c2cplatform.service.StockReservationService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 @Component
 public class ProductEventListener {
 
     @Autowired
-    private SearchService searchService;
+    private ProductSearchIndexer productSearchIndexer;
 
-    @Async
-    @EventListener
+    @Autowired
+    private ProductCacheService productCacheService;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    // 搜索索引：事务提交后登记商品ID，索引管道合并同一商品的多次变更后批量写入 ES
+    @TransactionalEventListener(fallbackExecution = true)
     public void handleProductCreated(ProductCreatedEvent event) {
-        try {
-            searchService.indexProduct(event.getProduct());
-        } catch (Exception e) {
-            System.err.println("Failed to index product to Elasticsearch: " + e.getMessage());
-        }
+        productSearchIndexer.enqueue(event.getProduct().getId());
     }
 
-    @Async
-    @EventListener
+    @TransactionalEventListener(fallbackExecution = true)
     public void handleProductUpdated(ProductUpdatedEvent event) {
-        try {
-            searchService.indexProduct(event.getProduct());
-        } catch (Exception e) {
-            System.err.println("Failed to update product in Elasticsearch: " + e.getMessage());
-        }
+        productSearchIndexer.enqueue(event.getProduct().getId());
     }
 
-    @Async
-    @EventListener
+    @TransactionalEventListener(fallbackExecution = true)
     public void handleProductDeleted(ProductDeletedEvent event) {
-        try {
-            searchService.deleteProduct(event.getProductId());
-        } catch (Exception e) {
-            System.err.println("Failed to delete product from Elasticsearch: " + e.getMessage());
-        }
+        productSearchIndexer.enqueue(event.getProductId());
+    }
+
+    // 商品详情缓存在事务提交后失效，避免提交前被并发读请求回填旧数据
+    @TransactionalEventListener(fallbackExecution = true)
+    public void evictCacheOnUpdate(ProductUpdatedEvent event) {
+        productCacheService.invalidate(event.getProduct().getId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void evictCacheOnDelete(ProductDeletedEvent event) {
+        productCacheService.invalidate(event.getProductId());
+    }
+
+    // 卖家修改库存或删除商品后同步 Redis 库存镜像
+    @TransactionalEventListener(fallbackExecution = true)
+    public void syncStockOnUpdate(ProductUpdatedEvent event) {
+        stockReservationService.refresh(event.getProduct().getId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void syncStockOnDelete(ProductDeletedEvent event) {
+        stockReservationService.refresh(event.getProductId());
     }
 }
@@ -16,6 +16,8 @@ public interface CartItemMapper {
 
     void deleteByUserIdAndProductId(@Param("userId") Long userId, @Param("productId") Long productId);
 
+    void deleteByUserIdAndProductIds(@Param("userId") Long userId, @Param("productIds") List<Long> productIds);
+
     CartItem selectByUserIdAndProductId(@Param("userId") Long userId, @Param("productId") Long productId);
 
     List<CartItem> selectByUserId(@Param("userId") Long userId);
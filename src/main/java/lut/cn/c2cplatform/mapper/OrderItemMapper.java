@@ -2,9 +2,13 @@ package lut.cn.c2cplatform.mapper;
 
 import lut.cn.c2cplatform.entity.OrderItem;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
 @Mapper
 public interface OrderItemMapper {
     void insert(OrderItem orderItem);
     java.util.List<OrderItem> findByOrderId(Integer orderId);
+
+    // 按商品汇总待支付订单占用的数量（只填 productId、quantity），库存镜像校准 reserved 使用
+    java.util.List<OrderItem> sumPendingQuantitiesByProductIds(@Param("productIds") java.util.Collection<Long> productIds);
 }
@@ -12,8 +12,11 @@ public interface OrderMapper {
     void insert(Order order);
     Order findById(Integer id);
     void updateStatus(Order order);
+    int payIfPending(Order order);
     List<Order> findByUserId(@Param("userId") Integer userId);
-    List<Order> findExpiredOrders();
+    List<Order> findExpiredOrders(@Param("limit") int limit);
+    List<Integer> findExpiredPendingIdsByUserId(@Param("userId") Integer userId, @Param("limit") int limit);
+    int expireIfPending(@Param("id") Integer id);
     void batchUpdateStatusToExpired(@Param("orderIds") List<Integer> orderIds);
 
     @Select("SELECT DISTINCT o.* FROM `orders` o " +
@@ -0,0 +1,23 @@
+package lut.cn.c2cplatform.mapper;
+
+import lut.cn.c2cplatform.entity.OutboxEvent;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface OutboxEventMapper {
+    int insert(OutboxEvent event);
+
+    // 按写入顺序锁定一批待投递事件；SKIP LOCKED 让多个节点的投递线程各取不同的批次
+    List<OutboxEvent> selectPendingForUpdate(@Param("maxAttempts") int maxAttempts, @Param("limit") int limit);
+
+    int deleteByIds(@Param("ids") List<Long> ids);
+
+    // 认领一批事件：计一次投递尝试，并在租约到期前不被再次选中（投递线程宕机时租约到期后重发）
+    int claim(@Param("ids") List<Long> ids, @Param("claimTimeoutMs") long claimTimeoutMs);
+
+    // 投递失败的事件释放租约，下一批重发
+    int releaseClaims(@Param("ids") List<Long> ids);
+}
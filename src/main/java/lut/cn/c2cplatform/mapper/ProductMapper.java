@@ -1,6 +1,7 @@
 package lut.cn.c2cplatform.mapper;
 
 import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.entity.ProductWithSeller;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import java.util.List;
@@ -10,12 +11,24 @@ public interface ProductMapper {
     Product selectById(@Param("id") Long id);
     List<Product> selectAll();
     List<Product> selectByUserId(@Param("userId") Long userId);
+
+    // 卖家的全部商品ID（不过滤状态，用于失效商品详情缓存）
+    List<Long> selectIdsByUserId(@Param("userId") Long userId);
     List<Product> selectWithFilters(@Param("keyword") String keyword,
                                      @Param("minPrice") java.math.BigDecimal minPrice,
                                      @Param("maxPrice") java.math.BigDecimal maxPrice,
                                      @Param("conditionLevel") Integer conditionLevel,
                                      @Param("location") String location,
                                      @Param("category") String category);
+    // 游标分页：返回 (cursorCreatedAt, cursorId) 之后的最多 limit 条在售商品
+    List<Product> selectPageWithFilters(@Param("minPrice") java.math.BigDecimal minPrice,
+                                        @Param("maxPrice") java.math.BigDecimal maxPrice,
+                                        @Param("conditionLevel") Integer conditionLevel,
+                                        @Param("location") String location,
+                                        @Param("category") String category,
+                                        @Param("cursorCreatedAt") java.time.LocalDateTime cursorCreatedAt,
+                                        @Param("cursorId") Long cursorId,
+                                        @Param("limit") int limit);
     int insert(Product product);
     int update(Product product);
     int deleteById(@Param("id") Long id);
@@ -31,5 +44,33 @@ public interface ProductMapper {
 
     // 减少库存（返回影响的行数，如果为0说明库存不足）
     int decreaseStock(@Param("id") Long id, @Param("quantity") Integer quantity);
+
+    // 按ID批量查询，不过滤状态和库存（下单、库存同步使用）
+    List<Product> selectAllByIds(@Param("ids") java.util.Collection<Long> ids);
+
+    // 按ID批量查询商品及其卖家、媒体（一条联表语句，搜索结果回填使用）
+    List<ProductWithSeller> selectWithSellerAndMediaByIds(@Param("ids") java.util.Collection<Long> ids);
+
+    // 降级搜索：全文索引取一页命中并回填卖家和媒体，按相关度排序
+    List<ProductWithSeller> selectFulltextPage(@Param("keyword") String keyword,
+                                               @Param("minPrice") java.math.BigDecimal minPrice,
+                                               @Param("maxPrice") java.math.BigDecimal maxPrice,
+                                               @Param("conditionLevel") Integer conditionLevel,
+                                               @Param("location") String location,
+                                               @Param("category") String category,
+                                               @Param("offset") int offset,
+                                               @Param("limit") int limit);
+
+    // 多商品支付：按ID升序一次锁定所有商品行，避免并发支付之间死锁
+    List<Product> selectByIdsForUpdate(@Param("ids") java.util.Collection<Long> ids);
+
+    // 批量扣减库存（productId -> 数量），只有全部商品库存足够的行才会更新，返回影响的行数
+    int decreaseStockBatch(@Param("quantities") java.util.Map<Long, Integer> quantities);
+
+    // 全量重建索引：按主键分块读取 afterId 之后的最多 limit 条商品（不过滤状态）
+    List<Product> selectChunkAfterId(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    // 重建索引期间被修改过的商品ID，切换别名后补写
+    List<Long> selectIdsUpdatedSince(@Param("since") java.time.LocalDateTime since);
 }
 
@@ -9,6 +9,8 @@ import java.util.List;
 public interface ProductMediaMapper {
     ProductMedia selectById(@Param("id") Long id);
     List<ProductMedia> selectByProductId(@Param("productId") Long productId);
+    // 批量加载多个商品的媒体（列表页一次查询，避免N+1）
+    List<ProductMedia> selectByProductIds(@Param("productIds") List<Long> productIds);
     int insert(ProductMedia media);
     int update(ProductMedia media);
     int deleteById(@Param("id") Long id);
@@ -8,6 +8,8 @@ import java.util.List;
 @Mapper
 public interface UserMapper {
     User selectById(@Param("id") Long id);
+    // 批量加载用户（商品列表填充卖家信息）
+    List<User> selectByIds(@Param("ids") List<Long> ids);
     User selectByUsername(@Param("username") String username);
     // 加载包含角色的用户
     User selectByUsernameWithRoles(@Param("username") String username);
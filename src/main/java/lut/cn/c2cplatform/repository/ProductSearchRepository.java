@@ -1,10 +0,0 @@
-package lut.cn.c2cplatform.repository;
-
-import lut.cn.c2cplatform.document.ProductDocument;
-import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
-import org.springframework.stereotype.Repository;
-
-@Repository
-public interface ProductSearchRepository extends ElasticsearchRepository<ProductDocument, String> {
-}
-
@@ -1,127 +1,91 @@
 package lut.cn.c2cplatform.scheduled;
 
-import lut.cn.c2cplatform.entity.CartItem;
 import lut.cn.c2cplatform.entity.Order;
-import lut.cn.c2cplatform.entity.OrderItem;
-import lut.cn.c2cplatform.mapper.CartItemMapper;
-import lut.cn.c2cplatform.mapper.OrderItemMapper;
 import lut.cn.c2cplatform.mapper.OrderMapper;
+import lut.cn.c2cplatform.service.OrderExpiryQueue;
+import lut.cn.c2cplatform.service.OrderService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Instant;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * 订单过期自动关闭任务
- * 每分钟执行一次，检查并关闭过期的待支付订单
+ * 下单时订单已登记到 Redis 过期延迟队列（OrderExpiryQueue），这里每隔约 0.5 秒领取到期订单，
+ * 每个订单在自己的小事务中关闭（OrderService.expireOrder）；各节点都可消费，领取是原子的
  * 如果订单来自购物车，则将商品恢复到购物车
+ *
+ * 数据库兜底扫描低频执行，只把漏登记（Redis 故障、领取后节点宕机、历史订单）的过期订单重新入队
  */
 @Component
 public class OrderExpireTask {
 
     private static final Logger logger = LoggerFactory.getLogger(OrderExpireTask.class);
 
+    // 处理失败的订单延迟重试
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
     @Autowired
     private OrderMapper orderMapper;
 
     @Autowired
-    private OrderItemMapper orderItemMapper;
+    private OrderService orderService;
 
     @Autowired
-    private CartItemMapper cartItemMapper;
+    private OrderExpiryQueue orderExpiryQueue;
 
-    @Autowired
-    private lut.cn.c2cplatform.mapper.ProductMapper productMapper;
+    @Value("${order.expiry.batch-size:100}")
+    private int batchSize;
+
+    @Value("${order.expiry.reconcile-batch-size:1000}")
+    private int reconcileBatchSize;
 
     /**
-     * 每分钟执行一次，检查并关闭过期订单
-     * 使用 @Scheduled 注解实现定时任务
+     * 领取并关闭到期订单，一次领满则继续领取，直到队列中没有到期订单
      */
-    @Scheduled(fixedRate = 60000) // 每60秒执行一次
-    @Transactional
+    @Scheduled(fixedDelayString = "${order.expiry.poll-interval-ms:500}")
     public void closeExpiredOrders() {
         try {
-            // 查询所有过期的待支付订单
-            List<Order> expiredOrders = orderMapper.findExpiredOrders();
+            List<Integer> orderIds;
+            do {
+                orderIds = orderExpiryQueue.claimDue(System.currentTimeMillis(), batchSize);
+                for (Integer orderId : orderIds) {
+                    try {
+                        if (orderService.expireOrder(orderId)) {
+                            logger.info("订单 {} 已过期关闭，购物车已恢复", orderId);
+                        }
+                    } catch (Exception e) {
+                        logger.error("处理过期订单 {} 失败，稍后重试: {}", orderId, e.getMessage(), e);
+                        orderExpiryQueue.schedule(orderId, System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+                    }
+                }
+            } while (orderIds.size() == batchSize);
+        } catch (Exception e) {
+            logger.error("关闭过期订单任务执行失败: {}", e.getMessage(), e);
+        }
+    }
 
+    /**
+     * 兜底：把数据库中已过期但仍为 PENDING 的订单重新登记到延迟队列（走 idx_status_expire 索引，分批）
+     */
+    @Scheduled(fixedDelayString = "${order.expiry.reconcile-interval-ms:300000}")
+    public void reconcileExpiredOrders() {
+        try {
+            List<Order> expiredOrders = orderMapper.findExpiredOrders(reconcileBatchSize);
             if (expiredOrders.isEmpty()) {
                 return;
             }
 
-            logger.info("发现 {} 个过期订单，开始处理...", expiredOrders.size());
-
             for (Order order : expiredOrders) {
-                try {
-                    // 获取订单项
-                    List<OrderItem> orderItems = orderItemMapper.findByOrderId(order.getId());
-
-                    // 恢复库存和购物车商品
-                    for (OrderItem item : orderItems) {
-                        // 恢复库存
-                        try {
-                            lut.cn.c2cplatform.entity.Product product = productMapper.selectById(item.getProductId().longValue());
-                            if (product != null) {
-                                product.setStock(product.getStock() + item.getQuantity());
-                                product.setUpdatedAt(java.time.LocalDateTime.now());
-                                productMapper.update(product);
-                                logger.info("订单 {} 的商品 {} 库存已恢复 {} 件", order.getId(), item.getProductId(), item.getQuantity());
-                            }
-                        } catch (Exception e) {
-                            logger.error("恢复商品 {} 库存失败: {}", item.getProductId(), e.getMessage());
-                        }
-
-                        // 恢复来自购物车的商品
-                        if (Boolean.TRUE.equals(item.getFromCart())) {
-                            // 检查购物车中是否已存在该商品
-                            CartItem existingCartItem = cartItemMapper.selectByUserIdAndProductId(
-                                order.getUserId().longValue(),
-                                item.getProductId().longValue()
-                            );
-
-                            if (existingCartItem != null) {
-                                // 如果购物车中已存在，更新数量
-                                existingCartItem.setQuantity(existingCartItem.getQuantity() + item.getQuantity());
-                                existingCartItem.setUpdatedAt(Instant.now());
-                                cartItemMapper.update(existingCartItem);
-                                logger.info("订单 {} 的商品 {} 已恢复到购物车（更新数量）", order.getId(), item.getProductId());
-                            } else {
-                                // 如果不存在，重新添加到购物车
-                                CartItem cartItem = new CartItem();
-                                cartItem.setUserId(order.getUserId().longValue());
-                                cartItem.setProductId(item.getProductId().longValue());
-                                cartItem.setQuantity(item.getQuantity());
-                                cartItem.setCreatedAt(Instant.now());
-                                cartItem.setUpdatedAt(Instant.now());
-                                cartItemMapper.insert(cartItem);
-                                logger.info("订单 {} 的商品 {} 已恢复到购物车（新增）", order.getId(), item.getProductId());
-                            }
-                        }
-                    }
-
-                    logger.info("订单 {} 已过期，库存和购物车已恢复", order.getId());
-                } catch (Exception e) {
-                    logger.error("处理过期订单 {} 失败: {}", order.getId(), e.getMessage(), e);
-                }
+                orderExpiryQueue.schedule(order.getId(), order.getExpireTime().getTime());
             }
-
-            // 批量更新订单状态为 EXPIRED
-            List<Integer> orderIds = expiredOrders.stream()
-                .map(Order::getId)
-                .collect(Collectors.toList());
-
-            orderMapper.batchUpdateStatusToExpired(orderIds);
-
-            logger.info("成功关闭 {} 个过期订单", orderIds.size());
-
+            logger.info("兜底扫描发现 {} 个未关闭的过期订单，已重新入队", expiredOrders.size());
         } catch (Exception e) {
-            logger.error("关闭过期订单任务执行失败: {}", e.getMessage(), e);
+            logger.error("过期订单兜底扫描失败: {}", e.getMessage(), e);
         }
     }
 }
-
@@ -4,6 +4,7 @@ import lut.cn.c2cplatform.entity.CartItem;
 import lut.cn.c2cplatform.mapper.CartItemMapper;
 import lut.cn.c2cplatform.mapper.UserMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -18,8 +19,9 @@ public class CartService {
     @Autowired
     private UserMapper userMapper;
 
+    @Lazy
     @Autowired(required = false)
-    private HybridRecommendationService hybridRecommendationService;
+    private RealtimeRecommendationService realtimeRecommendationService;
 
     public boolean addToCart(String username, Long productId, Integer quantity) {
         var user = userMapper.selectByUsername(username);
@@ -46,9 +48,9 @@ public class CartService {
             cartItemMapper.insert(cartItem);
         }
 
-        // Update product popularity
-        if (hybridRecommendationService != null) {
-            hybridRecommendationService.updatePopularity(productId, "cart");
+        // Record the interaction (popularity, trending, session, NCF are updated by the recommendation consumer)
+        if (realtimeRecommendationService != null) {
+            realtimeRecommendationService.processInteraction(user.getId(), productId, "cart");
         }
 
         return true;
@@ -2,11 +2,19 @@ package lut.cn.c2cplatform.service;
 
 import lut.cn.c2cplatform.entity.Product;
 import lut.cn.c2cplatform.mapper.ProductMapper;
+import lut.cn.c2cplatform.util.TfIdfSimilarityEngine;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -24,12 +32,21 @@ public class ContentBasedRecommendationService {
     @Autowired
     private ProductMapper productMapper;
 
-    private static final String CONTENT_SIMILARITY_PREFIX = "recommend:content:";
+    static final String CONTENT_SIMILARITY_PREFIX = "recommend:content:";
     private static final int TOP_N_SIMILAR = 15;
+    private static final int WRITE_BATCH_SIZE = 500; // 每块并行计算并流水线写回的商品数
+
+    // 文档频率超过该值的宽泛词项（类目、地区、价格区间、成色等）不参与候选生成，只在候选打分时计入
+    @Value("${recommendation.content.max-posting-length:1000}")
+    private int maxPostingLength;
+
+    @Value("${recommendation.content.parallelism:0}")
+    private int parallelism;
 
     /**
      * Compute content-based similarity for all products
-     * Uses TF-IDF on product text features
+     * Sparse TF-IDF over an inverted index: only pairs sharing at least one term are scored,
+     * top N per product is selected with a bounded heap in parallel, results are written in pipelined batches
      */
     public void computeContentBasedSimilarity() {
         System.out.println("=== Starting content-based similarity computation ===");
@@ -45,53 +62,28 @@ public class ContentBasedRecommendationService {
 
             System.out.println("Processing " + allProducts.size() + " products");
 
-            // Build document corpus and compute IDF
-            Map<String, Integer> documentFrequency = buildDocumentFrequency(allProducts);
-            int totalDocuments = allProducts.size();
-
-            // Compute TF-IDF vectors for each product
-            Map<Long, Map<String, Double>> tfidfVectors = new HashMap<>();
-            for (Product product : allProducts) {
-                Map<String, Double> tfidf = computeTFIDF(product, documentFrequency, totalDocuments);
-                tfidfVectors.put(product.getId(), tfidf);
-            }
-
-            // Compute pairwise similarity and store top N for each product
-            int processedCount = 0;
+            TfIdfSimilarityEngine engine = new TfIdfSimilarityEngine(allProducts.size(), maxPostingLength);
             for (Product product : allProducts) {
-                Map<Long, Double> similarities = new HashMap<>();
-                Map<String, Double> vector1 = tfidfVectors.get(product.getId());
-
-                for (Product other : allProducts) {
-                    if (product.getId().equals(other.getId())) continue;
-
-                    Map<String, Double> vector2 = tfidfVectors.get(other.getId());
-                    double similarity = cosineSimilarity(vector1, vector2);
-
-                    // Add price similarity factor (products with similar prices are more similar)
-                    double priceSimilarity = computePriceSimilarity(
+                engine.addDocument(product.getId(), extractTerms(product),
                         product.getPrice() != null ? product.getPrice().doubleValue() : 0.0,
-                        other.getPrice() != null ? other.getPrice().doubleValue() : 0.0
-                    );
-                    similarity = similarity * 0.8 + priceSimilarity * 0.2;
-
-                    // Add condition similarity
-                    if (product.getConditionLevel() != null && other.getConditionLevel() != null) {
-                        int conditionDiff = Math.abs(product.getConditionLevel() - other.getConditionLevel());
-                        double conditionSimilarity = 1.0 - (conditionDiff / 10.0);
-                        similarity = similarity * 0.9 + conditionSimilarity * 0.1;
+                        product.getConditionLevel());
+            }
+            engine.build();
+            System.out.println("Content index built: " + engine.describe());
+
+            int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            int[] processedCount = {0};
+            try {
+                engine.computeTopK(TOP_N_SIMILAR, WRITE_BATCH_SIZE, pool, results -> {
+                    storeTopSimilar(results);
+                    processedCount[0] += results.size();
+                    if (processedCount[0] % 10000 < WRITE_BATCH_SIZE) {
+                        System.out.println("Processed " + processedCount[0] + " / " + allProducts.size() + " products");
                     }
-
-                    similarities.put(other.getId(), similarity);
-                }
-
-                // Store top N similar products
-                storeTopSimilar(product.getId(), similarities);
-                processedCount++;
-
-                if (processedCount % 100 == 0) {
-                    System.out.println("Processed " + processedCount + " / " + allProducts.size() + " products");
-                }
+                });
+            } finally {
+                pool.shutdown();
             }
 
             long duration = System.currentTimeMillis() - startTime;
@@ -103,22 +95,6 @@ public class ContentBasedRecommendationService {
         }
     }
 
-    /**
-     * Build document frequency map for IDF calculation
-     */
-    private Map<String, Integer> buildDocumentFrequency(List<Product> products) {
-        Map<String, Integer> df = new HashMap<>();
-
-        for (Product product : products) {
-            Set<String> terms = extractTerms(product);
-            for (String term : terms) {
-                df.merge(term, 1, Integer::sum);
-            }
-        }
-
-        return df;
-    }
-
     /**
      * Extract terms from product for text analysis
      */
@@ -201,7 +177,13 @@ public class ContentBasedRecommendationService {
      * Check if string contains Chinese characters
      */
     private boolean containsChinese(String str) {
-        return str.matches(".*[\\u4e00-\\u9fa5]+.*");
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c >= '\u4e00' && c <= '\u9fa5') {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -218,97 +200,32 @@ public class ContentBasedRecommendationService {
     }
 
     /**
-     * Compute TF-IDF vector for a product
-     */
-    private Map<String, Double> computeTFIDF(Product product, Map<String, Integer> df, int totalDocs) {
-        Map<String, Double> tfidf = new HashMap<>();
-        List<String> terms = new ArrayList<>(extractTerms(product));
-
-        // Calculate term frequency
-        Map<String, Long> tf = terms.stream()
-            .collect(Collectors.groupingBy(t -> t, Collectors.counting()));
-
-        // Calculate TF-IDF
-        for (Map.Entry<String, Long> entry : tf.entrySet()) {
-            String term = entry.getKey();
-            double termFreq = entry.getValue();
-            int docFreq = df.getOrDefault(term, 1);
-
-            // TF-IDF = (term freq / total terms) * log(total docs / doc freq)
-            double tfidfScore = (termFreq / terms.size()) * Math.log((double) totalDocs / docFreq);
-            tfidf.put(term, tfidfScore);
-        }
-
-        return tfidf;
-    }
-
-    /**
-     * Compute cosine similarity between two TF-IDF vectors
-     */
-    private double cosineSimilarity(Map<String, Double> vec1, Map<String, Double> vec2) {
-        if (vec1.isEmpty() || vec2.isEmpty()) return 0.0;
-
-        double dotProduct = 0.0;
-        double norm1 = 0.0;
-        double norm2 = 0.0;
-
-        // Compute dot product and norms
-        Set<String> allTerms = new HashSet<>();
-        allTerms.addAll(vec1.keySet());
-        allTerms.addAll(vec2.keySet());
-
-        for (String term : allTerms) {
-            double val1 = vec1.getOrDefault(term, 0.0);
-            double val2 = vec2.getOrDefault(term, 0.0);
-
-            dotProduct += val1 * val2;
-            norm1 += val1 * val1;
-            norm2 += val2 * val2;
-        }
-
-        if (norm1 == 0 || norm2 == 0) return 0.0;
-
-        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
-    }
-
-    /**
-     * Compute price similarity (exponential decay based on price difference)
-     */
-    private double computePriceSimilarity(Double price1, Double price2) {
-        if (price1 == null || price2 == null || price1 <= 0 || price2 <= 0) {
-            return 0.5; // Neutral similarity
-        }
-
-        double avgPrice = (price1 + price2) / 2;
-        double priceDiff = Math.abs(price1 - price2);
-        double relativeDiff = priceDiff / avgPrice;
-
-        // Exponential decay: similarity decreases as price difference increases
-        return Math.exp(-relativeDiff * 2);
-    }
-
-    /**
-     * Store top N similar products in Redis
+     * Store top N similar products in Redis (one pipeline per block)
      */
-    private void storeTopSimilar(Long productId, Map<Long, Double> similarities) {
-        String key = CONTENT_SIMILARITY_PREFIX + productId;
-
-        // Sort and get top N
-        List<Map.Entry<Long, Double>> topSimilar = similarities.entrySet().stream()
-            .sorted((e1, e2) -> Double.compare(e2.getValue(), e1.getValue()))
-            .limit(TOP_N_SIMILAR)
-            .collect(Collectors.toList());
-
-        // Clear old data
-        redisTemplate.delete(key);
-
-        // Store in Redis Sorted Set
-        for (Map.Entry<Long, Double> entry : topSimilar) {
-            redisTemplate.opsForZSet().add(key, entry.getKey().toString(), entry.getValue());
-        }
-
-        // Set expiration (7 days)
-        redisTemplate.expire(key, 7, TimeUnit.DAYS);
+    private void storeTopSimilar(List<TfIdfSimilarityEngine.SimilarityResult> results) {
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                for (TfIdfSimilarityEngine.SimilarityResult result : results) {
+                    String key = CONTENT_SIMILARITY_PREFIX + result.productId;
+                    // Clear old data
+                    ops.delete(key);
+                    if (result.similarIds.length == 0) {
+                        continue;
+                    }
+                    Set<ZSetOperations.TypedTuple<Object>> tuples = new HashSet<>();
+                    for (int i = 0; i < result.similarIds.length; i++) {
+                        tuples.add(new DefaultTypedTuple<>(Long.toString(result.similarIds[i]), result.scores[i]));
+                    }
+                    ops.opsForZSet().add(key, tuples);
+                    // Set expiration (7 days)
+                    ops.expire(key, 7, TimeUnit.DAYS);
+                }
+                return null;
+            }
+        });
     }
 
     /**
@@ -0,0 +1,64 @@
+package lut.cn.c2cplatform.service;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import lut.cn.c2cplatform.document.ProductDocument;
+import lut.cn.c2cplatform.dto.SearchRequestDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Elasticsearch 搜索引擎：可用性取自 SearchHealthProbe，查询失败时立即标记为不可用
+ * 索引由 ProductSearchIndexer 维护
+ */
+@Component
+public class ElasticsearchSearchEngine implements SearchEngine {
+
+    public static final String NAME = "elasticsearch";
+
+    @Autowired
+    private ElasticsearchOperations elasticsearchOperations;
+
+    @Autowired
+    private SearchHealthProbe searchHealthProbe;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return searchHealthProbe.isAvailable();
+    }
+
+    @Override
+    public List<ProductDocument> search(SearchRequestDTO request) throws Exception {
+        try {
+            List<Query> filterQueries = new ArrayList<>(SearchService.attributeFilters(request).values());
+            filterQueries.add(SearchService.statusFilter());
+
+            NativeQuery searchQuery = NativeQuery.builder()
+                    .withQuery(Query.of(q -> q.bool(b -> b.must(SearchService.keywordQuery(request)).filter(filterQueries))))
+                    .withPageable(PageRequest.of(request.getPage(), request.getSize()))
+                    .withHighlightQuery(SearchService.highlightQuery())
+                    .build();
+
+            SearchHits<ProductDocument> searchHits = elasticsearchOperations.search(searchQuery, ProductDocument.class);
+
+            return searchHits.getSearchHits().stream()
+                    .map(SearchService::withHighlights)
+                    .collect(Collectors.toList());
+        } catch (Exception e) {
+            searchHealthProbe.reportFailure(e);
+            throw e;
+        }
+    }
+}
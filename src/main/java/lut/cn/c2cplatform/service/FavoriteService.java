@@ -4,6 +4,7 @@ import lut.cn.c2cplatform.entity.Favorite;
 import lut.cn.c2cplatform.mapper.FavoriteMapper;
 import lut.cn.c2cplatform.mapper.UserMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -18,8 +19,9 @@ public class FavoriteService {
     @Autowired
     private UserMapper userMapper;
 
+    @Lazy
     @Autowired(required = false)
-    private HybridRecommendationService hybridRecommendationService;
+    private RealtimeRecommendationService realtimeRecommendationService;
 
     public boolean addFavorite(String username, Long productId) {
         var user = userMapper.selectByUsername(username);
@@ -41,9 +43,9 @@ public class FavoriteService {
 
         favoriteMapper.insert(favorite);
 
-        // Update product popularity
-        if (hybridRecommendationService != null) {
-            hybridRecommendationService.updatePopularity(productId, "favorite");
+        // Record the interaction (popularity, trending, session, NCF are updated by the recommendation consumer)
+        if (realtimeRecommendationService != null) {
+            realtimeRecommendationService.processInteraction(user.getId(), productId, "favorite");
         }
 
         return true;
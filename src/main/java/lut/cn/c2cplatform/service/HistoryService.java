@@ -5,7 +5,12 @@ import lut.cn.c2cplatform.entity.Product;
 import lut.cn.c2cplatform.mapper.ProductMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
@@ -31,7 +36,11 @@ public class HistoryService {
 
     @Lazy
     @Autowired(required = false)
-    private HybridRecommendationService hybridRecommendationService;
+    private RealtimeRecommendationService realtimeRecommendationService;
+
+    @Lazy
+    @Autowired(required = false)
+    private RecommendationEngineService recommendationEngineService;
 
     /**
      * Record a product view by a user
@@ -46,7 +55,7 @@ public class HistoryService {
         double timestamp = System.currentTimeMillis();
 
         // Add to user's browsing history (Sorted Set)
-        redisTemplate.opsForZSet().add(historyKey, productId.toString(), timestamp);
+        Boolean firstView = redisTemplate.opsForZSet().add(historyKey, productId.toString(), timestamp);
 
         // Trim to keep only last MAX_HISTORY_SIZE items
         Long size = redisTemplate.opsForZSet().zCard(historyKey);
@@ -58,9 +67,14 @@ public class HistoryService {
         // Update user interest profile based on product tags
         updateUserInterestProfile(userId, productId);
 
-        // Update product popularity
-        if (hybridRecommendationService != null) {
-            hybridRecommendationService.updatePopularity(productId, "view");
+        // Record the interaction (popularity, trending, session, NCF are updated by the recommendation consumer)
+        if (realtimeRecommendationService != null) {
+            realtimeRecommendationService.processInteraction(userId, productId, "view");
+        }
+
+        // 首次浏览该商品时增量更新 Item-CF 共现（后台执行）
+        if (Boolean.TRUE.equals(firstView) && recommendationEngineService != null) {
+            recommendationEngineService.onProductViewed(userId, productId);
         }
     }
 
@@ -174,14 +188,48 @@ public class HistoryService {
      * Get all users who have browsing history (for batch processing)
      */
     public Set<String> getAllUsersWithHistory() {
-        Set<String> keys = redisTemplate.keys(HISTORY_KEY_PREFIX + "*");
-        if (keys == null || keys.isEmpty()) {
-            return Collections.emptySet();
+        // 使用 SCAN 增量遍历，避免 KEYS 阻塞 Redis
+        Set<String> userIds = new HashSet<>();
+        ScanOptions options = ScanOptions.scanOptions().match(HISTORY_KEY_PREFIX + "*").count(1000).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                userIds.add(cursor.next().substring(HISTORY_KEY_PREFIX.length()));
+            }
         }
+        return userIds;
+    }
 
-        return keys.stream()
-            .map(key -> key.replace(HISTORY_KEY_PREFIX, ""))
-            .collect(Collectors.toSet());
+    /**
+     * 流水线批量读取多个用户的浏览商品ID（用于全量推荐计算），返回顺序与 userIds 一致
+     */
+    public List<long[]> getViewedProductIdsBatch(List<Long> userIds) {
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                for (Long userId : userIds) {
+                    ops.opsForZSet().range(HISTORY_KEY_PREFIX + userId, 0, -1);
+                }
+                return null;
+            }
+        });
+
+        List<long[]> viewed = new ArrayList<>(results.size());
+        for (Object result : results) {
+            Collection<?> items = result instanceof Collection ? (Collection<?>) result : Collections.emptyList();
+            long[] ids = new long[items.size()];
+            int n = 0;
+            for (Object item : items) {
+                try {
+                    ids[n++] = Long.parseLong(item.toString());
+                } catch (NumberFormatException e) {
+                    n--;
+                }
+            }
+            viewed.add(n == ids.length ? ids : Arrays.copyOf(ids, n));
+        }
+        return viewed;
     }
 
     /**
@@ -1,10 +1,23 @@
 package lut.cn.c2cplatform.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lut.cn.c2cplatform.util.LongDoubleHashMap;
+import lut.cn.c2cplatform.util.RedisScripts;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 
 /**
@@ -17,29 +30,182 @@ import java.util.stream.Collectors;
 @Service
 public class HybridRecommendationService {
 
-    @Autowired
-    private RecommendationEngineService collaborativeFiltering;
-
-    @Autowired
-    private ContentBasedRecommendationService contentBased;
-
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
     private static final String POPULARITY_KEY = "recommend:popularity";
+    // 热度分按“衰减时间”形式存储：增量写入时乘以 exp(rate * (now - epoch))，读取时再除回去，
+    // 衰减本身不需要写；epoch 只在放大倍数过大时由 decayPopularityScores 原子地整体重置
+    private static final String POPULARITY_EPOCH_KEY = "recommend:popularity:epoch";
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
     private static final double CF_WEIGHT = 0.4;      // 协同过滤权重
     private static final double CONTENT_WEIGHT = 0.4; // 内容相似度权重
     private static final double POPULARITY_WEIGHT = 0.2; // 热度权重
 
+    /**
+     * KEYS: item-cf ZSET, content ZSET, popularity ZSET, popularity epoch; ARGV: 每个来源取的条数
+     * 返回 {cf 成员, content 成员, 两者并集（按首次出现顺序）的热度分（未衰减的存储值）, epoch}
+     */
+    private static final RedisScript<List<Object>> HYBRID_FETCH_SCRIPT = RedisScripts.listScript(
+            "local n = tonumber(ARGV[1]) " +
+            "local cf = redis.call('ZREVRANGE', KEYS[1], 0, n - 1) " +
+            "local content = redis.call('ZREVRANGE', KEYS[2], 0, n - 1) " +
+            "local seen = {} " +
+            "local scores = {} " +
+            "for _, list in ipairs({cf, content}) do " +
+            "  for _, member in ipairs(list) do " +
+            "    if not seen[member] then " +
+            "      seen[member] = true " +
+            "      scores[#scores + 1] = redis.call('ZSCORE', KEYS[3], member) or false " +
+            "    end " +
+            "  end " +
+            "end " +
+            "return {cf, content, scores, redis.call('GET', KEYS[4])}");
+
+    /**
+     * KEYS: popularity ZSET, epoch; ARGV: now(ms), rate(1/ms), 然后是 (member, weight) 对
+     * 一次调用执行一批 ZINCRBY，放大倍数只计算一次；epoch 不存在时以当前时间初始化（已有的旧分数即视为 epoch 时刻的值）
+     * 返回写入的成员数
+     */
+    private static final RedisScript<Long> POPULARITY_INCREMENT_SCRIPT = new DefaultRedisScript<>(
+            "local now = tonumber(ARGV[1]) " +
+            "local epoch = tonumber(redis.call('GET', KEYS[2])) " +
+            "if not epoch then " +
+            "  epoch = now " +
+            "  redis.call('SET', KEYS[2], ARGV[1]) " +
+            "end " +
+            "local scale = math.exp(tonumber(ARGV[2]) * (now - epoch)) " +
+            "for i = 3, #ARGV, 2 do " +
+            "  redis.call('ZINCRBY', KEYS[1], tonumber(ARGV[i + 1]) * scale, ARGV[i]) " +
+            "end " +
+            "return (#ARGV - 2) / 2",
+            Long.class);
+
+    // 单次脚本调用最多携带的商品数，避免一次执行过久阻塞 Redis
+    private static final int POPULARITY_WRITE_CHUNK = 500;
+
+    /**
+     * KEYS: popularity ZSET, epoch; ARGV: now(ms), rate(1/ms), rebase factor
+     * 放大倍数达到阈值时用一条 ZUNIONSTORE WEIGHTS 1/scale 把所有分数折算到当前时刻并重置 epoch，
+     * 与增量脚本互斥执行，不会丢失并发写入；返回被折算的成员数（未达到阈值时返回 0）
+     */
+    private static final RedisScript<Long> POPULARITY_REBASE_SCRIPT = new DefaultRedisScript<>(
+            "local now = tonumber(ARGV[1]) " +
+            "local epoch = tonumber(redis.call('GET', KEYS[2])) " +
+            "if not epoch then return 0 end " +
+            "local scale = math.exp(tonumber(ARGV[2]) * (now - epoch)) " +
+            "if scale < tonumber(ARGV[3]) then return 0 end " +
+            "redis.call('ZUNIONSTORE', KEYS[1], 1, KEYS[1], 'WEIGHTS', 1 / scale) " +
+            "redis.call('SET', KEYS[2], ARGV[1]) " +
+            "return redis.call('ZCARD', KEYS[1])",
+            Long.class);
+
+    // 每天保留的热度比例（原先每天凌晨整体乘 0.9）
+    @Value("${recommendation.popularity.decay-per-day:0.9}")
+    private double decayPerDay;
+
+    // 存储值相对当前值的放大倍数超过该阈值时重置 epoch（按 0.9/天约每 65 天一次）
+    @Value("${recommendation.popularity.rebase-factor:1000}")
+    private double rebaseFactor;
+
+    // 热度增量在进程内按商品合并，每隔该时间（或待写商品数达到 flush-batch-size 时）批量写入一次
+    @Value("${recommendation.popularity.flush-interval-ms:200}")
+    private long popularityFlushIntervalMs;
+
+    @Value("${recommendation.popularity.flush-batch-size:1000}")
+    private int popularityFlushBatchSize;
+
+    @Value("${recommendation.hybrid.memo-ttl-millis:5000}")
+    private long memoTtlMillis;
+
+    @Value("${recommendation.hybrid.memo-max-size:10000}")
+    private long memoMaxSize;
+
+    // 热门商品的相似列表本地短期缓存，实时推荐路径（会话商品 × 候选）不再每次回源
+    private Cache<MemoKey, List<Long>> similarMemo;
+
+    private record MemoKey(long productId, int limit) {
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // 待写入的热度增量（商品ID -> 权重之和），flush 时整表换出
+    private final Object popularityLock = new Object();
+    private LongDoubleHashMap pendingPopularity = new LongDoubleHashMap();
+    private Thread popularityFlusher;
+    private volatile boolean running;
+
+    private Counter recordedIncrements;
+    private Counter writtenProducts;
+    private Counter droppedProducts;
+
+    @PostConstruct
+    public void init() {
+        similarMemo = Caffeine.newBuilder()
+                .maximumSize(memoMaxSize)
+                .expireAfterWrite(memoTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
+
+        recordedIncrements = Counter.builder("recommendation.popularity.increments")
+                .description("Popularity increments recorded in-process").register(meterRegistry);
+        writtenProducts = Counter.builder("recommendation.popularity.flushed").tag("result", "written")
+                .description("Merged per-product popularity increments flushed to Redis").register(meterRegistry);
+        droppedProducts = Counter.builder("recommendation.popularity.flushed").tag("result", "dropped")
+                .description("Merged per-product popularity increments flushed to Redis").register(meterRegistry);
+
+        running = true;
+        popularityFlusher = new Thread(this::runPopularityFlusher, "popularity-flusher");
+        popularityFlusher.setDaemon(true);
+        popularityFlusher.start();
+    }
+
+    @PreDestroy
+    public void stopPopularityFlusher() throws InterruptedException {
+        running = false;
+        popularityFlusher.interrupt();
+        popularityFlusher.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
     /**
      * Get hybrid recommendations for a product
      * Combines CF, content-based, and popularity signals
+     * Hot products are served from a short-TTL local memo; misses fetch all three signals in one Lua call
      */
     public List<Long> getHybridSimilarProducts(Long productId, int limit) {
+        // Redis 出错时 compute 返回 null：不写入 memo，避免故障期间的空结果在 TTL 内一直被返回
+        List<Long> similar = similarMemo.get(new MemoKey(productId, limit), key -> {
+            List<Long> computed = computeHybridSimilarProducts(productId, limit);
+            return computed != null ? List.copyOf(computed) : null;
+        });
+        return similar != null ? similar : Collections.emptyList();
+    }
+
+    /**
+     * 读取信号失败时返回 null（与“没有相似商品”的空列表区分）
+     */
+    private List<Long> computeHybridSimilarProducts(Long productId, int limit) {
         Map<Long, Double> combinedScores = new HashMap<>();
 
-        // 1. Get collaborative filtering recommendations
-        List<Long> cfRecommendations = collaborativeFiltering.getSimilarProducts(productId, limit * 2);
+        // One round trip: item-CF list, content list and popularity of their union
+        List<?> signals;
+        try {
+            signals = redisTemplate.execute(HYBRID_FETCH_SCRIPT,
+                    List.of(RecommendationEngineService.RECOMMEND_KEY_PREFIX + productId,
+                            ContentBasedRecommendationService.CONTENT_SIMILARITY_PREFIX + productId,
+                            POPULARITY_KEY,
+                            POPULARITY_EPOCH_KEY),
+                    limit * 2);
+        } catch (Exception e) {
+            System.err.println("Failed to fetch hybrid signals for product " + productId + ": " + e.getMessage());
+            return null;
+        }
+        if (signals == null || signals.size() < 3) {
+            return Collections.emptyList();
+        }
+
+        // 1. Collaborative filtering recommendations
+        List<Long> cfRecommendations = toIds(signals.get(0));
         for (int i = 0; i < cfRecommendations.size(); i++) {
             Long recId = cfRecommendations.get(i);
             // Score decreases with rank
@@ -47,16 +213,32 @@ public class HybridRecommendationService {
             combinedScores.merge(recId, score * CF_WEIGHT, Double::sum);
         }
 
-        // 2. Get content-based recommendations
-        List<Long> contentRecommendations = contentBased.getContentBasedSimilar(productId, limit * 2);
+        // 2. Content-based recommendations
+        List<Long> contentRecommendations = toIds(signals.get(1));
         for (int i = 0; i < contentRecommendations.size(); i++) {
             Long recId = contentRecommendations.get(i);
             double score = (contentRecommendations.size() - i) / (double) contentRecommendations.size();
             combinedScores.merge(recId, score * CONTENT_WEIGHT, Double::sum);
         }
 
-        // 3. Add popularity boost
-        addPopularityBoost(combinedScores);
+        // 3. Popularity boost (scores come back in first-seen order of cf + content, stored in decayed-time form)
+        if (signals.get(2) instanceof List<?> popularity) {
+            double decay = signals.size() > 3 && signals.get(3) != null
+                    ? popularityDecay(Long.parseLong(signals.get(3).toString()), System.currentTimeMillis())
+                    : 1.0;
+            Set<Long> ordered = new LinkedHashSet<>(cfRecommendations);
+            ordered.addAll(contentRecommendations);
+            int i = 0;
+            for (Long recId : ordered) {
+                Object value = i < popularity.size() ? popularity.get(i) : null;
+                i++;
+                if (value == null) continue;
+                double score = Double.parseDouble(value.toString()) * decay;
+                if (score > 0) {
+                    combinedScores.merge(recId, score * POPULARITY_WEIGHT, Double::sum);
+                }
+            }
+        }
 
         // Sort by combined score and return top N
         return combinedScores.entrySet().stream()
@@ -66,46 +248,83 @@ public class HybridRecommendationService {
             .collect(Collectors.toList());
     }
 
+    private List<Long> toIds(Object members) {
+        if (!(members instanceof List<?> list)) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(list.size());
+        for (Object member : list) {
+            ids.add(Long.parseLong(member.toString()));
+        }
+        return ids;
+    }
+
     /**
-     * Add popularity boost to scores
+     * Update product popularity score
+     * Should be called when users interact with products
+     * Only merges the weight into the in-process buffer; the flusher thread writes it to Redis
      */
-    private void addPopularityBoost(Map<Long, Double> scores) {
-        try {
-            for (Long productId : scores.keySet()) {
-                Double popularity = getPopularityScore(productId);
-                if (popularity != null && popularity > 0) {
-                    scores.merge(productId, popularity * POPULARITY_WEIGHT, Double::sum);
-                }
-            }
-        } catch (Exception e) {
-            // Silent fail - popularity is optional
-            System.err.println("Failed to add popularity boost: " + e.getMessage());
+    public void updatePopularity(Long productId, String action) {
+        if (productId == null) {
+            return;
+        }
+        double increment = getActionWeight(action);
+        boolean full;
+        synchronized (popularityLock) {
+            pendingPopularity.addTo(productId, increment);
+            full = pendingPopularity.size() >= popularityFlushBatchSize;
+        }
+        recordedIncrements.increment();
+        if (full) {
+            LockSupport.unpark(popularityFlusher);
         }
     }
 
     /**
-     * Get popularity score for a product
-     * Based on views, favorites, orders, etc.
+     * Flusher loop: wakes every flush interval (or early when the buffer is full); flushes once more on shutdown
      */
-    private Double getPopularityScore(Long productId) {
-        try {
-            Double score = redisTemplate.opsForZSet().score(POPULARITY_KEY, productId.toString());
-            return score != null ? score : 0.0;
-        } catch (Exception e) {
-            return 0.0;
+    private void runPopularityFlusher() {
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(popularityFlushIntervalMs));
+            flushPopularity();
         }
+        flushPopularity();
     }
 
     /**
-     * Update product popularity score
-     * Should be called when users interact with products
+     * Swap out the buffered increments and write them with one increment script call per chunk
+     * A failed write drops that chunk (popularity is a ranking signal, the next interactions refill it)
      */
-    public void updatePopularity(Long productId, String action) {
-        try {
-            double increment = getActionWeight(action);
-            redisTemplate.opsForZSet().incrementScore(POPULARITY_KEY, productId.toString(), increment);
-        } catch (Exception e) {
-            System.err.println("Failed to update popularity: " + e.getMessage());
+    private void flushPopularity() {
+        LongDoubleHashMap batch;
+        synchronized (popularityLock) {
+            if (pendingPopularity.isEmpty()) {
+                return;
+            }
+            batch = pendingPopularity;
+            pendingPopularity = new LongDoubleHashMap(batch.size());
+        }
+
+        long now = System.currentTimeMillis();
+        double rate = decayRatePerMilli();
+        List<Object> args = new ArrayList<>(2 + 2 * Math.min(batch.size(), POPULARITY_WRITE_CHUNK));
+        long[] productIds = batch.keys();
+        for (int start = 0; start < productIds.length; start += POPULARITY_WRITE_CHUNK) {
+            int end = Math.min(productIds.length, start + POPULARITY_WRITE_CHUNK);
+            args.clear();
+            args.add(now);
+            args.add(rate);
+            for (int i = start; i < end; i++) {
+                args.add(Long.toString(productIds[i]));
+                args.add(batch.get(productIds[i]));
+            }
+            try {
+                redisTemplate.execute(POPULARITY_INCREMENT_SCRIPT, List.of(POPULARITY_KEY, POPULARITY_EPOCH_KEY), args.toArray());
+                writtenProducts.increment(end - start);
+            } catch (Exception e) {
+                droppedProducts.increment(end - start);
+                System.err.println("Failed to update popularity for " + (end - start) + " products: " + e.getMessage());
+            }
         }
     }
 
@@ -113,6 +332,9 @@ public class HybridRecommendationService {
      * Get weight for different user actions
      */
     private double getActionWeight(String action) {
+        if (action == null) {
+            return 1.0;
+        }
         switch (action.toLowerCase()) {
             case "view":
                 return 1.0;
@@ -154,28 +376,33 @@ public class HybridRecommendationService {
     /**
      * Decay old popularity scores (scheduled maintenance)
      * Prevents old popular items from dominating forever
+     * Scores decay continuously through the time-scaled increments, so this only rebases the stored
+     * values once the scale grows past the threshold: one atomic ZUNIONSTORE on the server, no per-member round trips
      */
     public void decayPopularityScores() {
         try {
-            Set<Object> allProducts = redisTemplate.opsForZSet().range(POPULARITY_KEY, 0, -1);
-            if (allProducts == null || allProducts.isEmpty()) {
-                return;
+            Long rebased = redisTemplate.execute(POPULARITY_REBASE_SCRIPT, List.of(POPULARITY_KEY, POPULARITY_EPOCH_KEY),
+                    System.currentTimeMillis(), decayRatePerMilli(), rebaseFactor);
+            if (rebased != null && rebased > 0) {
+                System.out.println("Rebased popularity scores for " + rebased + " products");
             }
-
-            // Decay by 10%
-            double decayFactor = 0.9;
-            for (Object productId : allProducts) {
-                Double currentScore = redisTemplate.opsForZSet().score(POPULARITY_KEY, productId.toString());
-                if (currentScore != null && currentScore > 0) {
-                    double newScore = currentScore * decayFactor;
-                    redisTemplate.opsForZSet().add(POPULARITY_KEY, productId.toString(), newScore);
-                }
-            }
-
-            System.out.println("Decayed popularity scores for " + allProducts.size() + " products");
         } catch (Exception e) {
             System.err.println("Failed to decay popularity scores: " + e.getMessage());
         }
     }
+
+    /**
+     * 连续衰减速率：每天乘 decayPerDay 对应的指数速率（1/ms）
+     */
+    private double decayRatePerMilli() {
+        return -Math.log(decayPerDay) / DAY_MILLIS;
+    }
+
+    /**
+     * 存储值换算为当前热度的系数
+     */
+    private double popularityDecay(long epoch, long now) {
+        return Math.exp(-decayRatePerMilli() * (now - epoch));
+    }
 }
 
@@ -0,0 +1,498 @@
+package lut.cn.c2cplatform.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lut.cn.c2cplatform.document.ProductDocument;
+import lut.cn.c2cplatform.dto.SearchRequestDTO;
+import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.event.ProductCreatedEvent;
+import lut.cn.c2cplatform.event.ProductDeletedEvent;
+import lut.cn.c2cplatform.event.ProductUpdatedEvent;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 嵌入式 Lucene 搜索引擎：每个节点在本地磁盘（内存映射目录）维护一份商品索引，查询不经过网络
+ *
+ * - 适用于不部署 ES 的小流量环境，也可作为 ES 故障时的本地备用引擎，以及单机上可复现的查询延迟基准
+ * - 索引来源与 ES 相同：事务提交后的 ProductCreatedEvent / ProductUpdatedEvent / ProductDeletedEvent，
+ *   在售且有库存的商品写入，其余删除；本地索引为空时（首次启动）后台从 MySQL 按主键分块全量构建，
+ *   构建失败则退避重试，成功前不对外提供查询
+ * - 每次提交在 commit user data 里记录同步水位；重启时把水位之后更新过的商品从 MySQL 补写进索引，
+ *   弥补停机期间错过的事件（停机期间被物理删除的商品留在索引里，回填详情时会被过滤掉）
+ * - 写入只进 IndexWriter 的内存缓冲，后台线程每 refresh-interval-ms 打开新的 searcher（近实时），
+ *   每 commit-interval-ms 提交一次到磁盘
+ * - 查询语义与 ES 的 multi_match 对齐：name（权重 2）、description 分词匹配取最佳字段，category 精确匹配；
+ *   没有高亮组件，高亮字段取原文
+ */
+@Component
+@ConditionalOnExpression("${search.lucene.enabled:false} or '${search.engine:elasticsearch}' == 'lucene'")
+public class LuceneSearchEngine implements SearchEngine {
+
+    public static final String NAME = "lucene";
+
+    private static final String F_ID = "id";
+    private static final String F_PRODUCT_ID = "productId";
+    private static final String F_USER_ID = "userId";
+    private static final String F_NAME = "name";
+    private static final String F_DESCRIPTION = "description";
+    private static final String F_CATEGORY = "category";
+    private static final String F_LOCATION = "location";
+    private static final String F_CONDITION = "conditionLevel";
+    private static final String F_PRICE = "price";
+    private static final String F_CREATED_AT = "createdAt";
+
+    // 提交数据中的同步水位（毫秒时间戳）：此前提交到 MySQL 的商品变更都已写入本地索引
+    private static final String SYNCED_AT = "syncedAt";
+    // 水位留出的余量：覆盖事务提交到事件写入索引之间的间隔和节点间的时钟偏差
+    private static final long SYNC_MARGIN_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_RETRY_BACKOFF_MS = TimeUnit.MINUTES.toMillis(1);
+
+    @Value("${search.lucene.path:data/lucene/products}")
+    private String indexPath;
+
+    @Value("${search.lucene.refresh-interval-ms:500}")
+    private long refreshIntervalMs;
+
+    @Value("${search.lucene.commit-interval-ms:10000}")
+    private long commitIntervalMs;
+
+    @Value("${search.reindex.chunk-size:1000}")
+    private int rebuildChunkSize;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private MMapDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+
+    // 首次全量构建完成前不对外提供查询，避免返回不完整的结果
+    private volatile boolean ready;
+    // 启动时的全量构建或补写完成后才推进同步水位，否则重启后会漏掉中间的变更
+    private volatile boolean synced;
+    private Thread refreshThread;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void open() throws IOException {
+        Path path = Paths.get(indexPath);
+        Files.createDirectories(path);
+        directory = new MMapDirectory(path);
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        writer = new IndexWriter(directory, config);
+        searcherManager = new SearcherManager(writer, null);
+
+        boolean empty = writer.getDocStats().numDocs == 0;
+        Long syncedAt = empty ? null : readSyncedAt();
+        ready = !empty;
+
+        running = true;
+        refreshThread = new Thread(() -> runRefresher(syncedAt), "lucene-refresher");
+        refreshThread.setDaemon(true);
+        refreshThread.start();
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        running = false;
+        LockSupport.unpark(refreshThread);
+        refreshThread.join(TimeUnit.SECONDS.toMillis(5));
+        searcherManager.close();
+        if (synced) {
+            commit(System.currentTimeMillis());
+        } else {
+            writer.commit();
+        }
+        writer.close();
+        directory.close();
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return ready;
+    }
+
+    // ==================== 索引写入 ====================
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleProductCreated(ProductCreatedEvent event) {
+        indexSafely(event.getProduct());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleProductUpdated(ProductUpdatedEvent event) {
+        indexSafely(event.getProduct());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleProductDeleted(ProductDeletedEvent event) {
+        try {
+            delete(event.getProductId());
+        } catch (IOException e) {
+            System.err.println("Lucene delete failed for product " + event.getProductId() + ": " + e.getMessage());
+        }
+    }
+
+    private void indexSafely(Product product) {
+        try {
+            index(product);
+        } catch (IOException e) {
+            System.err.println("Lucene index failed for product " + product.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 写入或删除一个商品（按商品ID覆盖），对查询可见要等下一次刷新
+     */
+    public void index(Product product) throws IOException {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        if (!ProductSearchIndexer.isSearchable(product)) {
+            delete(product.getId());
+            return;
+        }
+        writer.updateDocument(new Term(F_ID, String.valueOf(product.getId())), toLuceneDocument(product));
+    }
+
+    public void delete(Long productId) throws IOException {
+        if (productId != null) {
+            writer.deleteDocuments(new Term(F_ID, String.valueOf(productId)));
+        }
+    }
+
+    /**
+     * 立即让已写入的变更对查询可见
+     */
+    public void refresh() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    /**
+     * 从 MySQL 按主键分块全量重建本地索引，返回写入的商品数
+     */
+    public int rebuild() throws IOException {
+        long startedAt = System.currentTimeMillis();
+        writer.deleteAll();
+        int indexed = 0;
+        long afterId = 0;
+        while (true) {
+            List<Product> chunk = productMapper.selectChunkAfterId(afterId, rebuildChunkSize);
+            if (chunk.isEmpty()) {
+                break;
+            }
+            for (Product product : chunk) {
+                if (ProductSearchIndexer.isSearchable(product)) {
+                    // 按ID覆盖：构建期间事件可能已经写入了后面分块中的商品，addDocument 会留下两份
+                    writer.updateDocument(new Term(F_ID, String.valueOf(product.getId())), toLuceneDocument(product));
+                    indexed++;
+                }
+            }
+            afterId = chunk.get(chunk.size() - 1).getId();
+        }
+        commit(startedAt);
+        refresh();
+        return indexed;
+    }
+
+    /**
+     * 把 since 之后更新过的商品按数据库当前状态补写进索引（在售有库存的写入，其余删除），返回处理的商品数
+     */
+    public int indexUpdatedSince(LocalDateTime since) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        List<Long> ids = productMapper.selectIdsUpdatedSince(since);
+        for (int from = 0; from < ids.size(); from += rebuildChunkSize) {
+            List<Long> chunk = ids.subList(from, Math.min(from + rebuildChunkSize, ids.size()));
+            Map<Long, Product> products = productMapper.selectAllByIds(chunk).stream()
+                    .collect(Collectors.toMap(Product::getId, Function.identity()));
+            for (Long id : chunk) {
+                Product product = products.get(id);
+                if (product != null) {
+                    index(product);
+                } else {
+                    delete(id);
+                }
+            }
+        }
+        commit(startedAt);
+        refresh();
+        return ids.size();
+    }
+
+    /**
+     * 提交到磁盘并记录同步水位：startedAt 是这批数据开始从 MySQL 读取的时间
+     */
+    private void commit(long startedAt) throws IOException {
+        writer.setLiveCommitData(Map.of(SYNCED_AT, String.valueOf(startedAt - SYNC_MARGIN_MS)).entrySet());
+        writer.commit();
+    }
+
+    /**
+     * 读取上一次提交记录的同步水位；旧版本写出的索引没有水位，返回 null 走全量构建
+     */
+    private Long readSyncedAt() {
+        Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+        if (commitData != null) {
+            for (Map.Entry<String, String> entry : commitData) {
+                if (SYNCED_AT.equals(entry.getKey())) {
+                    return Long.parseLong(entry.getValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 启动同步：索引为空或没有水位时全量构建，否则补写水位之后的变更；成功后开放查询
+     */
+    private void syncFromDatabase(Long syncedAt) throws IOException {
+        if (syncedAt == null) {
+            int indexed = rebuild();
+            System.out.println("Lucene index built from MySQL: " + indexed + " products");
+        } else {
+            LocalDateTime since = LocalDateTime.ofInstant(Instant.ofEpochMilli(syncedAt), ZoneId.systemDefault());
+            int updated = indexUpdatedSince(since);
+            System.out.println("Lucene index caught up from MySQL: " + updated + " products updated since " + since);
+        }
+        synced = true;
+        ready = true;
+    }
+
+    private void runRefresher(Long syncedAt) {
+        // 同步失败（如数据库不可用）时退避重试：空索引保持不可用，由 SearchService 降级到其他引擎；
+        // 已有索引继续提供查询，但不推进水位
+        long backoffMs = refreshIntervalMs;
+        while (running && !synced) {
+            try {
+                syncFromDatabase(syncedAt);
+            } catch (Exception e) {
+                System.err.println("Lucene index sync failed, retrying in " + backoffMs + "ms: " + e.getMessage());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMs));
+                backoffMs = Math.min(backoffMs * 2, MAX_RETRY_BACKOFF_MS);
+            }
+        }
+        long lastCommit = System.nanoTime();
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(refreshIntervalMs));
+            try {
+                searcherManager.maybeRefresh();
+                if (System.nanoTime() - lastCommit >= TimeUnit.MILLISECONDS.toNanos(commitIntervalMs)) {
+                    if (writer.hasUncommittedChanges()) {
+                        commit(System.currentTimeMillis());
+                    }
+                    lastCommit = System.nanoTime();
+                }
+            } catch (Exception e) {
+                System.err.println("Lucene refresh failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Document toLuceneDocument(Product product) {
+        Document doc = new Document();
+        doc.add(new StringField(F_ID, String.valueOf(product.getId()), Field.Store.NO));
+        doc.add(new StoredField(F_PRODUCT_ID, product.getId()));
+        doc.add(new NumericDocValuesField(F_PRODUCT_ID, product.getId()));
+        if (product.getUserId() != null) {
+            doc.add(new StoredField(F_USER_ID, product.getUserId()));
+        }
+        doc.add(new TextField(F_NAME, nullToEmpty(product.getName()), Field.Store.YES));
+        doc.add(new TextField(F_DESCRIPTION, nullToEmpty(product.getDescription()), Field.Store.YES));
+        if (product.getCategory() != null) {
+            doc.add(new StringField(F_CATEGORY, product.getCategory(), Field.Store.YES));
+        }
+        if (product.getLocation() != null) {
+            doc.add(new StringField(F_LOCATION, product.getLocation(), Field.Store.YES));
+        }
+        if (product.getConditionLevel() != null) {
+            doc.add(new IntPoint(F_CONDITION, product.getConditionLevel()));
+            doc.add(new StoredField(F_CONDITION, product.getConditionLevel()));
+        }
+        if (product.getPrice() != null) {
+            doc.add(new DoublePoint(F_PRICE, product.getPrice().doubleValue()));
+            doc.add(new StoredField(F_PRICE, product.getPrice().toPlainString()));
+        }
+        if (product.getCreatedAt() != null) {
+            doc.add(new StoredField(F_CREATED_AT,
+                    product.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        }
+        return doc;
+    }
+
+    // ==================== 查询 ====================
+
+    @Override
+    public List<ProductDocument> search(SearchRequestDTO request) throws IOException {
+        int page = request.getPage() != null ? Math.max(request.getPage(), 0) : 0;
+        int size = request.getSize() != null ? Math.max(request.getSize(), 1) : 20;
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            // 相关度优先，商品ID作为稳定的次序
+            Sort sort = new Sort(SortField.FIELD_SCORE, new SortField(F_PRODUCT_ID, SortField.Type.LONG));
+            TopFieldDocs top = searcher.search(buildQuery(request), (page + 1) * size, sort, true);
+            ScoreDoc[] scoreDocs = top.scoreDocs;
+
+            StoredFields storedFields = searcher.storedFields();
+            List<ProductDocument> hits = new ArrayList<>(size);
+            for (int i = page * size; i < scoreDocs.length; i++) {
+                hits.add(toProductDocument(storedFields.document(scoreDocs[i].doc)));
+            }
+            return hits;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private Query buildQuery(SearchRequestDTO request) throws IOException {
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+
+        String keyword = request.getKeyword() != null ? request.getKeyword().trim() : "";
+        if (!keyword.isEmpty()) {
+            List<Query> fields = new ArrayList<>();
+            fields.add(new BoostQuery(matchQuery(F_NAME, keyword), 2f));
+            fields.add(matchQuery(F_DESCRIPTION, keyword));
+            fields.add(new TermQuery(new Term(F_CATEGORY, keyword)));
+            query.add(new DisjunctionMaxQuery(fields, 0f), BooleanClause.Occur.MUST);
+        } else {
+            query.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        }
+
+        if (request.getMinPrice() != null || request.getMaxPrice() != null) {
+            double min = request.getMinPrice() != null ? request.getMinPrice().doubleValue() : Double.NEGATIVE_INFINITY;
+            double max = request.getMaxPrice() != null ? request.getMaxPrice().doubleValue() : Double.POSITIVE_INFINITY;
+            query.add(DoublePoint.newRangeQuery(F_PRICE, min, max), BooleanClause.Occur.FILTER);
+        }
+        if (request.getConditionLevel() != null) {
+            query.add(IntPoint.newExactQuery(F_CONDITION, request.getConditionLevel()), BooleanClause.Occur.FILTER);
+        }
+        if (request.getLocation() != null && !request.getLocation().trim().isEmpty()) {
+            query.add(new TermQuery(new Term(F_LOCATION, request.getLocation())), BooleanClause.Occur.FILTER);
+        }
+        if (request.getCategory() != null && !request.getCategory().trim().isEmpty()) {
+            List<BytesRef> categories = Arrays.stream(request.getCategory().split(","))
+                    .map(String::trim)
+                    .filter(c -> !c.isEmpty())
+                    .map(BytesRef::new)
+                    .collect(Collectors.toList());
+            if (!categories.isEmpty()) {
+                query.add(new TermInSetQuery(F_CATEGORY, categories), BooleanClause.Occur.FILTER);
+            }
+        }
+        return query.build();
+    }
+
+    /**
+     * 分词后任一词命中即可（与 ES match 的默认 OR 一致）；3 个字符以上的词允许拼写误差（对应 fuzziness AUTO）
+     */
+    private Query matchQuery(String field, String text) throws IOException {
+        BooleanQuery.Builder terms = new BooleanQuery.Builder();
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                String token = term.toString();
+                int length = token.codePointCount(0, token.length());
+                Term t = new Term(field, token);
+                terms.add(length < 3 ? new TermQuery(t) : new FuzzyQuery(t, length <= 5 ? 1 : 2),
+                        BooleanClause.Occur.SHOULD);
+            }
+            stream.end();
+        }
+        return terms.build();
+    }
+
+    private static ProductDocument toProductDocument(Document stored) {
+        ProductDocument doc = new ProductDocument();
+        Long productId = stored.getField(F_PRODUCT_ID).numericValue().longValue();
+        doc.setId(String.valueOf(productId));
+        doc.setProductId(productId);
+        if (stored.getField(F_USER_ID) != null) {
+            doc.setUserId(stored.getField(F_USER_ID).numericValue().longValue());
+        }
+        doc.setName(stored.get(F_NAME));
+        doc.setDescription(stored.get(F_DESCRIPTION));
+        doc.setCategory(stored.get(F_CATEGORY));
+        doc.setLocation(stored.get(F_LOCATION));
+        if (stored.getField(F_CONDITION) != null) {
+            doc.setConditionLevel(stored.getField(F_CONDITION).numericValue().intValue());
+        }
+        if (stored.get(F_PRICE) != null) {
+            doc.setPrice(new BigDecimal(stored.get(F_PRICE)));
+        }
+        if (stored.getField(F_CREATED_AT) != null) {
+            doc.setCreatedAt(LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(stored.getField(F_CREATED_AT).numericValue().longValue()), ZoneId.systemDefault()));
+        }
+        doc.setStatus(1);
+        doc.setHighlightedName(doc.getName());
+        doc.setHighlightedDescription(doc.getDescription());
+        return doc;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -73,17 +73,23 @@ public class MultiObjectiveOptimizationService {
     public List<Long> getMultiObjectiveRecommendations(Long userId, List<Long> candidates, int topK) {
         List<ScoredCandidate> scoredCandidates = new ArrayList<>();
 
-        for (Long productId : candidates) {
+        // NCF affinity (shared by CTR / CVR / revenue) and trending signal for all candidates in one batch each
+        long[] candidateIds = candidates.stream().mapToLong(Long::longValue).toArray();
+        double[] ncfScores = ncfService.scoreBatch(userId, candidateIds);
+        double[] trendingScores = realtimeService.getTrendingScores(candidateIds);
+
+        for (int i = 0; i < candidates.size(); i++) {
+            Long productId = candidates.get(i);
             ScoredCandidate candidate = new ScoredCandidate(productId);
 
             // 1. Predict CTR (click-through rate)
-            candidate.setCtrScore(predictCTR(userId, productId));
+            candidate.setCtrScore(predictCTR(ncfScores[i], trendingScores[i]));
 
             // 2. Predict CVR (conversion rate)
-            candidate.setCvrScore(predictCVR(userId, productId));
+            candidate.setCvrScore(predictCVR(ncfScores[i]));
 
             // 3. Predict Revenue
-            candidate.setRevenueScore(predictRevenue(userId, productId));
+            candidate.setRevenueScore(predictRevenue(ncfScores[i]));
 
             scoredCandidates.add(candidate);
         }
@@ -164,36 +170,29 @@ public class MultiObjectiveOptimizationService {
     /**
      * Predict Click-Through Rate
      */
-    private double predictCTR(Long userId, Long productId) {
-        // Use NCF for CTR prediction
-        double ncfScore = ncfService.predictScore(userId, productId);
-
-        // Boost with real-time trending signal
-        double trendingBoost = realtimeService.getTrendingScore(productId);
-
+    private double predictCTR(double ncfScore, double trendingBoost) {
+        // Use NCF for CTR prediction, boost with real-time trending signal
         return 0.7 * ncfScore + 0.3 * trendingBoost;
     }
 
     /**
      * Predict Conversion Rate
      */
-    private double predictCVR(Long userId, Long productId) {
+    private double predictCVR(double userAffinity) {
         // CVR is typically lower than CTR
         // Use user's historical conversion pattern
         double baseCVR = 0.1; // Average CVR
 
-        // Adjust based on user affinity
-        double userAffinity = ncfService.predictScore(userId, productId);
-
+        // Adjust based on user affinity (NCF score)
         return baseCVR * userAffinity;
     }
 
     /**
      * Predict Revenue (expected value)
      */
-    private double predictRevenue(Long userId, Long productId) {
+    private double predictRevenue(double userAffinity) {
         // Revenue = CVR * Average Order Value
-        double cvr = predictCVR(userId, productId);
+        double cvr = predictCVR(userAffinity);
 
         // Estimate product value (simplified - would use actual price in production)
         double estimatedValue = 50.0; // Placeholder
@@ -1,13 +1,31 @@
 package lut.cn.c2cplatform.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lut.cn.c2cplatform.util.LongObjectHashMap;
+import lut.cn.c2cplatform.util.NcfModel;
+import lut.cn.c2cplatform.util.TopKHeap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * Neural Collaborative Filtering (NCF) Service
@@ -18,6 +36,14 @@ import java.util.stream.Collectors;
  * - MLP Layers: Multi-layer perceptron for feature learning
  * - Prediction Layer: Final score prediction
  *
+ * Embeddings are served from an in-process float32 store (NcfModel) backed by Redis,
+ * the fixed MLP weights are materialized once and candidates are scored in batches.
+ * Online training is write-behind: interactions go to a bounded queue and a background
+ * trainer applies them in micro-batches (gradients merged per user / per item).
+ * Embeddings are stored as Redis hashes (one field per dimension) and each micro-batch adds its
+ * summed deltas with HINCRBYFLOAT in one script, so trainers on different nodes never overwrite
+ * each other's updates with a stale local copy.
+ *
  * Note: This is a simplified version. For production, consider using:
  * - TensorFlow/PyTorch for actual deep learning
  * - Separate Python service for model training
@@ -29,46 +55,120 @@ public class NCFRecommendationService {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
     @Lazy
     @Autowired
     private HistoryService historyService;
 
-    private static final String NCF_EMBEDDING_PREFIX = "ncf:embedding:";
+    private static final String NCF_EMBEDDING_PREFIX = "ncf:embedding:v2:";
+    // 旧格式：整个向量 JSON 序列化为一个值（整体覆盖写入）；只在新格式缺失时读取，不再写入，随 TTL 过期
+    private static final String LEGACY_EMBEDDING_PREFIX = "ncf:embedding:";
+    private static final long EMBEDDING_TTL_SECONDS = TimeUnit.DAYS.toSeconds(7);
     private static final String NCF_PREDICTION_PREFIX = "ncf:prediction:";
     private static final int EMBEDDING_DIM = 32;
     private static final double LEARNING_RATE = 0.001;
+    private static final long MLP_WEIGHT_SEED = 42L;
+
+    // 进程内嵌入超过该时间后在下次打分时从 Redis 重新加载（其他节点的在线学习结果）
+    @Value("${ncf.embedding.refresh-seconds:300}")
+    private long refreshSeconds;
+
+    // 进程内嵌入表的行数上限（用户表、商品表各自），超过后淘汰最近没有被读到的行
+    @Value("${ncf.embedding.max-rows:200000}")
+    private int maxRows;
+
+    @Value("${ncf.training.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${ncf.training.batch-size:256}")
+    private int batchSize;
+
+    @Value("${ncf.training.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    // 队列满时请求线程最多等待的时间（背压），超时则丢弃该次更新
+    @Value("${ncf.training.enqueue-timeout-ms:5}")
+    private long enqueueTimeoutMs;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 原子累加训练增量：KEYS 为嵌入 hash，ARGV[1] 为 TTL 秒数，随后每个 key 依次是 dim 个基准值和 dim 个增量
+     * key 不存在时先用基准值（本节点的当前嵌入：确定性初始值或旧格式的值）建立，再累加增量
+     */
+    private static final RedisScript<Long> ADD_DELTAS_SCRIPT = new DefaultRedisScript<>(
+            "local dim = (#ARGV - 1) / (2 * #KEYS)\n" +
+            "for k = 1, #KEYS do\n" +
+            "  local base = 1 + (k - 1) * 2 * dim\n" +
+            "  if redis.call('EXISTS', KEYS[k]) == 0 then\n" +
+            "    for i = 1, dim do\n" +
+            "      redis.call('HSET', KEYS[k], i - 1, ARGV[base + i])\n" +
+            "    end\n" +
+            "  end\n" +
+            "  for i = 1, dim do\n" +
+            "    redis.call('HINCRBYFLOAT', KEYS[k], i - 1, ARGV[base + dim + i])\n" +
+            "  end\n" +
+            "  redis.call('EXPIRE', KEYS[k], ARGV[1])\n" +
+            "end\n" +
+            "return #KEYS",
+            Long.class);
+
+    private NcfModel model;
+
+    private BlockingQueue<Interaction> trainingQueue;
+    private Thread trainerThread;
+    private volatile boolean running;
+
+    private Counter appliedInteractions;
+    private Counter droppedInteractions;
+    private Timer batchTimer;
+    private Timer trainingLag;
+
+    @PostConstruct
+    public void startTrainer() {
+        model = new NcfModel(EMBEDDING_DIM, MLP_WEIGHT_SEED, maxRows);
+        trainingQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        appliedInteractions = Counter.builder("ncf.training.interactions").tag("result", "applied")
+                .description("NCF online training interactions").register(meterRegistry);
+        droppedInteractions = Counter.builder("ncf.training.interactions").tag("result", "dropped")
+                .description("NCF online training interactions").register(meterRegistry);
+        batchTimer = Timer.builder("ncf.training.batch")
+                .description("Time to apply one NCF training micro-batch").register(meterRegistry);
+        trainingLag = Timer.builder("ncf.training.lag")
+                .description("Enqueue-to-apply delay of the oldest interaction in a batch").register(meterRegistry);
+        Gauge.builder("ncf.training.queue.depth", trainingQueue, BlockingQueue::size).register(meterRegistry);
+        Gauge.builder("ncf.training.queue.lag", this, NCFRecommendationService::queueLagMillis)
+                .baseUnit("milliseconds").register(meterRegistry);
+        registerTableMetrics("user", model.users());
+        registerTableMetrics("item", model.items());
+
+        running = true;
+        trainerThread = new Thread(this::runTrainer, "ncf-trainer");
+        trainerThread.setDaemon(true);
+        trainerThread.start();
+    }
+
+    @PreDestroy
+    public void stopTrainer() throws InterruptedException {
+        running = false;
+        trainerThread.interrupt();
+        trainerThread.join(TimeUnit.SECONDS.toMillis(5));
+    }
 
     /**
      * Initialize user and item embeddings
      * In production, these would be learned from a neural network
      */
     public void initializeEmbeddings(Long userId) {
-        String key = NCF_EMBEDDING_PREFIX + "user:" + userId;
-
-        if (!Boolean.TRUE.equals(redisTemplate.hasKey(key))) {
-            // Initialize with random values (in production, load from trained model)
-            double[] embedding = new double[EMBEDDING_DIM];
-            Random random = new Random(userId);
-            for (int i = 0; i < EMBEDDING_DIM; i++) {
-                embedding[i] = random.nextGaussian() * 0.1; // Xavier initialization
-            }
-
-            redisTemplate.opsForValue().set(key, embedding, 7, TimeUnit.DAYS);
-        }
+        ensureLoaded(model.users(), "user:", new long[]{userId});
     }
 
     public void initializeItemEmbedding(Long productId) {
-        String key = NCF_EMBEDDING_PREFIX + "item:" + productId;
-
-        if (!Boolean.TRUE.equals(redisTemplate.hasKey(key))) {
-            double[] embedding = new double[EMBEDDING_DIM];
-            Random random = new Random(productId);
-            for (int i = 0; i < EMBEDDING_DIM; i++) {
-                embedding[i] = random.nextGaussian() * 0.1;
-            }
-
-            redisTemplate.opsForValue().set(key, embedding, 7, TimeUnit.DAYS);
-        }
+        ensureLoaded(model.items(), "item:", new long[]{productId});
     }
 
     /**
@@ -76,74 +176,64 @@ public class NCFRecommendationService {
      * Combines GMF (Generalized Matrix Factorization) and MLP
      */
     public double predictScore(Long userId, Long productId) {
-        initializeEmbeddings(userId);
-        initializeItemEmbedding(productId);
-
-        // Get embeddings
-        double[] userEmbedding = getUserEmbedding(userId);
-        double[] itemEmbedding = getItemEmbedding(productId);
+        return scoreBatch(userId, new long[]{productId})[0];
+    }
 
-        if (userEmbedding == null || itemEmbedding == null) {
-            return 0.0;
+    /**
+     * Batch scoring: loads missing/stale embeddings in at most two Redis round trips,
+     * then runs GMF + MLP over the in-process float32 tables
+     */
+    public double[] scoreBatch(Long userId, long[] candidates) {
+        ensureLoaded(model.users(), "user:", new long[]{userId});
+        ensureLoaded(model.items(), "item:", candidates);
+
+        double[] scores = model.scoreBatch(userId, candidates);
+        for (int i = 0; i < scores.length; i++) {
+            if (Double.isNaN(scores[i])) {
+                scores[i] = 0.0;
+            }
         }
-
-        // GMF part: Element-wise product
-        double gmfScore = computeGMF(userEmbedding, itemEmbedding);
-
-        // MLP part: Concatenate and pass through neural network
-        double mlpScore = computeMLP(userEmbedding, itemEmbedding);
-
-        // Combine scores (NeuMF: Neural Matrix Factorization)
-        double finalScore = 0.5 * gmfScore + 0.5 * mlpScore;
-
-        // Apply sigmoid for normalization
-        return sigmoid(finalScore);
+        return scores;
     }
 
     /**
      * Get top-K recommendations for user using NCF
      */
     public List<Long> getNCFRecommendations(Long userId, List<Long> candidateProducts, int topK) {
-        Map<Long, Double> scores = new HashMap<>();
+        long[] candidates = candidateProducts.stream().mapToLong(Long::longValue).toArray();
+        double[] scores = scoreBatch(userId, candidates);
 
-        for (Long productId : candidateProducts) {
-            double score = predictScore(userId, productId);
-            scores.put(productId, score);
+        TopKHeap heap = new TopKHeap(Math.min(topK, candidates.length));
+        for (int i = 0; i < candidates.length; i++) {
+            heap.offer(candidates[i], scores[i]);
+        }
+        Integer[] order = new Integer[heap.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
         }
+        Arrays.sort(order, (a, b) -> Double.compare(heap.scoreAt(b), heap.scoreAt(a)));
 
-        return scores.entrySet().stream()
-            .sorted((e1, e2) -> Double.compare(e2.getValue(), e1.getValue()))
-            .limit(topK)
-            .map(Map.Entry::getKey)
-            .collect(Collectors.toList());
+        List<Long> result = new ArrayList<>(order.length);
+        for (Integer i : order) {
+            result.add(heap.idAt(i));
+        }
+        return result;
     }
 
     /**
      * Update embeddings based on user interaction (online learning)
-     * This is a simplified version of backpropagation
+     * The interaction is queued and applied by the background trainer in micro-batches;
+     * when the queue stays full beyond the enqueue timeout the update is dropped and counted
      */
     public void updateEmbeddings(Long userId, Long productId, double actualInteraction) {
-        double predictedScore = predictScore(userId, productId);
-        double error = actualInteraction - predictedScore;
-
-        // Gradient descent update (simplified)
-        double[] userEmbedding = getUserEmbedding(userId);
-        double[] itemEmbedding = getItemEmbedding(productId);
-
-        if (userEmbedding != null && itemEmbedding != null) {
-            // Update user embedding
-            for (int i = 0; i < EMBEDDING_DIM; i++) {
-                userEmbedding[i] += LEARNING_RATE * error * itemEmbedding[i];
-            }
-
-            // Update item embedding
-            for (int i = 0; i < EMBEDDING_DIM; i++) {
-                itemEmbedding[i] += LEARNING_RATE * error * userEmbedding[i];
+        Interaction interaction = new Interaction(userId, productId, actualInteraction, System.currentTimeMillis());
+        try {
+            if (!trainingQueue.offer(interaction, enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                droppedInteractions.increment();
             }
-
-            // Save updated embeddings
-            saveUserEmbedding(userId, userEmbedding);
-            saveItemEmbedding(productId, itemEmbedding);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            droppedInteractions.increment();
         }
     }
 
@@ -163,79 +253,243 @@ public class NCFRecommendationService {
     }
 
     /**
-     * Generalized Matrix Factorization
+     * Trainer loop: waits for the first interaction, then collects until the batch is full
+     * or the flush interval has passed since that interaction arrived
      */
-    private double computeGMF(double[] userEmb, double[] itemEmb) {
-        double sum = 0.0;
-        for (int i = 0; i < EMBEDDING_DIM; i++) {
-            sum += userEmb[i] * itemEmb[i];
+    private void runTrainer() {
+        List<Interaction> batch = new ArrayList<>(batchSize);
+        while (running || !trainingQueue.isEmpty()) {
+            try {
+                Interaction first = trainingQueue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    trainingQueue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Interaction next = trainingQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // 关闭时被中断：把剩余的交互一次性取出，下面照常应用
+                trainingQueue.drainTo(batch);
+            }
+
+            if (!batch.isEmpty()) {
+                try {
+                    applyBatch(batch);
+                } catch (Exception e) {
+                    System.err.println("NCF training batch failed (" + batch.size() + " interactions): " + e.getMessage());
+                }
+                batch.clear();
+            }
         }
-        return sum;
     }
 
     /**
-     * Multi-Layer Perceptron component
-     * Simplified 2-layer MLP
+     * Apply one micro-batch: gradients are computed against the embeddings at batch start
+     * and summed per user / per item, so a hot item gets one merged update instead of
+     * many read-modify-write cycles; touched embeddings are written back in one pipeline
      */
-    private double computeMLP(double[] userEmb, double[] itemEmb) {
-        // Concatenate embeddings
-        double[] concat = new double[EMBEDDING_DIM * 2];
-        System.arraycopy(userEmb, 0, concat, 0, EMBEDDING_DIM);
-        System.arraycopy(itemEmb, 0, concat, EMBEDDING_DIM, EMBEDDING_DIM);
-
-        // Layer 1: Hidden layer with ReLU
-        int hiddenSize = 64;
-        double[] hidden = new double[hiddenSize];
-        Random random = new Random(42);
-
-        for (int i = 0; i < hiddenSize; i++) {
-            double sum = 0.0;
-            for (int j = 0; j < concat.length; j++) {
-                // Simplified weight (in production, load from trained model)
-                double weight = random.nextGaussian() * 0.1;
-                sum += concat[j] * weight;
+    private void applyBatch(List<Interaction> batch) {
+        long start = System.nanoTime();
+
+        // Group by user so each user's items are scored with one scoreBatch call
+        LongObjectHashMap<List<Interaction>> byUser = new LongObjectHashMap<>(batch.size());
+        for (Interaction interaction : batch) {
+            byUser.computeIfAbsent(interaction.userId, id -> new ArrayList<>()).add(interaction);
+        }
+        long[] itemIds = batch.stream().mapToLong(interaction -> interaction.productId).distinct().toArray();
+        ensureLoaded(model.users(), "user:", byUser.keys());
+        ensureLoaded(model.items(), "item:", itemIds);
+
+        LongObjectHashMap<float[]> userDeltas = new LongObjectHashMap<>(byUser.size());
+        LongObjectHashMap<float[]> itemDeltas = new LongObjectHashMap<>(itemIds.length);
+        byUser.forEach((userId, interactions) -> {
+            float[] userEmbedding = model.users().get(userId);
+            if (userEmbedding == null) {
+                return;
             }
-            hidden[i] = relu(sum);
+            long[] products = interactions.stream().mapToLong(interaction -> interaction.productId).toArray();
+            double[] predicted = model.scoreBatch(userId, products);
+            float[] userDelta = userDeltas.computeIfAbsent(userId, id -> new float[EMBEDDING_DIM]);
+
+            for (int k = 0; k < products.length; k++) {
+                float[] itemEmbedding = model.items().get(products[k]);
+                if (itemEmbedding == null || Double.isNaN(predicted[k])) {
+                    continue;
+                }
+                double error = interactions.get(k).label - predicted[k];
+                float[] itemDelta = itemDeltas.computeIfAbsent(products[k], id -> new float[EMBEDDING_DIM]);
+
+                // Gradient descent update (simplified): user step first, item step uses the stepped user embedding
+                for (int i = 0; i < EMBEDDING_DIM; i++) {
+                    float userStep = (float) (LEARNING_RATE * error * itemEmbedding[i]);
+                    userDelta[i] += userStep;
+                    itemDelta[i] += (float) (LEARNING_RATE * error * (userEmbedding[i] + userStep));
+                }
+            }
+        });
+
+        // 先按本地当前值（累加前）组装脚本参数，再更新本地表
+        List<String> keys = new ArrayList<>(userDeltas.size() + itemDeltas.size());
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(EMBEDDING_TTL_SECONDS));
+        collectDeltas(model.users(), "user:", userDeltas, keys, args);
+        collectDeltas(model.items(), "item:", itemDeltas, keys, args);
+
+        userDeltas.forEach((userId, delta) -> model.users().add(userId, delta));
+        itemDeltas.forEach((productId, delta) -> model.items().add(productId, delta));
+        if (!keys.isEmpty()) {
+            stringRedisTemplate.execute(ADD_DELTAS_SCRIPT, keys, args.toArray());
         }
 
-        // Layer 2: Output layer
-        double output = 0.0;
-        for (int i = 0; i < hiddenSize; i++) {
-            double weight = random.nextGaussian() * 0.1;
-            output += hidden[i] * weight;
-        }
+        appliedInteractions.increment(batch.size());
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        trainingLag.record(System.currentTimeMillis() - batch.get(0).enqueuedAt, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append the script arguments for one table: per id the current local embedding (used only when
+     * Redis has no hash yet) followed by the batch delta
+     */
+    private void collectDeltas(NcfModel.EmbeddingTable table, String type, LongObjectHashMap<float[]> deltas,
+                               List<String> keys, List<String> args) {
+        deltas.forEach((id, delta) -> {
+            float[] base = table.get(id);
+            if (base == null) {
+                return;
+            }
+            keys.add(NCF_EMBEDDING_PREFIX + type + id);
+            for (float value : base) {
+                args.add(Float.toString(value));
+            }
+            for (float value : delta) {
+                args.add(Float.toString(value));
+            }
+        });
+    }
 
-        return output;
+    private void registerTableMetrics(String table, NcfModel.EmbeddingTable embeddings) {
+        Gauge.builder("ncf.embedding.rows", embeddings, NcfModel.EmbeddingTable::size).tag("table", table)
+                .description("Rows resident in the in-process NCF embedding table").register(meterRegistry);
+        FunctionCounter.builder("ncf.embedding.evictions", embeddings, NcfModel.EmbeddingTable::evictions)
+                .tag("table", table).description("Rows evicted from the in-process NCF embedding table")
+                .register(meterRegistry);
     }
 
-    private double relu(double x) {
-        return Math.max(0, x);
+    /**
+     * Age of the oldest queued interaction (0 when the queue is empty)
+     */
+    private double queueLagMillis() {
+        Interaction head = trainingQueue.peek();
+        return head == null ? 0 : System.currentTimeMillis() - head.enqueuedAt;
     }
 
-    private double sigmoid(double x) {
-        return 1.0 / (1.0 + Math.exp(-x));
+    public long getDroppedInteractions() {
+        return (long) droppedInteractions.count();
     }
 
-    private double[] getUserEmbedding(Long userId) {
-        String key = NCF_EMBEDDING_PREFIX + "user:" + userId;
-        Object obj = redisTemplate.opsForValue().get(key);
-        return obj instanceof double[] ? (double[]) obj : null;
+    /**
+     * Make sure the given ids are present and fresh in the in-process table.
+     * Missing or stale rows are fetched with one MGET; ids without a stored embedding get the
+     * deterministic initial embedding (seeded by id), which is only persisted once it is trained.
+     */
+    private void ensureLoaded(NcfModel.EmbeddingTable table, String type, long[] ids) {
+        long now = System.currentTimeMillis();
+        long staleBefore = now - refreshSeconds * 1000;
+
+        List<Long> toLoad = new ArrayList<>();
+        for (long id : ids) {
+            if (table.loadedAt(id) < staleBefore) {
+                toLoad.add(id);
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return;
+        }
+
+        List<Object> stored = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (Long id : toLoad) {
+                    ops.opsForHash().entries(NCF_EMBEDDING_PREFIX + type + id);
+                }
+                return null;
+            }
+        });
+
+        List<Long> legacy = new ArrayList<>();
+        for (int i = 0; i < toLoad.size(); i++) {
+            long id = toLoad.get(i);
+            double[] embedding = fromHash(i < stored.size() ? stored.get(i) : null);
+            if (embedding != null) {
+                table.put(id, embedding, now);
+            } else {
+                legacy.add(id);
+            }
+        }
+        if (legacy.isEmpty()) {
+            return;
+        }
+
+        // 新格式中没有的 id 再查一次旧格式（升级前训练的结果）
+        List<String> keys = new ArrayList<>(legacy.size());
+        for (Long id : legacy) {
+            keys.add(LEGACY_EMBEDDING_PREFIX + type + id);
+        }
+        List<Object> legacyStored = redisTemplate.opsForValue().multiGet(keys);
+
+        for (int i = 0; i < legacy.size(); i++) {
+            long id = legacy.get(i);
+            Object obj = legacyStored != null ? legacyStored.get(i) : null;
+            if (obj instanceof double[] embedding) {
+                table.put(id, embedding, now);
+            } else if (!table.touch(id, now)) {
+                table.put(id, initialEmbedding(id), now);
+            }
+        }
     }
 
-    private double[] getItemEmbedding(Long productId) {
-        String key = NCF_EMBEDDING_PREFIX + "item:" + productId;
-        Object obj = redisTemplate.opsForValue().get(key);
-        return obj instanceof double[] ? (double[]) obj : null;
+    /**
+     * Decode an embedding hash (field = dimension index); null when the key does not exist
+     */
+    private double[] fromHash(Object stored) {
+        if (!(stored instanceof Map<?, ?> fields) || fields.isEmpty()) {
+            return null;
+        }
+        double[] embedding = new double[EMBEDDING_DIM];
+        fields.forEach((field, value) -> {
+            int i = Integer.parseInt(field.toString());
+            if (i >= 0 && i < EMBEDDING_DIM) {
+                embedding[i] = Double.parseDouble(value.toString());
+            }
+        });
+        return embedding;
     }
 
-    private void saveUserEmbedding(Long userId, double[] embedding) {
-        String key = NCF_EMBEDDING_PREFIX + "user:" + userId;
-        redisTemplate.opsForValue().set(key, embedding, 7, TimeUnit.DAYS);
+    /**
+     * Initialize with random values (in production, load from trained model)
+     */
+    private double[] initialEmbedding(long id) {
+        double[] embedding = new double[EMBEDDING_DIM];
+        Random random = new Random(id);
+        for (int i = 0; i < EMBEDDING_DIM; i++) {
+            embedding[i] = random.nextGaussian() * 0.1; // Xavier initialization
+        }
+        return embedding;
     }
 
-    private void saveItemEmbedding(Long productId, double[] embedding) {
-        String key = NCF_EMBEDDING_PREFIX + "item:" + productId;
-        redisTemplate.opsForValue().set(key, embedding, 7, TimeUnit.DAYS);
+    private record Interaction(long userId, long productId, double label, long enqueuedAt) {
     }
 }
-
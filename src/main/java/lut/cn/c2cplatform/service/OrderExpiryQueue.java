@@ -0,0 +1,78 @@
+package lut.cn.c2cplatform.service;
+
+import lut.cn.c2cplatform.util.RedisScripts;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 订单过期延迟队列（Redis ZSET：member = 订单ID，score = 过期时间毫秒）
+ *
+ * - 下单事务提交后登记过期时间，到期由 OrderExpireTask 秒级拉取
+ * - 拉取用 Lua 脚本原子地“取出并删除”到期订单，多个节点同时消费也不会重复领取
+ * - 领取后节点宕机导致的丢失由 OrderExpireTask 的数据库兜底扫描重新入队
+ */
+@Service
+public class OrderExpiryQueue {
+
+    private static final String QUEUE_KEY = "order:expire:queue";
+
+    /**
+     * KEYS: 队列; ARGV: 当前时间(ms), 单次最多领取数；返回领取到的订单ID
+     */
+    private static final RedisScript<List<String>> CLAIM_SCRIPT = RedisScripts.listScript(
+            "local ids = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2])) " +
+            "if #ids > 0 then redis.call('ZREM', KEYS[1], unpack(ids)) end " +
+            "return ids");
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 登记订单过期时间；在事务中调用时等事务提交后再登记，避免消费者看到尚未提交的订单
+     */
+    public void scheduleAfterCommit(Integer orderId, long expireAtMillis) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            schedule(orderId, expireAtMillis);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                schedule(orderId, expireAtMillis);
+            }
+        });
+    }
+
+    public void schedule(Integer orderId, long expireAtMillis) {
+        try {
+            stringRedisTemplate.opsForZSet().add(QUEUE_KEY, orderId.toString(), expireAtMillis);
+        } catch (Exception e) {
+            // Redis 不可用时由数据库兜底扫描处理
+            System.err.println("Failed to schedule expiry for order " + orderId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 原子地领取至多 max 个已到期的订单
+     */
+    public List<Integer> claimDue(long nowMillis, int max) {
+        List<String> ids = stringRedisTemplate.execute(CLAIM_SCRIPT, Collections.singletonList(QUEUE_KEY),
+                Long.toString(nowMillis), Integer.toString(max));
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Integer> orderIds = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            orderIds.add(Integer.parseInt(id));
+        }
+        return orderIds;
+    }
+}
@@ -11,6 +11,7 @@ public interface OrderService {
     Order payOrder(Integer orderId, Integer userId, PaymentRequest paymentRequest);
     Order confirmOrder(Integer orderId);
     Order cancelOrder(Integer orderId);
+    boolean expireOrder(Integer orderId);
     List<Order> getUserOrders(Integer userId);
     List<Order> getSellerOrders(Integer sellerId);
     Order getOrderById(Integer orderId);
@@ -0,0 +1,287 @@
+package lut.cn.c2cplatform.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lut.cn.c2cplatform.dto.ProductDTO;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 商品详情两级缓存
+ * L1：进程内 Caffeine（有界、短TTL），L2：Redis（跨节点共享）
+ * 读：L1 -> L2 -> 数据库（回填两级）；失效：删除 L2 并通过 Redis pub/sub 通知所有节点清理 L1
+ *
+ * 回填与失效的竞争：每个商品在 Redis 有一个版本号，失效时递增。读请求未命中时记下版本号，
+ * 从数据库加载后只有版本号未变才写入 L2（Lua 比较并写入），否则说明加载期间商品被修改，
+ * 这次结果只返回给调用方，不缓存。L1 同样只在加载期间本节点没有失效时才回填。
+ * L1 中的对象不直接交给调用方，每次返回副本，调用方修改返回值不影响缓存。
+ */
+@Service
+public class ProductCacheService {
+
+    public static final String PRODUCT_CACHE_PREFIX = "cache:product:";
+    public static final String INVALIDATION_CHANNEL = "cache:product:invalidate";
+    public static final String VERSION_PREFIX = "cache:product:version:";
+
+    /**
+     * KEYS: 缓存 key, 版本 key；ARGV: 读取时的版本号（不存在为 0）, JSON, TTL 秒
+     * 版本号未变时写入并返回 1，否则返回 0
+     */
+    private static final RedisScript<Long> WRITE_IF_VERSION_SCRIPT = new DefaultRedisScript<>(
+            "if (redis.call('GET', KEYS[2]) or '0') ~= ARGV[1] then return 0 end " +
+            "redis.call('SET', KEYS[1], ARGV[2], 'EX', ARGV[3]) " +
+            "return 1",
+            Long.class);
+
+    /**
+     * KEYS: 依次为每个商品的缓存 key 和版本 key；ARGV: 版本 key 的 TTL 秒
+     * 递增版本号并删除缓存，返回处理的商品数
+     */
+    private static final RedisScript<Long> INVALIDATE_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #KEYS, 2 do " +
+            "  redis.call('DEL', KEYS[i]) " +
+            "  redis.call('INCR', KEYS[i + 1]) " +
+            "  redis.call('EXPIRE', KEYS[i + 1], ARGV[1]) " +
+            "end " +
+            "return #KEYS / 2",
+            Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Value("${product.cache.l1.max-size:10000}")
+    private long l1MaxSize;
+
+    @Value("${product.cache.l1.ttl-seconds:60}")
+    private long l1TtlSeconds;
+
+    @Value("${product.cache.l2.ttl-minutes:30}")
+    private long l2TtlMinutes;
+
+    private Cache<Long, ProductDTO> localCache;
+    // 本节点每次清理 L1 都递增；回填 L1 前比较，加载期间发生过清理则不回填
+    private final AtomicLong localGeneration = new AtomicLong();
+    private Counter l2Hits;
+    private Counter l2Misses;
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(l1MaxSize)
+                .expireAfterWrite(Duration.ofSeconds(l1TtlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "product.detail.l1");
+
+        l2Hits = Counter.builder("product.detail.l2.requests").tag("result", "hit")
+                .description("Redis product detail cache lookups").register(meterRegistry);
+        l2Misses = Counter.builder("product.detail.l2.requests").tag("result", "miss")
+                .description("Redis product detail cache lookups").register(meterRegistry);
+
+        Gauge.builder("product.detail.cache.hit.ratio", this, ProductCacheService::l1HitRatio)
+                .tag("tier", "l1").register(meterRegistry);
+        Gauge.builder("product.detail.cache.hit.ratio", this, ProductCacheService::l2HitRatio)
+                .tag("tier", "l2").register(meterRegistry);
+        Gauge.builder("product.detail.cache.hit.ratio", this, ProductCacheService::overallHitRatio)
+                .tag("tier", "overall").register(meterRegistry);
+    }
+
+    /**
+     * 读穿透获取商品详情，loader 返回 null 时不缓存；返回值是副本，可以修改
+     */
+    public ProductDTO get(Long productId, Function<Long, ProductDTO> loader) {
+        ProductDTO cached = localCache.getIfPresent(productId);
+        if (cached != null) {
+            return cached.copy();
+        }
+
+        long generation = localGeneration.get();
+        RemoteEntry remote = readRemote(productId);
+        if (remote.product() != null) {
+            l2Hits.increment();
+            putLocal(productId, remote.product(), generation);
+            return remote.product().copy();
+        }
+        l2Misses.increment();
+
+        ProductDTO loaded = loader.apply(productId);
+        if (loaded == null) {
+            return null;
+        }
+        // Redis 不可用时（版本号未知）只回填 L1，依靠 L1 的短 TTL
+        if (remote.version() == null || writeRemote(productId, loaded, remote.version())) {
+            putLocal(productId, loaded.copy(), generation);
+        }
+        return loaded;
+    }
+
+    /**
+     * 立即失效：删除 Redis 中的缓存并广播，各节点（包括本节点）收到后清理 L1
+     */
+    public void invalidate(Long productId) {
+        invalidateAll(List.of(productId));
+    }
+
+    /**
+     * 批量失效：一次脚本调用递增版本号并删除全部 key
+     */
+    public void invalidateAll(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        productIds.forEach(this::evictLocal);
+        try {
+            List<String> keys = new ArrayList<>(productIds.size() * 2);
+            for (Long productId : productIds) {
+                keys.add(PRODUCT_CACHE_PREFIX + productId);
+                keys.add(VERSION_PREFIX + productId);
+            }
+            // 版本号比缓存多保留一段时间，覆盖任何仍在加载中的读请求
+            stringRedisTemplate.execute(INVALIDATE_SCRIPT, keys, String.valueOf(TimeUnit.MINUTES.toSeconds(l2TtlMinutes * 2)));
+            for (Long productId : productIds) {
+                stringRedisTemplate.convertAndSend(INVALIDATION_CHANNEL, String.valueOf(productId));
+            }
+        } catch (Exception e) {
+            // Redis 不可用时其他节点的 L1 依靠 TTL 过期
+            System.err.println("Failed to invalidate product cache " + productIds + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 卖家资料（昵称、头像）变化：商品详情中嵌入了卖家信息，失效该卖家的全部商品
+     */
+    public void invalidateSeller(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        try {
+            invalidateAll(productMapper.selectIdsByUserId(userId));
+        } catch (Exception e) {
+            System.err.println("Failed to invalidate product cache of seller " + userId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 在当前事务提交后失效（避免提交前被并发读请求回填旧数据）；没有事务时立即失效
+     */
+    public void invalidateAfterCommit(Collection<Long> productIds) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateAll(productIds);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidateAll(productIds);
+            }
+        });
+    }
+
+    /**
+     * pub/sub 回调：只清理本节点 L1
+     */
+    public void evictLocal(Long productId) {
+        // 与 putLocal 在同一个 key 上串行执行，回填不会覆盖在它之后发生的清理
+        localCache.asMap().compute(productId, (id, existing) -> {
+            localGeneration.incrementAndGet();
+            return null;
+        });
+    }
+
+    private void putLocal(Long productId, ProductDTO dto, long generation) {
+        localCache.asMap().compute(productId, (id, existing) ->
+                localGeneration.get() == generation ? dto : existing);
+    }
+
+    /**
+     * 一次 MGET 读取缓存和版本号；Redis 不可用时版本号为 null
+     */
+    private RemoteEntry readRemote(Long productId) {
+        List<String> values;
+        try {
+            values = stringRedisTemplate.opsForValue().multiGet(
+                    List.of(PRODUCT_CACHE_PREFIX + productId, VERSION_PREFIX + productId));
+        } catch (Exception e) {
+            System.err.println("Failed to read product cache " + productId + ": " + e.getMessage());
+            return new RemoteEntry(null, null);
+        }
+        if (values == null || values.size() < 2) {
+            return new RemoteEntry(null, null);
+        }
+        String version = values.get(1) != null ? values.get(1) : "0";
+        String json = values.get(0);
+        if (json == null) {
+            return new RemoteEntry(null, version);
+        }
+        try {
+            return new RemoteEntry(objectMapper.readValue(json, ProductDTO.class), version);
+        } catch (Exception e) {
+            System.err.println("Failed to decode product cache " + productId + ": " + e.getMessage());
+            return new RemoteEntry(null, version);
+        }
+    }
+
+    /**
+     * 版本号与读取时一致才写入 L2，返回是否写入
+     */
+    private boolean writeRemote(Long productId, ProductDTO dto, String version) {
+        try {
+            Long written = stringRedisTemplate.execute(WRITE_IF_VERSION_SCRIPT,
+                    List.of(PRODUCT_CACHE_PREFIX + productId, VERSION_PREFIX + productId),
+                    version, objectMapper.writeValueAsString(dto),
+                    String.valueOf(TimeUnit.MINUTES.toSeconds(l2TtlMinutes)));
+            return written != null && written == 1L;
+        } catch (Exception e) {
+            System.err.println("Failed to write product cache " + productId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private record RemoteEntry(ProductDTO product, String version) {
+    }
+
+    private double l1HitRatio() {
+        return localCache.stats().hitRate();
+    }
+
+    private double l2HitRatio() {
+        double total = l2Hits.count() + l2Misses.count();
+        return total == 0 ? 0.0 : l2Hits.count() / total;
+    }
+
+    private double overallHitRatio() {
+        long requests = localCache.stats().requestCount();
+        return requests == 0 ? 0.0 : (localCache.stats().hitCount() + l2Hits.count()) / requests;
+    }
+}
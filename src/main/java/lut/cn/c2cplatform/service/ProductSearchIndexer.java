@@ -0,0 +1,447 @@
+package lut.cn.c2cplatform.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.indices.update_aliases.Action;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lut.cn.c2cplatform.document.ProductDocument;
+import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.index.Settings;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.suggest.Completion;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 商品搜索索引管道
+ *
+ * 增量：商品变更只登记商品ID（同一商品多次变更合并为一次），后台线程按批从 MySQL 读取最新状态，
+ * 用 bulk 请求写入 ES（按文档数和字节数切分）；在售商品写入，已删除/下架/售罄的删除。
+ * 一次只有一个 bulk 请求在途；ES 拒绝（429）或不可用时商品ID留在待写集合中，按指数退避重试，
+ * 待写集合按商品去重，积压时内存上限是商品总数。
+ *
+ * 全量：按主键分块流式读取 MySQL，写入新建的带版本号索引，完成后原子地把别名切到新索引，
+ * 读写一直通过别名进行，重建期间搜索不中断。
+ */
+@Service
+public class ProductSearchIndexer {
+
+    // bulk 请求的文档数和字节数上限，任一达到即发送
+    @Value("${search.indexer.bulk-max-docs:500}")
+    private int bulkMaxDocs;
+
+    @Value("${search.indexer.bulk-max-bytes:5242880}")
+    private long bulkMaxBytes;
+
+    @Value("${search.indexer.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    @Value("${search.indexer.max-backoff-ms:30000}")
+    private long maxBackoffMs;
+
+    @Value("${search.reindex.chunk-size:1000}")
+    private int reindexChunkSize;
+
+    // 主引擎为嵌入式 Lucene 时不部署 ES，增量索引不再登记（Lucene 自己监听商品事件）
+    @Value("${search.engine:elasticsearch}")
+    private String searchEngine;
+
+    private static final long INITIAL_BACKOFF_MS = 500;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private ElasticsearchClient elasticsearchClient;
+
+    @Autowired
+    private ElasticsearchOperations elasticsearchOperations;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // 待写入的商品ID，按登记顺序去重
+    private final Object pendingLock = new Object();
+    private LinkedHashSet<Long> pending = new LinkedHashSet<>();
+
+    // 全量重建期间的新索引：增量更新同时写入别名和新索引，避免重建过程中的修改丢失
+    private volatile String reindexTarget;
+    private final AtomicBoolean reindexing = new AtomicBoolean();
+
+    private String alias;
+    private Thread indexerThread;
+    private volatile boolean running;
+
+    private Counter indexedDocuments;
+    private Counter deletedDocuments;
+    private Counter failedDocuments;
+
+    @PostConstruct
+    public void startIndexer() {
+        alias = elasticsearchOperations.getIndexCoordinatesFor(ProductDocument.class).getIndexName();
+
+        indexedDocuments = Counter.builder("search.indexer.documents").tag("result", "indexed")
+                .description("Product documents written by the search indexer").register(meterRegistry);
+        deletedDocuments = Counter.builder("search.indexer.documents").tag("result", "deleted")
+                .description("Product documents written by the search indexer").register(meterRegistry);
+        failedDocuments = Counter.builder("search.indexer.documents").tag("result", "failed")
+                .description("Product documents written by the search indexer").register(meterRegistry);
+        Gauge.builder("search.indexer.pending", this, ProductSearchIndexer::pendingCount)
+                .description("Product ids waiting to be indexed").register(meterRegistry);
+
+        running = true;
+        indexerThread = new Thread(this::runIndexer, "search-indexer");
+        indexerThread.setDaemon(true);
+        indexerThread.start();
+    }
+
+    @PreDestroy
+    public void stopIndexer() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(indexerThread);
+        indexerThread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * 登记需要重新索引的商品（新建、修改、删除都调用这里），调用方不等待 ES
+     */
+    public void enqueue(Long productId) {
+        if (productId == null || !esEnabled()) {
+            return;
+        }
+        boolean full;
+        synchronized (pendingLock) {
+            pending.add(productId);
+            full = pending.size() >= bulkMaxDocs;
+        }
+        if (full) {
+            LockSupport.unpark(indexerThread);
+        }
+    }
+
+    public void enqueueAll(Collection<Long> productIds) {
+        if (!esEnabled()) {
+            return;
+        }
+        synchronized (pendingLock) {
+            pending.addAll(productIds);
+        }
+        LockSupport.unpark(indexerThread);
+    }
+
+    private boolean esEnabled() {
+        return !LuceneSearchEngine.NAME.equals(searchEngine);
+    }
+
+    private int pendingCount() {
+        synchronized (pendingLock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * 索引线程：每个间隔（或积压满一批时）取出一批商品ID写入；失败的ID放回待写集合并退避
+     * 关闭时再写一轮已登记的变更
+     */
+    private void runIndexer() {
+        long backoffMs = 0;
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMs > 0 ? backoffMs : flushIntervalMs));
+            backoffMs = drainPending(backoffMs);
+        }
+        drainPending(0);
+    }
+
+    /**
+     * 连续写入直到待写集合为空或出现失败，返回下一轮的退避时间（0 表示正常）
+     */
+    private long drainPending(long backoffMs) {
+        while (true) {
+            List<Long> batch = takeBatch();
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            List<Long> retry;
+            try {
+                retry = indexProducts(batch);
+            } catch (Exception e) {
+                System.err.println("Search indexer: bulk of " + batch.size() + " products failed: " + e.getMessage());
+                retry = batch;
+            }
+            if (!retry.isEmpty()) {
+                synchronized (pendingLock) {
+                    pending.addAll(retry);
+                }
+                return backoffMs == 0 ? INITIAL_BACKOFF_MS : Math.min(maxBackoffMs, backoffMs * 2);
+            }
+            backoffMs = 0;
+        }
+    }
+
+    private List<Long> takeBatch() {
+        synchronized (pendingLock) {
+            if (pending.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<Long> batch = new ArrayList<>(Math.min(pending.size(), bulkMaxDocs));
+            Iterator<Long> it = pending.iterator();
+            while (it.hasNext() && batch.size() < bulkMaxDocs) {
+                batch.add(it.next());
+                it.remove();
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * 按数据库最新状态写入一批商品：可搜索的写入，其余（已删除、下架、售罄）删除
+     * 返回需要重试的商品ID（ES 拒绝或 5xx）
+     */
+    private List<Long> indexProducts(List<Long> productIds) throws Exception {
+        Map<Long, Product> products = productMapper.selectAllByIds(productIds).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+
+        List<String> targets = new ArrayList<>(2);
+        targets.add(alias);
+        String target = reindexTarget;
+        if (target != null) {
+            targets.add(target);
+        }
+
+        Set<Long> retry = new LinkedHashSet<>();
+        for (String index : targets) {
+            List<PendingOperation> operations = new ArrayList<>(productIds.size());
+            for (Long productId : productIds) {
+                Product product = products.get(productId);
+                operations.add(isSearchable(product)
+                        ? indexOperation(index, product)
+                        : deleteOperation(index, productId));
+            }
+            retry.addAll(bulk(operations));
+        }
+        return new ArrayList<>(retry);
+    }
+
+    /**
+     * 全量重建：建新索引（关闭刷新）→ 分块流式写入 → 恢复刷新 → 原子切换别名 → 补写重建期间的修改 → 删除旧索引
+     * @return 写入新索引的商品数
+     */
+    public int reindexAll() throws Exception {
+        if (!esEnabled()) {
+            throw new IllegalStateException("Elasticsearch is not deployed (search.engine=" + searchEngine + ")");
+        }
+        if (!reindexing.compareAndSet(false, true)) {
+            throw new IllegalStateException("Reindex already running");
+        }
+        String newIndex = alias + "_" + System.currentTimeMillis();
+        // 留出余量，覆盖各节点与数据库之间的时钟偏差
+        LocalDateTime startedAt = LocalDateTime.now().minusMinutes(1);
+        try {
+            IndexOperations entityOps = elasticsearchOperations.indexOps(ProductDocument.class);
+            Settings settings = entityOps.createSettings(ProductDocument.class);
+            settings.put("index.refresh_interval", "-1");
+            elasticsearchOperations.indexOps(IndexCoordinates.of(newIndex))
+                    .create(settings, entityOps.createMapping(ProductDocument.class));
+            reindexTarget = newIndex;
+
+            int total = 0;
+            long afterId = 0;
+            while (true) {
+                List<Product> chunk = productMapper.selectChunkAfterId(afterId, reindexChunkSize);
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                List<PendingOperation> operations = new ArrayList<>(chunk.size());
+                for (Product product : chunk) {
+                    if (isSearchable(product)) {
+                        operations.add(indexOperation(newIndex, product));
+                    }
+                }
+                bulkWithRetry(operations);
+                total += operations.size();
+                afterId = chunk.get(chunk.size() - 1).getId();
+            }
+
+            elasticsearchClient.indices().putSettings(p -> p
+                    .index(newIndex)
+                    .settings(s -> s.refreshInterval(t -> t.time("1s"))));
+            elasticsearchClient.indices().refresh(r -> r.index(newIndex));
+
+            List<String> oldIndices = switchAlias(newIndex);
+            reindexTarget = null;
+
+            // 其他节点在重建期间的修改只写到了旧索引，切换后按修改时间补写到新索引
+            enqueueAll(productMapper.selectIdsUpdatedSince(startedAt));
+
+            for (String oldIndex : oldIndices) {
+                elasticsearchClient.indices().delete(d -> d.index(oldIndex));
+            }
+            System.out.println("Reindexed " + total + " products into " + newIndex);
+            return total;
+        } catch (Exception e) {
+            if (newIndex.equals(reindexTarget)) {
+                reindexTarget = null;
+                try {
+                    elasticsearchClient.indices().delete(d -> d.index(newIndex));
+                } catch (Exception cleanup) {
+                    System.err.println("Failed to delete unfinished index " + newIndex + ": " + cleanup.getMessage());
+                }
+            }
+            throw e;
+        } finally {
+            reindexing.set(false);
+        }
+    }
+
+    /**
+     * 一次 _aliases 请求原子地把别名指向新索引；返回原先持有别名的旧索引
+     * 别名同名的旧式实体索引（首次重建前由仓库自动创建）在同一请求中删除
+     */
+    private List<String> switchAlias(String newIndex) throws Exception {
+        List<String> oldIndices = new ArrayList<>();
+        boolean aliasExists = elasticsearchClient.indices().existsAlias(e -> e.name(alias)).value();
+        if (aliasExists) {
+            oldIndices.addAll(elasticsearchClient.indices().getAlias(g -> g.name(alias)).result().keySet());
+        }
+        boolean concreteIndex = !aliasExists && elasticsearchClient.indices().exists(e -> e.index(alias)).value();
+
+        List<Action> actions = new ArrayList<>();
+        if (concreteIndex) {
+            actions.add(Action.of(a -> a.removeIndex(r -> r.index(alias))));
+        }
+        for (String oldIndex : oldIndices) {
+            actions.add(Action.of(a -> a.remove(r -> r.index(oldIndex).alias(alias))));
+        }
+        actions.add(Action.of(a -> a.add(r -> r.index(newIndex).alias(alias))));
+        elasticsearchClient.indices().updateAliases(u -> u.actions(actions));
+        return oldIndices;
+    }
+
+    /**
+     * 重建时的写入：失败的文档按指数退避重试，直到写完才读下一块（读 MySQL 的速度受 ES 写入速度约束）
+     */
+    private void bulkWithRetry(List<PendingOperation> operations) throws InterruptedException {
+        long backoffMs = INITIAL_BACKOFF_MS;
+        List<PendingOperation> remaining = operations;
+        while (!remaining.isEmpty()) {
+            Set<Long> retry;
+            try {
+                retry = new HashSet<>(bulk(remaining));
+            } catch (Exception e) {
+                System.err.println("Reindex bulk failed, retrying in " + backoffMs + " ms: " + e.getMessage());
+                retry = remaining.stream().map(PendingOperation::productId).collect(Collectors.toSet());
+            }
+            if (retry.isEmpty()) {
+                return;
+            }
+            Set<Long> retryIds = retry;
+            remaining = remaining.stream().filter(op -> retryIds.contains(op.productId())).collect(Collectors.toList());
+            Thread.sleep(backoffMs);
+            backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
+        }
+    }
+
+    /**
+     * 按文档数和字节数切分后依次发送 bulk 请求；返回可重试失败（429、5xx）的商品ID，其他失败记录后丢弃
+     */
+    private List<Long> bulk(List<PendingOperation> operations) throws Exception {
+        List<Long> retry = new ArrayList<>();
+        int start = 0;
+        while (start < operations.size()) {
+            int end = start;
+            long bytes = 0;
+            while (end < operations.size() && end - start < bulkMaxDocs
+                    && (end == start || bytes + operations.get(end).bytes() <= bulkMaxBytes)) {
+                bytes += operations.get(end).bytes();
+                end++;
+            }
+            List<PendingOperation> slice = operations.subList(start, end);
+            BulkResponse response = elasticsearchClient.bulk(b -> b
+                    .operations(slice.stream().map(PendingOperation::operation).collect(Collectors.toList())));
+
+            List<BulkResponseItem> items = response.items();
+            for (int i = 0; i < items.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                PendingOperation op = slice.get(i);
+                if (item.error() == null) {
+                    (op.delete() ? deletedDocuments : indexedDocuments).increment();
+                } else if (item.status() == 429 || item.status() >= 500) {
+                    retry.add(op.productId());
+                } else {
+                    failedDocuments.increment();
+                    System.err.println("Search indexer: product " + op.productId() + " rejected: " + item.error().reason());
+                }
+            }
+            start = end;
+        }
+        return retry;
+    }
+
+    private PendingOperation indexOperation(String index, Product product) {
+        Document source = elasticsearchOperations.getElasticsearchConverter().mapObject(toDocument(product));
+        String id = String.valueOf(product.getId());
+        BulkOperation operation = BulkOperation.of(b -> b.index(i -> i.index(index).id(id).document(source)));
+        return new PendingOperation(product.getId(), operation, source.toJson().getBytes(StandardCharsets.UTF_8).length, false);
+    }
+
+    private PendingOperation deleteOperation(String index, Long productId) {
+        BulkOperation operation = BulkOperation.of(b -> b.delete(d -> d.index(index).id(String.valueOf(productId))));
+        return new PendingOperation(productId, operation, 64, true);
+    }
+
+    /**
+     * 与商品列表一致：在售且有库存的商品才进入搜索索引
+     */
+    static boolean isSearchable(Product product) {
+        return product != null && product.getStatus() == 1 && product.getStock() > 0;
+    }
+
+    /**
+     * 将Product实体转换为Elasticsearch文档
+     */
+    static ProductDocument toDocument(Product product) {
+        ProductDocument doc = new ProductDocument();
+        doc.setId(String.valueOf(product.getId()));
+        doc.setProductId(product.getId());
+        doc.setUserId(product.getUserId());
+        doc.setName(product.getName());
+        doc.setDescription(product.getDescription());
+        doc.setPrice(product.getPrice());
+        doc.setConditionLevel(product.getConditionLevel());
+        doc.setLocation(product.getLocation());
+        doc.setStatus(product.getStatus());
+        doc.setCreatedAt(product.getCreatedAt());
+        doc.setCategory(product.getCategory());
+        String[] suggestInputs = Stream.of(product.getName(), product.getCategory())
+                .filter(input -> input != null && !input.isBlank())
+                .toArray(String[]::new);
+        if (suggestInputs.length > 0) {
+            doc.setSuggest(new Completion(suggestInputs));
+        }
+        return doc;
+    }
+
+    private record PendingOperation(Long productId, BulkOperation operation, long bytes, boolean delete) {
+    }
+}
@@ -2,25 +2,39 @@ package lut.cn.c2cplatform.service;
 
 import lut.cn.c2cplatform.dto.ProductCreateDTO;
 import lut.cn.c2cplatform.dto.ProductDTO;
+import lut.cn.c2cplatform.dto.ProductPageCursor;
+import lut.cn.c2cplatform.dto.SearchRequestDTO;
 import lut.cn.c2cplatform.entity.Product;
 import lut.cn.c2cplatform.entity.ProductMedia;
+import lut.cn.c2cplatform.entity.ProductWithSeller;
 import lut.cn.c2cplatform.entity.User;
 import lut.cn.c2cplatform.mapper.ProductMapper;
 import lut.cn.c2cplatform.mapper.ProductMediaMapper;
 import lut.cn.c2cplatform.mapper.UserMapper;
 import lut.cn.c2cplatform.config.MinioProperties;
+import lut.cn.c2cplatform.event.EventPublisher;
+import lut.cn.c2cplatform.event.Events;
 import lut.cn.c2cplatform.event.ProductCreatedEvent;
 import lut.cn.c2cplatform.event.ProductUpdatedEvent;
 import lut.cn.c2cplatform.event.ProductDeletedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -37,6 +51,24 @@ public class ProductService {
     private ApplicationEventPublisher eventPublisher;
     @Autowired
     private UserMapper userMapper;
+    @Autowired
+    private ProductCacheService productCacheService;
+    @Autowired
+    private EventPublisher domainEventPublisher;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    // 通过代理调用自身，saveProductWithMedia 的 @Transactional 才会生效
+    @Lazy
+    @Autowired
+    private ProductService self;
+
+    private Counter fulltextSearches;
+
+    @PostConstruct
+    public void initMetrics() {
+        fulltextSearches = Counter.builder("search.fallback.queries")
+                .description("Keyword searches served by the MySQL fulltext fallback").register(meterRegistry);
+    }
 
     public Product createProduct(ProductCreateDTO dto, List<MultipartFile> files, Long userId) {
         List<String> uploadedUrls = new ArrayList<>();
@@ -52,7 +84,7 @@ public class ProductService {
             }
 
             // 事务内：保存到数据库
-            Product product = saveProductWithMedia(dto, uploadedUrls, userId);
+            Product product = self.saveProductWithMedia(dto, uploadedUrls, userId);
 
             // 发布事件：通知ES进行索引（异步处理，避免循环依赖）
             eventPublisher.publishEvent(new ProductCreatedEvent(this, product));
@@ -135,6 +167,10 @@ public class ProductService {
         }
 
         product.setMedia(mediaList);
+
+        // 领域事件写入发件箱，与商品数据同一事务提交
+        domainEventPublisher.publishProductCreated(new Events.ProductCreatedEvent(
+                product.getId(), userId, product.getName(), product.getCategory(), new java.util.Date()));
         System.out.println("商品保存完成");
         return product;
     }
@@ -150,11 +186,8 @@ public class ProductService {
 
     public List<Product> listAllProducts() {
         List<Product> products = productMapper.selectAll();
-        // 为每个商品加载媒体和用户信息
-        for (Product product : products) {
-            List<ProductMedia> media = productMediaMapper.selectByProductId(product.getId());
-            product.setMedia(media);
-        }
+        // 批量加载媒体（一次IN查询）
+        loadMediaBatch(products);
         return products;
     }
 
@@ -166,12 +199,67 @@ public class ProductService {
             String location, String category) {
         List<Product> products = productMapper.selectWithFilters(keyword, minPrice, maxPrice, conditionLevel, location,
                 category);
-        // 为每个商品加载媒体
+        // 批量加载媒体（一次IN查询）
+        loadMediaBatch(products);
+        return products;
+    }
+
+    /**
+     * 游标分页查询在售商品（按发布时间倒序），after 为 null 时返回第一页
+     */
+    public List<Product> listProductsPage(java.math.BigDecimal minPrice, java.math.BigDecimal maxPrice,
+            Integer conditionLevel, String location, String category,
+            ProductPageCursor after, int limit) {
+        List<Product> products = productMapper.selectPageWithFilters(minPrice, maxPrice, conditionLevel, location,
+                category,
+                after != null ? after.getCreatedAt() : null,
+                after != null ? after.getId() : null,
+                limit);
+        loadMediaBatch(products);
+        return products;
+    }
+
+    /**
+     * 批量加载商品媒体：一次 IN 查询取回整页商品的媒体，在内存中按商品ID分组回填，
+     * 取代逐个商品调用 selectByProductId 的 N+1 查询。
+     */
+    private void loadMediaBatch(List<Product> products) {
+        if (products == null || products.isEmpty()) {
+            return;
+        }
+        List<Long> productIds = products.stream()
+                .map(Product::getId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        Map<Long, List<ProductMedia>> mediaByProduct = new HashMap<>();
+        if (!productIds.isEmpty()) {
+            for (ProductMedia media : productMediaMapper.selectByProductIds(productIds)) {
+                if (media.getProduct() != null) {
+                    mediaByProduct.computeIfAbsent(media.getProduct().getId(), k -> new ArrayList<>()).add(media);
+                }
+            }
+        }
         for (Product product : products) {
-            List<ProductMedia> media = productMediaMapper.selectByProductId(product.getId());
-            product.setMedia(media);
+            product.setMedia(mediaByProduct.getOrDefault(product.getId(), new ArrayList<>()));
         }
-        return products;
+    }
+
+    /**
+     * 批量加载卖家信息：整页商品只发一次用户查询
+     */
+    private Map<Long, User> loadSellersBatch(List<Product> products) {
+        List<Long> userIds = products.stream()
+                .filter(Objects::nonNull)
+                .map(Product::getUserId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        if (userIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return userMapper.selectByIds(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity(), (a, b) -> a));
     }
 
     /**
@@ -181,6 +269,14 @@ public class ProductService {
         if (product == null) {
             return null;
         }
+        User seller = product.getUserId() != null ? userMapper.selectById(product.getUserId()) : null;
+        return convertToDTO(product, seller);
+    }
+
+    /**
+     * Convert Product entity to ProductDTO with an already loaded seller
+     */
+    private ProductDTO convertToDTO(Product product, User seller) {
 
         ProductDTO dto = new ProductDTO();
         dto.setId(product.getId()); // id已经是Long类型，直接使用
@@ -196,14 +292,11 @@ public class ProductService {
         dto.setCreateTime(product.getCreatedAt());
         dto.setUpdateTime(product.getUpdatedAt());
 
-        // Get user info
-        if (product.getUserId() != null) {
-            User user = userMapper.selectById(product.getUserId());
-            if (user != null) {
-                dto.setUsername(user.getUsername());
-                dto.setDisplayName(user.getDisplayName());
-                dto.setAvatarUrl(user.getAvatarUrl()); // 新增：头像URL
-            }
+        // Set seller info
+        if (seller != null) {
+            dto.setUsername(seller.getUsername());
+            dto.setDisplayName(seller.getDisplayName());
+            dto.setAvatarUrl(seller.getAvatarUrl()); // 新增：头像URL
         }
 
         // Convert media list
@@ -244,24 +337,75 @@ public class ProductService {
 
     /**
      * Convert Product entity by ID to ProductDTO
+     * 经过两级缓存（Caffeine + Redis）读取
      */
     public ProductDTO getProductDTOById(Long id) {
-        Product product = getProductById(id);
-        return convertToDTO(product);
+        return productCacheService.get(id, productId -> convertToDTO(getProductById(productId)));
     }
 
     /**
      * Convert list of Products to list of ProductDTOs
+     * 媒体未加载的商品先批量补齐，卖家信息整页一次查询，保证列表转换只有常数次数据库往返
      */
     public List<ProductDTO> convertToDTOList(List<Product> products) {
         if (products == null) {
             return new ArrayList<>();
         }
+        List<Product> withoutMedia = products.stream()
+                .filter(p -> p != null && p.getMedia() == null)
+                .collect(Collectors.toList());
+        loadMediaBatch(withoutMedia);
+
+        Map<Long, User> sellers = loadSellersBatch(products);
         return products.stream()
-                .map(this::convertToDTO)
+                .filter(Objects::nonNull)
+                .map(p -> convertToDTO(p, p.getUserId() != null ? sellers.get(p.getUserId()) : null))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 按给定ID顺序批量组装商品DTO（搜索结果回填）
+     * 商品、卖家、媒体一条联表查询取回，无论命中多少条都只有一次数据库往返；已删除的商品跳过
+     */
+    public List<ProductDTO> getProductDTOsByIds(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, ProductWithSeller> byId = productMapper.selectWithSellerAndMediaByIds(ids).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity(), (a, b) -> a));
+        List<ProductDTO> dtos = new ArrayList<>(byId.size());
+        for (Long id : ids) {
+            ProductWithSeller product = byId.get(id);
+            if (product != null) {
+                dtos.add(convertToDTO(product, product.getSeller()));
+            }
+        }
+        return dtos;
+    }
+
+    /**
+     * 降级搜索引擎（ES 不可用时使用）：ngram 全文索引 MATCH ... AGAINST 相关度排序（分类与关键词相同的商品也命中），
+     * 商品、卖家、媒体在同一条语句中回填，一次数据库往返；无高亮，高亮字段取原文
+     */
+    public List<ProductDTO> searchByFulltext(SearchRequestDTO request, int offset) {
+        if (request.getKeyword() == null || request.getKeyword().trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        fulltextSearches.increment();
+        int size = request.getSize() != null ? request.getSize() : 20;
+        List<ProductWithSeller> hits = productMapper.selectFulltextPage(request.getKeyword().trim(),
+                request.getMinPrice(), request.getMaxPrice(), request.getConditionLevel(),
+                request.getLocation(), request.getCategory(), Math.max(offset, 0), size);
+        List<ProductDTO> dtos = new ArrayList<>(hits.size());
+        for (ProductWithSeller product : hits) {
+            ProductDTO dto = convertToDTO(product, product.getSeller());
+            dto.setHighlightedName(product.getName());
+            dto.setHighlightedDescription(product.getDescription());
+            dtos.add(dto);
+        }
+        return dtos;
+    }
+
     public void deleteProduct(Long id) {
         productMapper.deleteById(id);
         // Sync to Elasticsearch
@@ -277,6 +421,8 @@ public class ProductService {
         if (product != null) {
             product.setStatus(0);
             productMapper.update(product);
+            // 同步ES与商品详情缓存
+            eventPublisher.publishEvent(new ProductUpdatedEvent(this, product));
         }
     }
 
@@ -285,11 +431,8 @@ public class ProductService {
      */
     public List<Product> getProductsByUserId(Long userId) {
         List<Product> products = productMapper.selectByUserId(userId);
-        // Load media for each product
-        for (Product product : products) {
-            List<ProductMedia> media = productMediaMapper.selectByProductId(product.getId());
-            product.setMedia(media);
-        }
+        // Load media for the whole page in one query
+        loadMediaBatch(products);
         return products;
     }
 
@@ -1,22 +1,33 @@
 package lut.cn.c2cplatform.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lut.cn.c2cplatform.event.EventPublisher;
 import lut.cn.c2cplatform.event.Events;
+import lut.cn.c2cplatform.util.LongIntHashMap;
+import lut.cn.c2cplatform.util.TopKHeap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Real-time Recommendation Service
- * Simulates stream processing for immediate recommendation updates
  *
- * In production, use:
- * - Apache Flink / Spark Streaming for real-time processing
- * - Kafka for event streaming
- * - Time window aggregations
+ * 交互流水线：调用方只做一次 O(1) 的追加（发布 RecommendationUpdateEvent 到 recommendation.exchange），
+ * 持久化队列 recommendation.update.queue 的批量消费者调用 applyInteractions 统一处理：
+ * - 趋势计数和会话列表：整批合并后各一次 Redis 管道往返（原来每条交互 5 次以上往返）
+ * - NCF 在线训练、热度增量：进入各自的进程内缓冲，由后台线程批量写回
+ * - 实时个性化分数：按用户批量打分，一次管道写入
+ * 消费者可在多个节点上水平扩展；节点宕机时未确认的消息留在队列中，重启后继续处理。
+ * 投递是“至少一次”，重复的交互只会让计数略微偏高，不做去重。
  */
 @Service
 public class RealtimeRecommendationService {
@@ -24,66 +35,117 @@ public class RealtimeRecommendationService {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
     @Autowired
     private NCFRecommendationService ncfService;
 
     @Autowired
     private HybridRecommendationService hybridService;
 
-    // In-memory stream buffer (in production, use Kafka/Flink)
-    private final Map<String, Queue<Events.RecommendationUpdateEvent>> eventStreams = new ConcurrentHashMap<>();
+    @Autowired
+    private EventPublisher eventPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     private static final String REALTIME_SCORE_PREFIX = "realtime:score:";
-    private static final String TRENDING_KEY = "realtime:trending";
+    // 按分钟分桶的交互计数：realtime:trending:<epochMinute> -> Hash(productId -> count)，各节点 HINCRBY 同一个桶即完成合并
+    private static final String TRENDING_BUCKET_PREFIX = "realtime:trending:";
+    private static final long BUCKET_MILLIS = 60_000L;
+    private static final int BUCKET_RETENTION_MINUTES = 60;
     private static final String USER_SESSION_PREFIX = "realtime:session:";
+    private static final int SESSION_SIZE = 20;
 
     // Time window for real-time aggregation (5 minutes)
     private static final long TIME_WINDOW_SECONDS = 300;
 
+    private Counter appliedInteractions;
+    private Counter inlineInteractions;
+
+    @PostConstruct
+    public void initMetrics() {
+        appliedInteractions = Counter.builder("recommendation.interactions").tag("path", "queue")
+                .description("User interactions applied to the real-time recommendation state").register(meterRegistry);
+        inlineInteractions = Counter.builder("recommendation.interactions").tag("path", "inline")
+                .description("User interactions applied to the real-time recommendation state").register(meterRegistry);
+    }
+
     /**
-     * Process real-time user interaction
-     * Updates recommendation scores immediately
+     * Record a user interaction: O(1) append to the recommendation queue, processed in batches by the consumer
+     * 发布失败（RabbitMQ 不可用）时在调用线程上直接处理这一条，交互不丢失
      */
     public void processInteraction(Long userId, Long productId, String action) {
+        if (productId == null || action == null) {
+            return;
+        }
+        Events.RecommendationUpdateEvent event =
+                new Events.RecommendationUpdateEvent(productId, action, userId, new Date());
+        if (!eventPublisher.publishRecommendationUpdate(event)) {
+            applyInteractions(List.of(event));
+            inlineInteractions.increment();
+        }
+    }
+
+    /**
+     * Apply a batch of interactions (called by the recommendation queue consumer)
+     * Updates trending, sessions, NCF, popularity and real-time scores for the whole batch at once
+     */
+    public void applyInteractions(List<Events.RecommendationUpdateEvent> events) {
+        List<Events.RecommendationUpdateEvent> valid = new ArrayList<>(events.size());
+        for (Events.RecommendationUpdateEvent event : events) {
+            if (event != null && event.getProductId() != null && event.getAction() != null) {
+                valid.add(event);
+            }
+        }
+        if (valid.isEmpty()) {
+            return;
+        }
+
         // 1. Update trending scores
-        updateTrendingScore(productId, action);
+        updateTrendingScores(valid);
 
         // 2. Update user session data
-        updateUserSession(userId, productId, action);
+        updateUserSessions(valid);
 
-        // 3. Train NCF model in real-time
-        ncfService.trainOnInteraction(userId, productId, action);
+        // 3. Train NCF model (queued for the background trainer) and 4. update popularity (buffered)
+        for (Events.RecommendationUpdateEvent event : valid) {
+            if (event.getUserId() != null) {
+                ncfService.trainOnInteraction(event.getUserId(), event.getProductId(), event.getAction());
+            }
+            hybridService.updatePopularity(event.getProductId(), event.getAction());
+        }
 
-        // 4. Update popularity score
-        hybridService.updatePopularity(productId, action);
+        // 5. Compute real-time personalized scores
+        computeRealtimeScores(valid);
 
-        // 5. Compute real-time personalized score
-        computeRealtimeScore(userId, productId);
+        appliedInteractions.increment(valid.size());
     }
 
     /**
      * Get trending products in last N minutes
+     * Sums the per-minute buckets of the window and selects the top by interaction count
      */
     public List<Long> getTrendingProducts(int minutes, int limit) {
-        long currentTime = System.currentTimeMillis();
-        long startTime = currentTime - (minutes * 60 * 1000);
-
-        // Get products with scores in time window
-        Set<Object> trending = redisTemplate.opsForZSet()
-            .reverseRangeByScore(TRENDING_KEY, startTime, currentTime, 0, limit);
-
-        if (trending == null || trending.isEmpty()) {
+        LongIntHashMap counts = windowCounts(minutes);
+        if (counts.isEmpty() || limit <= 0) {
             return Collections.emptyList();
         }
 
-        return trending.stream()
-            .map(obj -> {
-                String str = obj.toString();
-                return Long.parseLong(str.split(":")[0]);
-            })
-            .distinct()
-            .limit(limit)
-            .toList();
+        TopKHeap heap = new TopKHeap(Math.min(limit, counts.size()));
+        counts.forEach(heap::offer);
+        Integer[] order = new Integer[heap.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(heap.scoreAt(b), heap.scoreAt(a)));
+
+        List<Long> trending = new ArrayList<>(order.length);
+        for (Integer i : order) {
+            trending.add(heap.idAt(i));
+        }
+        return trending;
     }
 
     /**
@@ -103,23 +165,29 @@ public class RealtimeRecommendationService {
         Set<Long> candidates = new HashSet<>();
         candidates.addAll(trending);
 
-        // Get similar products for session items
+        // Get similar products for session items: one lookup of 20 per session product; the top 10 become
+        // candidates and the full list feeds the session relevance score
+        List<Set<Long>> sessionSimilar = new ArrayList<>(sessionProducts.size());
         for (Long productId : sessionProducts) {
-            List<Long> similar = hybridService.getHybridSimilarProducts(productId, 10);
-            candidates.addAll(similar);
+            List<Long> similar = hybridService.getHybridSimilarProducts(productId, 20);
+            candidates.addAll(similar.subList(0, Math.min(10, similar.size())));
+            sessionSimilar.add(new HashSet<>(similar));
         }
 
-        // 4. Score using NCF
-        for (Long productId : candidates) {
-            if (!sessionProducts.contains(productId)) {
-                double ncfScore = ncfService.predictScore(userId, productId);
-                double trendingScore = getTrendingScore(productId);
-                double sessionScore = getSessionRelevanceScore(userId, productId);
-
-                // Weighted combination
-                double finalScore = 0.5 * ncfScore + 0.3 * trendingScore + 0.2 * sessionScore;
-                scores.put(productId, finalScore);
-            }
+        // 4. Score using NCF and trending (one batch each for all candidates)
+        long[] candidateIds = candidates.stream()
+            .filter(productId -> !sessionProducts.contains(productId))
+            .mapToLong(Long::longValue)
+            .toArray();
+        double[] ncfScores = ncfService.scoreBatch(userId, candidateIds);
+        double[] trendingScores = getTrendingScores(candidateIds);
+        for (int i = 0; i < candidateIds.length; i++) {
+            Long productId = candidateIds[i];
+            double sessionScore = getSessionRelevanceScore(sessionSimilar, productId);
+
+            // Weighted combination
+            double finalScore = 0.5 * ncfScores[i] + 0.3 * trendingScores[i] + 0.2 * sessionScore;
+            scores.put(productId, finalScore);
         }
 
         return scores.entrySet().stream()
@@ -130,37 +198,75 @@ public class RealtimeRecommendationService {
     }
 
     /**
-     * Update trending score with time decay
+     * Update trending counters: the batch is merged per (minute bucket, product) and written with one pipelined
+     * HINCRBY each; the bucket comes from the event timestamp, so a replayed backlog lands in the minute it happened.
+     * Buckets expire after the retention window (1 hour), so nothing needs cleaning up
      */
-    private void updateTrendingScore(Long productId, String action) {
-        double weight = getActionWeight(action);
-        long timestamp = System.currentTimeMillis();
-
-        String member = productId + ":" + timestamp;
-        redisTemplate.opsForZSet().add(TRENDING_KEY, member, timestamp);
+    private void updateTrendingScores(List<Events.RecommendationUpdateEvent> events) {
+        long oldestBucket = System.currentTimeMillis() / BUCKET_MILLIS - BUCKET_RETENTION_MINUTES + 1;
+        Map<String, Map<String, Long>> increments = new HashMap<>();
+        for (Events.RecommendationUpdateEvent event : events) {
+            long timestamp = event.getTimestamp() != null ? event.getTimestamp().getTime() : System.currentTimeMillis();
+            long bucket = timestamp / BUCKET_MILLIS;
+            if (bucket < oldestBucket) {
+                continue;
+            }
+            increments.computeIfAbsent(bucketKey(bucket), k -> new HashMap<>())
+                    .merge(event.getProductId().toString(), 1L, Long::sum);
+        }
+        if (increments.isEmpty()) {
+            return;
+        }
 
-        // Clean up old entries (older than 1 hour)
-        long oldestAllowed = timestamp - (3600 * 1000);
-        redisTemplate.opsForZSet().removeRangeByScore(TRENDING_KEY, 0, oldestAllowed);
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                increments.forEach((key, counts) -> {
+                    counts.forEach((field, count) -> ops.opsForHash().increment(key, field, count));
+                    ops.expire(key, BUCKET_RETENTION_MINUTES + 1, TimeUnit.MINUTES);
+                });
+                return null;
+            }
+        });
     }
 
     /**
-     * Update user session data
+     * Update user session data: one pipelined LPUSH + EXPIRE + LTRIM per user in the batch
      */
-    private void updateUserSession(Long userId, Long productId, String action) {
-        String key = USER_SESSION_PREFIX + userId;
-
-        // Add to session with timestamp
-        Map<String, Object> sessionData = new HashMap<>();
-        sessionData.put("productId", productId);
-        sessionData.put("action", action);
-        sessionData.put("timestamp", System.currentTimeMillis());
-
-        redisTemplate.opsForList().leftPush(key, sessionData);
-        redisTemplate.expire(key, 30, TimeUnit.MINUTES);
+    private void updateUserSessions(List<Events.RecommendationUpdateEvent> events) {
+        Map<Long, List<Object>> sessions = new LinkedHashMap<>();
+        for (Events.RecommendationUpdateEvent event : events) {
+            if (event.getUserId() == null) {
+                continue;
+            }
+            Map<String, Object> sessionData = new HashMap<>();
+            sessionData.put("productId", event.getProductId());
+            sessionData.put("action", event.getAction());
+            sessionData.put("timestamp", event.getTimestamp() != null ? event.getTimestamp().getTime() : System.currentTimeMillis());
+            sessions.computeIfAbsent(event.getUserId(), k -> new ArrayList<>()).add(sessionData);
+        }
+        if (sessions.isEmpty()) {
+            return;
+        }
 
-        // Keep only last 20 interactions
-        redisTemplate.opsForList().trim(key, 0, 19);
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                sessions.forEach((userId, entries) -> {
+                    String key = USER_SESSION_PREFIX + userId;
+                    // LPUSH 按顺序压入，最新的交互在表头
+                    ops.opsForList().leftPushAll(key, entries);
+                    ops.expire(key, 30, TimeUnit.MINUTES);
+                    // Keep only last 20 interactions
+                    ops.opsForList().trim(key, 0, SESSION_SIZE - 1);
+                });
+                return null;
+            }
+        });
     }
 
     /**
@@ -168,7 +274,7 @@ public class RealtimeRecommendationService {
      */
     private List<Long> getUserSessionProducts(Long userId) {
         String key = USER_SESSION_PREFIX + userId;
-        List<Object> sessionData = redisTemplate.opsForList().range(key, 0, 19);
+        List<Object> sessionData = redisTemplate.opsForList().range(key, 0, SESSION_SIZE - 1);
 
         if (sessionData == null || sessionData.isEmpty()) {
             return Collections.emptyList();
@@ -188,92 +294,171 @@ public class RealtimeRecommendationService {
     }
 
     /**
-     * Compute real-time personalized score
+     * Compute real-time personalized scores for the distinct (user, product) pairs of the batch:
+     * NCF scored per user in one batch, trending read once for all products, written with one pipelined SET each
      */
-    private void computeRealtimeScore(Long userId, Long productId) {
-        String key = REALTIME_SCORE_PREFIX + userId + ":" + productId;
-
-        // Compute score based on multiple signals
-        double ncfScore = ncfService.predictScore(userId, productId);
-        double trendingScore = getTrendingScore(productId);
+    private void computeRealtimeScores(List<Events.RecommendationUpdateEvent> events) {
+        Map<Long, Set<Long>> productsByUser = new LinkedHashMap<>();
+        Set<Long> allProducts = new LinkedHashSet<>();
+        for (Events.RecommendationUpdateEvent event : events) {
+            if (event.getUserId() == null) {
+                continue;
+            }
+            productsByUser.computeIfAbsent(event.getUserId(), k -> new LinkedHashSet<>()).add(event.getProductId());
+            allProducts.add(event.getProductId());
+        }
+        if (productsByUser.isEmpty()) {
+            return;
+        }
 
-        double realtimeScore = 0.7 * ncfScore + 0.3 * trendingScore;
+        long[] productIds = allProducts.stream().mapToLong(Long::longValue).toArray();
+        double[] trendingScores = getTrendingScores(productIds);
+        Map<Long, Double> trendingByProduct = new HashMap<>();
+        for (int i = 0; i < productIds.length; i++) {
+            trendingByProduct.put(productIds[i], trendingScores[i]);
+        }
 
-        redisTemplate.opsForValue().set(key, realtimeScore, 10, TimeUnit.MINUTES);
+        Map<String, Double> realtimeScores = new HashMap<>();
+        productsByUser.forEach((userId, products) -> {
+            long[] candidates = products.stream().mapToLong(Long::longValue).toArray();
+            double[] ncfScores = ncfService.scoreBatch(userId, candidates);
+            for (int i = 0; i < candidates.length; i++) {
+                double realtimeScore = 0.7 * ncfScores[i] + 0.3 * trendingByProduct.get(candidates[i]);
+                realtimeScores.put(REALTIME_SCORE_PREFIX + userId + ":" + candidates[i], realtimeScore);
+            }
+        });
+
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                realtimeScores.forEach((key, score) -> ops.opsForValue().set(key, score, 10, TimeUnit.MINUTES));
+                return null;
+            }
+        });
     }
 
     /**
      * Get trending score for a product
      */
     public double getTrendingScore(Long productId) {
-        long currentTime = System.currentTimeMillis();
-        long startTime = currentTime - (TIME_WINDOW_SECONDS * 1000);
-
-        Set<Object> scores = redisTemplate.opsForZSet()
-            .rangeByScore(TRENDING_KEY, startTime, currentTime);
+        return getTrendingScores(new long[]{productId})[0];
+    }
 
-        if (scores == null) return 0.0;
+    /**
+     * Trending scores for several products: one pipelined HMGET per bucket of the 5-minute window
+     * (event count in the window, normalized by 100 and capped at 1)
+     */
+    public double[] getTrendingScores(long[] productIds) {
+        double[] scores = new double[productIds.length];
+        if (productIds.length == 0) {
+            return scores;
+        }
 
-        long count = scores.stream()
-            .filter(obj -> obj.toString().startsWith(productId + ":"))
-            .count();
+        List<Object> fields = new ArrayList<>(productIds.length);
+        for (long productId : productIds) {
+            fields.add(Long.toString(productId));
+        }
+        List<String> keys = windowBucketKeys((int) (TIME_WINDOW_SECONDS * 1000 / BUCKET_MILLIS));
+        List<Object> buckets = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (String key : keys) {
+                    ops.opsForHash().multiGet(key, fields);
+                }
+                return null;
+            }
+        });
+
+        for (Object bucket : buckets) {
+            if (!(bucket instanceof List<?> values)) continue;
+            for (int i = 0; i < values.size() && i < scores.length; i++) {
+                Object value = values.get(i);
+                if (value != null) {
+                    scores[i] += Long.parseLong(value.toString());
+                }
+            }
+        }
 
         // Normalize by time window
-        return Math.min(1.0, count / 100.0);
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = Math.min(1.0, scores[i] / 100.0);
+        }
+        return scores;
     }
 
     /**
-     * Get session relevance score
+     * Get session relevance score: share of session products whose similar set contains the product
      */
-    private double getSessionRelevanceScore(Long userId, Long productId) {
-        List<Long> sessionProducts = getUserSessionProducts(userId);
-
-        if (sessionProducts.isEmpty()) return 0.0;
+    private double getSessionRelevanceScore(List<Set<Long>> sessionSimilar, Long productId) {
+        if (sessionSimilar.isEmpty()) return 0.0;
 
         // Check if product is similar to session products
         int similarCount = 0;
-        for (Long sessionProduct : sessionProducts) {
-            List<Long> similar = hybridService.getHybridSimilarProducts(sessionProduct, 20);
+        for (Set<Long> similar : sessionSimilar) {
             if (similar.contains(productId)) {
                 similarCount++;
             }
         }
 
-        return Math.min(1.0, similarCount / (double) sessionProducts.size());
-    }
-
-    private double getActionWeight(String action) {
-        return switch (action.toLowerCase()) {
-            case "view" -> 1.0;
-            case "favorite" -> 3.0;
-            case "cart" -> 5.0;
-            case "order" -> 10.0;
-            default -> 0.5;
-        };
+        return Math.min(1.0, similarCount / (double) sessionSimilar.size());
     }
 
     /**
      * Window aggregation (simulate Flink window)
+     * Merges the per-minute buckets of the last N minutes
      */
     public Map<String, Long> aggregateWindow(int windowMinutes) {
-        long currentTime = System.currentTimeMillis();
-        long startTime = currentTime - (windowMinutes * 60 * 1000);
-
-        Set<Object> events = redisTemplate.opsForZSet()
-            .rangeByScore(TRENDING_KEY, startTime, currentTime);
-
         Map<String, Long> aggregation = new HashMap<>();
+        windowCounts(windowMinutes).forEach((productId, count) -> aggregation.put(Long.toString(productId), (long) count));
+        return aggregation;
+    }
+
+    /**
+     * Interaction counts per product over the last N minute buckets (current minute included),
+     * read with one pipelined HGETALL per bucket
+     */
+    private LongIntHashMap windowCounts(int minutes) {
+        LongIntHashMap counts = new LongIntHashMap();
+        List<String> keys = windowBucketKeys(Math.min(minutes, BUCKET_RETENTION_MINUTES));
+        if (keys.isEmpty()) {
+            return counts;
+        }
 
-        if (events != null) {
-            for (Object event : events) {
-                String[] parts = event.toString().split(":");
-                if (parts.length > 0) {
-                    aggregation.merge(parts[0], 1L, Long::sum);
+        List<Object> buckets = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (String key : keys) {
+                    ops.opsForHash().entries(key);
                 }
+                return null;
             }
+        });
+
+        for (Object bucket : buckets) {
+            if (!(bucket instanceof Map<?, ?> entries)) continue;
+            for (Map.Entry<?, ?> entry : entries.entrySet()) {
+                counts.addTo(Long.parseLong(entry.getKey().toString()), Integer.parseInt(entry.getValue().toString()));
+            }
+        }
+        return counts;
+    }
+
+    private List<String> windowBucketKeys(int minutes) {
+        long currentBucket = System.currentTimeMillis() / BUCKET_MILLIS;
+        List<String> keys = new ArrayList<>(Math.max(minutes, 0));
+        for (int i = 0; i < minutes; i++) {
+            keys.add(bucketKey(currentBucket - i));
         }
+        return keys;
+    }
 
-        return aggregation;
+    private String bucketKey(long bucket) {
+        return TRENDING_BUCKET_PREFIX + bucket;
     }
 }
-
@@ -1,19 +1,39 @@
 package lut.cn.c2cplatform.service;
 
+import jakarta.annotation.PreDestroy;
 import lut.cn.c2cplatform.mapper.ProductMapper;
+import lut.cn.c2cplatform.util.LongIntHashMap;
+import lut.cn.c2cplatform.util.LongObjectHashMap;
+import lut.cn.c2cplatform.util.TopKHeap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * Recommendation Engine Service
- * Implements Item-Based Collaborative Filtering (离线计算)
- * Scheduled to run daily to compute product similarities
+ * Implements Item-Based Collaborative Filtering
+ *
+ * 增量：HistoryService.recordView 记录到新浏览时，在后台线程把该商品与用户历史中其他商品的
+ * 共现计数累加到 Redis（recommend:cooc:{id}），并就地更新双方的 Top-N 相似列表。
+ * 全量：定时任务按用户分片在 ForkJoin 池中并行构建共现矩阵（基于 long 原始类型的哈希表），
+ * 结果以流水线批量写回 Redis，用于校正增量计算的累积误差（如历史裁剪后的过期共现）。
  */
 @Service
 public class RecommendationEngineService {
@@ -36,37 +56,77 @@ public class RecommendationEngineService {
     @Autowired
     private HybridRecommendationService hybridService;
 
-    private static final String RECOMMEND_KEY_PREFIX = "recommend:item-cf:";
+    static final String RECOMMEND_KEY_PREFIX = "recommend:item-cf:";
+    private static final String COOCCURRENCE_KEY_PREFIX = "recommend:cooc:";
+    private static final String COOCCURRENCE_TOTAL_KEY = "recommend:cooc-total";
     private static final int TOP_N_SIMILAR = 10; // Store top 10 similar products
+    private static final int USERS_PER_TASK = 256; // 每个 ForkJoin 叶子任务处理的用户数（一次流水线读取）
+    private static final int WRITE_BATCH_SIZE = 200; // 每次流水线写回的商品数
+
+    @Value("${recommendation.item-cf.parallelism:0}")
+    private int parallelism;
+
+    private final AtomicLong droppedUpdates = new AtomicLong();
+
+    // 增量更新在后台执行，队列满时丢弃（全量重建会补齐）
+    private final ThreadPoolExecutor incrementalExecutor = new ThreadPoolExecutor(
+            1, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(10000),
+            r -> {
+                Thread t = new Thread(r, "item-cf-incremental");
+                t.setDaemon(true);
+                return t;
+            },
+            (r, executor) -> droppedUpdates.incrementAndGet());
+
+    // 全量重建要跑几十秒到几分钟，放在独立线程执行，不占用共享的调度线程（订单过期轮询等）；上一次未结束时跳过
+    private final ThreadPoolExecutor rebuildExecutor = new ThreadPoolExecutor(
+            1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>(),
+            r -> {
+                Thread t = new Thread(r, "item-cf-rebuild");
+                t.setDaemon(true);
+                return t;
+            },
+            (r, executor) -> System.err.println("Recommendation rebuild still running, skipping this run"));
+
+    @PreDestroy
+    public void shutdown() {
+        incrementalExecutor.shutdown();
+        rebuildExecutor.shutdown();
+    }
 
     /**
      * Scheduled task to compute product recommendations
      * Runs daily at 3 AM (cron: second minute hour day month weekday)
+     * 调度线程只负责把重建交给 rebuildExecutor，立即返回
+     */
+    @Scheduled(cron = "${recommendation.item-cf.rebuild-cron:0 0 3 * * ?}")
+    public void scheduleRecommendationRebuild() {
+        rebuildExecutor.execute(this::computeRecommendations);
+    }
+
+    /**
+     * 全量重建：协同过滤相似列表、内容相似度、热度衰减
+     * 相似列表由增量更新保持实时，此任务只做校正重建，不再是推荐结果新鲜度的前提
      */
-    @Scheduled(cron = "0 0 3 * * ?")
     public void computeRecommendations() {
         System.out.println("=== Starting recommendation computation at " + new Date() + " ===");
 
         try {
             long startTime = System.currentTimeMillis();
 
-            // Step 1: Build co-occurrence matrix
-            Map<Long, Map<Long, Integer>> coOccurrenceMatrix = buildCoOccurrenceMatrix();
+            // Step 1: Build co-occurrence matrix (parallel over user partitions)
+            LongObjectHashMap<LongIntHashMap> coOccurrenceMatrix = buildCoOccurrenceMatrix();
 
             if (coOccurrenceMatrix.isEmpty()) {
                 System.out.println("No browsing data available for recommendations");
-                return;
-            }
-
-            // Step 2: Compute similarity scores
-            Map<Long, Map<Long, Double>> similarityMatrix = computeSimilarityMatrix(coOccurrenceMatrix);
-
-            // Step 3: Store recommendations in Redis
-            storeRecommendations(similarityMatrix);
+            } else {
+                // Step 2 & 3: Compute top-N similarities and store them in pipelined batches
+                storeRecommendations(coOccurrenceMatrix);
 
-            long duration = System.currentTimeMillis() - startTime;
-            System.out.println("=== Collaborative Filtering computation completed in " + duration + "ms ===");
-            System.out.println("Processed " + coOccurrenceMatrix.size() + " products");
+                long duration = System.currentTimeMillis() - startTime;
+                System.out.println("=== Collaborative Filtering computation completed in " + duration + "ms ===");
+                System.out.println("Processed " + coOccurrenceMatrix.size() + " products");
+            }
 
             // Step 4: Compute content-based similarity
             System.out.println("=== Starting content-based similarity computation ===");
@@ -84,128 +144,266 @@ public class RecommendationEngineService {
         }
     }
 
+    /**
+     * 增量更新：用户第一次浏览某商品时调用，在后台线程中执行，不阻塞请求
+     */
+    public void onProductViewed(Long userId, Long productId) {
+        if (userId == null || productId == null) {
+            return;
+        }
+        incrementalExecutor.execute(() -> {
+            try {
+                applyIncrementalView(userId, productId);
+            } catch (Exception e) {
+                System.err.println("Incremental item-CF update failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 新浏览商品 p 与用户历史中每个商品 q 的共现 +1（双向），并更新双方的相似列表。
+     * 两次流水线往返：第一次累加计数并取回新值，第二次写入相似度并裁剪到 Top-N。
+     */
+    private void applyIncrementalView(Long userId, Long productId) {
+        List<Long> others = historyService.getUserViewedProductIds(userId).stream()
+                .filter(id -> !id.equals(productId))
+                .collect(Collectors.toList());
+        if (others.isEmpty()) {
+            return;
+        }
+
+        String productField = productId.toString();
+        List<Object> counts = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                for (Long other : others) {
+                    String otherField = other.toString();
+                    ops.opsForHash().increment(COOCCURRENCE_KEY_PREFIX + productId, otherField, 1);
+                    ops.opsForHash().increment(COOCCURRENCE_KEY_PREFIX + other, productField, 1);
+                    ops.opsForHash().increment(COOCCURRENCE_TOTAL_KEY, otherField, 1);
+                }
+                ops.opsForHash().increment(COOCCURRENCE_TOTAL_KEY, productField, others.size());
+                return null;
+            }
+        });
+
+        long productTotal = toLong(counts.get(counts.size() - 1));
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                for (int i = 0; i < others.size(); i++) {
+                    Long other = others.get(i);
+                    long coOccurrence = toLong(counts.get(i * 3));
+                    long otherTotal = toLong(counts.get(i * 3 + 2));
+                    double similarity = similarity(coOccurrence, productTotal, otherTotal);
+
+                    String otherKey = RECOMMEND_KEY_PREFIX + other;
+                    ops.opsForZSet().add(RECOMMEND_KEY_PREFIX + productId, other.toString(), similarity);
+                    ops.opsForZSet().add(otherKey, productField, similarity);
+                    ops.opsForZSet().removeRange(otherKey, 0, -(TOP_N_SIMILAR + 1));
+                }
+                ops.opsForZSet().removeRange(RECOMMEND_KEY_PREFIX + productId, 0, -(TOP_N_SIMILAR + 1));
+                return null;
+            }
+        });
+    }
+
     /**
      * Build co-occurrence matrix from user browsing history
      * If users viewed both product A and B, increment co-occurrence count
+     * 用户按 USERS_PER_TASK 分片，在 ForkJoin 池中并行统计后归并
      */
-    private Map<Long, Map<Long, Integer>> buildCoOccurrenceMatrix() {
-        Map<Long, Map<Long, Integer>> matrix = new HashMap<>();
-
-        // Get all users with browsing history
-        Set<String> userIds = historyService.getAllUsersWithHistory();
+    private LongObjectHashMap<LongIntHashMap> buildCoOccurrenceMatrix() {
+        List<Long> userIds = new ArrayList<>();
+        for (String userIdStr : historyService.getAllUsersWithHistory()) {
+            try {
+                userIds.add(Long.parseLong(userIdStr));
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping malformed history key for user " + userIdStr);
+            }
+        }
         System.out.println("Processing browsing history for " + userIds.size() + " users");
+        if (userIds.isEmpty()) {
+            return new LongObjectHashMap<>();
+        }
 
-        for (String userIdStr : userIds) {
-            try {
-                Long userId = Long.parseLong(userIdStr);
-                Set<Long> viewedProducts = historyService.getUserViewedProductIds(userId);
+        ForkJoinPool pool = newPool();
+        try {
+            return pool.invoke(new CoOccurrenceTask(userIds, 0, userIds.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-                // For each pair of products this user viewed
-                List<Long> productList = new ArrayList<>(viewedProducts);
-                for (int i = 0; i < productList.size(); i++) {
-                    Long product1 = productList.get(i);
+    /**
+     * 分治统计共现：叶子任务流水线读取一批用户的历史，统计后逐层归并（小表并入大表）
+     */
+    private class CoOccurrenceTask extends RecursiveTask<LongObjectHashMap<LongIntHashMap>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Long> userIds;
+        private final int from;
+        private final int to;
 
-                    for (int j = i + 1; j < productList.size(); j++) {
-                        Long product2 = productList.get(j);
+        CoOccurrenceTask(List<Long> userIds, int from, int to) {
+            this.userIds = userIds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected LongObjectHashMap<LongIntHashMap> compute() {
+            if (to - from <= USERS_PER_TASK) {
+                return countChunk(userIds.subList(from, to));
+            }
+            int mid = (from + to) >>> 1;
+            CoOccurrenceTask left = new CoOccurrenceTask(userIds, from, mid);
+            left.fork();
+            LongObjectHashMap<LongIntHashMap> right = new CoOccurrenceTask(userIds, mid, to).compute();
+            return merge(left.join(), right);
+        }
+    }
 
-                        // Increment co-occurrence for both directions
-                        incrementCoOccurrence(matrix, product1, product2);
-                        incrementCoOccurrence(matrix, product2, product1);
+    private LongObjectHashMap<LongIntHashMap> countChunk(List<Long> userIds) {
+        LongObjectHashMap<LongIntHashMap> matrix = new LongObjectHashMap<>();
+        for (long[] viewed : historyService.getViewedProductIdsBatch(userIds)) {
+            // For each pair of products this user viewed
+            for (int i = 0; i < viewed.length; i++) {
+                LongIntHashMap row = matrix.computeIfAbsent(viewed[i], k -> new LongIntHashMap());
+                for (int j = 0; j < viewed.length; j++) {
+                    if (i != j) {
+                        row.addTo(viewed[j], 1);
                     }
                 }
-            } catch (Exception e) {
-                System.err.println("Error processing user " + userIdStr + ": " + e.getMessage());
             }
         }
-
         return matrix;
     }
 
+    private static LongObjectHashMap<LongIntHashMap> merge(LongObjectHashMap<LongIntHashMap> a,
+                                                          LongObjectHashMap<LongIntHashMap> b) {
+        LongObjectHashMap<LongIntHashMap> target = a.size() >= b.size() ? a : b;
+        LongObjectHashMap<LongIntHashMap> source = target == a ? b : a;
+        source.forEach((productId, row) -> {
+            LongIntHashMap existing = target.get(productId);
+            if (existing == null) {
+                target.put(productId, row);
+            } else if (existing.size() >= row.size()) {
+                existing.addAll(row);
+            } else {
+                row.addAll(existing);
+                target.put(productId, row);
+            }
+        });
+        return target;
+    }
+
     /**
-     * Increment co-occurrence count between two products
+     * Similarity(A, B) = CoOccurrence(A, B) / sqrt(Total(A) * Total(B))
+     * Total 为该商品与所有商品的共现总数
      */
-    private void incrementCoOccurrence(Map<Long, Map<Long, Integer>> matrix, Long product1, Long product2) {
-        matrix.computeIfAbsent(product1, k -> new HashMap<>())
-              .merge(product2, 1, Integer::sum);
+    private static double similarity(long coOccurrence, long total1, long total2) {
+        return coOccurrence / Math.sqrt((double) Math.max(total1, 1) * Math.max(total2, 1));
     }
 
     /**
-     * Compute similarity scores using Cosine Similarity
-     * Similarity(A, B) = CoOccurrence(A, B) / sqrt(TotalViews(A) * TotalViews(B))
+     * 并行计算每个商品的 Top-N 相似商品，并以流水线批量写回：
+     * 相似列表（ZSET）、共现计数（HASH）和共现总数（先写临时 key，最后 RENAME 原子切换）
      */
-    private Map<Long, Map<Long, Double>> computeSimilarityMatrix(
-            Map<Long, Map<Long, Integer>> coOccurrenceMatrix) {
-
-        Map<Long, Map<Long, Double>> similarityMatrix = new HashMap<>();
-
+    private void storeRecommendations(LongObjectHashMap<LongIntHashMap> matrix) {
         // Calculate total co-occurrences for each product (for normalization)
-        Map<Long, Integer> totalCoOccurrences = new HashMap<>();
-        for (Map.Entry<Long, Map<Long, Integer>> entry : coOccurrenceMatrix.entrySet()) {
-            Long productId = entry.getKey();
-            int total = entry.getValue().values().stream().mapToInt(Integer::intValue).sum();
-            totalCoOccurrences.put(productId, total);
+        LongIntHashMap totals = new LongIntHashMap(matrix.size());
+        matrix.forEach((productId, row) -> {
+            int[] sum = new int[1];
+            row.forEach((other, count) -> sum[0] += count);
+            totals.put(productId, sum[0]);
+        });
+
+        long[] productIds = matrix.keys();
+        ForkJoinPool pool = newPool();
+        List<TopN> topLists;
+        try {
+            topLists = pool.submit(() -> Arrays.stream(productIds).parallel()
+                    .mapToObj(productId -> TopN.of(productId, matrix.get(productId), totals, TOP_N_SIMILAR))
+                    .collect(Collectors.toList())).join();
+        } finally {
+            pool.shutdown();
         }
 
-        // Compute similarity for each product pair
-        for (Map.Entry<Long, Map<Long, Integer>> entry : coOccurrenceMatrix.entrySet()) {
-            Long product1 = entry.getKey();
-            Map<Long, Integer> coOccurrences = entry.getValue();
-
-            Map<Long, Double> similarities = new HashMap<>();
-
-            for (Map.Entry<Long, Integer> coEntry : coOccurrences.entrySet()) {
-                Long product2 = coEntry.getKey();
-                Integer coOccurrence = coEntry.getValue();
-
-                // Cosine similarity
-                int total1 = totalCoOccurrences.getOrDefault(product1, 1);
-                int total2 = totalCoOccurrences.getOrDefault(product2, 1);
-
-                double similarity = coOccurrence / Math.sqrt(total1 * total2);
-                similarities.put(product2, similarity);
-            }
-
-            similarityMatrix.put(product1, similarities);
+        String totalsTempKey = COOCCURRENCE_TOTAL_KEY + ":rebuild";
+        redisTemplate.delete(totalsTempKey);
+        for (int start = 0; start < topLists.size(); start += WRITE_BATCH_SIZE) {
+            List<TopN> batch = topLists.subList(start, Math.min(start + WRITE_BATCH_SIZE, topLists.size()));
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                    Map<String, Object> batchTotals = new HashMap<>();
+                    for (TopN top : batch) {
+                        String key = RECOMMEND_KEY_PREFIX + top.productId;
+                        ops.delete(key);
+                        if (top.heap.size() > 0) {
+                            ops.opsForZSet().add(key, top.toTuples());
+                        }
+
+                        String coKey = COOCCURRENCE_KEY_PREFIX + top.productId;
+                        Map<String, Object> counts = new HashMap<>();
+                        matrix.get(top.productId).forEach((other, count) -> counts.put(Long.toString(other), count));
+                        ops.delete(coKey);
+                        ops.opsForHash().putAll(coKey, counts);
+
+                        batchTotals.put(Long.toString(top.productId), totals.get(top.productId));
+                    }
+                    ops.opsForHash().putAll(totalsTempKey, batchTotals);
+                    return null;
+                }
+            });
         }
+        redisTemplate.rename(totalsTempKey, COOCCURRENCE_TOTAL_KEY);
 
-        return similarityMatrix;
+        System.out.println("Stored recommendations for " + topLists.size() + " products");
     }
 
     /**
-     * Store top N similar products in Redis Sorted Sets
+     * 单个商品的 Top-N 结果
      */
-    private void storeRecommendations(Map<Long, Map<Long, Double>> similarityMatrix) {
-        int storedCount = 0;
-
-        for (Map.Entry<Long, Map<Long, Double>> entry : similarityMatrix.entrySet()) {
-            Long productId = entry.getKey();
-            Map<Long, Double> similarities = entry.getValue();
+    private static final class TopN {
+        final long productId;
+        final TopKHeap heap;
 
-            // Sort by similarity score and take top N
-            List<Map.Entry<Long, Double>> topSimilar = similarities.entrySet().stream()
-                .sorted((e1, e2) -> Double.compare(e2.getValue(), e1.getValue()))
-                .limit(TOP_N_SIMILAR)
-                .collect(Collectors.toList());
-
-            // Store in Redis Sorted Set
-            String key = RECOMMEND_KEY_PREFIX + productId;
+        private TopN(long productId, int n) {
+            this.productId = productId;
+            this.heap = new TopKHeap(n);
+        }
 
-            // Clear old recommendations
-            redisTemplate.delete(key);
+        static TopN of(long productId, LongIntHashMap row, LongIntHashMap totals, int n) {
+            TopN top = new TopN(productId, n);
+            int total = totals.get(productId);
+            row.forEach((other, count) -> top.heap.offer(other, similarity(count, total, totals.get(other))));
+            return top;
+        }
 
-            // Add new recommendations
-            for (Map.Entry<Long, Double> similar : topSimilar) {
-                redisTemplate.opsForZSet().add(
-                    key,
-                    similar.getKey().toString(),
-                    similar.getValue()
-                );
+        Set<ZSetOperations.TypedTuple<Object>> toTuples() {
+            Set<ZSetOperations.TypedTuple<Object>> tuples = new HashSet<>();
+            for (int i = 0; i < heap.size(); i++) {
+                tuples.add(ZSetOperations.TypedTuple.of(Long.toString(heap.idAt(i)), heap.scoreAt(i)));
             }
-
-            storedCount++;
+            return tuples;
         }
+    }
 
-        System.out.println("Stored recommendations for " + storedCount + " products");
+    private ForkJoinPool newPool() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        return new ForkJoinPool(threads);
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
     }
 
     /**
@@ -216,6 +414,13 @@ public class RecommendationEngineService {
         computeRecommendations();
     }
 
+    /**
+     * 增量更新因队列已满被丢弃的次数（由下一次全量重建补齐）
+     */
+    public long getDroppedIncrementalUpdates() {
+        return droppedUpdates.get();
+    }
+
     /**
      * Get similar products for a given product (from pre-computed cache)
      */
@@ -234,4 +439,3 @@ public class RecommendationEngineService {
             .collect(Collectors.toList());
     }
 }
-
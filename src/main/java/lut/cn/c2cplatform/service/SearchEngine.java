@@ -0,0 +1,32 @@
+package lut.cn.c2cplatform.service;
+
+import lut.cn.c2cplatform.document.ProductDocument;
+import lut.cn.c2cplatform.dto.SearchRequestDTO;
+
+import java.util.List;
+
+/**
+ * 关键词搜索引擎
+ *
+ * SearchService 按 search.engine 选出主引擎，主引擎不可用时依次尝试其余引擎，全部不可用再由调用方降级到 MySQL 全文索引。
+ * 各引擎自己负责索引的写入（订阅商品变更事件），这里只约定查询。
+ */
+public interface SearchEngine {
+
+    /**
+     * 引擎名，与 search.engine 配置值对应
+     */
+    String name();
+
+    /**
+     * 当前能否提供查询，不可用的引擎直接跳过，不等待超时
+     */
+    boolean isAvailable();
+
+    /**
+     * 按关键词和筛选条件查询一页在售商品（page/size），高亮字段总是有值
+     *
+     * @throws Exception 查询失败，SearchService 会继续尝试下一个引擎
+     */
+    List<ProductDocument> search(SearchRequestDTO request) throws Exception;
+}
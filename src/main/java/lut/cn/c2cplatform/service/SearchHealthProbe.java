@@ -0,0 +1,101 @@
+package lut.cn.c2cplatform.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ES 健康探测：后台线程定期 ping，请求路径只读一个 volatile 标志，不会因为探测而阻塞
+ *
+ * 搜索请求失败时调用 reportFailure() 立即标记为不可用，之后的请求直接走 MySQL 全文降级，
+ * 不再等待 ES 超时；探测线程 ping 成功后恢复
+ *
+ * 主引擎为嵌入式 Lucene（search.engine=lucene）时不部署 ES：不启动探测线程，始终报告不可用，
+ * 依赖 ES 的功能（游标 PIT、分面、联想）直接走各自的降级路径，不会发出任何 ES 请求
+ */
+@Component
+public class SearchHealthProbe {
+
+    @Value("${search.health.probe-interval-ms:2000}")
+    private long probeIntervalMs;
+
+    @Value("${search.engine:elasticsearch}")
+    private String searchEngine;
+
+    @Autowired
+    private ElasticsearchClient elasticsearchClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private volatile boolean available = true;
+    private Thread probeThread;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void startProbe() {
+        Gauge.builder("search.es.available", this, probe -> probe.available ? 1 : 0)
+                .description("Whether keyword search is served by Elasticsearch (0 = MySQL fulltext fallback)")
+                .register(meterRegistry);
+
+        if (LuceneSearchEngine.NAME.equals(searchEngine)) {
+            available = false;
+            System.out.println("Elasticsearch is not deployed (search.engine=" + searchEngine + "), health probe disabled");
+            return;
+        }
+        running = true;
+        probeThread = new Thread(this::runProbe, "es-health-probe");
+        probeThread.setDaemon(true);
+        probeThread.start();
+    }
+
+    @PreDestroy
+    public void stopProbe() throws InterruptedException {
+        if (probeThread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(probeThread);
+        probeThread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * 搜索请求访问 ES 失败：立即切换到降级搜索，等探测成功后再切回
+     */
+    public void reportFailure(Exception e) {
+        if (available) {
+            available = false;
+            System.err.println("Elasticsearch marked unavailable, switching to MySQL fulltext search: " + e.getMessage());
+        }
+    }
+
+    private void runProbe() {
+        while (running) {
+            boolean healthy;
+            try {
+                healthy = elasticsearchClient.ping().value();
+            } catch (Exception e) {
+                healthy = false;
+            }
+            if (healthy != available) {
+                available = healthy;
+                System.out.println(healthy
+                        ? "Elasticsearch is reachable again, keyword search switched back to ES"
+                        : "Elasticsearch ping failed, switching to MySQL fulltext search");
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(probeIntervalMs));
+        }
+    }
+}
@@ -1,190 +1,518 @@
 package lut.cn.c2cplatform.service;
 
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
 import co.elastic.clients.elasticsearch._types.query_dsl.*;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import org.springframework.data.elasticsearch.core.query.highlight.Highlight;
 import org.springframework.data.elasticsearch.core.query.highlight.HighlightField;
 import org.springframework.data.elasticsearch.core.query.highlight.HighlightParameters;
 import org.springframework.data.elasticsearch.core.query.HighlightQuery;
 import lut.cn.c2cplatform.document.ProductDocument;
+import lut.cn.c2cplatform.dto.SearchCursor;
+import lut.cn.c2cplatform.dto.SearchPage;
 import lut.cn.c2cplatform.dto.SearchRequestDTO;
+import lut.cn.c2cplatform.dto.SearchResultDTO;
 import lut.cn.c2cplatform.entity.Product;
-import lut.cn.c2cplatform.repository.ProductSearchRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregation;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregations;
 import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 @Service
 public class SearchService {
-    @Autowired
-    private ProductSearchRepository productSearchRepository;
+    private static final String FACET_CATEGORY = "category";
+    private static final String FACET_LOCATION = "location";
+    private static final String FACET_CONDITION = "conditionLevel";
+    private static final String FACET_PRICE = "price";
+    private static final String FACET_VALUES = "values";
+
+    @Value("${search.facets.terms-size:20}")
+    private int facetTermsSize;
+
+    @Value("${search.facets.price-interval:100}")
+    private double priceInterval;
+
+    // 游标翻页的 PIT 保留时长，每次翻页都会续期
+    @Value("${search.cursor.keep-alive-seconds:60}")
+    private long pitKeepAliveSeconds;
+
+    @Value("${search.result-cache.max-size:1000}")
+    private long resultCacheSize;
+
+    @Value("${search.result-cache.ttl-seconds:30}")
+    private long resultCacheTtlSeconds;
 
     @Autowired
     private ElasticsearchOperations elasticsearchOperations;
 
     @Autowired
-    private ProductService productService;
+    private ProductSearchIndexer productSearchIndexer;
+
+    @Autowired
+    private SearchHealthProbe searchHealthProbe;
+
+    @Autowired
+    private List<SearchEngine> searchEngines;
+
+    // 主引擎：elasticsearch 或 lucene（嵌入式本地索引，需要 search.lucene.enabled=true 或直接选为主引擎）
+    @Value("${search.engine:elasticsearch}")
+    private String primaryEngine;
+
+    // 按优先级排列的引擎：主引擎在前
+    private List<SearchEngine> engines;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // 搜索结果短时缓存：来回切换筛选条件时重复的请求不再访问 ES
+    private Cache<String, Object> resultCache;
+
+    @PostConstruct
+    public void init() {
+        engines = new ArrayList<>(searchEngines);
+        engines.sort(Comparator.comparing(engine -> !engine.name().equals(primaryEngine)));
+        System.out.println("Search engines in order: "
+                + engines.stream().map(SearchEngine::name).collect(Collectors.joining(", ")));
+
+        resultCache = Caffeine.newBuilder()
+                .maximumSize(resultCacheSize)
+                .expireAfterWrite(Duration.ofSeconds(resultCacheTtlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, resultCache, "search.results");
+    }
 
     /**
-     * 同步产品到Elasticsearch（双写模式）
+     * 同步产品到Elasticsearch：登记到索引管道，后台合并后批量写入
      */
     public void indexProduct(Product product) {
-        try {
-            ProductDocument doc = convertToDocument(product);
-            productSearchRepository.save(doc);
-        } catch (Exception e) {
-            // 记录日志，但不影响主流程
-            System.err.println("Failed to index product: " + e.getMessage());
-        }
+        productSearchIndexer.enqueue(product.getId());
     }
 
     /**
-     * 从Elasticsearch删除产品
+     * 从Elasticsearch删除产品（索引管道按数据库状态判断为删除）
      */
     public void deleteProduct(Long productId) {
-        try {
-            productSearchRepository.deleteById(String.valueOf(productId));
-        } catch (Exception e) {
-            System.err.println("Failed to delete product from ES: " + e.getMessage());
-        }
+        productSearchIndexer.enqueue(productId);
     }
 
     /**
-     * 搜索商品
+     * 搜索商品（结果按归一化后的请求短时缓存），ES 不可用时返回空列表
      */
     public List<ProductDocument> searchProducts(SearchRequestDTO request) {
-        try {
-            List<Query> mustQueries = new ArrayList<>();
-            List<Query> filterQueries = new ArrayList<>();
+        List<ProductDocument> hits = trySearchProducts(request);
+        return hits != null ? hits : new ArrayList<>();
+    }
 
-            // 1. 全文搜索查询（如果有关键词）
-            if (request.getKeyword() != null && !request.getKeyword().trim().isEmpty()) {
-                MultiMatchQuery multiMatchQuery = MultiMatchQuery.of(m -> m
-                        .query(request.getKeyword())
-                        .fields("name^2", "description", "category") // name字段权重更高
-                        .fuzziness("AUTO"));
-                mustQueries.add(Query.of(q -> q.multiMatch(multiMatchQuery)));
+    /**
+     * 搜索商品：先用主引擎（search.engine），不可用或失败时依次尝试其余引擎；
+     * 全部不可用时返回 null，由调用方切换到 MySQL 全文降级搜索
+     */
+    public List<ProductDocument> trySearchProducts(SearchRequestDTO request) {
+        String cacheKey = "hits:" + normalizedKey(request);
+        Object cached = resultCache.getIfPresent(cacheKey);
+        if (cached != null) {
+            @SuppressWarnings("unchecked")
+            List<ProductDocument> hits = (List<ProductDocument>) cached;
+            return hits;
+        }
+        for (SearchEngine engine : engines) {
+            if (!engine.isAvailable()) {
+                continue;
             }
-
-            // 2. 价格区间过滤
-            if (request.getMinPrice() != null || request.getMaxPrice() != null) {
-                RangeQuery.Builder rangeBuilder = new RangeQuery.Builder().field("price");
-                if (request.getMinPrice() != null) {
-                    rangeBuilder.gte(co.elastic.clients.json.JsonData.of(request.getMinPrice().doubleValue()));
-                }
-                if (request.getMaxPrice() != null) {
-                    rangeBuilder.lte(co.elastic.clients.json.JsonData.of(request.getMaxPrice().doubleValue()));
-                }
-                filterQueries.add(Query.of(q -> q.range(rangeBuilder.build())));
+            try {
+                List<ProductDocument> hits = engine.search(request);
+                resultCache.put(cacheKey, hits);
+                return hits;
+            } catch (Exception e) {
+                System.err.println("Search error (" + engine.name() + "): " + e.getMessage());
             }
+        }
+        return null;
+    }
 
-            // 3. 成色过滤
-            if (request.getConditionLevel() != null) {
-                TermQuery termQuery = TermQuery.of(t -> t
-                        .field("conditionLevel")
-                        .value(request.getConditionLevel()));
-                filterQueries.add(Query.of(q -> q.term(termQuery)));
+    /**
+     * 游标分页搜索：按 (_score desc, productId asc) 排序，用 search_after 从上一页最后一条之后继续，
+     * 每页只需各分片取 size 条，翻到多深代价都相同（from+size 需要每个分片收集并排序 page×size 条）
+     *
+     * 第一页直接查别名；请求第二页时打开 PIT，之后每页带上 PIT（ES 可能返回新的 PIT ID，写入下一页游标），
+     * 翻页期间看到的是同一个索引快照。PIT 过期未续期由 ES 自动释放。
+     * 主引擎不是 ES、ES 不可用或请求失败时改用其余引擎按偏移量分页，全部不可用时返回 null，由调用方降级
+     */
+    public SearchPage trySearchPage(SearchRequestDTO request, SearchCursor after) {
+        // 第一页不涉及 PIT，和 searchProducts 一样按归一化请求缓存
+        String cacheKey = after == null ? "page:" + normalizedKey(request) : null;
+        if (cacheKey != null) {
+            Object cached = resultCache.getIfPresent(cacheKey);
+            if (cached != null) {
+                return (SearchPage) cached;
             }
-
-            // 4. 位置过滤
-            if (request.getLocation() != null && !request.getLocation().trim().isEmpty()) {
-                TermQuery locationQuery = TermQuery.of(t -> t
-                        .field("location")
-                        .value(request.getLocation()));
-                filterQueries.add(Query.of(q -> q.term(locationQuery)));
+        }
+        if (!ElasticsearchSearchEngine.NAME.equals(primaryEngine) || !searchHealthProbe.isAvailable()) {
+            SearchPage page = searchPageByOffset(request, after);
+            if (page != null && cacheKey != null) {
+                resultCache.put(cacheKey, page);
+            }
+            return page;
+        }
+        try {
+            Map<String, Query> attributeFilters = attributeFilters(request);
+            List<Query> filterQueries = new ArrayList<>(attributeFilters.values());
+            filterQueries.add(statusFilter());
+            int size = request.getSize();
+
+            NativeQueryBuilder builder = NativeQuery.builder()
+                    .withQuery(Query.of(q -> q.bool(b -> b.must(keywordQuery(request)).filter(filterQueries))))
+                    .withSort(SortOptions.of(so -> so.score(sc -> sc.order(SortOrder.Desc))),
+                            SortOptions.of(so -> so.field(f -> f.field("productId").order(SortOrder.Asc))))
+                    .withPageable(PageRequest.of(0, size))
+                    .withTrackTotalHits(false)
+                    .withHighlightQuery(highlightQuery());
+            if (after != null && after.getProductId() == null) {
+                // 降级期间生成的游标只有偏移量：ES 恢复后这一次按 from+size 接着翻
+                builder.withPageable(PageRequest.of(after.getOffset() / size, size));
+            } else if (after != null) {
+                String pitId = after.getPitId() != null ? after.getPitId()
+                        : elasticsearchOperations.openPointInTime(IndexCoordinates.of(alias()), pitKeepAlive());
+                builder.withPointInTime(new org.springframework.data.elasticsearch.core.query.Query.PointInTime(
+                        pitId, pitKeepAlive()));
+                builder.withSearchAfter(List.of(after.getScore(), after.getProductId()));
             }
 
-            // 5. 只显示在售商品
-            TermQuery statusQuery = TermQuery.of(t -> t.field("status").value(1));
-            filterQueries.add(Query.of(q -> q.term(statusQuery)));
+            SearchHits<ProductDocument> searchHits = elasticsearchOperations.search(builder.build(), ProductDocument.class);
 
-            // 6. 分类过滤
-            if (request.getCategory() != null && !request.getCategory().trim().isEmpty()) {
-                String[] categories = request.getCategory().split(",");
-                if (categories.length > 1) {
-                    // 如果有多个分类（逗号分隔），使用TermsQuery
-                    List<String> categoryList = java.util.Arrays.asList(categories);
-                    List<co.elastic.clients.elasticsearch._types.FieldValue> fieldValues = categoryList.stream()
-                            .map(co.elastic.clients.elasticsearch._types.FieldValue::of)
-                            .collect(Collectors.toList());
-
-                    TermsQuery termsQuery = TermsQuery.of(t -> t
-                            .field("category")
-                            .terms(terms -> terms.value(fieldValues)));
-                    filterQueries.add(Query.of(q -> q.terms(termsQuery)));
-                } else {
-                    // 单个分类
-                    TermQuery categoryQuery = TermQuery.of(t -> t
-                            .field("category")
-                            .value(request.getCategory()));
-                    filterQueries.add(Query.of(q -> q.term(categoryQuery)));
-                }
-            }
+            List<SearchHit<ProductDocument>> pageHits = searchHits.getSearchHits();
+            List<ProductDocument> hits = pageHits.stream()
+                    .map(SearchService::withHighlights)
+                    .collect(Collectors.toList());
 
-            // 构建布尔查询
-            BoolQuery.Builder boolQueryBuilder = new BoolQuery.Builder();
-            if (!mustQueries.isEmpty()) {
-                boolQueryBuilder.must(mustQueries);
+            SearchCursor next = null;
+            if (hits.size() == size) {
+                List<Object> sortValues = pageHits.get(pageHits.size() - 1).getSortValues();
+                int offset = (after != null ? after.getOffset() : 0) + hits.size();
+                next = new SearchCursor(searchHits.getPointInTimeId(), ((Number) sortValues.get(0)).doubleValue(),
+                        ((Number) sortValues.get(1)).longValue(), offset);
+            } else if (searchHits.getPointInTimeId() != null) {
+                // 最后一页：PIT 不再需要，主动释放
+                closePointInTime(searchHits.getPointInTimeId());
             }
-            if (!filterQueries.isEmpty()) {
-                boolQueryBuilder.filter(filterQueries);
+            SearchPage page = new SearchPage(hits, next);
+            if (cacheKey != null) {
+                resultCache.put(cacheKey, page);
             }
+            return page;
+        } catch (Exception e) {
+            System.err.println("Cursor search error: " + e.getMessage());
+            searchHealthProbe.reportFailure(e);
+            return searchPageByOffset(request, after);
+        }
+    }
 
-            // 如果没有任何查询条件，返回所有在售商品
-            if (mustQueries.isEmpty() && filterQueries.size() == 1) {
-                boolQueryBuilder.must(Query.of(q -> q.matchAll(MatchAllQuery.of(m -> m))));
+    /**
+     * 不走 ES 时的游标分页：用其余引擎（嵌入式 Lucene）按游标中的偏移量取一页，下一页游标只记录偏移量
+     */
+    private SearchPage searchPageByOffset(SearchRequestDTO request, SearchCursor after) {
+        int size = request.getSize();
+        int offset = after != null ? after.getOffset() : 0;
+        SearchRequestDTO pageRequest = copyOf(request);
+        pageRequest.setPage(offset / size);
+        for (SearchEngine engine : engines) {
+            if (ElasticsearchSearchEngine.NAME.equals(engine.name()) || !engine.isAvailable()) {
+                continue;
             }
+            try {
+                List<ProductDocument> hits = engine.search(pageRequest);
+                SearchCursor next = hits.size() == size ? new SearchCursor(null, 0, null, offset + size) : null;
+                return new SearchPage(hits, next);
+            } catch (Exception e) {
+                System.err.println("Search error (" + engine.name() + "): " + e.getMessage());
+            }
+        }
+        return null;
+    }
 
-            // 6. 设置高亮
-            HighlightParameters highlightParameters = HighlightParameters.builder()
-                    .withPreTags("<em class='highlight'>")
-                    .withPostTags("</em>")
-                    .build();
+    private static SearchRequestDTO copyOf(SearchRequestDTO request) {
+        SearchRequestDTO copy = new SearchRequestDTO();
+        copy.setKeyword(request.getKeyword());
+        copy.setMinPrice(request.getMinPrice());
+        copy.setMaxPrice(request.getMaxPrice());
+        copy.setConditionLevel(request.getConditionLevel());
+        copy.setLocation(request.getLocation());
+        copy.setCategory(request.getCategory());
+        copy.setPage(request.getPage());
+        copy.setSize(request.getSize());
+        return copy;
+    }
 
-            List<HighlightField> highlightFields = new ArrayList<>();
-            highlightFields.add(new HighlightField("name"));
-            highlightFields.add(new HighlightField("description"));
+    private void closePointInTime(String pitId) {
+        try {
+            elasticsearchOperations.closePointInTime(pitId);
+        } catch (Exception e) {
+            System.err.println("Failed to close point in time: " + e.getMessage());
+        }
+    }
 
-            Highlight highlight = new Highlight(highlightParameters, highlightFields);
+    private String alias() {
+        return elasticsearchOperations.getIndexCoordinatesFor(ProductDocument.class).getIndexName();
+    }
 
-            NativeQuery searchQuery = NativeQuery.builder()
-                    .withQuery(Query.of(q -> q.bool(boolQueryBuilder.build())))
+    private Duration pitKeepAlive() {
+        return Duration.ofSeconds(pitKeepAliveSeconds);
+    }
+
+    /**
+     * 分面搜索：一次 ES 请求同时返回一页命中和分类、位置、成色、价格直方图的计数
+     *
+     * 属性筛选放在 post_filter 中，只作用于命中；每个维度的计数套一层 filter 聚合，
+     * 应用除本维度以外的全部筛选条件，这样已选中某个分类时其他分类的计数仍然可见（多选分面）
+     */
+    public SearchResultDTO searchWithFacets(SearchRequestDTO request) {
+        String cacheKey = "facets:" + normalizedKey(request);
+        Object cached = resultCache.getIfPresent(cacheKey);
+        if (cached != null) {
+            return (SearchResultDTO) cached;
+        }
+        if (!searchHealthProbe.isAvailable()) {
+            return emptyFacetResult();
+        }
+        try {
+            Map<String, Query> attributeFilters = attributeFilters(request);
+
+            NativeQueryBuilder builder = NativeQuery.builder()
+                    .withQuery(Query.of(q -> q.bool(b -> b.must(keywordQuery(request)).filter(statusFilter()))))
                     .withPageable(PageRequest.of(request.getPage(), request.getSize()))
-                    .withHighlightQuery(new HighlightQuery(highlight, ProductDocument.class))
-                    .build();
+                    .withHighlightQuery(highlightQuery());
+            if (!attributeFilters.isEmpty()) {
+                List<Query> postFilters = new ArrayList<>(attributeFilters.values());
+                builder.withFilter(Query.of(q -> q.bool(b -> b.filter(postFilters))));
+            }
 
-            SearchHits<ProductDocument> searchHits = elasticsearchOperations.search(searchQuery, ProductDocument.class);
+            Map<String, Aggregation> facetAggregations = new LinkedHashMap<>();
+            facetAggregations.put(FACET_CATEGORY, Aggregation.of(a -> a.terms(t -> t.field("category").size(facetTermsSize))));
+            facetAggregations.put(FACET_LOCATION, Aggregation.of(a -> a.terms(t -> t.field("location").size(facetTermsSize))));
+            facetAggregations.put(FACET_CONDITION, Aggregation.of(a -> a.terms(t -> t.field("conditionLevel").size(facetTermsSize))));
+            facetAggregations.put(FACET_PRICE, Aggregation.of(a -> a.histogram(h -> h.field("price")
+                    .interval(priceInterval).minDocCount(1))));
+            facetAggregations.forEach((facet, aggregation) -> {
+                List<Query> otherFilters = new ArrayList<>();
+                attributeFilters.forEach((name, filter) -> {
+                    if (!name.equals(facet)) {
+                        otherFilters.add(filter);
+                    }
+                });
+                builder.withAggregation(facet, Aggregation.of(a -> a
+                        .filter(f -> f.bool(b -> b.filter(otherFilters)))
+                        .aggregations(FACET_VALUES, aggregation)));
+            });
+
+            SearchHits<ProductDocument> searchHits = elasticsearchOperations.search(builder.build(), ProductDocument.class);
+
+            SearchResultDTO result = new SearchResultDTO();
+            result.setProducts(searchHits.getSearchHits().stream()
+                    .map(SearchService::withHighlights)
+                    .collect(Collectors.toList()));
+            result.setTotal(searchHits.getTotalHits());
+            result.setPriceInterval(priceInterval);
+            result.setFacets(readFacets(searchHits));
+            resultCache.put(cacheKey, result);
+            return result;
+        } catch (Exception e) {
+            System.err.println("Faceted search error: " + e.getMessage());
+            searchHealthProbe.reportFailure(e);
+            return emptyFacetResult();
+        }
+    }
 
-            return searchHits.getSearchHits().stream()
-                    .map(hit -> {
-                        ProductDocument doc = hit.getContent();
-                        List<String> nameHighlights = hit.getHighlightField("name");
-                        if (nameHighlights != null && !nameHighlights.isEmpty()) {
-                            doc.setHighlightedName(nameHighlights.get(0));
-                        } else {
-                            doc.setHighlightedName(doc.getName());
-                        }
-
-                        List<String> descHighlights = hit.getHighlightField("description");
-                        if (descHighlights != null && !descHighlights.isEmpty()) {
-                            doc.setHighlightedDescription(descHighlights.get(0));
-                        } else {
-                            doc.setHighlightedDescription(doc.getDescription());
-                        }
-                        return doc;
-                    })
+    private SearchResultDTO emptyFacetResult() {
+        SearchResultDTO empty = new SearchResultDTO();
+        empty.setProducts(new ArrayList<>());
+        empty.setFacets(new LinkedHashMap<>());
+        empty.setPriceInterval(priceInterval);
+        return empty;
+    }
+
+    /**
+     * 全文查询：有关键词时 multi_match（名称权重更高），否则匹配全部
+     */
+    static Query keywordQuery(SearchRequestDTO request) {
+        if (request.getKeyword() != null && !request.getKeyword().trim().isEmpty()) {
+            return Query.of(q -> q.multiMatch(m -> m
+                    .query(request.getKeyword())
+                    .fields("name^2", "description", "category") // name字段权重更高
+                    .fuzziness("AUTO")));
+        }
+        return Query.of(q -> q.matchAll(m -> m));
+    }
+
+    // 只显示在售商品
+    static Query statusFilter() {
+        return Query.of(q -> q.term(t -> t.field("status").value(1)));
+    }
+
+    /**
+     * 属性筛选条件，键为对应的分面名（价格、成色、位置、分类）
+     */
+    static Map<String, Query> attributeFilters(SearchRequestDTO request) {
+        Map<String, Query> filters = new LinkedHashMap<>();
+
+        // 价格区间过滤
+        if (request.getMinPrice() != null || request.getMaxPrice() != null) {
+            RangeQuery.Builder rangeBuilder = new RangeQuery.Builder().field("price");
+            if (request.getMinPrice() != null) {
+                rangeBuilder.gte(co.elastic.clients.json.JsonData.of(request.getMinPrice().doubleValue()));
+            }
+            if (request.getMaxPrice() != null) {
+                rangeBuilder.lte(co.elastic.clients.json.JsonData.of(request.getMaxPrice().doubleValue()));
+            }
+            filters.put(FACET_PRICE, Query.of(q -> q.range(rangeBuilder.build())));
+        }
+
+        // 成色过滤
+        if (request.getConditionLevel() != null) {
+            filters.put(FACET_CONDITION, Query.of(q -> q.term(t -> t
+                    .field("conditionLevel")
+                    .value(request.getConditionLevel()))));
+        }
+
+        // 位置过滤
+        if (request.getLocation() != null && !request.getLocation().trim().isEmpty()) {
+            filters.put(FACET_LOCATION, Query.of(q -> q.term(t -> t
+                    .field("location")
+                    .value(request.getLocation()))));
+        }
+
+        // 分类过滤（逗号分隔的多个分类使用TermsQuery）
+        List<String> categories = categories(request);
+        if (categories.size() > 1) {
+            List<FieldValue> fieldValues = categories.stream()
+                    .map(FieldValue::of)
                     .collect(Collectors.toList());
-        } catch (Exception e) {
-            System.err.println("Search error: " + e.getMessage());
-            e.printStackTrace();
-            return new ArrayList<>();
+            filters.put(FACET_CATEGORY, Query.of(q -> q.terms(t -> t
+                    .field("category")
+                    .terms(terms -> terms.value(fieldValues)))));
+        } else if (categories.size() == 1) {
+            filters.put(FACET_CATEGORY, Query.of(q -> q.term(t -> t
+                    .field("category")
+                    .value(categories.get(0)))));
         }
+        return filters;
+    }
+
+    private static List<String> categories(SearchRequestDTO request) {
+        if (request.getCategory() == null || request.getCategory().trim().isEmpty()) {
+            return List.of();
+        }
+        return Arrays.stream(request.getCategory().split(","))
+                .map(String::trim)
+                .filter(c -> !c.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    static HighlightQuery highlightQuery() {
+        HighlightParameters highlightParameters = HighlightParameters.builder()
+                .withPreTags("<em class='highlight'>")
+                .withPostTags("</em>")
+                .build();
+
+        List<HighlightField> highlightFields = new ArrayList<>();
+        highlightFields.add(new HighlightField("name"));
+        highlightFields.add(new HighlightField("description"));
+
+        return new HighlightQuery(new Highlight(highlightParameters, highlightFields), ProductDocument.class);
+    }
+
+    static ProductDocument withHighlights(SearchHit<ProductDocument> hit) {
+        ProductDocument doc = hit.getContent();
+        List<String> nameHighlights = hit.getHighlightField("name");
+        if (nameHighlights != null && !nameHighlights.isEmpty()) {
+            doc.setHighlightedName(nameHighlights.get(0));
+        } else {
+            doc.setHighlightedName(doc.getName());
+        }
+
+        List<String> descHighlights = hit.getHighlightField("description");
+        if (descHighlights != null && !descHighlights.isEmpty()) {
+            doc.setHighlightedDescription(descHighlights.get(0));
+        } else {
+            doc.setHighlightedDescription(doc.getDescription());
+        }
+        return doc;
+    }
+
+    private static Map<String, List<SearchResultDTO.FacetBucket>> readFacets(SearchHits<ProductDocument> searchHits) {
+        Map<String, List<SearchResultDTO.FacetBucket>> facets = new LinkedHashMap<>();
+        if (!(searchHits.getAggregations() instanceof ElasticsearchAggregations aggregations)) {
+            return facets;
+        }
+        for (String name : List.of(FACET_CATEGORY, FACET_LOCATION, FACET_CONDITION, FACET_PRICE)) {
+            ElasticsearchAggregation facet = aggregations.get(name);
+            if (facet == null) {
+                continue;
+            }
+            Aggregate values = facet.aggregation().getAggregate().filter().aggregations().get(FACET_VALUES);
+            List<SearchResultDTO.FacetBucket> buckets = new ArrayList<>();
+            if (values == null) {
+                // 该维度没有聚合结果
+            } else if (values.isSterms()) {
+                values.sterms().buckets().array().forEach(bucket ->
+                        buckets.add(new SearchResultDTO.FacetBucket(bucket.key().stringValue(), bucket.docCount())));
+            } else if (values.isLterms()) {
+                values.lterms().buckets().array().forEach(bucket ->
+                        buckets.add(new SearchResultDTO.FacetBucket(String.valueOf(bucket.key()), bucket.docCount())));
+            } else if (values.isHistogram()) {
+                values.histogram().buckets().array().forEach(bucket ->
+                        buckets.add(new SearchResultDTO.FacetBucket(
+                                BigDecimal.valueOf(bucket.key()).stripTrailingZeros().toPlainString(), bucket.docCount())));
+            }
+            facets.put(name, buckets);
+        }
+        return facets;
+    }
+
+    /**
+     * 结果缓存键：关键词小写并合并空白，价格去掉末尾的零，分类排序去重，其余原样拼接
+     * 同一组筛选条件无论参数顺序、大小写如何都命中同一条缓存
+     */
+    private static String normalizedKey(SearchRequestDTO request) {
+        String keyword = request.getKeyword() == null ? ""
+                : request.getKeyword().trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        String location = request.getLocation() == null ? "" : request.getLocation().trim();
+        String categories = String.join(",", new TreeSet<>(categories(request)));
+        return keyword + '|' + price(request.getMinPrice()) + '|' + price(request.getMaxPrice()) + '|'
+                + (request.getConditionLevel() == null ? "" : request.getConditionLevel()) + '|'
+                + location + '|' + categories + '|' + request.getPage() + '|' + request.getSize();
+    }
+
+    private static String price(BigDecimal price) {
+        return price == null ? "" : price.stripTrailingZeros().toPlainString();
     }
 
     /**
@@ -216,6 +544,9 @@ public class SearchService {
      * @return 产品文档列表
      */
     public List<ProductDocument> searchProductsByCategory(String category, int limit) {
+        if (!searchHealthProbe.isAvailable()) {
+            return new ArrayList<>();
+        }
         try {
             List<Query> filterQueries = new ArrayList<>();
 
@@ -243,42 +574,16 @@ public class SearchService {
                     .collect(Collectors.toList());
         } catch (Exception e) {
             System.err.println("Category search error: " + e.getMessage());
+            searchHealthProbe.reportFailure(e);
             return new ArrayList<>();
         }
     }
 
     /**
-     * 将Product实体转换为Elasticsearch文档
-     */
-    private ProductDocument convertToDocument(Product product) {
-        ProductDocument doc = new ProductDocument();
-        doc.setId(String.valueOf(product.getId()));
-        doc.setProductId(Long.valueOf(product.getId()));
-        doc.setUserId(product.getUserId());
-        doc.setName(product.getName());
-        doc.setDescription(product.getDescription());
-        doc.setPrice(product.getPrice());
-        doc.setConditionLevel(product.getConditionLevel());
-        doc.setLocation(product.getLocation());
-        doc.setStatus(product.getStatus());
-        doc.setCreatedAt(product.getCreatedAt());
-        doc.setCategory(product.getCategory());
-        return doc;
-    }
-
-    /**
-     * 全量同步：将所有产品同步到ES
+     * 全量同步：分块重建到新索引并切换别名，重建期间搜索照常可用
+     * @return 写入的商品数
      */
-    public void syncAllProducts() {
-        try {
-            List<Product> allProducts = productService.listAllProducts();
-            List<ProductDocument> documents = allProducts.stream()
-                    .map(this::convertToDocument)
-                    .collect(Collectors.toList());
-            productSearchRepository.saveAll(documents);
-            System.out.println("Synced " + documents.size() + " products to Elasticsearch");
-        } catch (Exception e) {
-            System.err.println("Failed to sync products: " + e.getMessage());
-        }
+    public int syncAllProducts() throws Exception {
+        return productSearchIndexer.reindexAll();
     }
 }
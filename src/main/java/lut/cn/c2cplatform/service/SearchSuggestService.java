@@ -0,0 +1,148 @@
+package lut.cn.c2cplatform.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.CompletionSuggestOption;
+import co.elastic.clients.elasticsearch.core.search.Suggestion;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lut.cn.c2cplatform.document.ProductDocument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 搜索联想（边输入边提示）
+ *
+ * 查询 ProductDocument.suggest 的 completion 字段（商品名和分类），只做前缀匹配、不做模糊匹配，
+ * 不取 _source，不打分排序，单次查询只读内存中的 FST。
+ * 前缀结果放进进程内 LRU（Caffeine，有界、短TTL），热门前缀直接命中本地缓存，不访问 ES。
+ * ES 不可用或未部署（SearchHealthProbe 报告不可用）时直接返回空列表，不等待连接超时。
+ */
+@Service
+public class SearchSuggestService {
+
+    private static final String SUGGESTER_NAME = "product-suggest";
+    private static final String SUGGEST_FIELD = "suggest";
+
+    // 超过该长度的输入不再是“前缀”，直接截断
+    private static final int MAX_PREFIX_LENGTH = 50;
+
+    @Value("${search.suggest.cache-size:10000}")
+    private long cacheSize;
+
+    @Value("${search.suggest.cache-ttl-seconds:60}")
+    private long cacheTtlSeconds;
+
+    @Value("${search.suggest.max-size:10}")
+    private int maxSize;
+
+    @Autowired
+    private ElasticsearchClient elasticsearchClient;
+
+    @Autowired
+    private ElasticsearchOperations elasticsearchOperations;
+
+    @Autowired
+    private SearchHealthProbe searchHealthProbe;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private String alias;
+    private Cache<String, List<String>> prefixCache;
+    private Timer esLatency;
+
+    @PostConstruct
+    public void init() {
+        alias = elasticsearchOperations.getIndexCoordinatesFor(ProductDocument.class).getIndexName();
+        prefixCache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, prefixCache, "search.suggest");
+        esLatency = Timer.builder("search.suggest.es.latency")
+                .description("Completion suggester round trips to Elasticsearch (cache misses)")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 返回以 prefix 开头的商品名/分类，最多 size 条；ES 不可用时返回空列表（不缓存）
+     */
+    public List<String> suggest(String prefix, int size) {
+        String normalized = normalize(prefix);
+        if (normalized.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int limit = Math.max(1, Math.min(size, maxSize));
+        String cacheKey = limit + ":" + normalized;
+
+        List<String> cached = prefixCache.getIfPresent(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        if (!searchHealthProbe.isAvailable()) {
+            return Collections.emptyList();
+        }
+        try {
+            long start = System.nanoTime();
+            List<String> suggestions = query(normalized, limit);
+            esLatency.record(Duration.ofNanos(System.nanoTime() - start));
+            prefixCache.put(cacheKey, suggestions);
+            return suggestions;
+        } catch (Exception e) {
+            System.err.println("Suggest error for prefix '" + normalized + "': " + e.getMessage());
+            searchHealthProbe.reportFailure(e);
+            return Collections.emptyList();
+        }
+    }
+
+    private List<String> query(String prefix, int limit) throws Exception {
+        SearchResponse<Void> response = elasticsearchClient.search(s -> s
+                        .index(alias)
+                        .source(src -> src.fetch(false))
+                        .suggest(sg -> sg.suggesters(SUGGESTER_NAME, fs -> fs
+                                .prefix(prefix)
+                                .completion(c -> c
+                                        .field(SUGGEST_FIELD)
+                                        .size(limit)
+                                        .skipDuplicates(true)))),
+                Void.class);
+
+        List<String> suggestions = new ArrayList<>(limit);
+        List<Suggestion<Void>> entries = response.suggest().getOrDefault(SUGGESTER_NAME, Collections.emptyList());
+        for (Suggestion<Void> entry : entries) {
+            if (!entry.isCompletion()) {
+                continue;
+            }
+            for (CompletionSuggestOption<Void> option : entry.completion().options()) {
+                suggestions.add(option.text());
+            }
+        }
+        return List.copyOf(suggestions);
+    }
+
+    /**
+     * completion 字段默认用 simple 分析器（小写），缓存键同样小写并合并空白，大小写不同的输入共用一条缓存
+     */
+    private static String normalize(String prefix) {
+        if (prefix == null) {
+            return "";
+        }
+        String normalized = prefix.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return normalized.length() > MAX_PREFIX_LENGTH ? normalized.substring(0, MAX_PREFIX_LENGTH) : normalized;
+    }
+}
@@ -0,0 +1,352 @@
+package lut.cn.c2cplatform.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lut.cn.c2cplatform.entity.OrderItem;
+import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.mapper.OrderItemMapper;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import lut.cn.c2cplatform.util.RedisScripts;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 库存预占（Redis + Lua），放在 MySQL 行锁之前
+ *
+ * - 每个商品在 Redis 中有一份库存镜像 stock:product:<id> = Hash{stock, reserved}，
+ *   stock 与 pms_product.stock 一致（支付时才扣减），reserved 为未支付订单占用的数量
+ * - 下单时一个 Lua 脚本原子地检查 stock - reserved 并预占订单内所有商品，热门商品的买家不再排队等同一行锁
+ * - 预占记录 stock:reservation:<orderId> = Hash{productId -> 数量}，支付/取消/过期时结算（settle），脚本幂等；
+ *   记录带过期时间（长于订单 15 分钟的支付期限），结算丢失时不会永久残留
+ * - 镜像由支付结算增量维护，并由定时任务异步校准：stock 取 pms_product.stock，reserved 取待支付订单的数量合计，
+ *   结算丢失造成的 reserved 偏高在下一轮校准时消除；
+ *   支付时的条件 UPDATE（stock >= quantity）仍是防超卖的最终保证
+ * - stock.reservation.mode=db 时关闭预占，下单退回原来的悲观锁检查；Redis 不可用时调用方同样退回悲观锁
+ */
+@Service
+public class StockReservationService {
+
+    private static final String STOCK_KEY_PREFIX = "stock:product:";
+    private static final String RESERVATION_KEY_PREFIX = "stock:reservation:";
+    // 已建立镜像的商品ID集合，供异步校准遍历
+    private static final String MIRRORED_PRODUCTS_KEY = "stock:products";
+    private static final int SYNC_BATCH_SIZE = 500;
+    // 已结算订单的预占记录只保留这个字段，防止重复结算
+    private static final String SETTLED_FIELD = "_settled";
+
+    /**
+     * KEYS: 预占记录, 各商品库存镜像; ARGV[1]: 预占记录的过期秒数, 其后为按 KEYS[2..] 顺序的 (productId, 数量) 对
+     * 返回 {1} 成功（预占记录已存在时视为重复调用，也返回成功）；
+     * {-1, i} 第 i 个商品没有镜像（调用方加载后重试）；{0, i, 可用数量} 第 i 个商品库存不足
+     */
+    public static final RedisScript<List<Long>> RESERVE_SCRIPT = RedisScripts.listScript(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return {1} end " +
+            "for i = 2, #KEYS do " +
+            "  if redis.call('HEXISTS', KEYS[i], 'stock') == 0 then return {-1, i - 1} end " +
+            "end " +
+            "for i = 2, #KEYS do " +
+            "  local available = tonumber(redis.call('HGET', KEYS[i], 'stock')) " +
+            "      - tonumber(redis.call('HGET', KEYS[i], 'reserved') or '0') " +
+            "  if available < tonumber(ARGV[2 * i - 1]) then return {0, i - 1, available} end " +
+            "end " +
+            "for i = 2, #KEYS do " +
+            "  redis.call('HINCRBY', KEYS[i], 'reserved', ARGV[2 * i - 1]) " +
+            "  redis.call('HSET', KEYS[1], ARGV[2 * i - 2], ARGV[2 * i - 1]) " +
+            "end " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+            "return {1}");
+
+    /**
+     * KEYS: 预占记录, 各商品库存镜像; ARGV[1]: 是否扣减镜像库存(1 支付 / 0 释放), ARGV[2]: 结算标记的过期秒数,
+     * 其后为 (productId, 数量) 对
+     * 释放该订单预占的数量（记录不存在时跳过）；支付时再把镜像 stock 扣减实付数量（与数据库扣减保持一致，
+     * 没有预占记录的订单如悲观锁路径下的订单同样扣减）。结算后预占记录替换为结算标记，重复结算直接返回，保证幂等
+     */
+    public static final RedisScript<Long> SETTLE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HEXISTS', KEYS[1], '" + SETTLED_FIELD + "') == 1 then return 0 end " +
+            "local held = redis.call('EXISTS', KEYS[1]) == 1 " +
+            "if not held and ARGV[1] == '0' then return 0 end " +
+            "for i = 2, #KEYS do " +
+            "  if redis.call('EXISTS', KEYS[i]) == 1 then " +
+            "    if held then " +
+            "      local qty = redis.call('HGET', KEYS[1], ARGV[2 * i - 1]) " +
+            "      if qty and redis.call('HINCRBY', KEYS[i], 'reserved', -tonumber(qty)) < 0 then " +
+            "        redis.call('HSET', KEYS[i], 'reserved', 0) " +
+            "      end " +
+            "    end " +
+            "    if ARGV[1] == '1' then redis.call('HINCRBY', KEYS[i], 'stock', -tonumber(ARGV[2 * i])) end " +
+            "  end " +
+            "end " +
+            "redis.call('DEL', KEYS[1]) " +
+            "redis.call('HSET', KEYS[1], '" + SETTLED_FIELD + "', ARGV[1]) " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[2]) " +
+            "return 1",
+            Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private OrderItemMapper orderItemMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // redis：Lua 预占；db：只用 MySQL 行锁（回退模式）
+    @Value("${stock.reservation.mode:redis}")
+    private String mode;
+
+    // 预占记录的过期时间，须长于订单的支付期限（15 分钟）
+    @Value("${stock.reservation.ttl-seconds:1800}")
+    private long ttlSeconds;
+
+    private Counter reservedCounter;
+    private Counter insufficientCounter;
+
+    /**
+     * 预占结果：success 为 false 时 productId 为失败的商品，missing 表示商品不存在，否则 available 为当前可用数量
+     */
+    public record Reservation(boolean success, Long productId, boolean missing, int available) {
+    }
+
+    @PostConstruct
+    public void init() {
+        reservedCounter = Counter.builder("stock.reservation")
+                .tag("result", "reserved")
+                .description("Orders whose stock was reserved in Redis")
+                .register(meterRegistry);
+        insufficientCounter = Counter.builder("stock.reservation")
+                .tag("result", "insufficient")
+                .description("Reservations rejected for insufficient stock")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return "redis".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * 原子预占订单内所有商品的库存；镜像缺失时从数据库加载后重试一次。
+     * 在事务中调用时，若事务最终回滚则自动释放。Redis 异常直接抛出，由调用方退回悲观锁路径。
+     */
+    public Reservation reserve(Integer orderId, Map<Long, Integer> quantities) {
+        List<Long> productIds = new ArrayList<>(quantities.keySet());
+        List<String> keys = keys(orderId, productIds);
+        Object[] args = pairs(productIds, quantities, Long.toString(ttlSeconds));
+
+        for (int attempt = 0; ; attempt++) {
+            List<Long> result = stringRedisTemplate.execute(RESERVE_SCRIPT, keys, args);
+            long code = result.get(0);
+            if (code == 1) {
+                reservedCounter.increment();
+                releaseOnRollback(orderId, quantities);
+                return new Reservation(true, null, false, 0);
+            }
+
+            Long productId = productIds.get(result.get(1).intValue() - 1);
+            if (code == 0) {
+                insufficientCounter.increment();
+                return new Reservation(false, productId, false, result.get(2).intValue());
+            }
+            if (attempt > 0 || !loadMirrors(productIds)) {
+                return new Reservation(false, productId, true, 0);
+            }
+        }
+    }
+
+    /**
+     * 事务提交后释放订单的预占（取消、过期）
+     */
+    public void releaseAfterCommit(Integer orderId, Map<Long, Integer> quantities) {
+        afterCommit(() -> settle(orderId, quantities, false));
+    }
+
+    /**
+     * 事务提交后结算已支付订单：释放预占并把镜像库存扣减实付数量
+     */
+    public void confirmAfterCommit(Integer orderId, Map<Long, Integer> quantities) {
+        afterCommit(() -> settle(orderId, quantities, true));
+    }
+
+    /**
+     * 用数据库重建商品的镜像（卖家修改、删除商品后调用）；商品已删除时移除镜像
+     * 还没有镜像的商品跳过，下次预占时再加载
+     */
+    public void refresh(Long productId) {
+        try {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(STOCK_KEY_PREFIX + productId))) {
+                syncFromDatabase(List.of(productId));
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to refresh stock mirror for product " + productId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 异步校准：分批用数据库重建 Redis 镜像（stock 与 reserved），已删除的商品移除镜像
+     * 与并发下单、结算交错时镜像可能短暂偏差（如事务尚未提交的订单不计入 reserved），下一轮校准修正；
+     * 期间的多放行由支付时的条件 UPDATE 兜底
+     */
+    @Scheduled(fixedDelayString = "${stock.reservation.sync-interval-ms:60000}")
+    public void syncMirrors() {
+        if (!isEnabled()) {
+            return;
+        }
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(MIRRORED_PRODUCTS_KEY,
+                ScanOptions.scanOptions().count(SYNC_BATCH_SIZE).build())) {
+            List<Long> batch = new ArrayList<>(SYNC_BATCH_SIZE);
+            while (cursor.hasNext()) {
+                batch.add(Long.parseLong(cursor.next()));
+                if (batch.size() == SYNC_BATCH_SIZE) {
+                    syncFromDatabase(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                syncFromDatabase(batch);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to sync stock mirrors: " + e.getMessage());
+        }
+    }
+
+    private void settle(Integer orderId, Map<Long, Integer> quantities, boolean deductStock) {
+        try {
+            List<Long> productIds = new ArrayList<>(quantities.keySet());
+            stringRedisTemplate.execute(SETTLE_SCRIPT, keys(orderId, productIds),
+                    pairs(productIds, quantities, deductStock ? "1" : "0", Long.toString(ttlSeconds)));
+        } catch (Exception e) {
+            // 预占记录随过期时间清除；未释放的 reserved 由下一轮校准按待支付订单重建，在此之前该商品可预占的数量偏少
+            System.err.println("Failed to settle stock reservation for order " + orderId + ": " + e.getMessage());
+        }
+    }
+
+    private void releaseOnRollback(Integer orderId, Map<Long, Integer> quantities) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    settle(orderId, quantities, false);
+                }
+            }
+        });
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * 为缺失的商品建立镜像（HSETNX，不覆盖并发加载的值）；有商品在数据库中不存在时返回 false
+     */
+    private boolean loadMirrors(List<Long> productIds) {
+        List<Product> products = productMapper.selectAllByIds(productIds);
+        Map<Long, Integer> pending = pendingQuantities(productIds);
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (Product product : products) {
+                    String key = STOCK_KEY_PREFIX + product.getId();
+                    ops.opsForHash().putIfAbsent(key, "stock", Integer.toString(product.getStock()));
+                    ops.opsForHash().putIfAbsent(key, "reserved", Integer.toString(pending.getOrDefault(product.getId(), 0)));
+                    ops.opsForSet().add(MIRRORED_PRODUCTS_KEY, product.getId().toString());
+                }
+                return null;
+            }
+        });
+        return products.size() == new HashSet<>(productIds).size();
+    }
+
+    private void syncFromDatabase(List<Long> productIds) {
+        List<Product> products = productMapper.selectAllByIds(productIds);
+        Map<Long, Integer> pending = pendingQuantities(productIds);
+        Set<Long> deleted = new HashSet<>(productIds);
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (Product product : products) {
+                    deleted.remove(product.getId());
+                    ops.opsForHash().putAll(STOCK_KEY_PREFIX + product.getId(), Map.of(
+                            "stock", Integer.toString(product.getStock()),
+                            "reserved", Integer.toString(pending.getOrDefault(product.getId(), 0))));
+                }
+                for (Long productId : deleted) {
+                    ops.delete(STOCK_KEY_PREFIX + productId);
+                    ops.opsForSet().remove(MIRRORED_PRODUCTS_KEY, productId.toString());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 各商品被待支付订单占用的数量（镜像 reserved 的数据库口径）
+     */
+    private Map<Long, Integer> pendingQuantities(List<Long> productIds) {
+        Map<Long, Integer> pending = new HashMap<>();
+        for (OrderItem item : orderItemMapper.sumPendingQuantitiesByProductIds(productIds)) {
+            pending.put(item.getProductId().longValue(), item.getQuantity());
+        }
+        return pending;
+    }
+
+    private static List<String> keys(Integer orderId, List<Long> productIds) {
+        List<String> keys = new ArrayList<>(productIds.size() + 1);
+        keys.add(RESERVATION_KEY_PREFIX + orderId);
+        for (Long productId : productIds) {
+            keys.add(STOCK_KEY_PREFIX + productId);
+        }
+        return keys;
+    }
+
+    private static Object[] pairs(List<Long> productIds, Map<Long, Integer> quantities, String... head) {
+        int offset = head.length;
+        Object[] args = new Object[offset + productIds.size() * 2];
+        System.arraycopy(head, 0, args, 0, offset);
+        for (int i = 0; i < productIds.size(); i++) {
+            Long productId = productIds.get(i);
+            args[offset + 2 * i] = productId.toString();
+            args[offset + 2 * i + 1] = quantities.get(productId).toString();
+        }
+        return args;
+    }
+}
@@ -2,21 +2,39 @@ package lut.cn.c2cplatform.service.impl;
 
 import lut.cn.c2cplatform.dto.PaymentRequest;
 import lut.cn.c2cplatform.entity.*;
+import lut.cn.c2cplatform.event.EventPublisher;
+import lut.cn.c2cplatform.event.Events;
 import lut.cn.c2cplatform.mapper.*;
 import lut.cn.c2cplatform.service.CreditScoreService;
 import lut.cn.c2cplatform.service.OrderService;
-import lut.cn.c2cplatform.service.HybridRecommendationService;
+import lut.cn.c2cplatform.service.RealtimeRecommendationService;
+import lut.cn.c2cplatform.service.OrderExpiryQueue;
+import lut.cn.c2cplatform.service.StockReservationService;
+import lut.cn.c2cplatform.service.ProductCacheService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class OrderServiceImpl implements OrderService {
 
+    // 下单前同步关闭的过期订单上限，其余交给延迟队列
+    private static final int EXPIRED_ORDERS_PER_CHECK = 5;
+
     @Autowired
     private OrderMapper orderMapper;
 
@@ -41,8 +59,22 @@ public class OrderServiceImpl implements OrderService {
     @Autowired
     private CreditScoreService creditScoreService;
 
+    @Lazy
     @Autowired(required = false)
-    private HybridRecommendationService hybridRecommendationService;
+    private RealtimeRecommendationService realtimeRecommendationService;
+
+    @Autowired
+    private ProductCacheService productCacheService;
+
+    @Autowired
+    private OrderExpiryQueue orderExpiryQueue;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    // 订单领域事件写入发件箱，与订单状态变更同一事务提交
+    @Autowired
+    private EventPublisher eventPublisher;
 
     @Override
     @Transactional
@@ -57,19 +89,24 @@ public class OrderServiceImpl implements OrderService {
 
         BigDecimal totalAmount = BigDecimal.ZERO;
 
-        // 先锁定所有商品并检查库存
+        // 一次查询所有商品，库存由 reserveStock 统一预占/检查
+        Map<Long, Product> products = productMapper.selectAllByIds(cartItems.stream()
+                .map(CartItem::getProductId)
+                .distinct()
+                .collect(Collectors.toList()))
+            .stream()
+            .collect(Collectors.toMap(Product::getId, Function.identity()));
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
         for (CartItem cartItem : cartItems) {
-            Product product = productMapper.selectByIdForUpdate(cartItem.getProductId());
+            Product product = products.get(cartItem.getProductId());
             if (product == null) {
                 throw new RuntimeException("商品不存在: " + cartItem.getProductId());
             }
-            if (product.getStock() < cartItem.getQuantity()) {
-                throw new RuntimeException("商品【" + product.getName() + "】库存不足，当前库存：" + product.getStock() + "件");
-            }
+            quantities.merge(cartItem.getProductId(), cartItem.getQuantity(), Integer::sum);
             totalAmount = totalAmount.add(product.getPrice().multiply(new BigDecimal(cartItem.getQuantity())));
         }
 
-        // 注意：不在创建订单时扣减库存，在支付成功后才扣减
+        // 注意：不在创建订单时扣减库存，在支付成功后才扣减；下单时只预占
         // 这样避免未支付订单占用库存，也避免错误地标记砍价活动失败
 
         Order order = new Order();
@@ -86,9 +123,10 @@ public class OrderServiceImpl implements OrderService {
         order.setCreatedAt(new Date());
         order.setUpdatedAt(new Date());
         orderMapper.insert(order);
+        orderExpiryQueue.scheduleAfterCommit(order.getId(), order.getExpireTime().getTime());
 
         for (CartItem cartItem : cartItems) {
-            Product product = productMapper.selectById(cartItem.getProductId());
+            Product product = products.get(cartItem.getProductId());
             OrderItem orderItem = new OrderItem();
             orderItem.setOrderId(order.getId());
             orderItem.setProductId(product.getId().intValue());
@@ -98,6 +136,8 @@ public class OrderServiceImpl implements OrderService {
             orderItemMapper.insert(orderItem);
         }
 
+        reserveStock(order.getId(), quantities);
+
         // 暂时不删除购物车，等支付成功或订单过期后再处理
         // cartItemMapper.deleteByUserId(userId.longValue());
 
@@ -110,18 +150,13 @@ public class OrderServiceImpl implements OrderService {
         // 自动取消该用户所有过期的PENDING订单
         cancelExpiredPendingOrders(userId);
 
-        // 使用行锁查询商品（防止并发超卖）
-        Product product = productMapper.selectByIdForUpdate(productId);
+        // 库存由 reserveStock 预占（防止并发超卖），Redis 不可用时退回行锁检查
+        Product product = productMapper.selectById(productId);
         if (product == null) {
             throw new RuntimeException("商品不存在");
         }
 
-        // 检查库存（但不扣减，支付成功后才扣减）
-        if (product.getStock() < quantity) {
-            throw new RuntimeException("库存不足，当前库存：" + product.getStock() + "件");
-        }
-
-        // 注意：不在创建订单时扣减库存，在支付成功后才扣减
+        // 注意：不在创建订单时扣减库存，在支付成功后才扣减；下单时只预占
         // 这样避免未支付订单占用库存，也避免错误地标记砍价活动失败
 
         // 计算总价
@@ -142,6 +177,7 @@ public class OrderServiceImpl implements OrderService {
         order.setCreatedAt(new Date());
         order.setUpdatedAt(new Date());
         orderMapper.insert(order);
+        orderExpiryQueue.scheduleAfterCommit(order.getId(), order.getExpireTime().getTime());
 
         // 创建订单项
         OrderItem newOrderItem = new OrderItem();
@@ -152,24 +188,21 @@ public class OrderServiceImpl implements OrderService {
         newOrderItem.setFromCart(false); // 标记不来自购物车（直接购买）
         orderItemMapper.insert(newOrderItem);
 
+        reserveStock(order.getId(), Map.of(productId, quantity));
+
         return order;
     }
 
     @Override
     @Transactional
     public Order createBargainOrder(Integer userId, Long productId, Integer quantity, BigDecimal customPrice) {
-        // 使用行锁查询商品（防止并发超卖）
-        Product product = productMapper.selectByIdForUpdate(productId);
+        // 库存由 reserveStock 预占（防止并发超卖），Redis 不可用时退回行锁检查
+        Product product = productMapper.selectById(productId);
         if (product == null) {
             throw new RuntimeException("商品不存在");
         }
 
-        // 检查库存（但不扣减，支付成功后才扣减）
-        if (product.getStock() < quantity) {
-            throw new RuntimeException("库存不足，当前库存：" + product.getStock() + "件");
-        }
-
-        // 注意：不在创建订单时扣减库存，在支付成功后才扣减
+        // 注意：不在创建订单时扣减库存，在支付成功后才扣减；下单时只预占
         // 这样避免未支付订单占用库存，也避免错误地标记砍价活动失败
 
         // 使用砍价价格作为总价
@@ -190,6 +223,7 @@ public class OrderServiceImpl implements OrderService {
         order.setCreatedAt(new Date());
         order.setUpdatedAt(new Date());
         orderMapper.insert(order);
+        orderExpiryQueue.scheduleAfterCommit(order.getId(), order.getExpireTime().getTime());
 
         // 创建订单项，使用砍价价格
         OrderItem newOrderItem = new OrderItem();
@@ -200,6 +234,8 @@ public class OrderServiceImpl implements OrderService {
         newOrderItem.setFromCart(false); // 标记不来自购物车（砍价购买）
         orderItemMapper.insert(newOrderItem);
 
+        reserveStock(order.getId(), Map.of(productId, quantity));
+
         return order;
     }
 
@@ -227,15 +263,6 @@ public class OrderServiceImpl implements OrderService {
             throw new RuntimeException("User not found");
         }
 
-        // 获取订单项，删除来自购物车的商品
-        List<OrderItem> orderItems = orderItemMapper.findByOrderId(orderId);
-        for (OrderItem item : orderItems) {
-            if (Boolean.TRUE.equals(item.getFromCart())) {
-                // 从购物车中删除该商品
-                cartItemMapper.deleteByUserIdAndProductId(userId.longValue(), item.getProductId().longValue());
-            }
-        }
-
         // 检查用户是否已设置支付密码
         if (user.getPaymentPasswordHash() == null || user.getPaymentPasswordHash().trim().isEmpty()) {
             throw new RuntimeException("请先设置支付密码");
@@ -248,39 +275,12 @@ public class OrderServiceImpl implements OrderService {
             throw new RuntimeException("支付密码错误");
         }
 
-        // 支付成功前，先扣减库存（重要：只有支付成功才扣减库存）
-        for (OrderItem item : orderItems) {
-            Long productId = item.getProductId().longValue();
-            Integer quantity = item.getQuantity();
-
-            // 使用行锁查询商品
-            Product product = productMapper.selectByIdForUpdate(productId);
-            if (product == null) {
-                throw new RuntimeException("商品不存在");
-            }
-
-            // Update product popularity when order is paid
-            if (hybridRecommendationService != null) {
-                hybridRecommendationService.updatePopularity(productId, "order");
-            }
-
-            // 检查库存
-            if (product.getStock() < quantity) {
-                throw new RuntimeException("商品【" + product.getName() + "】库存不足，当前库存：" + product.getStock() + "件");
-            }
-
-            // 扣减库存
-            int updated = productMapper.decreaseStock(productId, quantity);
-            if (updated == 0) {
-                throw new RuntimeException("商品【" + product.getName() + "】库存扣减失败，可能已被抢购");
-            }
-
-            // 检查扣减后的库存，如果为0则标记所有该商品的砍价活动为失败
-            Product updatedProduct = productMapper.selectById(productId);
-            if (updatedProduct != null && updatedProduct.getStock() == 0) {
-                // 商品已售罄，将所有活跃的砍价活动标记为失败
-                bargainActivityMapper.markAllActiveAsFailed(productId);
-            }
+        // 先把订单从 PENDING 改为 PAID（条件更新），与过期关闭/重复支付并发时只有一方成功
+        order.setStatus("PAID");
+        order.setPaymentMethod(paymentRequest.getPaymentMethod());
+        order.setUpdatedAt(new Date());
+        if (orderMapper.payIfPending(order) == 0) {
+            throw new RuntimeException("Order not found or not pending");
         }
 
         // 如果使用余额支付，检查余额是否足够并扣除余额
@@ -299,10 +299,56 @@ public class OrderServiceImpl implements OrderService {
             userMapper.update(user);
         }
 
-        order.setStatus("PAID");
-        order.setPaymentMethod(paymentRequest.getPaymentMethod());
-        order.setUpdatedAt(new Date());
-        orderMapper.updateStatus(order);
+        List<OrderItem> orderItems = orderItemMapper.findByOrderId(orderId);
+        Map<Long, Integer> quantities = quantitiesOf(orderItems);
+        if (quantities.isEmpty()) {
+            throw new RuntimeException("订单没有商品");
+        }
+
+        // 支付成功前，先扣减库存（重要：只有支付成功才扣减库存）
+        // 按商品ID升序一次锁定所有商品行，检查后用一条条件 UPDATE 扣减
+        List<Product> products = productMapper.selectByIdsForUpdate(quantities.keySet());
+        Map<Long, Product> productById = products.stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            Product product = productById.get(entry.getKey());
+            if (product == null) {
+                throw new RuntimeException("商品不存在");
+            }
+            if (product.getStock() < entry.getValue()) {
+                throw new RuntimeException("商品【" + product.getName() + "】库存不足，当前库存：" + product.getStock() + "件");
+            }
+        }
+        if (productMapper.decreaseStockBatch(quantities) != quantities.size()) {
+            throw new RuntimeException("商品库存扣减失败，可能已被抢购");
+        }
+
+        // 扣减后库存为0的商品已售罄，将该商品所有活跃的砍价活动标记为失败
+        for (Product product : products) {
+            if (product.getStock() - quantities.get(product.getId()) == 0) {
+                bargainActivityMapper.markAllActiveAsFailed(product.getId());
+            }
+        }
+
+        // 一条语句删除来自购物车的商品
+        List<Long> fromCartProductIds = orderItems.stream()
+                .filter(item -> Boolean.TRUE.equals(item.getFromCart()))
+                .map(item -> item.getProductId().longValue())
+                .distinct()
+                .collect(Collectors.toList());
+        if (!fromCartProductIds.isEmpty()) {
+            cartItemMapper.deleteByUserIdAndProductIds(userId.longValue(), fromCartProductIds);
+        }
+
+        // 库存已变化，事务提交后失效商品详情缓存，并结算 Redis 预占
+        productCacheService.invalidateAfterCommit(new java.util.ArrayList<>(quantities.keySet()));
+        stockReservationService.confirmAfterCommit(orderId, quantities);
+
+        // 购买交互在事务提交后才发布，回滚的支付不增加热度
+        if (realtimeRecommendationService != null) {
+            afterCommit(() -> quantities.keySet()
+                    .forEach(productId -> realtimeRecommendationService.processInteraction(userId.longValue(), productId, "order")));
+        }
 
         Transaction transaction = new Transaction();
         transaction.setOrderId(orderId);
@@ -313,6 +359,9 @@ public class OrderServiceImpl implements OrderService {
         transaction.setCreatedAt(new Date());
         transactionMapper.insert(transaction);
 
+        eventPublisher.publishOrderPaid(new Events.OrderPaidEvent(
+                orderId, userId, order.getTotalAmount(), paymentRequest.getPaymentMethod(), order.getUpdatedAt()));
+
         return order;
     }
 
@@ -329,9 +378,11 @@ public class OrderServiceImpl implements OrderService {
 
         // 获取订单项，找到所有卖家并增加余额
         List<OrderItem> orderItems = orderItemMapper.findByOrderId(orderId);
+        Set<Long> sellerIds = new LinkedHashSet<>();
         for (OrderItem item : orderItems) {
             Product product = productMapper.selectById(item.getProductId().longValue());
             if (product != null) {
+                sellerIds.add(product.getUserId());
                 // 获取卖家信息
                 lut.cn.c2cplatform.entity.User seller = userMapper.selectById(product.getUserId());
                 if (seller != null) {
@@ -370,6 +421,12 @@ public class OrderServiceImpl implements OrderService {
         order.setUpdatedAt(new Date());
         orderMapper.updateStatus(order);
 
+        // 每个卖家一条完成事件
+        for (Long sellerId : sellerIds) {
+            eventPublisher.publishOrderCompleted(new Events.OrderCompletedEvent(
+                    orderId, order.getUserId(), sellerId.intValue(), order.getUpdatedAt()));
+        }
+
         return order;
     }
 
@@ -385,7 +442,114 @@ public class OrderServiceImpl implements OrderService {
         List<OrderItem> orderItems = orderItemMapper.findByOrderId(orderId);
 
         // 注意：因为创建订单时没有扣减库存，所以取消订单时也不需要恢复库存
-        // 只处理购物车恢复
+        // 只释放 Redis 预占并处理购物车恢复
+        stockReservationService.releaseAfterCommit(orderId, quantitiesOf(orderItems));
+        restoreCartItems(order, orderItems);
+
+        // 更新订单状态
+        order.setStatus("CANCELED");
+        order.setUpdatedAt(new Date());
+        orderMapper.updateStatus(order);
+
+        eventPublisher.publishOrderCanceled(new Events.OrderCanceledEvent(
+                orderId, order.getUserId(), "USER_CANCELED", order.getUpdatedAt()));
+
+        return order;
+    }
+
+    /**
+     * 关闭单个到期订单（由过期延迟队列调用，每个订单一个小事务）
+     * 与取消订单一样只恢复购物车，不恢复库存（下单时未扣减库存）
+     * @return 订单确实由本次调用关闭时返回 true；已支付/已取消/未到期时返回 false
+     */
+    @Override
+    @Transactional
+    public boolean expireOrder(Integer orderId) {
+        Order order = orderMapper.findById(orderId);
+        if (order == null || !"PENDING".equals(order.getStatus())) {
+            return false;
+        }
+        if (order.getExpireTime() != null && order.getExpireTime().after(new Date())) {
+            // 节点时钟偏差导致提前领取，按订单自身的过期时间重新入队
+            orderExpiryQueue.scheduleAfterCommit(orderId, order.getExpireTime().getTime());
+            return false;
+        }
+        if (orderMapper.expireIfPending(orderId) == 0) {
+            // 并发的支付或取消已先改变了状态
+            return false;
+        }
+
+        List<OrderItem> orderItems = orderItemMapper.findByOrderId(orderId);
+        stockReservationService.releaseAfterCommit(orderId, quantitiesOf(orderItems));
+        restoreCartItems(order, orderItems);
+
+        eventPublisher.publishOrderCanceled(new Events.OrderCanceledEvent(
+                orderId, order.getUserId(), "EXPIRED", new Date()));
+        return true;
+    }
+
+    /**
+     * 为新订单预占库存：Redis 模式下由 Lua 脚本原子预占（事务回滚时自动释放）；
+     * 配置为 db 模式或 Redis 不可用时退回悲观锁：按商品ID顺序加行锁并检查库存
+     */
+    private void reserveStock(Integer orderId, Map<Long, Integer> quantities) {
+        if (stockReservationService.isEnabled()) {
+            StockReservationService.Reservation reservation = null;
+            try {
+                reservation = stockReservationService.reserve(orderId, quantities);
+            } catch (Exception e) {
+                System.err.println("Redis 库存预占失败，退回行锁检查: " + e.getMessage());
+            }
+            if (reservation != null) {
+                if (reservation.success()) {
+                    return;
+                }
+                if (reservation.missing()) {
+                    throw new RuntimeException("商品不存在: " + reservation.productId());
+                }
+                Product product = productMapper.selectById(reservation.productId());
+                String name = product != null ? product.getName() : String.valueOf(reservation.productId());
+                throw new RuntimeException("商品【" + name + "】库存不足，当前库存：" + Math.max(0, reservation.available()) + "件");
+            }
+        }
+
+        // 按商品ID升序加锁，避免多商品订单之间死锁
+        for (Map.Entry<Long, Integer> entry : new TreeMap<>(quantities).entrySet()) {
+            Product product = productMapper.selectByIdForUpdate(entry.getKey());
+            if (product == null) {
+                throw new RuntimeException("商品不存在: " + entry.getKey());
+            }
+            if (product.getStock() < entry.getValue()) {
+                throw new RuntimeException("商品【" + product.getName() + "】库存不足，当前库存：" + product.getStock() + "件");
+            }
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static Map<Long, Integer> quantitiesOf(List<OrderItem> orderItems) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (OrderItem item : orderItems) {
+            quantities.merge(item.getProductId().longValue(), item.getQuantity(), Integer::sum);
+        }
+        return quantities;
+    }
+
+    /**
+     * 将来自购物车的订单项恢复到购物车（已存在则累加数量）
+     */
+    private void restoreCartItems(Order order, List<OrderItem> orderItems) {
         for (OrderItem item : orderItems) {
 
             // 如果商品来自购物车，恢复到购物车
@@ -412,13 +576,6 @@ public class OrderServiceImpl implements OrderService {
                 }
             }
         }
-
-        // 更新订单状态
-        order.setStatus("CANCELED");
-        order.setUpdatedAt(new Date());
-        orderMapper.updateStatus(order);
-
-        return order;
     }
 
     @Override
@@ -437,23 +594,20 @@ public class OrderServiceImpl implements OrderService {
     }
 
     /**
-     * 自动取消用户所有过期的PENDING订单
-     * 在创建新订单前调用，避免重复创建订单
+     * 关闭用户已过期但尚未被延迟队列处理的PENDING订单（通常没有）
+     * 在创建新订单前调用，确保过期订单的购物车商品已恢复，避免重复创建订单
+     * 只按 (user_id, status, expire_time) 索引查询过期的待支付订单并限制条数，成本与用户的历史订单数量无关
      */
     private void cancelExpiredPendingOrders(Integer userId) {
-        List<Order> userOrders = orderMapper.findByUserId(userId);
-        Date now = new Date();
-
-        for (Order order : userOrders) {
-            // 如果订单是PENDING状态且已过期，自动取消
-            if ("PENDING".equals(order.getStatus()) && order.getExpireTime() != null && order.getExpireTime().before(now)) {
-                try {
-                    // 使用现有的取消订单逻辑
-                    cancelOrder(order.getId());
-                } catch (Exception e) {
-                    // 如果取消失败，记录日志但继续处理（不影响新订单创建）
-                    System.err.println("自动取消过期订单失败: " + order.getId() + ", 错误: " + e.getMessage());
-                }
+        List<Integer> expiredOrderIds = orderMapper.findExpiredPendingIdsByUserId(userId, EXPIRED_ORDERS_PER_CHECK);
+
+        for (Integer orderId : expiredOrderIds) {
+            try {
+                // 与延迟队列使用相同的过期关闭逻辑
+                expireOrder(orderId);
+            } catch (Exception e) {
+                // 如果关闭失败，记录日志但继续处理（不影响新订单创建，延迟队列会重试）
+                System.err.println("自动关闭过期订单失败: " + orderId + ", 错误: " + e.getMessage());
             }
         }
     }
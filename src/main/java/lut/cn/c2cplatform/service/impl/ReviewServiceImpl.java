@@ -6,8 +6,9 @@ import lut.cn.c2cplatform.entity.*;
 import lut.cn.c2cplatform.mapper.*;
 import lut.cn.c2cplatform.service.CreditScoreService;
 import lut.cn.c2cplatform.service.ReviewService;
-import lut.cn.c2cplatform.service.HybridRecommendationService;
+import lut.cn.c2cplatform.service.RealtimeRecommendationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -38,8 +39,9 @@ public class ReviewServiceImpl implements ReviewService {
     @Autowired
     private CreditScoreService creditScoreService;
 
+    @Lazy
     @Autowired(required = false)
-    private HybridRecommendationService hybridRecommendationService;
+    private RealtimeRecommendationService realtimeRecommendationService;
 
     @Override
     @Transactional
@@ -107,9 +109,9 @@ public class ReviewServiceImpl implements ReviewService {
         review.setUpdatedAt(now);
         reviewMapper.insert(review);
 
-        // Update product popularity when reviewed
-        if (hybridRecommendationService != null) {
-            hybridRecommendationService.updatePopularity(product.getId(), "review");
+        // Record the review interaction (popularity etc. are updated by the recommendation consumer)
+        if (realtimeRecommendationService != null) {
+            realtimeRecommendationService.processInteraction(userId.longValue(), product.getId(), "review");
         }
 
         // 更新卖家信用分
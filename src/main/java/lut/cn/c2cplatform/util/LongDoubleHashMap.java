@@ -0,0 +1,137 @@
+package lut.cn.c2cplatform.util;
+
+import java.util.Arrays;
+
+/**
+ * long -> double 开放寻址哈希表（线性探测），用于按商品累加热度增量等浮点计数，
+ * 避免 HashMap&lt;Long, Double&gt; 的装箱和 Entry 对象开销。非线程安全。
+ * Long.MIN_VALUE 作为空槽标记，不能作为 key。
+ */
+public class LongDoubleHashMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private double[] values;
+    private int size;
+    private int mask;
+    private int resizeThreshold;
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, double value);
+    }
+
+    public LongDoubleHashMap() {
+        this(8);
+    }
+
+    public LongDoubleHashMap(int expectedSize) {
+        allocate(LongIntHashMap.capacityFor(expectedSize));
+    }
+
+    /**
+     * 累加并返回新值，key 不存在时视为 0
+     */
+    public double addTo(long key, double delta) {
+        int slot = findSlot(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            values[slot] = delta;
+            if (++size >= resizeThreshold) {
+                rehash(keys.length << 1);
+            }
+            return delta;
+        }
+        values[slot] += delta;
+        return values[slot];
+    }
+
+    public void put(long key, double value) {
+        int slot = findSlot(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size >= resizeThreshold) {
+                rehash(keys.length << 1);
+            }
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * key 不存在时返回 0
+     */
+    public double get(long key) {
+        int slot = findSlot(key);
+        return keys[slot] == EMPTY ? 0 : values[slot];
+    }
+
+    public boolean containsKey(long key) {
+        return keys[findSlot(key)] != EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * 把 other 的值累加到当前表
+     */
+    public void addAll(LongDoubleHashMap other) {
+        other.forEach(this::addTo);
+    }
+
+    public long[] keys() {
+        long[] result = new long[size];
+        int n = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    private int findSlot(long key) {
+        int slot = LongIntHashMap.mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new double[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * 0.75);
+    }
+}
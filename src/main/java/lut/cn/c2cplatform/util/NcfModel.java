@@ -0,0 +1,318 @@
+package lut.cn.c2cplatform.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * NCF（GMF + MLP）的进程内模型：float32 嵌入表 + 一次性生成的固定 MLP 权重
+ *
+ * - 嵌入按行连续存放在 float[] 中（行号由 LongIntHashMap 映射），批量打分时是对连续内存的紧凑循环
+ * - MLP 第一层权重拆成用户半区和物品半区：hidden = relu(Wu·u + Wi·i)，Wu·u 对同一用户的整批候选只算一次
+ * - 权重按原实现的抽样顺序（Random(seed)，先第一层再输出层）生成，分数与原实现一致（精度差异除外）
+ * - 嵌入表有行数上限，满了以后按 CLOCK（近似 LRU）淘汰最近没有被读到的行，被淘汰的行下次用到时从 Redis 重新加载
+ */
+public class NcfModel {
+
+    public static final int HIDDEN_SIZE = 64;
+
+    private final int dim;
+    private final float[] userWeights;   // [HIDDEN_SIZE][dim]，第一层中作用于用户嵌入的部分
+    private final float[] itemWeights;   // [HIDDEN_SIZE][dim]，第一层中作用于物品嵌入的部分
+    private final float[] outputWeights; // [HIDDEN_SIZE]
+
+    private final EmbeddingTable users;
+    private final EmbeddingTable items;
+
+    public NcfModel(int dim, long weightSeed, int maxRows) {
+        this.dim = dim;
+        this.userWeights = new float[HIDDEN_SIZE * dim];
+        this.itemWeights = new float[HIDDEN_SIZE * dim];
+        this.outputWeights = new float[HIDDEN_SIZE];
+        Random random = new Random(weightSeed);
+        for (int h = 0; h < HIDDEN_SIZE; h++) {
+            for (int j = 0; j < dim; j++) {
+                userWeights[h * dim + j] = (float) (random.nextGaussian() * 0.1);
+            }
+            for (int j = 0; j < dim; j++) {
+                itemWeights[h * dim + j] = (float) (random.nextGaussian() * 0.1);
+            }
+        }
+        for (int h = 0; h < HIDDEN_SIZE; h++) {
+            outputWeights[h] = (float) (random.nextGaussian() * 0.1);
+        }
+        this.users = new EmbeddingTable(dim, maxRows);
+        this.items = new EmbeddingTable(dim, maxRows);
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    public EmbeddingTable users() {
+        return users;
+    }
+
+    public EmbeddingTable items() {
+        return items;
+    }
+
+    /**
+     * 批量打分：sigmoid(0.5 * GMF + 0.5 * MLP)。
+     * 用户或候选不在嵌入表中时对应分数为 NaN（调用方应先加载）。
+     */
+    public double[] scoreBatch(long userId, long[] itemIds) {
+        double[] scores = new double[itemIds.length];
+        float[] user = users.get(userId);
+        if (user == null) {
+            Arrays.fill(scores, Double.NaN);
+            return scores;
+        }
+
+        // 用户半区的隐藏层预激活，整批只算一次
+        float[] userHidden = new float[HIDDEN_SIZE];
+        for (int h = 0; h < HIDDEN_SIZE; h++) {
+            int base = h * dim;
+            float sum = 0f;
+            for (int j = 0; j < dim; j++) {
+                sum += userWeights[base + j] * user[j];
+            }
+            userHidden[h] = sum;
+        }
+
+        items.lock.readLock().lock();
+        try {
+            float[] data = items.data;
+            for (int c = 0; c < itemIds.length; c++) {
+                int row = items.rowOf(itemIds[c]);
+                if (row < 0) {
+                    scores[c] = Double.NaN;
+                    continue;
+                }
+                items.referenced[row] = true;
+                int offset = row * dim;
+
+                float gmf = 0f;
+                for (int j = 0; j < dim; j++) {
+                    gmf += user[j] * data[offset + j];
+                }
+
+                float mlp = 0f;
+                for (int h = 0; h < HIDDEN_SIZE; h++) {
+                    int base = h * dim;
+                    float sum = userHidden[h];
+                    for (int j = 0; j < dim; j++) {
+                        sum += itemWeights[base + j] * data[offset + j];
+                    }
+                    if (sum > 0f) {
+                        mlp += sum * outputWeights[h];
+                    }
+                }
+
+                scores[c] = sigmoid(0.5 * gmf + 0.5 * mlp);
+            }
+        } finally {
+            items.lock.readLock().unlock();
+        }
+        return scores;
+    }
+
+    public double score(long userId, long itemId) {
+        return scoreBatch(userId, new long[]{itemId})[0];
+    }
+
+    private static double sigmoid(double x) {
+        return 1.0 / (1.0 + Math.exp(-x));
+    }
+
+    /**
+     * 按 id 索引的 float32 嵌入表：所有行连续存放，读多写少，读写锁保护扩容和更新
+     * 行数达到 maxRows 后，新行复用 CLOCK 指针扫到的第一个最近未被读到的行
+     */
+    public static final class EmbeddingTable {
+
+        private final int dim;
+        private final int maxRows;
+        private final LongIntHashMap index = new LongIntHashMap(1024); // id -> 行号 + 1
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private float[] data;
+        private long[] loadedAt;
+        private long[] rowIds;
+        // CLOCK 访问位：读取时在读锁下置位（并发置位丢失只影响淘汰的近似程度），淘汰时在写锁下清除
+        private boolean[] referenced;
+        private int rows;
+        private int hand;
+        private long evictions;
+
+        EmbeddingTable(int dim, int maxRows) {
+            this.dim = dim;
+            this.maxRows = Math.max(1, maxRows);
+            int capacity = Math.min(1024, this.maxRows);
+            this.data = new float[capacity * dim];
+            this.loadedAt = new long[capacity];
+            this.rowIds = new long[capacity];
+            this.referenced = new boolean[capacity];
+        }
+
+        /**
+         * 调用方需持有读锁或写锁
+         */
+        private int rowOf(long id) {
+            return index.get(id) - 1;
+        }
+
+        public boolean contains(long id) {
+            lock.readLock().lock();
+            try {
+                return rowOf(id) >= 0;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * 行的加载时间（毫秒），不存在时返回 -1
+         */
+        public long loadedAt(long id) {
+            lock.readLock().lock();
+            try {
+                int row = rowOf(id);
+                return row >= 0 ? loadedAt[row] : -1L;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * 返回嵌入的拷贝，不存在时返回 null
+         */
+        public float[] get(long id) {
+            lock.readLock().lock();
+            try {
+                int row = rowOf(id);
+                if (row < 0) {
+                    return null;
+                }
+                referenced[row] = true;
+                return Arrays.copyOfRange(data, row * dim, (row + 1) * dim);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * 写入（覆盖）一行；values 长度不足 dim 时其余维补 0
+         */
+        public void put(long id, double[] values, long timestamp) {
+            lock.writeLock().lock();
+            try {
+                int row = rowOf(id);
+                if (row < 0) {
+                    row = allocateRow(id);
+                }
+                int offset = row * dim;
+                int n = Math.min(dim, values.length);
+                for (int j = 0; j < n; j++) {
+                    data[offset + j] = (float) values[j];
+                }
+                Arrays.fill(data, offset + n, offset + dim, 0f);
+                loadedAt[row] = timestamp;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * 刷新行的加载时间（Redis 中没有更新的版本时保留本地值），行不存在时返回 false
+         */
+        public boolean touch(long id, long timestamp) {
+            lock.writeLock().lock();
+            try {
+                int row = rowOf(id);
+                if (row < 0) {
+                    return false;
+                }
+                loadedAt[row] = timestamp;
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * 原地累加增量（在线学习的梯度更新），行不存在时忽略并返回 false
+         */
+        public boolean add(long id, float[] delta) {
+            lock.writeLock().lock();
+            try {
+                int row = rowOf(id);
+                if (row < 0) {
+                    return false;
+                }
+                int offset = row * dim;
+                for (int j = 0; j < dim; j++) {
+                    data[offset + j] += delta[j];
+                }
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public int size() {
+            lock.readLock().lock();
+            try {
+                return rows;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * 被淘汰的行数（累计）
+         */
+        public long evictions() {
+            lock.readLock().lock();
+            try {
+                return evictions;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private int allocateRow(long id) {
+            int row;
+            if (rows < maxRows) {
+                if (rows == loadedAt.length) {
+                    int capacity = Math.min(loadedAt.length * 2, maxRows);
+                    data = Arrays.copyOf(data, capacity * dim);
+                    loadedAt = Arrays.copyOf(loadedAt, capacity);
+                    rowIds = Arrays.copyOf(rowIds, capacity);
+                    referenced = Arrays.copyOf(referenced, capacity);
+                }
+                row = rows++;
+            } else {
+                row = evictRow();
+            }
+            index.put(id, row + 1);
+            rowIds[row] = id;
+            referenced[row] = true;
+            return row;
+        }
+
+        /**
+         * CLOCK：访问位已置位的行清除后跳过（再给一次机会），淘汰第一个访问位为空的行；最多转两圈
+         */
+        private int evictRow() {
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % rows;
+            }
+            int row = hand;
+            hand = (hand + 1) % rows;
+            index.remove(rowIds[row]);
+            evictions++;
+            return row;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package lut.cn.c2cplatform.util;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+
+/**
+ * Lua 脚本的类型化构造
+ * 返回 Lua table 的脚本结果类型是 List，元素类型由脚本决定（整数为 Long，字符串按模板的序列化器还原）
+ */
+public final class RedisScripts {
+
+    private RedisScripts() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> RedisScript<List<T>> listScript(String script) {
+        DefaultRedisScript<List<T>> redisScript = new DefaultRedisScript<>();
+        redisScript.setScriptText(script);
+        redisScript.setResultType((Class<List<T>>) (Class<?>) List.class);
+        return redisScript;
+    }
+}
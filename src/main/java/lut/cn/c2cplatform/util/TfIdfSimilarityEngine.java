@@ -0,0 +1,414 @@
+package lut.cn.c2cplatform.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 基于倒排索引的稀疏 TF-IDF 相似度引擎（内容推荐离线计算）
+ *
+ * - 词项驻留为 int ID，每个文档的向量存为按词项ID排序的 int[] + float[]（已归一化为单位向量）
+ * - 只对至少共享一个倒排表的文档对打分；文档频率超过 maxPostingLength 的宽泛词项（如类目、价格区间、成色）
+ *   不参与候选生成，但仍在候选的精确打分中计入；候选不足 K 个时才从最短的宽泛倒排表中补充少量候选
+ * - 每个文档的 Top-K 用有界堆选择，按块在 ForkJoin 池中并行计算
+ *
+ * 最终分数与原实现保持一致：cosine * 0.8 + 价格相似度 * 0.2，两者都有成色时再与成色相似度按 0.9/0.1 混合。
+ * 使用方式：addDocument(...) 若干次 -> build() -> computeTopK(...)。build 之后只读，可并发打分。
+ */
+public class TfIdfSimilarityEngine {
+
+    /**
+     * 单个文档的 Top-K 结果（分数从高到低）
+     */
+    public static final class SimilarityResult {
+        public final long productId;
+        public final long[] similarIds;
+        public final double[] scores;
+
+        SimilarityResult(long productId, long[] similarIds, double[] scores) {
+            this.productId = productId;
+            this.similarIds = similarIds;
+            this.scores = scores;
+        }
+    }
+
+    @FunctionalInterface
+    public interface BlockConsumer {
+        /**
+         * 每算完一块文档在调用线程上回调一次
+         */
+        void accept(List<SimilarityResult> results);
+    }
+
+    // 候选不足时每个 Top-K 名额从宽泛倒排表补充的候选数
+    private static final int FALLBACK_CANDIDATES_PER_SLOT = 8;
+
+    private final int maxPostingLength;
+    private final Map<String, Integer> termIds = new HashMap<>();
+
+    private long[] docIds;
+    private int[][] docTerms;
+    private double[] docPrices;
+    private int[] docConditions; // -1 表示无成色信息
+    private int docCount;
+
+    // build() 之后可用
+    private float[][] docWeights;
+    private int[][] postings;
+    private float[][] postingWeights;
+    private boolean[] candidateTerms;
+    private float[] termIdfs;
+    private float[] docInverseNorms;
+    private boolean built;
+
+    public TfIdfSimilarityEngine(int expectedDocs, int maxPostingLength) {
+        int capacity = Math.max(expectedDocs, 16);
+        this.maxPostingLength = maxPostingLength;
+        this.docIds = new long[capacity];
+        this.docTerms = new int[capacity][];
+        this.docPrices = new double[capacity];
+        this.docConditions = new int[capacity];
+    }
+
+    /**
+     * 添加文档；terms 中的重复词项只计一次
+     */
+    public void addDocument(long productId, Collection<String> terms, double price, Integer conditionLevel) {
+        if (built) {
+            throw new IllegalStateException("Engine already built");
+        }
+        if (docCount == docIds.length) {
+            int newCapacity = docIds.length * 2;
+            docIds = Arrays.copyOf(docIds, newCapacity);
+            docTerms = Arrays.copyOf(docTerms, newCapacity);
+            docPrices = Arrays.copyOf(docPrices, newCapacity);
+            docConditions = Arrays.copyOf(docConditions, newCapacity);
+        }
+        int[] ids = new int[terms.size()];
+        int n = 0;
+        for (String term : terms) {
+            Integer id = termIds.get(term);
+            if (id == null) {
+                id = termIds.size();
+                termIds.put(term, id);
+            }
+            ids[n++] = id;
+        }
+        Arrays.sort(ids, 0, n);
+        // 去重
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || ids[unique - 1] != ids[i]) {
+                ids[unique++] = ids[i];
+            }
+        }
+
+        docIds[docCount] = productId;
+        docTerms[docCount] = unique == ids.length ? ids : Arrays.copyOf(ids, unique);
+        docPrices[docCount] = price;
+        docConditions[docCount] = conditionLevel != null ? conditionLevel : -1;
+        docCount++;
+    }
+
+    public int documentCount() {
+        return docCount;
+    }
+
+    public int termCount() {
+        return termIds.size();
+    }
+
+    /**
+     * 计算 IDF、归一化向量并构建倒排索引
+     */
+    public void build() {
+        int termCount = termIds.size();
+        int[] df = new int[termCount];
+        for (int d = 0; d < docCount; d++) {
+            for (int t : docTerms[d]) {
+                df[t]++;
+            }
+        }
+
+        // TF 对同一文档内所有词项相同（词项集合去重），在余弦中约掉，因此权重直接取 IDF 后归一化
+        double[] idf = new double[termCount];
+        for (int t = 0; t < termCount; t++) {
+            idf[t] = Math.log((double) docCount / df[t]);
+        }
+
+        termIdfs = new float[termCount];
+        for (int t = 0; t < termCount; t++) {
+            termIdfs[t] = (float) idf[t];
+        }
+        docWeights = new float[docCount][];
+        docInverseNorms = new float[docCount];
+        for (int d = 0; d < docCount; d++) {
+            int[] terms = docTerms[d];
+            double norm = 0.0;
+            for (int t : terms) {
+                norm += idf[t] * idf[t];
+            }
+            norm = Math.sqrt(norm);
+            float[] weights = new float[terms.length];
+            if (norm > 0) {
+                docInverseNorms[d] = (float) (1.0 / norm);
+                for (int i = 0; i < terms.length; i++) {
+                    weights[i] = (float) (idf[terms[i]] / norm);
+                }
+            }
+            docWeights[d] = weights;
+        }
+
+        // 倒排表只收录对相似度有贡献的词项（至少两个文档共享且 IDF > 0），其中不超过长度上限的用于候选生成
+        postings = new int[termCount][];
+        postingWeights = new float[termCount][];
+        candidateTerms = new boolean[termCount];
+        int[] fill = new int[termCount];
+        for (int t = 0; t < termCount; t++) {
+            if (df[t] >= 2 && idf[t] > 0) {
+                postings[t] = new int[df[t]];
+                postingWeights[t] = new float[df[t]];
+                candidateTerms[t] = df[t] <= maxPostingLength;
+            }
+        }
+        for (int d = 0; d < docCount; d++) {
+            int[] terms = docTerms[d];
+            for (int i = 0; i < terms.length; i++) {
+                int t = terms[i];
+                if (postings[t] != null) {
+                    postings[t][fill[t]] = d;
+                    postingWeights[t][fill[t]] = docWeights[d][i];
+                    fill[t]++;
+                }
+            }
+        }
+        built = true;
+    }
+
+    /**
+     * 计算每个文档的 Top-K 相似文档。文档按 blockSize 分块，块内在 pool 中并行计算，
+     * 每块完成后在调用线程上交给 consumer（便于边算边批量写出，内存只保留一块的结果）。
+     */
+    public void computeTopK(int k, int blockSize, ForkJoinPool pool, BlockConsumer consumer) {
+        if (!built) {
+            throw new IllegalStateException("Call build() first");
+        }
+        ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(docCount, k));
+        for (int from = 0; from < docCount; from += blockSize) {
+            int start = from;
+            int end = Math.min(from + blockSize, docCount);
+            SimilarityResult[] block = new SimilarityResult[end - start];
+            pool.submit(() -> IntStream.range(start, end).parallel()
+                    .forEach(d -> block[d - start] = score(d, scratch.get()))).join();
+            consumer.accept(Arrays.asList(block));
+        }
+    }
+
+    /**
+     * 对单个文档打分：累加候选的点积，再补上宽泛词项的贡献，最后做有界 Top-K
+     */
+    private SimilarityResult score(int doc, Scratch s) {
+        s.generation++;
+        s.touchedCount = 0;
+        s.heap.clear();
+
+        int[] terms = docTerms[doc];
+        float[] weights = docWeights[doc];
+        int frequentCount = 0;
+        for (int i = 0; i < terms.length; i++) {
+            int t = terms[i];
+            int[] list = postings[t];
+            if (list == null) {
+                continue;
+            }
+            if (!candidateTerms[t]) {
+                s.addFrequent(frequentCount++, t, weights[i]);
+                continue;
+            }
+            float w = weights[i];
+            float[] listWeights = postingWeights[t];
+            for (int p = 0; p < list.length; p++) {
+                int other = list[p];
+                if (other == doc) {
+                    continue;
+                }
+                if (s.stamp[other] != s.generation) {
+                    s.stamp[other] = s.generation;
+                    s.acc[other] = 0.0;
+                    s.touch(other);
+                }
+                s.acc[other] += w * listWeights[p];
+            }
+        }
+
+        if (s.touchedCount < s.heap.capacity() && frequentCount > 0) {
+            addFallbackCandidates(doc, s, frequentCount);
+        }
+
+        // 混合分数对余弦是线性的：score = slope * cosine + intercept。
+        // 第一轮只用倒排表累加的部分余弦（宽泛词项贡献 >= 0，是下界）选出 Top-K 门槛；
+        // 宽泛词项贡献的上界为 invNorm(候选) * Σ(w * idf)（候选权重 = idf / norm），上界不超过门槛的候选不做精确打分
+        double broadIdfSum = 0.0;
+        for (int f = 0; f < frequentCount; f++) {
+            broadIdfSum += s.frequentWeights[f] * termIdfs[s.frequentTerms[f]];
+        }
+
+        for (int c = 0; c < s.touchedCount; c++) {
+            int other = s.touched[c];
+            double lowerBound = slope(doc, other) * s.acc[other] + intercept(doc, other);
+            s.acc[other] = lowerBound;
+            s.heap.offer(docIds[other], lowerBound);
+        }
+        boolean prune = frequentCount > 0 && s.heap.size() == s.heap.capacity();
+        double threshold = prune ? s.heap.minScore() : Double.NEGATIVE_INFINITY;
+        if (frequentCount > 0) {
+            s.heap.clear();
+            for (int c = 0; c < s.touchedCount; c++) {
+                int other = s.touched[c];
+                double slope = slope(doc, other);
+                double lowerBound = s.acc[other];
+                if (prune && lowerBound + slope * docInverseNorms[other] * broadIdfSum < threshold) {
+                    continue;
+                }
+                double broad = 0.0;
+                for (int f = 0; f < frequentCount; f++) {
+                    float otherWeight = weightOf(other, s.frequentTerms[f]);
+                    if (otherWeight != 0f) {
+                        broad += s.frequentWeights[f] * otherWeight;
+                    }
+                }
+                s.heap.offer(docIds[other], lowerBound + slope * broad);
+            }
+        }
+
+        int size = s.heap.size();
+        long[] ids = new long[size];
+        double[] scores = new double[size];
+        // 堆内是堆序，拷贝出来后按分数降序排列（K 很小）
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(s.heap.scoreAt(b), s.heap.scoreAt(a)));
+        for (int i = 0; i < size; i++) {
+            ids[i] = s.heap.idAt(order[i]);
+            scores[i] = s.heap.scoreAt(order[i]);
+        }
+        return new SimilarityResult(docIds[doc], ids, scores);
+    }
+
+    /**
+     * 候选不足时从最短的宽泛倒排表补充候选（点积留给精确打分阶段计算）
+     */
+    private void addFallbackCandidates(int doc, Scratch s, int frequentCount) {
+        int[] shortest = null;
+        for (int f = 0; f < frequentCount; f++) {
+            int[] list = postings[s.frequentTerms[f]];
+            if (shortest == null || list.length < shortest.length) {
+                shortest = list;
+            }
+        }
+        int limit = Math.min(shortest.length, s.heap.capacity() * FALLBACK_CANDIDATES_PER_SLOT);
+        for (int p = 0; p < limit; p++) {
+            int other = shortest[p];
+            if (other != doc && s.stamp[other] != s.generation) {
+                s.stamp[other] = s.generation;
+                s.acc[other] = 0.0;
+                s.touch(other);
+            }
+        }
+    }
+
+    private float weightOf(int doc, int term) {
+        int idx = Arrays.binarySearch(docTerms[doc], term);
+        return idx >= 0 ? docWeights[doc][idx] : 0f;
+    }
+
+    /**
+     * 混合分数中余弦的系数：cosine * 0.8，两者都有成色时再乘 0.9
+     */
+    private double slope(int a, int b) {
+        return docConditions[a] >= 0 && docConditions[b] >= 0 ? 0.8 * 0.9 : 0.8;
+    }
+
+    /**
+     * 混合分数中与余弦无关的部分：价格相似度 * 0.2，两者都有成色时再与成色相似度按 0.9/0.1 混合
+     */
+    private double intercept(int a, int b) {
+        double similarity = priceSimilarity(docPrices[a], docPrices[b]) * 0.2;
+        if (docConditions[a] >= 0 && docConditions[b] >= 0) {
+            int conditionDiff = Math.abs(docConditions[a] - docConditions[b]);
+            similarity = similarity * 0.9 + (1.0 - conditionDiff / 10.0) * 0.1;
+        }
+        return similarity;
+    }
+
+    /**
+     * 价格相似度（按相对差值指数衰减），任一价格缺失时取中性值 0.5
+     */
+    public static double priceSimilarity(double price1, double price2) {
+        if (price1 <= 0 || price2 <= 0) {
+            return 0.5;
+        }
+        double relativeDiff = Math.abs(price1 - price2) / ((price1 + price2) / 2);
+        return Math.exp(-relativeDiff * 2);
+    }
+
+    /**
+     * 每个工作线程一份的打分缓冲区，避免逐文档分配
+     */
+    private static final class Scratch {
+        final double[] acc;
+        final int[] stamp;
+        int[] touched = new int[1024];
+        int touchedCount;
+        int generation;
+        int[] frequentTerms = new int[64];
+        float[] frequentWeights = new float[64];
+        final TopKHeap heap;
+
+        Scratch(int docCount, int k) {
+            acc = new double[docCount];
+            stamp = new int[docCount];
+            heap = new TopKHeap(k);
+        }
+
+        void addFrequent(int index, int term, float weight) {
+            if (index == frequentTerms.length) {
+                frequentTerms = Arrays.copyOf(frequentTerms, index * 2);
+                frequentWeights = Arrays.copyOf(frequentWeights, index * 2);
+            }
+            frequentTerms[index] = term;
+            frequentWeights[index] = weight;
+        }
+
+        void touch(int doc) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touched.length * 2);
+            }
+            touched[touchedCount++] = doc;
+        }
+    }
+
+    /**
+     * 供日志/基准使用：返回索引规模摘要
+     */
+    public String describe() {
+        long postingEntries = 0;
+        long scannedEntries = 0;
+        int indexedTerms = 0;
+        for (int t = 0; t < postings.length; t++) {
+            if (postings[t] != null && candidateTerms[t]) {
+                indexedTerms++;
+                postingEntries += postings[t].length;
+                scannedEntries += (long) postings[t].length * postings[t].length;
+            }
+        }
+        return String.format("docs=%d terms=%d candidateTerms=%d candidatePostingEntries=%d avgScannedPerDoc=%.1f",
+                docCount, termIds.size(), indexedTerms, postingEntries, (double) scannedEntries / Math.max(1, docCount));
+    }
+}
@@ -0,0 +1,97 @@
+package lut.cn.c2cplatform.util;
+
+/**
+ * 有界 Top-K 选择：大小为 K 的最小堆（基于原始类型数组），
+ * 堆顶是当前第 K 大的分数，新元素只有超过堆顶才会入堆。非线程安全。
+ */
+public class TopKHeap {
+
+    private final long[] ids;
+    private final double[] scores;
+    private int size;
+
+    public TopKHeap(int k) {
+        this.ids = new long[k];
+        this.scores = new double[k];
+    }
+
+    public void offer(long id, double score) {
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (ids.length > 0 && score > scores[0]) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    /**
+     * 堆顶分数（堆满时即进入 Top-K 的门槛）
+     */
+    public double minScore() {
+        return scores[0];
+    }
+
+    /**
+     * 当前堆内第 i 个元素（堆序，不保证有序）
+     */
+    public long idAt(int i) {
+        return ids[i];
+    }
+
+    public double scoreAt(int i) {
+        return scores[i];
+    }
+
+    /**
+     * 清空后复用，避免重复分配
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[i] >= scores[parent]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+            if (scores[i] <= scores[smallest]) {
+                break;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -0,0 +1,108 @@
+package lut.cn.c2cplatform.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lut.cn.c2cplatform.dto.ProductDTO;
+import lut.cn.c2cplatform.dto.ProductPageCursor;
+import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.service.ProductService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 商品列表流式输出：正常结束时是完整的 JSON 数组；中途查询失败时输出必须是不完整的 JSON，客户端才能发现失败
+ */
+class ProductControllerStreamTest {
+
+    private static final int CHUNK = 200;
+
+    private final ProductService productService = mock(ProductService.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private ProductController controller;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        when(productService.convertToDTOList(anyList())).thenAnswer(inv -> {
+            List<ProductDTO> dtos = new ArrayList<>();
+            for (Product product : (List<Product>) inv.getArgument(0)) {
+                ProductDTO dto = new ProductDTO();
+                dto.setId(product.getId());
+                dto.setName(product.getName());
+                dtos.add(dto);
+            }
+            return dtos;
+        });
+
+        controller = new ProductController();
+        ReflectionTestUtils.setField(controller, "productService", productService);
+        ReflectionTestUtils.setField(controller, "objectMapper", objectMapper);
+    }
+
+    @Test
+    void completeStreamIsAWellFormedArray() throws Exception {
+        when(productService.listProductsPage(isNull(), isNull(), isNull(), isNull(), isNull(), isNull(), anyInt()))
+                .thenReturn(products(1, CHUNK));
+        when(productService.listProductsPage(isNull(), isNull(), isNull(), isNull(), isNull(), any(ProductPageCursor.class), anyInt()))
+                .thenReturn(products(CHUNK + 1, 3));
+
+        stream();
+
+        JsonNode array = objectMapper.readTree(output());
+        assertThat(array.isArray()).isTrue();
+        assertThat(array.size()).isEqualTo(CHUNK + 3);
+    }
+
+    @Test
+    void failedChunkLeavesTheArrayUnterminated() {
+        when(productService.listProductsPage(isNull(), isNull(), isNull(), isNull(), isNull(), isNull(), anyInt()))
+                .thenReturn(products(1, CHUNK));
+        when(productService.listProductsPage(isNull(), isNull(), isNull(), isNull(), isNull(), any(ProductPageCursor.class), anyInt()))
+                .thenThrow(new QueryTimeoutException("Lock wait timeout exceeded"));
+
+        assertThatThrownBy(this::stream).isInstanceOf(QueryTimeoutException.class);
+
+        // 已写出的第一批仍然发出去了，但数组没有被补上 ']'
+        assertThat(output()).startsWith("[{").doesNotEndWith("]");
+        assertThatThrownBy(() -> objectMapper.readTree(output())).isInstanceOf(JsonProcessingException.class);
+    }
+
+    private void stream() {
+        ReflectionTestUtils.invokeMethod(controller, "streamProducts", out, null, null, null, null, null, null);
+    }
+
+    private String output() {
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static List<Product> products(long firstId, int count) {
+        List<Product> products = new ArrayList<>();
+        for (long id = firstId; id < firstId + count; id++) {
+            Product product = new Product();
+            product.setId(id);
+            product.setName("商品" + id);
+            product.setCreatedAt(LocalDateTime.of(2024, 3, 1, 12, 0).minusMinutes(id));
+            products.add(product);
+        }
+        return products;
+    }
+}
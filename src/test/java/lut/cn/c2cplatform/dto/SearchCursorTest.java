@@ -0,0 +1,62 @@
+package lut.cn.c2cplatform.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 搜索游标编码：往返不丢失排序值，URL 安全，格式错误时抛出 IllegalArgumentException
+ */
+class SearchCursorTest {
+
+    @Test
+    void roundTripsEveryField() {
+        SearchCursor cursor = new SearchCursor("46ToAwMDaWR5BXV1aWQy+/=", 12.345678901234567, 9007199254740993L, 40);
+
+        SearchCursor decoded = SearchCursor.decode(cursor.encode());
+
+        assertThat(decoded).isEqualTo(cursor);
+        assertThat(decoded.getScore()).isEqualTo(12.345678901234567);
+    }
+
+    @Test
+    void roundTripsTheFirstPageAndFallbackShapes() {
+        // 第一页没有 PIT；降级期间只有 offset，没有排序值
+        SearchCursor firstPage = new SearchCursor(null, 1.5, 42L, 20);
+        SearchCursor fallback = new SearchCursor(null, 0, null, 60);
+
+        assertThat(SearchCursor.decode(firstPage.encode())).isEqualTo(firstPage);
+        assertThat(SearchCursor.decode(fallback.encode())).isEqualTo(fallback);
+    }
+
+    @Test
+    void encodingIsUrlSafe() {
+        String encoded = new SearchCursor("a+b/c==", Float.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE).encode();
+
+        assertThat(encoded).doesNotContain("+", "/", "=");
+    }
+
+    @Test
+    void blankCursorMeansFirstPage() {
+        assertThat(SearchCursor.decode(null)).isNull();
+        assertThat(SearchCursor.decode("")).isNull();
+        assertThat(SearchCursor.decode("  ")).isNull();
+    }
+
+    @Test
+    void malformedCursorsAreRejected() {
+        assertThatThrownBy(() -> SearchCursor.decode("not base64!")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SearchCursor.decode(encode("pit|1.0|7"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SearchCursor.decode(encode("pit|high|7|0"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SearchCursor.decode(encode("pit|1.0|seven|0"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SearchCursor.decode(encode("pit|1.0|7|0|extra"))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,145 @@
+package lut.cn.c2cplatform.event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lut.cn.c2cplatform.entity.OutboxEvent;
+import lut.cn.c2cplatform.mapper.OutboxEventMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 发件箱投递：认领事务在发布前提交；确认的事件删除，nack、退回、超时和发送异常的事件释放租约等待重发
+ */
+class OutboxRelayTest {
+
+    private final OutboxEventMapper mapper = mock(OutboxEventMapper.class);
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final List<Integer> openTransactionsAtSend = new ArrayList<>();
+    private int openTransactions;
+    private OutboxRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        when(transactionManager.getTransaction(any())).thenAnswer(inv -> {
+            openTransactions++;
+            return new SimpleTransactionStatus();
+        });
+        doAnswer(inv -> openTransactions--).when(transactionManager).commit(any());
+        doAnswer(inv -> openTransactions--).when(transactionManager).rollback(any());
+
+        // eventId 的前缀决定 Broker 的回应：ack / nack / returned / timeout / error
+        doAnswer(inv -> {
+            openTransactionsAtSend.add(openTransactions);
+            CorrelationData correlation = inv.getArgument(3);
+            switch (correlation.getId().substring(0, correlation.getId().indexOf('-'))) {
+                case "ack" -> correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+                case "nack" -> correlation.getFuture().complete(new CorrelationData.Confirm(false, "rejected"));
+                case "returned" -> {
+                    correlation.setReturned(new ReturnedMessage(inv.getArgument(2), 312, "NO_ROUTE", "ex", "rk"));
+                    correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+                }
+                case "error" -> throw new AmqpConnectException(new RuntimeException("connection reset"));
+                default -> {
+                    // timeout：不回应
+                }
+            }
+            return null;
+        }).when(rabbitTemplate).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+
+        relay = new OutboxRelay();
+        ReflectionTestUtils.setField(relay, "outboxEventMapper", mapper);
+        ReflectionTestUtils.setField(relay, "rabbitTemplate", rabbitTemplate);
+        ReflectionTestUtils.setField(relay, "transactionTemplate", new TransactionTemplate(transactionManager));
+        ReflectionTestUtils.setField(relay, "batchSize", 200);
+        ReflectionTestUtils.setField(relay, "maxAttempts", 10);
+        ReflectionTestUtils.setField(relay, "confirmTimeoutMs", 50L);
+        ReflectionTestUtils.setField(relay, "claimTimeoutMs", 60000L);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(relay, "publishedEvents", registry.counter("published"));
+        ReflectionTestUtils.setField(relay, "failedEvents", registry.counter("failed"));
+    }
+
+    @Test
+    void confirmedEventsAreDeletedAndTheRestReleased() {
+        when(mapper.selectPendingForUpdate(10, 200)).thenReturn(List.of(
+                event(1L, "ack"), event(2L, "nack"), event(3L, "returned"), event(4L, "timeout"),
+                event(5L, "error"), event(6L, "ack")));
+
+        int relayed = ReflectionTestUtils.invokeMethod(relay, "relayBatch");
+
+        assertThat(relayed).isEqualTo(6);
+        verify(mapper).claim(List.of(1L, 2L, 3L, 4L, 5L, 6L), 60000L);
+        verify(mapper).deleteByIds(List.of(1L, 6L));
+        verify(mapper).releaseClaims(List.of(2L, 3L, 4L, 5L));
+    }
+
+    @Test
+    void claimCommitsBeforePublishing() {
+        when(mapper.selectPendingForUpdate(10, 200)).thenReturn(List.of(event(1L, "ack"), event(2L, "timeout")));
+
+        ReflectionTestUtils.invokeMethod(relay, "relayBatch");
+
+        // 发布和等待确认期间没有打开的事务（不持有行锁和连接）
+        assertThat(openTransactionsAtSend).containsOnly(0);
+        var order = inOrder(mapper, transactionManager, rabbitTemplate);
+        order.verify(mapper).claim(anyList(), anyLong());
+        order.verify(transactionManager).commit(any());
+        order.verify(rabbitTemplate, times(2)).send(eq("ex"), eq("rk"), any(Message.class), any(CorrelationData.class));
+        order.verify(transactionManager).getTransaction(any());
+        order.verify(mapper).deleteByIds(List.of(1L));
+        order.verify(mapper).releaseClaims(List.of(2L));
+        order.verify(transactionManager).commit(any());
+    }
+
+    @Test
+    void emptyBatchTouchesNothing() {
+        when(mapper.selectPendingForUpdate(anyInt(), anyInt())).thenReturn(List.of());
+
+        int relayed = ReflectionTestUtils.invokeMethod(relay, "relayBatch");
+
+        assertThat(relayed).isZero();
+        verify(mapper, never()).claim(anyList(), anyLong());
+        verify(rabbitTemplate, never()).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+    }
+
+    private static OutboxEvent event(Long id, String outcome) {
+        OutboxEvent event = new OutboxEvent();
+        event.setId(id);
+        event.setEventId(outcome + "-" + id);
+        event.setExchange("ex");
+        event.setRoutingKey("rk");
+        event.setEventType("lut.cn.c2cplatform.event.Events$OrderPaidEvent");
+        event.setPayload("{}");
+        event.setAttempts(0);
+        event.setCreatedAt(new Date());
+        return event;
+    }
+}
@@ -0,0 +1,97 @@
+package lut.cn.c2cplatform.mapper;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * decreaseStockBatch 的影响行数：库存不足的商品不更新，调用方据此回滚整个支付事务
+ * 在 H2（MySQL 模式）上执行 ProductMapper.xml 中的原始 SQL
+ */
+class ProductMapperStockTest {
+
+    private SqlSession session;
+    private ProductMapper productMapper;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        UnpooledDataSource dataSource = new UnpooledDataSource("org.h2.Driver",
+                "jdbc:h2:mem:stock;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS pms_product");
+            statement.execute("CREATE TABLE pms_product (id BIGINT PRIMARY KEY, user_id BIGINT, name VARCHAR(100), " +
+                    "description TEXT, price DECIMAL(10, 2), condition_level INT, location VARCHAR(100), " +
+                    "category VARCHAR(50), stock INT NOT NULL, status INT, created_at TIMESTAMP, updated_at TIMESTAMP)");
+            statement.execute("INSERT INTO pms_product (id, name, stock, status) VALUES (1, 'a', 5, 1), (2, 'b', 1, 1)");
+        }
+
+        Configuration configuration = new Configuration(
+                new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.setMapUnderscoreToCamelCase(true);
+        for (String mapper : new String[]{"UserMapper", "ProductMediaMapper", "ProductMapper"}) {
+            String resource = "mapper/" + mapper + ".xml";
+            try (InputStream in = Resources.getResourceAsStream(resource)) {
+                new XMLMapperBuilder(in, configuration, resource, configuration.getSqlFragments()).parse();
+            }
+        }
+        SqlSessionFactory factory = new SqlSessionFactoryBuilder().build(configuration);
+        session = factory.openSession(false);
+        productMapper = session.getMapper(ProductMapper.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.close();
+    }
+
+    @Test
+    void decreasesEveryRowWhenStockSuffices() {
+        assertThat(productMapper.decreaseStockBatch(quantities(1L, 5, 2L, 1))).isEqualTo(2);
+
+        assertThat(productMapper.selectById(1L).getStock()).isZero();
+        assertThat(productMapper.selectById(2L).getStock()).isZero();
+    }
+
+    @Test
+    void partialFailureReportsOnlyTheUpdatedRows() {
+        // 商品 2 库存不足：该行不更新，影响行数少于商品数；商品 1 已在同一语句中扣减，需要调用方回滚
+        assertThat(productMapper.decreaseStockBatch(quantities(1L, 2, 2L, 3))).isEqualTo(1);
+        assertThat(productMapper.selectById(1L).getStock()).isEqualTo(3);
+        assertThat(productMapper.selectById(2L).getStock()).isEqualTo(1);
+
+        session.rollback(true);
+        assertThat(productMapper.selectById(1L).getStock()).isEqualTo(5);
+    }
+
+    @Test
+    void nothingIsDecreasedWhenEveryRowIsShort() {
+        assertThat(productMapper.decreaseStockBatch(quantities(1L, 6, 2L, 2))).isZero();
+
+        assertThat(productMapper.selectById(1L).getStock()).isEqualTo(5);
+        assertThat(productMapper.selectById(2L).getStock()).isEqualTo(1);
+    }
+
+    private static Map<Long, Integer> quantities(Long firstId, int first, Long secondId, int second) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        quantities.put(firstId, first);
+        quantities.put(secondId, second);
+        return quantities;
+    }
+}
@@ -0,0 +1,264 @@
+package lut.cn.c2cplatform.service;
+
+import lut.cn.c2cplatform.document.ProductDocument;
+import lut.cn.c2cplatform.dto.SearchRequestDTO;
+import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 嵌入式 Lucene 引擎：写入到查询的往返、首次构建失败时保持不可用并重试、重启后按同步水位补写停机期间的变更
+ * ProductMapper 用 Mockito 模拟，索引写在临时目录
+ */
+class LuceneSearchEngineTest {
+
+    @TempDir
+    Path indexDir;
+
+    private final NavigableMap<Long, Product> database = new TreeMap<>();
+    private final AtomicBoolean databaseDown = new AtomicBoolean();
+    private final AtomicInteger chunkQueries = new AtomicInteger();
+    private final List<Long> updatedIds = new ArrayList<>();
+    private ProductMapper productMapper;
+    private LuceneSearchEngine engine;
+    private volatile LuceneSearchEngine building;
+    // 全量构建读取第一个分块时执行（模拟构建期间到达的商品事件）
+    private ThrowingConsumer<LuceneSearchEngine> onFirstChunk = e -> { };
+
+    @BeforeEach
+    void setUp() {
+        database.put(1L, product(1L, "Vintage camera", "film camera with lens", "数码", "120.00", 3));
+        database.put(2L, product(2L, "Road bike", "aluminium frame", "运动", "800.00", 1));
+        database.put(3L, product(3L, "Camera bag", "fits two lenses", "数码", "45.00", 0));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    @Test
+    void indexedProductsRoundTripThroughSearch() throws Exception {
+        engine = open();
+
+        // 售罄的 3 号不进索引；名称支持拼写误差，分类精确匹配
+        assertThat(ids(search("camera", null))).containsExactly(1L);
+        assertThat(ids(search("camrea", null))).containsExactly(1L);
+        assertThat(ids(search("数码", null))).containsExactly(1L);
+        assertThat(ids(search(null, "数码,运动"))).containsExactlyInAnyOrder(1L, 2L);
+
+        SearchRequestDTO cheap = request(null, null);
+        cheap.setMaxPrice(new BigDecimal("500"));
+        assertThat(ids(engine.search(cheap))).containsExactly(1L);
+
+        ProductDocument hit = search("bike", null).get(0);
+        assertThat(hit.getName()).isEqualTo("Road bike");
+        assertThat(hit.getPrice()).isEqualByComparingTo("800.00");
+        assertThat(hit.getCategory()).isEqualTo("运动");
+
+        // 补货后写入、售罄后删除、按ID删除，刷新后可见
+        engine.index(product(3L, "Camera bag", "fits two lenses", "数码", "45.00", 2));
+        engine.index(product(1L, "Vintage camera", "film camera with lens", "数码", "120.00", 0));
+        engine.delete(2L);
+        engine.refresh();
+        assertThat(ids(search("camera", null))).containsExactly(3L);
+        assertThat(ids(search(null, null))).containsExactly(3L);
+    }
+
+    @Test
+    void failedBuildKeepsTheEngineUnavailableUntilARetrySucceeds() throws Exception {
+        databaseDown.set(true);
+        engine = open(false);
+
+        await(() -> chunkQueries.get() >= 2);
+        assertThat(engine.isAvailable()).isFalse();
+
+        databaseDown.set(false);
+        await(engine::isAvailable);
+        assertThat(ids(search("camera", null))).containsExactly(1L);
+    }
+
+    @Test
+    void eventDuringRebuildDoesNotDuplicateTheProduct() throws Exception {
+        database.put(4L, product(4L, "Mountain bike", "front suspension", "运动", "650.00", 1));
+        // 4 号在第二个分块里；它的更新事件在构建读第一个分块时就写进了索引
+        onFirstChunk = building -> building.index(database.get(4L));
+
+        engine = open();
+
+        assertThat(ids(search("bike", null))).containsExactlyInAnyOrder(2L, 4L);
+        assertThat(ids(search(null, null))).containsExactlyInAnyOrder(1L, 2L, 4L);
+    }
+
+    @Test
+    void restartCatchesUpChangesMadeWhileDown() throws Exception {
+        LocalDateTime firstStart = LocalDateTime.now();
+        engine = open();
+        engine.close();
+        engine = null;
+
+        // 停机期间：1 号改名、2 号售罄、4 号新上架、5 号上架后又被删除
+        database.put(1L, product(1L, "Vintage rangefinder", "film camera with lens", "数码", "120.00", 3));
+        database.put(2L, product(2L, "Road bike", "aluminium frame", "运动", "800.00", 0));
+        database.put(4L, product(4L, "Mountain bike", "front suspension", "运动", "650.00", 1));
+        updatedIds.addAll(List.of(1L, 2L, 4L, 5L));
+        chunkQueries.set(0);
+
+        engine = open();
+
+        ArgumentCaptor<LocalDateTime> since = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(productMapper).selectIdsUpdatedSince(since.capture());
+        assertThat(since.getValue()).isBefore(firstStart);
+        // 已有索引只补写变更，不重新全量构建
+        assertThat(chunkQueries.get()).isZero();
+
+        assertThat(ids(search("rangefinder", null))).containsExactly(1L);
+        assertThat(ids(search("bike", null))).containsExactly(4L);
+        assertThat(ids(search(null, null))).containsExactlyInAnyOrder(1L, 4L);
+    }
+
+    @Test
+    void legacyIndexWithoutSyncMarkIsRebuilt() throws Exception {
+        engine = open();
+        engine.close();
+        engine = null;
+        // 模拟旧版本写出的索引：再提交一次不带水位的数据
+        try (Directory directory = FSDirectory.open(indexDir);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            writer.setLiveCommitData(Map.<String, String>of().entrySet());
+            writer.commit();
+        }
+        chunkQueries.set(0);
+
+        engine = open();
+
+        assertThat(chunkQueries.get()).isPositive();
+        verify(productMapper, never()).selectIdsUpdatedSince(any());
+        assertThat(ids(search(null, null))).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    private LuceneSearchEngine open() throws Exception {
+        return open(true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private LuceneSearchEngine open(boolean awaitReady) throws Exception {
+        productMapper = mock(ProductMapper.class);
+        when(productMapper.selectChunkAfterId(anyLong(), anyInt())).thenAnswer(inv -> {
+            chunkQueries.incrementAndGet();
+            if (databaseDown.get()) {
+                throw new IllegalStateException("Communications link failure");
+            }
+            long afterId = inv.getArgument(0);
+            int limit = inv.getArgument(1);
+            if (afterId == 0) {
+                onFirstChunk.accept(building);
+            }
+            return database.tailMap(afterId, false).values().stream().limit(limit).collect(Collectors.toList());
+        });
+        when(productMapper.selectIdsUpdatedSince(any())).thenAnswer(inv -> new ArrayList<>(updatedIds));
+        when(productMapper.selectAllByIds(anyCollection())).thenAnswer(inv -> {
+            List<Product> products = new ArrayList<>();
+            for (Long id : (Collection<Long>) inv.getArgument(0)) {
+                if (database.containsKey(id)) {
+                    products.add(database.get(id));
+                }
+            }
+            return products;
+        });
+
+        LuceneSearchEngine opened = new LuceneSearchEngine();
+        building = opened;
+        ReflectionTestUtils.setField(opened, "indexPath", indexDir.toString());
+        ReflectionTestUtils.setField(opened, "refreshIntervalMs", 10L);
+        ReflectionTestUtils.setField(opened, "commitIntervalMs", 50L);
+        ReflectionTestUtils.setField(opened, "rebuildChunkSize", 2);
+        ReflectionTestUtils.setField(opened, "productMapper", productMapper);
+        opened.open();
+        if (awaitReady) {
+            await(opened::isAvailable);
+            // 补写在开放查询之后完成时，等它刷新到 searcher
+            await(() -> (Boolean) ReflectionTestUtils.getField(opened, "synced"));
+        }
+        return opened;
+    }
+
+    private List<ProductDocument> search(String keyword, String category) throws Exception {
+        return engine.search(request(keyword, category));
+    }
+
+    private static SearchRequestDTO request(String keyword, String category) {
+        SearchRequestDTO request = new SearchRequestDTO();
+        request.setKeyword(keyword);
+        request.setCategory(category);
+        return request;
+    }
+
+    private static List<Long> ids(List<ProductDocument> hits) {
+        return hits.stream().map(ProductDocument::getProductId).collect(Collectors.toList());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static Product product(Long id, String name, String description, String category, String price, int stock) {
+        Product product = new Product();
+        product.setId(id);
+        product.setUserId(7L);
+        product.setName(name);
+        product.setDescription(description);
+        product.setCategory(category);
+        product.setLocation("兰州");
+        product.setConditionLevel(9);
+        product.setPrice(new BigDecimal(price));
+        product.setStatus(1);
+        product.setStock(stock);
+        product.setCreatedAt(LocalDateTime.of(2024, 3, 1, 12, 0).plusDays(id));
+        return product;
+    }
+
+    @FunctionalInterface
+    private interface ThrowingConsumer<T> {
+        void accept(T value) throws Exception;
+    }
+}
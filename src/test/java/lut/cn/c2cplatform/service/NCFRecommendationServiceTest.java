@@ -0,0 +1,164 @@
+package lut.cn.c2cplatform.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lut.cn.c2cplatform.util.LuaRedis;
+import lut.cn.c2cplatform.util.NcfModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * NCF 在线训练写回：各节点只把本批的增量累加到 Redis（HINCRBYFLOAT），
+ * 持有过期本地副本的节点不会覆盖其他节点的训练结果；旧格式的嵌入在新格式缺失时仍被读取
+ */
+class NCFRecommendationServiceTest {
+
+    private static final int DIM = 32;
+
+    private final LuaRedis redis = new LuaRedis();
+    private final Map<String, Object> legacyValues = new HashMap<>();
+
+    @Test
+    void concurrentNodesAccumulateInsteadOfOverwriting() throws Exception {
+        NCFRecommendationService nodeA = node();
+        NCFRecommendationService nodeB = node();
+        // 两个节点都在对方训练之前加载了同一个商品
+        nodeA.predictScore(1L, 10L);
+        nodeB.predictScore(2L, 10L);
+        float[] initial = local(nodeA).items().get(10L);
+
+        nodeA.trainOnInteraction(1L, 10L, "order");
+        nodeA.stopTrainer();
+        nodeB.trainOnInteraction(2L, 10L, "order");
+        nodeB.stopTrainer();
+
+        float[] afterA = local(nodeA).items().get(10L);
+        float[] afterB = local(nodeB).items().get(10L);
+        double[] stored = stored("ncf:embedding:v2:item:10");
+        for (int i = 0; i < DIM; i++) {
+            double deltaA = afterA[i] - initial[i];
+            double deltaB = afterB[i] - initial[i];
+            assertThat(deltaA).isNotZero();
+            assertThat(stored[i]).isCloseTo(initial[i] + deltaA + deltaB, within(1e-6));
+        }
+        assertThat(redis.ttl("ncf:embedding:v2:item:10")).isEqualTo(7 * 24 * 3600L);
+        assertThat(redis.exists("ncf:embedding:v2:user:1")).isTrue();
+        assertThat(redis.exists("ncf:embedding:v2:user:2")).isTrue();
+    }
+
+    @Test
+    void storedHashIsLoadedAndLegacyValueIsTheFallback() throws Exception {
+        double[] trained = new double[DIM];
+        Arrays.fill(trained, 0.25);
+        for (int i = 0; i < DIM; i++) {
+            redis.hset("ncf:embedding:v2:item:10", String.valueOf(i), "0.5");
+        }
+        legacyValues.put("ncf:embedding:item:10", new double[DIM]);
+        legacyValues.put("ncf:embedding:item:11", trained);
+
+        NCFRecommendationService node = node();
+        node.scoreBatch(1L, new long[]{10L, 11L, 12L});
+
+        assertThat(local(node).items().get(10L)).containsOnly(0.5f);
+        assertThat(local(node).items().get(11L)).containsOnly(0.25f);
+        assertThat(local(node).items().get(12L)).isNotNull();
+        node.stopTrainer();
+
+        // 第一次训练以旧格式的值为基准建立新格式
+        NCFRecommendationService trainer = node();
+        trainer.trainOnInteraction(1L, 11L, "order");
+        trainer.stopTrainer();
+        float[] local = local(trainer).items().get(11L);
+        double[] stored = stored("ncf:embedding:v2:item:11");
+        for (int i = 0; i < DIM; i++) {
+            assertThat(stored[i]).isCloseTo(local[i], within(1e-6));
+            assertThat(stored[i]).isNotEqualTo(0.25);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private NCFRecommendationService node() {
+        StringRedisTemplate stringTemplate = mock(StringRedisTemplate.class);
+        when(stringTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenAnswer(inv -> {
+            RedisScript<?> script = inv.getArgument(0);
+            Object[] args = Arrays.copyOfRange(inv.getArguments(), 2, inv.getArguments().length);
+            return redis.eval(script.getScriptAsString(), inv.getArgument(1), args);
+        });
+        // 流水线：记录 HGETALL 的 key，结果按顺序返回
+        List<String> hashReads = new ArrayList<>();
+        RedisOperations<String, String> operations = mock(RedisOperations.class);
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+        when(operations.opsForHash()).thenReturn(hashOps);
+        when(hashOps.entries(anyString())).thenAnswer(inv -> {
+            hashReads.add(inv.getArgument(0));
+            return null;
+        });
+        when(stringTemplate.executePipelined(any(SessionCallback.class))).thenAnswer(inv -> {
+            hashReads.clear();
+            SessionCallback<Object> callback = inv.getArgument(0);
+            callback.execute(operations);
+            List<Object> results = new ArrayList<>();
+            for (String key : hashReads) {
+                Map<String, String> hash = redis.hash(key);
+                results.add(hash != null ? new HashMap<>(hash) : Map.of());
+            }
+            return results;
+        });
+
+        RedisTemplate<String, Object> template = mock(RedisTemplate.class);
+        ValueOperations<String, Object> valueOps = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(valueOps);
+        when(valueOps.multiGet(anyList())).thenAnswer(inv -> {
+            List<Object> values = new ArrayList<>();
+            for (String key : (List<String>) inv.getArgument(0)) {
+                values.add(legacyValues.get(key));
+            }
+            return values;
+        });
+
+        NCFRecommendationService service = new NCFRecommendationService();
+        ReflectionTestUtils.setField(service, "redisTemplate", template);
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringTemplate);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "refreshSeconds", 300L);
+        ReflectionTestUtils.setField(service, "maxRows", 1000);
+        ReflectionTestUtils.setField(service, "queueCapacity", 100);
+        ReflectionTestUtils.setField(service, "batchSize", 256);
+        ReflectionTestUtils.setField(service, "flushIntervalMs", 10L);
+        ReflectionTestUtils.setField(service, "enqueueTimeoutMs", 5L);
+        service.startTrainer();
+        return service;
+    }
+
+    private static NcfModel local(NCFRecommendationService service) {
+        return (NcfModel) ReflectionTestUtils.getField(service, "model");
+    }
+
+    private double[] stored(String key) {
+        Map<String, String> hash = redis.hash(key);
+        assertThat(hash).hasSize(DIM);
+        double[] values = new double[DIM];
+        hash.forEach((field, value) -> values[Integer.parseInt(field)] = Double.parseDouble(value));
+        return values;
+    }
+}
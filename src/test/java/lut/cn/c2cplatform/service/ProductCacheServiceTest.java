@@ -0,0 +1,142 @@
+package lut.cn.c2cplatform.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lut.cn.c2cplatform.dto.ProductDTO;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 商品详情缓存：副本返回、回填与失效竞争、卖家资料变化后的失效
+ * Redis 用内存 Map 模拟，两段 Lua 脚本按语义在 Java 中执行
+ */
+class ProductCacheServiceTest {
+
+    private final Map<String, String> redis = new HashMap<>();
+    private final ProductMapper productMapper = mock(ProductMapper.class);
+    private ProductCacheService cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> values = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(values);
+        when(values.multiGet(anyList())).thenAnswer(inv -> {
+            List<String> result = new ArrayList<>();
+            for (Object key : (List<Object>) inv.getArgument(0)) {
+                result.add(redis.get((String) key));
+            }
+            return result;
+        });
+        when(template.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenAnswer(inv -> {
+            RedisScript<Long> script = inv.getArgument(0);
+            List<String> keys = inv.getArgument(1);
+            Object[] args = Arrays.copyOfRange(inv.getArguments(), 2, inv.getArguments().length);
+            if (script.getScriptAsString().contains("INCR")) {
+                for (int i = 0; i < keys.size(); i += 2) {
+                    redis.remove(keys.get(i));
+                    redis.merge(keys.get(i + 1), "1", (old, one) -> String.valueOf(Long.parseLong(old) + 1));
+                }
+                return (long) keys.size() / 2;
+            }
+            if (!redis.getOrDefault(keys.get(1), "0").equals(args[0])) {
+                return 0L;
+            }
+            redis.put(keys.get(0), (String) args[1]);
+            return 1L;
+        });
+
+        cache = new ProductCacheService();
+        ReflectionTestUtils.setField(cache, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(cache, "objectMapper", new ObjectMapper().findAndRegisterModules());
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "productMapper", productMapper);
+        ReflectionTestUtils.setField(cache, "l1MaxSize", 100L);
+        ReflectionTestUtils.setField(cache, "l1TtlSeconds", 60L);
+        ReflectionTestUtils.setField(cache, "l2TtlMinutes", 30L);
+        cache.init();
+    }
+
+    @Test
+    void returnsCopiesSoCallersCannotModifyTheCachedProduct() {
+        cache.get(1L, id -> product(id, "相机"));
+
+        ProductDTO first = cache.get(1L, id -> product(id, "unused"));
+        first.setName("被调用方修改");
+        first.getImageUrls().add("http://evil");
+
+        ProductDTO second = cache.get(1L, id -> product(id, "unused"));
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getName()).isEqualTo("相机");
+        assertThat(second.getImageUrls()).containsExactly("http://img/1.jpg");
+    }
+
+    @Test
+    void loadRacingAnInvalidateIsNotCached() {
+        // 加载读到旧数据后商品被修改并失效：旧结果只返回给这次调用，不进入任何一级缓存
+        ProductDTO stale = cache.get(1L, id -> {
+            ProductDTO old = product(id, "旧名称");
+            cache.invalidate(id);
+            return old;
+        });
+        assertThat(stale.getName()).isEqualTo("旧名称");
+        assertThat(redis).doesNotContainKey(ProductCacheService.PRODUCT_CACHE_PREFIX + 1);
+
+        AtomicInteger loads = new AtomicInteger();
+        ProductDTO fresh = cache.get(1L, id -> {
+            loads.incrementAndGet();
+            return product(id, "新名称");
+        });
+        assertThat(loads).hasValue(1);
+        assertThat(fresh.getName()).isEqualTo("新名称");
+        assertThat(redis).containsKey(ProductCacheService.PRODUCT_CACHE_PREFIX + 1);
+    }
+
+    @Test
+    void invalidateEvictsBothTiers() {
+        cache.get(1L, id -> product(id, "旧名称"));
+        cache.invalidate(1L);
+
+        assertThat(cache.get(1L, id -> product(id, "新名称")).getName()).isEqualTo("新名称");
+    }
+
+    @Test
+    void sellerProfileChangeInvalidatesTheSellersProducts() {
+        cache.get(1L, id -> product(id, "卖家旧昵称"));
+        cache.get(2L, id -> product(id, "卖家旧昵称"));
+        when(productMapper.selectIdsByUserId(7L)).thenReturn(List.of(1L, 2L));
+
+        cache.invalidateSeller(7L);
+
+        assertThat(cache.get(1L, id -> product(id, "卖家新昵称")).getName()).isEqualTo("卖家新昵称");
+        assertThat(cache.get(2L, id -> product(id, "卖家新昵称")).getName()).isEqualTo("卖家新昵称");
+    }
+
+    private static ProductDTO product(Long id, String name) {
+        ProductDTO dto = new ProductDTO();
+        dto.setId(id);
+        dto.setUserId(7L);
+        dto.setName(name);
+        dto.setImageUrls(new ArrayList<>(List.of("http://img/" + id + ".jpg")));
+        return dto;
+    }
+}
@@ -0,0 +1,185 @@
+package lut.cn.c2cplatform.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ErrorCause;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import co.elastic.clients.util.ObjectBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchCustomConversions;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.mapping.SimpleElasticsearchMappingContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 增量索引：变更合并、按数据库最新状态写入或删除、可重试失败退避后重写、bulk 切分
+ * ES 客户端用 Mockito 模拟，记录每个 bulk 请求的操作
+ */
+class ProductSearchIndexerTest {
+
+    private final Map<Long, Product> database = new HashMap<>();
+    private final Map<Long, Integer> failures = new HashMap<>();
+    private final List<List<String>> requests = new ArrayList<>();
+    private final ProductMapper productMapper = mock(ProductMapper.class);
+    private ProductSearchIndexer indexer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        when(productMapper.selectAllByIds(anyCollection())).thenAnswer(inv -> {
+            List<Product> products = new ArrayList<>();
+            for (Long id : (Collection<Long>) inv.getArgument(0)) {
+                if (database.containsKey(id)) {
+                    products.add(database.get(id));
+                }
+            }
+            return products;
+        });
+
+        ElasticsearchClient client = mock(ElasticsearchClient.class);
+        when(client.bulk(any(Function.class))).thenAnswer(inv -> {
+            Function<BulkRequest.Builder, ObjectBuilder<BulkRequest>> fn = inv.getArgument(0);
+            BulkRequest request = fn.apply(new BulkRequest.Builder()).build();
+            List<String> described = new ArrayList<>();
+            List<BulkResponseItem> items = new ArrayList<>();
+            for (BulkOperation operation : request.operations()) {
+                boolean delete = operation.isDelete();
+                String id = delete ? operation.delete().id() : operation.index().id();
+                described.add((delete ? "delete:" : "index:") + id);
+                int status = failures.getOrDefault(Long.parseLong(id), 200);
+                items.add(BulkResponseItem.of(i -> {
+                    i.operationType(delete ? OperationType.Delete : OperationType.Index).index("products").id(id).status(status);
+                    if (status != 200) {
+                        i.error(ErrorCause.of(e -> e.type("rejected").reason("status " + status)));
+                    }
+                    return i;
+                }));
+            }
+            requests.add(described);
+            return BulkResponse.of(r -> r.errors(!failures.isEmpty()).took(1).items(items));
+        });
+
+        ElasticsearchOperations operations = mock(ElasticsearchOperations.class);
+        // 与 Spring Data Elasticsearch 默认配置相同的转换器（BigDecimal 等简单类型按内置转换写入）
+        ElasticsearchCustomConversions conversions = new ElasticsearchCustomConversions(List.of());
+        SimpleElasticsearchMappingContext mappingContext = new SimpleElasticsearchMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingElasticsearchConverter converter = new MappingElasticsearchConverter(mappingContext);
+        converter.setConversions(conversions);
+        converter.afterPropertiesSet();
+        when(operations.getElasticsearchConverter()).thenReturn(converter);
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        indexer = new ProductSearchIndexer();
+        ReflectionTestUtils.setField(indexer, "productMapper", productMapper);
+        ReflectionTestUtils.setField(indexer, "elasticsearchClient", client);
+        ReflectionTestUtils.setField(indexer, "elasticsearchOperations", operations);
+        ReflectionTestUtils.setField(indexer, "alias", "products");
+        ReflectionTestUtils.setField(indexer, "searchEngine", "elasticsearch");
+        ReflectionTestUtils.setField(indexer, "bulkMaxDocs", 500);
+        ReflectionTestUtils.setField(indexer, "bulkMaxBytes", 5242880L);
+        ReflectionTestUtils.setField(indexer, "maxBackoffMs", 30000L);
+        ReflectionTestUtils.setField(indexer, "indexedDocuments", registry.counter("indexed"));
+        ReflectionTestUtils.setField(indexer, "deletedDocuments", registry.counter("deleted"));
+        ReflectionTestUtils.setField(indexer, "failedDocuments", registry.counter("failed"));
+    }
+
+    @Test
+    void repeatedChangesCollapseIntoOneWriteOfTheCurrentState() {
+        database.put(1L, product(1L, 1, 3));
+        database.put(2L, product(2L, 1, 0));
+        database.put(4L, product(4L, 0, 5));
+
+        for (long id : new long[]{1, 2, 1, 3, 4, 1}) {
+            indexer.enqueue(id);
+        }
+
+        assertThat(drain(0)).isZero();
+        // 在售有库存的写入；售罄、已删除、下架的从索引删除
+        assertThat(requests).containsExactly(List.of("index:1", "delete:2", "delete:3", "delete:4"));
+        verify(productMapper).selectAllByIds(List.of(1L, 2L, 3L, 4L));
+    }
+
+    @Test
+    void retryableFailuresStayPendingAndBackOff() {
+        database.put(1L, product(1L, 1, 3));
+        database.put(2L, product(2L, 1, 3));
+        database.put(3L, product(3L, 1, 3));
+        failures.put(1L, 429);
+        failures.put(2L, 503);
+        failures.put(3L, 400);
+        indexer.enqueueAll(List.of(1L, 2L, 3L));
+
+        assertThat(drain(0)).isEqualTo(500L);
+        assertThat(drain(500)).isEqualTo(1000L);
+        assertThat(drain(20000)).isEqualTo(30000L);
+
+        // ES 恢复后只重写可重试的商品；400 之类的拒绝记录后丢弃
+        failures.clear();
+        assertThat(drain(30000)).isZero();
+        assertThat(requests.get(requests.size() - 1)).containsExactly("index:1", "index:2");
+        assertThat(drain(0)).isZero();
+        assertThat(requests).hasSize(4);
+    }
+
+    @Test
+    void batchesAreSplitByDocumentCountAndBytes() {
+        for (long id = 1; id <= 5; id++) {
+            database.put(id, product(id, 1, 1));
+            indexer.enqueue(id);
+        }
+        ReflectionTestUtils.setField(indexer, "bulkMaxDocs", 2);
+
+        drain(0);
+        assertThat(requests).containsExactly(
+                List.of("index:1", "index:2"), List.of("index:3", "index:4"), List.of("index:5"));
+
+        // 字节数上限小于单个文档：每个请求仍至少带一个文档
+        requests.clear();
+        ReflectionTestUtils.setField(indexer, "bulkMaxDocs", 500);
+        ReflectionTestUtils.setField(indexer, "bulkMaxBytes", 1L);
+        indexer.enqueueAll(List.of(1L, 2L));
+        drain(0);
+        assertThat(requests).containsExactly(List.of("index:1"), List.of("index:2"));
+    }
+
+    private long drain(long backoffMs) {
+        Long next = ReflectionTestUtils.invokeMethod(indexer, "drainPending", backoffMs);
+        return next;
+    }
+
+    private static Product product(Long id, int status, int stock) {
+        Product product = new Product();
+        product.setId(id);
+        product.setUserId(7L);
+        product.setName("商品" + id);
+        product.setCategory("数码");
+        product.setPrice(new BigDecimal("9.90"));
+        product.setStatus(status);
+        product.setStock(stock);
+        return product;
+    }
+}
@@ -0,0 +1,57 @@
+package lut.cn.c2cplatform.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lut.cn.c2cplatform.document.ProductDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * 不部署 ES（search.engine=lucene）时：健康探测不 ping、始终不可用，搜索联想直接返回空列表，不发出任何 ES 请求
+ */
+class SearchSuggestServiceTest {
+
+    private final ElasticsearchClient elasticsearchClient = mock(ElasticsearchClient.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private SearchHealthProbe probe;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        probe.stopProbe();
+    }
+
+    @Test
+    void withoutElasticsearchSuggestDegradesToEmpty() {
+        probe = new SearchHealthProbe();
+        ReflectionTestUtils.setField(probe, "probeIntervalMs", 10L);
+        ReflectionTestUtils.setField(probe, "searchEngine", LuceneSearchEngine.NAME);
+        ReflectionTestUtils.setField(probe, "elasticsearchClient", elasticsearchClient);
+        ReflectionTestUtils.setField(probe, "meterRegistry", meterRegistry);
+        probe.startProbe();
+
+        ElasticsearchOperations operations = mock(ElasticsearchOperations.class);
+        when(operations.getIndexCoordinatesFor(ProductDocument.class)).thenReturn(IndexCoordinates.of("products"));
+        SearchSuggestService suggestService = new SearchSuggestService();
+        ReflectionTestUtils.setField(suggestService, "cacheSize", 100L);
+        ReflectionTestUtils.setField(suggestService, "cacheTtlSeconds", 60L);
+        ReflectionTestUtils.setField(suggestService, "maxSize", 10);
+        ReflectionTestUtils.setField(suggestService, "elasticsearchClient", elasticsearchClient);
+        ReflectionTestUtils.setField(suggestService, "elasticsearchOperations", operations);
+        ReflectionTestUtils.setField(suggestService, "searchHealthProbe", probe);
+        ReflectionTestUtils.setField(suggestService, "meterRegistry", meterRegistry);
+        suggestService.init();
+
+        assertThat(probe.isAvailable()).isFalse();
+        assertThat(suggestService.suggest("cam", 5)).isEmpty();
+        assertThat(meterRegistry.get("search.es.available").gauge().value()).isZero();
+        verifyNoInteractions(elasticsearchClient);
+    }
+}
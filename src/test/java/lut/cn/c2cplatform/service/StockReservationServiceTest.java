@@ -0,0 +1,243 @@
+package lut.cn.c2cplatform.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lut.cn.c2cplatform.entity.OrderItem;
+import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.mapper.OrderItemMapper;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import lut.cn.c2cplatform.util.LuaRedis;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 库存预占：预占/结算脚本原文在 luaj 中执行，验证不超卖、结算幂等、预占记录过期和 reserved 校准
+ */
+class StockReservationServiceTest {
+
+    private final LuaRedis redis = new LuaRedis();
+    private final Map<Long, Integer> databaseStock = new HashMap<>();
+    private final Map<Long, Integer> pendingQuantities = new HashMap<>();
+    private StockReservationService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenAnswer(inv -> {
+            RedisScript<?> script = inv.getArgument(0);
+            Object[] args = Arrays.copyOfRange(inv.getArguments(), 2, inv.getArguments().length);
+            return redis.eval(script.getScriptAsString(), inv.getArgument(1), args);
+        });
+        when(template.hasKey(anyString())).thenAnswer(inv -> redis.exists(inv.getArgument(0)));
+
+        RedisOperations<String, String> operations = mock(RedisOperations.class);
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+        SetOperations<String, String> setOps = mock(SetOperations.class);
+        when(operations.opsForHash()).thenReturn(hashOps);
+        when(operations.opsForSet()).thenReturn(setOps);
+        when(hashOps.putIfAbsent(anyString(), any(), any())).thenAnswer(inv ->
+                redis.hsetnx(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2)));
+        doAnswer(inv -> {
+            Map<Object, Object> fields = inv.getArgument(1);
+            fields.forEach((field, value) -> redis.hset(inv.getArgument(0), (String) field, (String) value));
+            return null;
+        }).when(hashOps).putAll(anyString(), anyMap());
+        when(operations.delete(anyString())).thenAnswer(inv -> {
+            redis.del(inv.getArgument(0));
+            return true;
+        });
+        when(template.executePipelined(any(SessionCallback.class))).thenAnswer(inv -> {
+            SessionCallback<Object> callback = inv.getArgument(0);
+            callback.execute(operations);
+            return List.of();
+        });
+
+        ProductMapper productMapper = mock(ProductMapper.class);
+        when(productMapper.selectAllByIds(anyCollection())).thenAnswer(inv -> {
+            List<Product> products = new ArrayList<>();
+            for (Long id : (Collection<Long>) inv.getArgument(0)) {
+                if (databaseStock.containsKey(id)) {
+                    Product product = new Product();
+                    product.setId(id);
+                    product.setStock(databaseStock.get(id));
+                    products.add(product);
+                }
+            }
+            return products;
+        });
+        OrderItemMapper orderItemMapper = mock(OrderItemMapper.class);
+        when(orderItemMapper.sumPendingQuantitiesByProductIds(anyCollection())).thenAnswer(inv -> {
+            List<OrderItem> items = new ArrayList<>();
+            for (Long id : (Collection<Long>) inv.getArgument(0)) {
+                if (pendingQuantities.containsKey(id)) {
+                    OrderItem item = new OrderItem();
+                    item.setProductId(id.intValue());
+                    item.setQuantity(pendingQuantities.get(id));
+                    items.add(item);
+                }
+            }
+            return items;
+        });
+
+        service = new StockReservationService();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(service, "productMapper", productMapper);
+        ReflectionTestUtils.setField(service, "orderItemMapper", orderItemMapper);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "mode", "redis");
+        ReflectionTestUtils.setField(service, "ttlSeconds", 1800L);
+        service.init();
+    }
+
+    @Test
+    void reservationsNeverExceedStock() {
+        databaseStock.put(1L, 5);
+
+        assertThat(service.reserve(1, Map.of(1L, 3)).success()).isTrue();
+        StockReservationService.Reservation rejected = service.reserve(2, Map.of(1L, 3));
+        assertThat(rejected.success()).isFalse();
+        assertThat(rejected.missing()).isFalse();
+        assertThat(rejected.productId()).isEqualTo(1L);
+        assertThat(rejected.available()).isEqualTo(2);
+        assertThat(service.reserve(3, Map.of(1L, 2)).success()).isTrue();
+
+        assertThat(redis.hget("stock:product:1", "reserved")).isEqualTo("5");
+        assertThat(service.reserve(4, Map.of(1L, 1)).success()).isFalse();
+    }
+
+    @Test
+    void multiProductReservationIsAllOrNothing() {
+        databaseStock.put(1L, 5);
+        databaseStock.put(2L, 1);
+
+        Map<Long, Integer> quantities = new HashMap<>();
+        quantities.put(1L, 2);
+        quantities.put(2L, 2);
+        StockReservationService.Reservation result = service.reserve(1, quantities);
+
+        assertThat(result.success()).isFalse();
+        assertThat(result.productId()).isEqualTo(2L);
+        assertThat(redis.hget("stock:product:1", "reserved")).isEqualTo("0");
+        assertThat(redis.exists("stock:reservation:1")).isFalse();
+    }
+
+    @Test
+    void missingProductIsReportedAsMissing() {
+        StockReservationService.Reservation result = service.reserve(1, Map.of(9L, 1));
+
+        assertThat(result.success()).isFalse();
+        assertThat(result.missing()).isTrue();
+        assertThat(result.productId()).isEqualTo(9L);
+    }
+
+    @Test
+    void repeatedReserveAndSettleAreIdempotent() {
+        databaseStock.put(1L, 5);
+
+        assertThat(service.reserve(1, Map.of(1L, 2)).success()).isTrue();
+        assertThat(service.reserve(1, Map.of(1L, 2)).success()).isTrue();
+        assertThat(redis.hget("stock:product:1", "reserved")).isEqualTo("2");
+
+        // 没有事务同步时结算立即执行；重复的支付回调、之后的取消都不能再次改动镜像
+        service.confirmAfterCommit(1, Map.of(1L, 2));
+        service.confirmAfterCommit(1, Map.of(1L, 2));
+        service.releaseAfterCommit(1, Map.of(1L, 2));
+
+        // 预占只释放一次，镜像 stock 只扣减一次实付数量
+        assertThat(redis.hget("stock:product:1", "reserved")).isEqualTo("0");
+        assertThat(redis.hget("stock:product:1", "stock")).isEqualTo("3");
+        assertThat(redis.hash("stock:reservation:1")).containsOnlyKeys("_settled");
+        assertThat(redis.ttl("stock:reservation:1")).isEqualTo(1800L);
+    }
+
+    @Test
+    void confirmWithoutReservationDeductsOnce() {
+        // 悲观锁路径下的订单没有预占记录，支付后镜像仍要跟随数据库扣减
+        databaseStock.put(1L, 5);
+        service.reserve(1, Map.of(1L, 1));
+
+        service.confirmAfterCommit(2, Map.of(1L, 2));
+        service.confirmAfterCommit(2, Map.of(1L, 2));
+
+        assertThat(redis.hget("stock:product:1", "stock")).isEqualTo("3");
+        assertThat(redis.hget("stock:product:1", "reserved")).isEqualTo("1");
+    }
+
+    @Test
+    void releaseFreesTheReservedQuantity() {
+        databaseStock.put(1L, 2);
+
+        assertThat(service.reserve(1, Map.of(1L, 2)).success()).isTrue();
+        assertThat(service.reserve(2, Map.of(1L, 1)).success()).isFalse();
+
+        service.releaseAfterCommit(1, Map.of(1L, 2));
+        service.releaseAfterCommit(1, Map.of(1L, 2));
+
+        assertThat(redis.hget("stock:product:1", "reserved")).isEqualTo("0");
+        assertThat(redis.hget("stock:product:1", "stock")).isEqualTo("2");
+        assertThat(service.reserve(2, Map.of(1L, 2)).success()).isTrue();
+    }
+
+    @Test
+    void reservationRecordOutlivesTheOrderButExpires() {
+        databaseStock.put(1L, 5);
+
+        service.reserve(1, Map.of(1L, 2));
+
+        assertThat(redis.hash("stock:reservation:1")).containsEntry("1", "2");
+        assertThat(redis.ttl("stock:reservation:1")).isEqualTo(1800L).isGreaterThan(15 * 60L);
+    }
+
+    @Test
+    void syncRebuildsReservedFromPendingOrders() {
+        databaseStock.put(1L, 5);
+        service.reserve(1, Map.of(1L, 3));
+        service.reserve(2, Map.of(1L, 1));
+
+        // 订单 1 已取消但结算丢失，只剩订单 2 待支付；卖家同时把库存改成 4
+        redis.del("stock:reservation:1");
+        pendingQuantities.put(1L, 1);
+        databaseStock.put(1L, 4);
+        service.refresh(1L);
+
+        assertThat(redis.hget("stock:product:1", "stock")).isEqualTo("4");
+        assertThat(redis.hget("stock:product:1", "reserved")).isEqualTo("1");
+        assertThat(service.reserve(3, Map.of(1L, 3)).success()).isTrue();
+    }
+
+    @Test
+    void newMirrorStartsFromPendingOrders() {
+        // Redis 丢失镜像后重新加载：已有的待支付订单仍占用库存
+        databaseStock.put(1L, 5);
+        pendingQuantities.put(1L, 4);
+
+        StockReservationService.Reservation result = service.reserve(1, Map.of(1L, 2));
+
+        assertThat(result.success()).isFalse();
+        assertThat(result.available()).isEqualTo(1);
+    }
+}
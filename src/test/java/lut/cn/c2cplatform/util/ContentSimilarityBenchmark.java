@@ -0,0 +1,217 @@
+package lut.cn.c2cplatform.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 内容相似度离线计算的基准测试工具
+ * 生成与 ContentBasedRecommendationService.extractTerms 结构一致的合成商品词项（类目/名称/描述/价格区间/成色/地区，
+ * 名称和描述词按 Zipf 分布抽样），分别测量倒排索引引擎的建索引与 Top-K 耗时；
+ * 原先基于 Map 的两两全量计算只对少量样本商品实测，再按 N 线性外推全量耗时；
+ * 超过 LEGACY_MAX_SIZE 的规模不再保留词项集合，旧实现耗时按上一次实测值二次外推。
+ *
+ * 运行：java -Xmx4g -cp target/test-classes:target/classes lut.cn.c2cplatform.util.ContentSimilarityBenchmark [sizes] [threads]
+ * 例如：... ContentSimilarityBenchmark 10000,100000,1000000 8
+ */
+public class ContentSimilarityBenchmark {
+
+    private static final int TOP_K = 15;
+    private static final int BLOCK_SIZE = 500;
+    private static final int MAX_POSTING_LENGTH = 1000;
+    private static final int LEGACY_SAMPLE = 20;
+    private static final int LEGACY_MAX_SIZE = 100000;
+
+    private static final int CATEGORIES = 40;
+    private static final int LOCATIONS = 30;
+    private static final int NAME_VOCABULARY = 20000;
+    private static final int DESC_VOCABULARY = 80000;
+    private static final String[] PRICE_BUCKETS = {"0-20", "20-50", "50-100", "100-200", "200-500", "500+"};
+
+    private static int lastLegacySize;
+    private static long lastLegacyMillis;
+
+    public static void main(String[] args) {
+        String sizesArg = args.length > 0 ? args[0] : "10000,100000,1000000";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("线程数: %d, Top-K: %d, 倒排表长度上限: %d%n", threads, TOP_K, MAX_POSTING_LENGTH);
+        System.out.printf("%-9s %10s %10s %12s %14s %18s%n",
+                "products", "build(ms)", "topK(ms)", "docs/s", "avgCandidates", "legacy est.(ms)");
+
+        for (String part : sizesArg.split(",")) {
+            run(Integer.parseInt(part.trim()), threads);
+        }
+    }
+
+    private static void run(int size, int threads) {
+        Random random = new Random(42);
+        ZipfSampler nameWords = new ZipfSampler(NAME_VOCABULARY, 1.05, random);
+        ZipfSampler descWords = new ZipfSampler(DESC_VOCABULARY, 1.0, random);
+
+        boolean measureLegacy = size <= LEGACY_MAX_SIZE;
+        List<Set<String>> documents = new ArrayList<>(measureLegacy ? size : 0);
+        double[] prices = new double[size];
+        int[] conditions = new int[size];
+
+        long buildStart = System.nanoTime();
+        long generationNanos = 0;
+        TfIdfSimilarityEngine engine = new TfIdfSimilarityEngine(size, MAX_POSTING_LENGTH);
+        for (int i = 0; i < size; i++) {
+            long generationStart = System.nanoTime();
+            Set<String> terms = new HashSet<>();
+            terms.add("cat:" + random.nextInt(CATEGORIES));
+            for (int w = 0; w < 4; w++) {
+                terms.add("name:" + nameWords.next());
+            }
+            for (int w = 0; w < 12; w++) {
+                terms.add("desc:" + descWords.next());
+            }
+            int bucket = random.nextInt(PRICE_BUCKETS.length);
+            terms.add("price:" + PRICE_BUCKETS[bucket]);
+            conditions[i] = 1 + random.nextInt(10);
+            terms.add("condition:" + conditions[i]);
+            terms.add("loc:" + random.nextInt(LOCATIONS));
+            prices[i] = 10 + random.nextDouble() * 990;
+            if (measureLegacy) {
+                documents.add(terms);
+            }
+            generationNanos += System.nanoTime() - generationStart;
+            engine.addDocument(i + 1, terms, prices[i], conditions[i]);
+        }
+        engine.build();
+        long buildMillis = (System.nanoTime() - buildStart - generationNanos) / 1_000_000;
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long[] resultEntries = {0};
+        long topKStart = System.nanoTime();
+        try {
+            engine.computeTopK(TOP_K, BLOCK_SIZE, pool, results -> {
+                for (TfIdfSimilarityEngine.SimilarityResult result : results) {
+                    resultEntries[0] += result.similarIds.length;
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        long topKMillis = (System.nanoTime() - topKStart) / 1_000_000;
+        double docsPerSecond = size * 1000.0 / Math.max(1, topKMillis);
+
+        long legacyEstimate;
+        if (measureLegacy) {
+            legacyEstimate = estimateLegacyMillis(documents, prices, conditions);
+            lastLegacySize = size;
+            lastLegacyMillis = legacyEstimate;
+        } else if (lastLegacySize > 0) {
+            double ratio = (double) size / lastLegacySize;
+            legacyEstimate = (long) (lastLegacyMillis * ratio * ratio);
+        } else {
+            legacyEstimate = -1;
+        }
+
+        System.out.printf("%-9d %10d %10d %12.0f %14.1f %18d%n",
+                size, buildMillis, topKMillis, docsPerSecond, (double) resultEntries[0] / size, legacyEstimate);
+        System.out.println("          " + engine.describe());
+    }
+
+    /**
+     * 原实现：Map<String, Double> 向量，每对商品做并集上的余弦，单线程 O(N²)。
+     * 对 LEGACY_SAMPLE 个商品实测与全部商品的比较，再乘以 N / LEGACY_SAMPLE 外推。
+     */
+    private static long estimateLegacyMillis(List<Set<String>> documents, double[] prices, int[] conditions) {
+        int size = documents.size();
+        Map<String, Integer> df = new HashMap<>();
+        for (Set<String> terms : documents) {
+            for (String term : terms) {
+                df.merge(term, 1, Integer::sum);
+            }
+        }
+        List<Map<String, Double>> vectors = new ArrayList<>(size);
+        for (Set<String> terms : documents) {
+            Map<String, Double> vector = new HashMap<>();
+            for (String term : terms) {
+                vector.put(term, (1.0 / terms.size()) * Math.log((double) size / df.get(term)));
+            }
+            vectors.add(vector);
+        }
+
+        int sample = Math.min(LEGACY_SAMPLE, size);
+        long start = System.nanoTime();
+        double sink = 0;
+        for (int i = 0; i < sample; i++) {
+            Map<Long, Double> similarities = new HashMap<>();
+            for (int j = 0; j < size; j++) {
+                if (i == j) continue;
+                double similarity = legacyCosine(vectors.get(i), vectors.get(j)) * 0.8
+                        + TfIdfSimilarityEngine.priceSimilarity(prices[i], prices[j]) * 0.2;
+                int conditionDiff = Math.abs(conditions[i] - conditions[j]);
+                similarity = similarity * 0.9 + (1.0 - conditionDiff / 10.0) * 0.1;
+                similarities.put((long) j, similarity);
+            }
+            sink += similarities.size();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink < 0) {
+            System.out.println(sink);
+        }
+        return (long) (elapsed / 1_000_000.0 * size / sample);
+    }
+
+    private static double legacyCosine(Map<String, Double> vec1, Map<String, Double> vec2) {
+        double dotProduct = 0.0;
+        double norm1 = 0.0;
+        double norm2 = 0.0;
+        Set<String> allTerms = new HashSet<>(vec1.keySet());
+        allTerms.addAll(vec2.keySet());
+        for (String term : allTerms) {
+            double val1 = vec1.getOrDefault(term, 0.0);
+            double val2 = vec2.getOrDefault(term, 0.0);
+            dotProduct += val1 * val2;
+            norm1 += val1 * val1;
+            norm2 += val2 * val2;
+        }
+        if (norm1 == 0 || norm2 == 0) return 0.0;
+        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+    }
+
+    /**
+     * Zipf 分布抽样（累积分布 + 二分查找）
+     */
+    private static final class ZipfSampler {
+        private final double[] cumulative;
+        private final Random random;
+
+        ZipfSampler(int vocabulary, double exponent, Random random) {
+            this.random = random;
+            this.cumulative = new double[vocabulary];
+            double sum = 0;
+            for (int rank = 1; rank <= vocabulary; rank++) {
+                sum += 1.0 / Math.pow(rank, exponent);
+                cumulative[rank - 1] = sum;
+            }
+            for (int i = 0; i < vocabulary; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int next() {
+            double u = random.nextDouble();
+            int lo = 0;
+            int hi = cumulative.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cumulative[mid] < u) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
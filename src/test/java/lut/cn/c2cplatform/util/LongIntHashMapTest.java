@@ -0,0 +1,41 @@
+package lut.cn.c2cplatform.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 删除后线性探测链保持完整：随机增删与 HashMap 对照
+ */
+class LongIntHashMapTest {
+
+    @Test
+    void removeKeepsProbeChainsIntact() {
+        LongIntHashMap map = new LongIntHashMap(16);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+
+        for (int step = 0; step < 200_000; step++) {
+            // key 范围小，制造大量冲突和探测链
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                Integer removed = expected.remove(key);
+                assertThat(map.remove(key)).isEqualTo(removed != null ? removed : 0);
+            } else {
+                int value = random.nextInt(1000) + 1;
+                expected.put(key, value);
+                map.put(key, value);
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (long key = -1000; key < 1000; key++) {
+            assertThat(map.containsKey(key)).isEqualTo(expected.containsKey(key));
+            assertThat(map.get(key)).isEqualTo(expected.getOrDefault(key, 0));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package lut.cn.c2cplatform.util;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 测试用的内存 Redis：用 luaj 执行脚本原文，redis.call 只实现脚本用到的 Hash 命令
+ * 返回值按 Redis 的转换规则还原：整数为 Long，table 为 List，nil/false 为 null
+ */
+public class LuaRedis {
+
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+    private final Map<String, Long> ttls = new HashMap<>();
+
+    public Object eval(String script, List<String> keys, Object... args) {
+        Globals globals = JsePlatform.standardGlobals();
+        globals.set("KEYS", table(keys.toArray()));
+        globals.set("ARGV", table(args));
+        LuaTable redis = new LuaTable();
+        redis.set("call", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs command) {
+                return dispatch(command);
+            }
+        });
+        globals.set("redis", redis);
+        return toJava(globals.load(script).call());
+    }
+
+    public Map<String, String> hash(String key) {
+        return hashes.get(key);
+    }
+
+    public String hget(String key, String field) {
+        Map<String, String> hash = hashes.get(key);
+        return hash != null ? hash.get(field) : null;
+    }
+
+    public void hset(String key, String field, String value) {
+        hashes.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(field, value);
+    }
+
+    public boolean hsetnx(String key, String field, String value) {
+        return hashes.computeIfAbsent(key, k -> new LinkedHashMap<>()).putIfAbsent(field, value) == null;
+    }
+
+    public boolean exists(String key) {
+        return hashes.containsKey(key);
+    }
+
+    public void del(String key) {
+        hashes.remove(key);
+        ttls.remove(key);
+    }
+
+    public Long ttl(String key) {
+        return ttls.get(key);
+    }
+
+    private LuaValue dispatch(Varargs command) {
+        String name = command.arg1().tojstring().toUpperCase();
+        String key = command.arg(2).tojstring();
+        Map<String, String> hash = hashes.get(key);
+        switch (name) {
+            case "EXISTS":
+                return LuaValue.valueOf(hash != null ? 1 : 0);
+            case "HEXISTS":
+                return LuaValue.valueOf(hash != null && hash.containsKey(command.arg(3).tojstring()) ? 1 : 0);
+            case "HGET": {
+                String value = hget(key, command.arg(3).tojstring());
+                return value != null ? LuaValue.valueOf(value) : LuaValue.FALSE;
+            }
+            case "HINCRBY": {
+                String field = command.arg(3).tojstring();
+                long value = Long.parseLong(hget(key, field) != null ? hget(key, field) : "0")
+                        + (long) command.arg(4).checkdouble();
+                hashes.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(field, Long.toString(value));
+                return LuaValue.valueOf(value);
+            }
+            case "HINCRBYFLOAT": {
+                String field = command.arg(3).tojstring();
+                double value = Double.parseDouble(hget(key, field) != null ? hget(key, field) : "0")
+                        + Double.parseDouble(command.arg(4).tojstring());
+                String formatted = BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+                hashes.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(field, formatted);
+                return LuaValue.valueOf(formatted);
+            }
+            case "HSET": {
+                int added = 0;
+                for (int i = 3; i < command.narg(); i += 2) {
+                    if (hashes.computeIfAbsent(key, k -> new LinkedHashMap<>())
+                            .put(command.arg(i).tojstring(), command.arg(i + 1).tojstring()) == null) {
+                        added++;
+                    }
+                }
+                return LuaValue.valueOf(added);
+            }
+            case "DEL":
+                del(key);
+                return LuaValue.valueOf(hash != null ? 1 : 0);
+            case "EXPIRE":
+                if (hash == null) {
+                    return LuaValue.valueOf(0);
+                }
+                ttls.put(key, (long) command.arg(3).checkdouble());
+                return LuaValue.valueOf(1);
+            default:
+                throw new UnsupportedOperationException("redis.call " + name);
+        }
+    }
+
+    private static LuaTable table(Object[] values) {
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < values.length; i++) {
+            table.set(i + 1, LuaValue.valueOf(values[i].toString()));
+        }
+        return table;
+    }
+
+    private static Object toJava(LuaValue value) {
+        if (value.istable()) {
+            List<Object> list = new ArrayList<>();
+            for (int i = 1; i <= value.length(); i++) {
+                list.add(toJava(value.get(i)));
+            }
+            return list;
+        }
+        if (value.type() == LuaValue.TNUMBER) {
+            return (long) value.todouble();
+        }
+        if (value.isnil() || value.isboolean() && !value.toboolean()) {
+            return null;
+        }
+        return value.tojstring();
+    }
+}
@@ -0,0 +1,170 @@
+package lut.cn.c2cplatform.util;
+
+import lut.cn.c2cplatform.dto.SearchRequestDTO;
+import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import lut.cn.c2cplatform.service.LuceneSearchEngine;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * 嵌入式 Lucene 搜索引擎的基准测试工具
+ * 用动态代理模拟 ProductMapper 生成合成商品，在临时目录中全量构建索引，
+ * 然后测量关键词、关键词 + 过滤、纯过滤三类查询的 p50/p99 延迟，以及增量写入到可见的耗时。
+ *
+ * 运行：java -cp target/test-classes:target/classes:... lut.cn.c2cplatform.util.LuceneSearchBenchmark [products] [iterations]
+ */
+public class LuceneSearchBenchmark {
+
+    private static final String[] CATEGORIES = {"电子产品", "图书", "服装", "家居", "运动"};
+    private static final String[] LOCATIONS = {"兰州", "北京", "上海", "广州", "成都"};
+    private static final String[] WORDS = {"phone", "laptop", "camera", "book", "jacket", "desk", "lamp",
+            "bike", "guitar", "watch", "headphones", "keyboard", "monitor", "chair", "shoes", "bag"};
+    private static final int PAGE_SIZE = 20;
+
+    private static int productCount;
+
+    public static void main(String[] args) throws Exception {
+        productCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Path dir = Files.createTempDirectory("lucene-bench");
+        LuceneSearchEngine engine = new LuceneSearchEngine();
+        inject(engine, "indexPath", dir.toString());
+        inject(engine, "refreshIntervalMs", 100L);
+        inject(engine, "commitIntervalMs", 10_000L);
+        inject(engine, "rebuildChunkSize", 1000);
+        inject(engine, "productMapper", mapperProxy());
+
+        try {
+            long start = System.nanoTime();
+            engine.open();
+            while (!engine.isAvailable()) {
+                Thread.sleep(10);
+            }
+            System.out.printf("全量构建 %d 个商品: %.1f s%n", productCount, (System.nanoTime() - start) / 1e9);
+            System.out.printf("%-16s %12s %12s%n", "query", "p50(ms)", "p99(ms)");
+
+            Random random = new Random(42);
+            run("keyword", iterations, () -> request(WORDS[random.nextInt(WORDS.length)], null, null), engine);
+            run("keyword+filter", iterations, () -> {
+                SearchRequestDTO request = request(WORDS[random.nextInt(WORDS.length)],
+                        CATEGORIES[random.nextInt(CATEGORIES.length)], LOCATIONS[random.nextInt(LOCATIONS.length)]);
+                request.setMinPrice(BigDecimal.valueOf(100));
+                request.setMaxPrice(BigDecimal.valueOf(2000));
+                return request;
+            }, engine);
+            run("filter-only", iterations, () -> request(null, CATEGORIES[random.nextInt(CATEGORIES.length)], null), engine);
+            run("deep-page", iterations, () -> {
+                SearchRequestDTO request = request(WORDS[random.nextInt(WORDS.length)], null, null);
+                request.setPage(50);
+                return request;
+            }, engine);
+
+            long[] visible = new long[Math.min(iterations, 200)];
+            for (int i = 0; i < visible.length; i++) {
+                long t = System.nanoTime();
+                engine.index(product(productCount + 1L + i));
+                engine.refresh();
+                visible[i] = System.nanoTime() - t;
+            }
+            Arrays.sort(visible);
+            System.out.printf("%-16s %12.2f %12.2f%n", "index+refresh",
+                    percentile(visible, 0.50) / 1e6, percentile(visible, 0.99) / 1e6);
+        } finally {
+            engine.close();
+            FileSystemUtils.deleteRecursively(dir);
+        }
+    }
+
+    private static void run(String name, int iterations, Supplier<SearchRequestDTO> requests,
+                            LuceneSearchEngine engine) throws Exception {
+        // 预热
+        for (int i = 0; i < Math.min(200, iterations); i++) {
+            engine.search(requests.get());
+        }
+        long[] latencies = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            SearchRequestDTO request = requests.get();
+            long start = System.nanoTime();
+            engine.search(request);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-16s %12.2f %12.2f%n", name,
+                percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6);
+    }
+
+    private static SearchRequestDTO request(String keyword, String category, String location) {
+        SearchRequestDTO request = new SearchRequestDTO();
+        request.setKeyword(keyword);
+        request.setCategory(category);
+        request.setLocation(location);
+        request.setPage(0);
+        request.setSize(PAGE_SIZE);
+        return request;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    }
+
+    private static void inject(Object target, String fieldName, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), fieldName);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    /**
+     * 只实现全量构建用到的 selectChunkAfterId：按主键顺序返回合成商品
+     */
+    private static ProductMapper mapperProxy() {
+        return (ProductMapper) Proxy.newProxyInstance(ProductMapper.class.getClassLoader(),
+                new Class<?>[]{ProductMapper.class}, (p, method, args) -> {
+                    if (!"selectChunkAfterId".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    long afterId = (Long) args[0];
+                    int limit = (Integer) args[1];
+                    List<Product> chunk = new ArrayList<>(limit);
+                    for (long id = afterId + 1; id <= Math.min(afterId + limit, productCount); id++) {
+                        chunk.add(product(id));
+                    }
+                    return chunk;
+                });
+    }
+
+    private static Product product(long id) {
+        Random random = new Random(id);
+        Product product = new Product();
+        product.setId(id);
+        product.setUserId(id % 1000 + 1);
+        product.setName(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + id);
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            description.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        product.setDescription(description.toString());
+        product.setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+        product.setLocation(LOCATIONS[random.nextInt(LOCATIONS.length)]);
+        product.setConditionLevel(1 + random.nextInt(5));
+        product.setPrice(BigDecimal.valueOf(1 + random.nextInt(5000)));
+        product.setStock(1);
+        product.setStatus(1);
+        product.setCreatedAt(LocalDateTime.now());
+        return product;
+    }
+}
@@ -0,0 +1,69 @@
+package lut.cn.c2cplatform.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 嵌入表行数上限：满了以后按 CLOCK 淘汰最近没有被读到的行，行数不再增长，未淘汰的行内容不变
+ */
+class NcfModelTest {
+
+    private static final int DIM = 4;
+
+    @Test
+    void tableStopsGrowingAtMaxRows() {
+        NcfModel.EmbeddingTable table = new NcfModel(DIM, 42L, 3000).items();
+
+        for (long id = 1; id <= 10_000; id++) {
+            table.put(id, row(id), 0L);
+        }
+
+        assertThat(table.size()).isEqualTo(3000);
+        assertThat(table.evictions()).isEqualTo(7000);
+        // 剩下的行仍按 id 找得到，内容没有被复用行的写入串改
+        int resident = 0;
+        for (long id = 1; id <= 10_000; id++) {
+            float[] values = table.get(id);
+            if (values != null) {
+                resident++;
+                assertThat(values[0]).isEqualTo((float) row(id)[0]);
+                assertThat(values[3]).isEqualTo((float) row(id)[3]);
+            }
+        }
+        assertThat(resident).isEqualTo(3000);
+        assertThat(table.get(10_000L)).isNotNull();
+    }
+
+    @Test
+    void recentlyReadRowsSurviveEviction() {
+        NcfModel model = new NcfModel(DIM, 42L, 4);
+        NcfModel.EmbeddingTable users = model.users();
+        NcfModel.EmbeddingTable items = model.items();
+        users.put(100L, row(100L), 0L);
+        for (long id = 1; id <= 4; id++) {
+            items.put(id, row(id), 0L);
+        }
+
+        // 第一次淘汰清掉所有访问位后换出 1 号；之后被打分读到的 2 号有访问位，下一次淘汰跳过它
+        items.put(5L, row(5L), 0L);
+        assertThat(items.contains(1L)).isFalse();
+        double[] scores = model.scoreBatch(100L, new long[]{2L});
+        assertThat(scores[0]).isNotNaN();
+        items.put(6L, row(6L), 0L);
+
+        assertThat(items.contains(2L)).isTrue();
+        assertThat(items.contains(3L)).isFalse();
+        assertThat(items.contains(4L)).isTrue();
+        assertThat(items.contains(6L)).isTrue();
+        assertThat(model.scoreBatch(100L, new long[]{1L, 2L})[0]).isNaN();
+    }
+
+    private static double[] row(long id) {
+        double[] values = new double[DIM];
+        Arrays.setAll(values, i -> id + i / 10.0);
+        return values;
+    }
+}
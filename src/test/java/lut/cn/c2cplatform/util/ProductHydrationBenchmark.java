@@ -0,0 +1,183 @@
+package lut.cn.c2cplatform.util;
+
+import lut.cn.c2cplatform.entity.Product;
+import lut.cn.c2cplatform.entity.ProductMedia;
+import lut.cn.c2cplatform.entity.User;
+import lut.cn.c2cplatform.mapper.ProductMapper;
+import lut.cn.c2cplatform.mapper.ProductMediaMapper;
+import lut.cn.c2cplatform.mapper.UserMapper;
+import lut.cn.c2cplatform.service.ProductService;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 商品列表填充（媒体 + 卖家）的基准测试工具
+ * 用动态代理模拟 Mapper，每次调用固定休眠一个数据库往返时间，
+ * 对比逐个查询（N+1）与批量查询两种方式下，不同页大小的查询次数和 p50/p99 延迟。
+ *
+ * 运行：java -cp target/test-classes:target/classes:... lut.cn.c2cplatform.util.ProductHydrationBenchmark [rttMicros] [iterations]
+ */
+public class ProductHydrationBenchmark {
+
+    private static final int[] PAGE_SIZES = {10, 50, 100, 200, 500};
+    private static final int MEDIA_PER_PRODUCT = 3;
+    private static final int SELLER_COUNT = 20;
+
+    private static final AtomicInteger queryCount = new AtomicInteger();
+    private static long rttNanos;
+    private static int pageSize;
+
+    public static void main(String[] args) {
+        rttNanos = (args.length > 0 ? Long.parseLong(args[0]) : 200L) * 1000L;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        ProductMapper productMapper = proxy(ProductMapper.class);
+        ProductMediaMapper mediaMapper = proxy(ProductMediaMapper.class);
+        UserMapper userMapper = proxy(UserMapper.class);
+
+        ProductService productService = new ProductService();
+        inject(productService, "productMapper", productMapper);
+        inject(productService, "productMediaMapper", mediaMapper);
+        inject(productService, "userMapper", userMapper);
+
+        System.out.printf("模拟数据库往返: %d us, 每组迭代: %d%n", rttNanos / 1000, iterations);
+        System.out.printf("%-8s %-8s %10s %12s %12s%n", "pageSize", "mode", "queries", "p50(ms)", "p99(ms)");
+
+        for (int size : PAGE_SIZES) {
+            pageSize = size;
+            run("N+1", iterations, () -> {
+                List<Product> products = productMapper.selectWithFilters(null, null, null, null, null, null);
+                for (Product product : products) {
+                    product.setMedia(mediaMapper.selectByProductId(product.getId()));
+                    productService.convertToDTO(product);
+                }
+            });
+            run("batch", iterations, () -> productService.convertToDTOList(
+                    productService.listProductsWithFilters(null, null, null, null, null, null)));
+        }
+    }
+
+    private static void run(String mode, int iterations, Runnable listing) {
+        // 预热
+        for (int i = 0; i < Math.min(20, iterations); i++) {
+            listing.run();
+        }
+        long[] latencies = new long[iterations];
+        int queries = 0;
+        for (int i = 0; i < iterations; i++) {
+            queryCount.set(0);
+            long start = System.nanoTime();
+            listing.run();
+            latencies[i] = System.nanoTime() - start;
+            queries = queryCount.get();
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-8d %-8s %10d %12.2f %12.2f%n", pageSize, mode, queries,
+                percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    }
+
+    private static void inject(Object target, String fieldName, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), fieldName);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> mapperType) {
+        return (T) Proxy.newProxyInstance(mapperType.getClassLoader(), new Class<?>[]{mapperType},
+                (p, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals": return p == args[0];
+                            case "hashCode": return System.identityHashCode(p);
+                            default: return mapperType.getSimpleName() + "Stub";
+                        }
+                    }
+                    queryCount.incrementAndGet();
+                    LockSupport.parkNanos(rttNanos);
+                    return answer(method.getName(), args);
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object answer(String method, Object[] args) {
+        switch (method) {
+            case "selectWithFilters": {
+                List<Product> products = new ArrayList<>(pageSize);
+                for (long id = 1; id <= pageSize; id++) {
+                    products.add(product(id));
+                }
+                return products;
+            }
+            case "selectByProductId":
+                return media((Long) args[0]);
+            case "selectByProductIds": {
+                List<ProductMedia> all = new ArrayList<>();
+                for (Long id : (List<Long>) args[0]) {
+                    all.addAll(media(id));
+                }
+                return all;
+            }
+            case "selectById":
+                return user((Long) args[0]);
+            case "selectByIds": {
+                List<User> users = new ArrayList<>();
+                for (Long id : (List<Long>) args[0]) {
+                    users.add(user(id));
+                }
+                return users;
+            }
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+
+    private static Product product(long id) {
+        Product product = new Product();
+        product.setId(id);
+        product.setUserId(id % SELLER_COUNT + 1);
+        product.setName("商品" + id);
+        product.setPrice(BigDecimal.valueOf(id));
+        product.setStock(1);
+        product.setStatus(1);
+        product.setCreatedAt(LocalDateTime.now());
+        return product;
+    }
+
+    private static List<ProductMedia> media(long productId) {
+        List<ProductMedia> list = new ArrayList<>(MEDIA_PER_PRODUCT);
+        for (int i = 0; i < MEDIA_PER_PRODUCT; i++) {
+            ProductMedia media = new ProductMedia();
+            Product ref = new Product();
+            ref.setId(productId);
+            media.setId(productId * MEDIA_PER_PRODUCT + i);
+            media.setProduct(ref);
+            media.setUrl("http://minio/mall/" + productId + "_" + i + ".jpg");
+            media.setMediaType(1);
+            media.setSortOrder(i);
+            list.add(media);
+        }
+        return list;
+    }
+
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("seller" + id);
+        return user;
+    }
+}
@@ -0,0 +1,154 @@
+package lut.cn.c2cplatform.util;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 搜索联想接口（GET /api/search/suggest）的压测工具，需要先启动应用并完成一次全量同步
+ *
+ * 每个并发用户模拟“边打字边请求”：按 Zipf 分布挑一个词（少数热门词占大部分输入），
+ * 从第一个字符开始逐个字符请求一次，两次按键之间停顿 thinkMillis。
+ * 热门词的前缀会反复出现，用于观察进程内 LRU 的命中效果；冷门词的前缀会落到 ES。
+ *
+ * 输出请求数、失败数、吞吐和 p50/p99/max 延迟（客户端测得，含 HTTP 往返）。
+ *
+ * 运行：java -cp target/test-classes:target/classes lut.cn.c2cplatform.util.SearchSuggestBenchmark [baseUrl] [users] [seconds] [thinkMillis]
+ */
+public class SearchSuggestBenchmark {
+
+    private static final String[] WORDS = {
+            "iphone", "ipad", "macbook", "airpods", "kindle", "switch", "playstation", "xbox",
+            "camera", "canon", "nikon", "sony", "keyboard", "mouse", "monitor", "headphones",
+            "bicycle", "skateboard", "guitar", "piano", "textbook", "novel", "calculator", "backpack",
+            "jacket", "sneakers", "watch", "lamp", "desk", "chair", "手机", "笔记本电脑", "耳机", "教材", "自行车"
+    };
+
+    public static void main(String[] args) throws InterruptedException {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        long thinkMillis = args.length > 3 ? Long.parseLong(args[3]) : 50L;
+
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+        double[] zipf = zipfCumulative(WORDS.length);
+
+        System.out.printf("目标: %s, 并发用户: %d, 时长: %d s, 按键间隔: %d ms%n", baseUrl, users, seconds, thinkMillis);
+
+        List<long[]> perUser = new ArrayList<>(users);
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(users);
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+
+        for (int u = 0; u < users; u++) {
+            long[] latencies = new long[1 << 16];
+            perUser.add(latencies);
+            Thread thread = new Thread(() -> {
+                int count = 0;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (System.nanoTime() < deadline) {
+                        String word = WORDS[pick(zipf, random.nextDouble())];
+                        for (int len = 1; len <= word.length() && System.nanoTime() < deadline; len++) {
+                            long begin = System.nanoTime();
+                            if (!request(client, baseUrl, word.substring(0, len))) {
+                                errors.incrementAndGet();
+                            }
+                            if (count < latencies.length - 1) {
+                                latencies[++count] = System.nanoTime() - begin;
+                            }
+                            if (thinkMillis > 0) {
+                                Thread.sleep(thinkMillis);
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    // 第 0 位记录本线程的样本数
+                    latencies[0] = count;
+                    done.countDown();
+                }
+            }, "suggest-user-" + u);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        int total = 0;
+        for (long[] latencies : perUser) {
+            total += (int) latencies[0];
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] latencies : perUser) {
+            int n = (int) latencies[0];
+            System.arraycopy(latencies, 1, all, offset, n);
+            offset += n;
+        }
+        Arrays.sort(all);
+
+        System.out.printf("%10s %8s %12s %10s %10s %10s%n", "requests", "errors", "req/s", "p50(ms)", "p99(ms)", "max(ms)");
+        System.out.printf("%10d %8d %12.1f %10.2f %10.2f %10.2f%n", total, errors.get(), total / (double) seconds,
+                percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6,
+                (all.length > 0 ? all[all.length - 1] : 0) / 1e6);
+    }
+
+    private static boolean request(HttpClient client, String baseUrl, String prefix) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/api/search/suggest?q=" + URLEncoder.encode(prefix, StandardCharsets.UTF_8)))
+                    .timeout(Duration.ofSeconds(2))
+                    .GET()
+                    .build();
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() == 200;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Zipf(s=1) 分布的累积概率，第 i 个词的权重为 1/(i+1)
+     */
+    private static double[] zipfCumulative(int n) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int pick(double[] cumulative, double r) {
+        int idx = Arrays.binarySearch(cumulative, r);
+        return Math.min(idx >= 0 ? idx : -idx - 1, cumulative.length - 1);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,178 @@
+package lut.cn.c2cplatform.util;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 热门商品下单争用的基准测试工具：N 个买家同时抢购同一件商品
+ * 与 ProductHydrationBenchmark 一样用固定休眠模拟网络往返，对比两种下单路径：
+ *
+ * - 悲观锁（stock.reservation.mode=db）：SELECT ... FOR UPDATE 之后插入订单、订单项并提交，
+ *   整个事务期间持有商品行锁（InnoDB 行锁用一把 ReentrantLock 模拟），买家逐个排队
+ * - Redis 预占（stock.reservation.mode=redis）：读商品、插入订单和订单项不加锁，预占是一次 Lua 调用，
+ *   Redis 单线程执行脚本（用 synchronized 模拟，脚本逻辑与 StockReservationService.RESERVE_SCRIPT 相同）
+ *
+ * 输出成功下单数（校验不超卖）、总耗时、吞吐和 p50/p99 延迟。
+ *
+ * 运行：java -cp target/test-classes:target/classes lut.cn.c2cplatform.util.StockReservationBenchmark [buyers] [stock] [rttMicros] [commitMicros]
+ */
+public class StockReservationBenchmark {
+
+    private static long rttNanos;
+    private static long commitNanos;
+
+    public static void main(String[] args) throws InterruptedException {
+        int buyers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int stock = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        rttNanos = (args.length > 2 ? Long.parseLong(args[2]) : 200L) * 1000L;
+        commitNanos = (args.length > 3 ? Long.parseLong(args[3]) : 1000L) * 1000L;
+
+        System.out.printf("买家: %d, 库存: %d, 往返: %d us, 提交: %d us%n",
+                buyers, stock, rttNanos / 1000, commitNanos / 1000);
+        System.out.printf("%-12s %8s %10s %12s %10s %10s%n", "mode", "orders", "total(ms)", "orders/s", "p50(ms)", "p99(ms)");
+
+        run("pessimistic", buyers, new PessimisticStore(stock));
+        run("redis", buyers, new ReservationStore(stock));
+    }
+
+    private static void run(String mode, int buyers, Store store) throws InterruptedException {
+        long[] latencies = new long[buyers];
+        AtomicInteger orders = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(buyers);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(buyers);
+
+        for (int i = 0; i < buyers; i++) {
+            int buyer = i;
+            Thread thread = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long begin = System.nanoTime();
+                if (store.placeOrder()) {
+                    orders.incrementAndGet();
+                }
+                latencies[buyer] = System.nanoTime() - begin;
+                done.countDown();
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long totalNanos = System.nanoTime() - begin;
+
+        if (orders.get() > store.initialStock()) {
+            throw new IllegalStateException(mode + " 超卖: " + orders.get() + " > " + store.initialStock());
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-12s %8d %10.1f %12.0f %10.2f %10.2f%n",
+                mode,
+                orders.get(),
+                totalNanos / 1e6,
+                buyers / (totalNanos / 1e9),
+                latencies[latencies.length / 2] / 1e6,
+                latencies[(int) (latencies.length * 0.99)] / 1e6);
+    }
+
+    private static void roundTrip() {
+        LockSupport.parkNanos(rttNanos);
+    }
+
+    private interface Store {
+        boolean placeOrder();
+
+        int initialStock();
+    }
+
+    /**
+     * 原路径：行锁覆盖 SELECT FOR UPDATE、两次 INSERT 和提交
+     */
+    private static final class PessimisticStore implements Store {
+        private final ReentrantLock rowLock = new ReentrantLock(true);
+        private final int initialStock;
+        private int reserved;
+
+        PessimisticStore(int stock) {
+            this.initialStock = stock;
+        }
+
+        @Override
+        public boolean placeOrder() {
+            rowLock.lock();
+            try {
+                roundTrip(); // SELECT ... FOR UPDATE
+                if (initialStock - reserved < 1) {
+                    roundTrip(); // ROLLBACK
+                    return false;
+                }
+                roundTrip(); // INSERT orders
+                roundTrip(); // INSERT order_items
+                reserved++;
+                LockSupport.parkNanos(rttNanos + commitNanos); // COMMIT，提交后才释放行锁
+                return true;
+            } finally {
+                rowLock.unlock();
+            }
+        }
+
+        @Override
+        public int initialStock() {
+            return initialStock;
+        }
+    }
+
+    /**
+     * 新路径：数据库操作不持有共享锁，只有 Lua 预占在 Redis 中串行执行；库存不足时事务回滚
+     */
+    private static final class ReservationStore implements Store {
+        private final int initialStock;
+        private int reserved;
+
+        ReservationStore(int stock) {
+            this.initialStock = stock;
+        }
+
+        @Override
+        public boolean placeOrder() {
+            roundTrip(); // SELECT 商品
+            roundTrip(); // INSERT orders
+            roundTrip(); // INSERT order_items
+            boolean ok = reserve(1);
+            if (!ok) {
+                roundTrip(); // ROLLBACK
+                return false;
+            }
+            LockSupport.parkNanos(rttNanos + commitNanos); // COMMIT
+            return true;
+        }
+
+        private boolean reserve(int quantity) {
+            LockSupport.parkNanos(rttNanos / 2);
+            boolean ok;
+            synchronized (this) {
+                ok = initialStock - reserved >= quantity;
+                if (ok) {
+                    reserved += quantity;
+                }
+            }
+            LockSupport.parkNanos(rttNanos / 2);
+            return ok;
+        }
+
+        @Override
+        public int initialStock() {
+            return initialStock;
+        }
+    }
+}